@@ -0,0 +1,112 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.scan.ArchiveScanner;
+import org.midiarchiver.core.scan.ArchiveStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures scanning an archive of {@value #DEVICES} devices with {@value #DAYS} days of
+ * {@value #SESSIONS_PER_DAY} sessions each with {@link ArchiveScanner} on pools of increasing
+ * parallelism, against a single threaded walk that parses each file with
+ * {@link MidiSystem#getSequence}. The files are in the page cache after the first iteration, so
+ * the scan is not limited by the storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveScanBenchmark {
+
+  private static final int DEVICES = 2;
+  private static final int DAYS = 10;
+  private static final int SESSIONS_PER_DAY = 50;
+  private static final int SESSION_EVENTS = 500;
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+  @Param({"1", "2", "4"})
+  public int parallelism;
+
+  private File dataDirectory;
+  private ForkJoinPool pool;
+  private ArchiveScanner archiveScanner;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = Files.createTempDirectory("archive-scan-benchmark").toFile();
+    RecordedMessages recordedMessages = RecordedMessages.load();
+    MidiEventBuffer events = new MidiEventBuffer();
+    recordedMessages.appendTo(events, SESSION_EVENTS);
+    long startTimeMillis = System.currentTimeMillis();
+    for (int device = 0; device < DEVICES; device++) {
+      FileSequenceWriter writer = new FileSequenceWriter(
+          dataDirectory.getPath() + File.separator + "device-" + device);
+      for (int day = 0; day < DAYS; day++) {
+        for (int session = 0; session < SESSIONS_PER_DAY; session++) {
+          events.setStartTimeMillis(startTimeMillis + day * DAY_MILLIS + session * 1000L);
+          writer.write(events);
+        }
+      }
+    }
+    pool = new ForkJoinPool(parallelism);
+    archiveScanner = new ArchiveScanner(dataDirectory.getPath(), pool);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    pool.shutdown();
+    try (Stream<Path> paths = Files.walk(dataDirectory.toPath())) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public long scan() throws IOException {
+    return archiveScanner.scan(ArchiveStatistics::new).getEventCount();
+  }
+
+  /**
+   * The walk the scanner replaces, which does not depend on the parallelism.
+   */
+  @Benchmark
+  public long parseSequences() throws IOException {
+    long eventCount = 0;
+    try (Stream<Path> paths = Files.walk(dataDirectory.toPath())) {
+      for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+        try {
+          eventCount += MidiSystem.getSequence(path.toFile()).getTracks()[0].size();
+        } catch (InvalidMidiDataException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+    return eventCount;
+  }
+}
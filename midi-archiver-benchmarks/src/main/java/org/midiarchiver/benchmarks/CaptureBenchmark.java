@@ -0,0 +1,157 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.Receiver;
+import org.midiarchiver.core.ArchivingReceiver;
+import org.midiarchiver.core.LiveEventRing;
+import org.midiarchiver.core.ReceiverActor;
+import org.midiarchiver.core.TestMidiDeviceInfo;
+import org.midiarchiver.core.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput and latency of {@link ArchivingReceiver#send} while recording. Each
+ * thread replays the recorded fixture in a loop, either to a receiver of its own, as when several
+ * devices are recorded, or to a receiver shared by all threads. All receivers share one timing
+ * wheel, as they do in the service.
+ *
+ * <p>The receivers hand their events to a streaming writer that discards them, so memory use does
+ * not grow with the length of a run and the write path is not measured.
+ *
+ * <p>In the actor mode each receiver is run by a {@link ReceiverActor} on a pool of
+ * {@value #ACTOR_THREADS} threads, and send only queues the message. Since senders wait when a
+ * mailbox is full, the throughput is the rate the actors sustain rather than the rate of queueing.
+ *
+ * <p>Each receiver publishes to a live event ring with the given number of subscribers, which never
+ * poll, as monitors that have fallen behind. Run with {@code -prof gc} to check that publishing
+ * does not allocate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+
+  private static final long STOP_RECORDING_DELAY_MILLIS = 4000;
+  private static final int ACTOR_THREADS = 2;
+
+  @State(Scope.Benchmark)
+  public static class SharedState {
+
+    @Param({"synchronized", "actor"})
+    String mode;
+
+    @Param({"0", "4"})
+    int liveSubscribers;
+
+    RecordedMessages recordedMessages;
+    TimingWheel timingWheel;
+    ExecutorService actorExecutor;
+    Receiver sharedReceiver;
+    // The receivers of all threads, which are closed before the pool that runs the actors.
+    final List<Receiver> receivers = new CopyOnWriteArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      recordedMessages = RecordedMessages.load();
+      timingWheel = new TimingWheel();
+      actorExecutor = Executors.newFixedThreadPool(ACTOR_THREADS);
+      sharedReceiver = newReceiver("shared");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+      for (Receiver receiver : receivers) {
+        receiver.close();
+      }
+      actorExecutor.shutdown();
+      timingWheel.close();
+    }
+
+    Receiver newReceiver(final String deviceName) {
+      LiveEventRing liveEventRing = new LiveEventRing(LiveEventRing.DEFAULT_CAPACITY);
+      for (int i = 0; i < liveSubscribers; i++) {
+        liveEventRing.subscribe();
+      }
+      ArchivingReceiver archivingReceiver = ArchivingReceiver.newBuilder(
+          new TestMidiDeviceInfo(deviceName, "benchmark", "", "1"), new DiscardingSequenceWriter(),
+          STOP_RECORDING_DELAY_MILLIS, timingWheel)
+          .setLiveEventRing(liveEventRing)
+          .build();
+      Receiver receiver = mode.equals("actor")
+          ? new ReceiverActor(archivingReceiver, actorExecutor) : archivingReceiver;
+      receivers.add(receiver);
+      return receiver;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class DeviceState {
+
+    Receiver receiver;
+    int messageIndex;
+
+    @Setup(Level.Trial)
+    public void setUp(final SharedState sharedState) {
+      receiver = sharedState.newReceiver(Thread.currentThread().getName());
+    }
+
+    /**
+     * Returns the index of the next message to send. The index wraps before it overflows, which
+     * makes timestamps jump backwards once in a very long run.
+     */
+    int nextMessageIndex() {
+      int index = messageIndex;
+      messageIndex = index == Integer.MAX_VALUE ? 0 : index + 1;
+      return index;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void sendSingleDevice(final SharedState sharedState, final DeviceState deviceState) {
+    send(sharedState, deviceState.receiver, deviceState.nextMessageIndex());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void sendFourDevices(final SharedState sharedState, final DeviceState deviceState) {
+    send(sharedState, deviceState.receiver, deviceState.nextMessageIndex());
+  }
+
+  /**
+   * Four transmitters sending to the same receiver, which contend for its lock, or for the tail of
+   * its mailbox in the actor mode.
+   */
+  @Benchmark
+  @Threads(4)
+  public void sendContendedDevice(final SharedState sharedState, final DeviceState deviceState) {
+    send(sharedState, sharedState.sharedReceiver, deviceState.nextMessageIndex());
+  }
+
+  private static void send(final SharedState sharedState, final Receiver receiver,
+                           final int messageIndex) {
+    RecordedMessages recordedMessages = sharedState.recordedMessages;
+    receiver.send(recordedMessages.getMessage(messageIndex),
+        recordedMessages.getTimestamp(messageIndex));
+  }
+}
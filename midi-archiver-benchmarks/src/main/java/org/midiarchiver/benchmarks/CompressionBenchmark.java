@@ -0,0 +1,93 @@
+package org.midiarchiver.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CPU cost of compressing sessions with {@link CompressedSequenceWriter} against
+ * encoding them as plain midi files, in memory so that the file system is not measured. A
+ * compressed session is encoded and then compressed, so compression adds the time of compress to
+ * that of encode. The compress benchmark also reports the compressed size and the compression
+ * ratio of each configuration as secondary results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+  /**
+   * The size of the last compressed session, which JMH reports with the time of compress.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class CompressedSize {
+
+    public long compressedBytes;
+    public double compressionRatio;
+  }
+
+  @Param({"20", "100", "10000"})
+  public int sessionEvents;
+
+  @Param({"1", "6", "9"})
+  public int level;
+
+  @Param({"true", "false"})
+  public boolean dictionary;
+
+  private final MidiEventBuffer events = new MidiEventBuffer();
+  private final OutputStream out = ByteStreams.nullOutputStream();
+  private byte[] midiFile;
+  private CompressedSequenceWriter compressedSequenceWriter;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    RecordedMessages.load().appendTo(events, sessionEvents);
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    MidiFileEncoder.write(events, encoded);
+    midiFile = encoded.toByteArray();
+    // The output directory is not used, since sessions are compressed to memory.
+    compressedSequenceWriter = new CompressedSequenceWriter("", null, level, dictionary);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    compressedSequenceWriter.close();
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    return MidiFileEncoder.write(events, out);
+  }
+
+  @Benchmark
+  public int compress(final CompressedSize compressedSize) throws IOException {
+    int length = compressedSequenceWriter.compress(midiFile, midiFile.length, out);
+    compressedSize.compressedBytes = length;
+    compressedSize.compressionRatio = (double) midiFile.length / length;
+    return length;
+  }
+}
@@ -0,0 +1,220 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDevice.Info;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+import org.midiarchiver.core.ArchivingReceiver;
+import org.midiarchiver.core.MidiArchiverService;
+import org.midiarchiver.core.MidiSystemService;
+import org.midiarchiver.core.TestMidiDeviceInfo;
+import org.midiarchiver.core.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link MidiArchiverService#checkForNewDevices()} with a number of simulated devices,
+ * both for the first check, which opens every device, and for later checks in which no devices
+ * changed. Opening a simulated device takes the given time, as opening a real device does. When
+ * a device starts archiving it replays the fixture to its receiver, and the recorded session is
+ * written when the service is closed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceCheckBenchmark {
+
+  private static final long STOP_RECORDING_DELAY_MILLIS = 60 * 1000;
+
+  @Param({"1", "8", "64"})
+  public int deviceCount;
+
+  @Param({"0", "1"})
+  public long openMillis;
+
+  private RecordedMessages recordedMessages;
+  private TimingWheel timingWheel;
+  private SimulatedMidiSystemService midiSystemService;
+  private MidiArchiverService initialCheckService;
+  private MidiArchiverService steadyStateService;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    recordedMessages = RecordedMessages.load();
+    timingWheel = new TimingWheel();
+    midiSystemService = new SimulatedMidiSystemService();
+    steadyStateService = newMidiArchiverService();
+    steadyStateService.checkForNewDevices();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    steadyStateService.close();
+    timingWheel.close();
+  }
+
+  @Setup(Level.Invocation)
+  public void createService() {
+    initialCheckService = newMidiArchiverService();
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeService() throws Exception {
+    initialCheckService.close();
+  }
+
+  @Benchmark
+  public void initialCheck() {
+    initialCheckService.checkForNewDevices();
+  }
+
+  @Benchmark
+  public void steadyStateCheck() {
+    steadyStateService.checkForNewDevices();
+  }
+
+  private MidiArchiverService newMidiArchiverService() {
+    return new MidiArchiverService(midiSystemService, deviceInfo -> new ArchivingReceiver(
+        deviceInfo, new DiscardingSequenceWriter(), STOP_RECORDING_DELAY_MILLIS, timingWheel));
+  }
+
+  private final class SimulatedMidiSystemService extends MidiSystemService {
+
+    private final Info[] deviceInfos = new Info[deviceCount];
+
+    SimulatedMidiSystemService() {
+      for (int i = 0; i < deviceInfos.length; i++) {
+        deviceInfos[i] = new TestMidiDeviceInfo("device" + i, "benchmark", "", "1");
+      }
+    }
+
+    @Override
+    public Info[] getMidiDeviceInfo() {
+      return deviceInfos.clone();
+    }
+
+    @Override
+    public MidiDevice getMidiDevice(final Info deviceInfo) {
+      return new SimulatedMidiDevice(deviceInfo);
+    }
+  }
+
+  /**
+   * An input device with a single transmitter.
+   */
+  private final class SimulatedMidiDevice implements MidiDevice {
+
+    private final Info deviceInfo;
+    private final SimulatedTransmitter transmitter = new SimulatedTransmitter();
+    private volatile boolean open;
+
+    SimulatedMidiDevice(final Info deviceInfo) {
+      this.deviceInfo = deviceInfo;
+    }
+
+    @Override
+    public Info getDeviceInfo() {
+      return deviceInfo;
+    }
+
+    @Override
+    public void open() {
+      if (openMillis > 0) {
+        try {
+          Thread.sleep(openMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      open = true;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+      transmitter.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+      return -1;
+    }
+
+    @Override
+    public int getMaxReceivers() {
+      return 0;
+    }
+
+    @Override
+    public int getMaxTransmitters() {
+      return 1;
+    }
+
+    @Override
+    public Receiver getReceiver() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Receiver> getReceivers() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Transmitter getTransmitter() {
+      return transmitter;
+    }
+
+    @Override
+    public List<Transmitter> getTransmitters() {
+      return Collections.singletonList(transmitter);
+    }
+  }
+
+  /**
+   * A transmitter that replays the fixture once a receiver is set.
+   */
+  private final class SimulatedTransmitter implements Transmitter {
+
+    private volatile Receiver receiver;
+
+    @Override
+    public void setReceiver(final Receiver receiver) {
+      this.receiver = receiver;
+      recordedMessages.replay(receiver, recordedMessages.size());
+    }
+
+    @Override
+    public Receiver getReceiver() {
+      return receiver;
+    }
+
+    @Override
+    public void close() {
+      receiver = null;
+    }
+  }
+}
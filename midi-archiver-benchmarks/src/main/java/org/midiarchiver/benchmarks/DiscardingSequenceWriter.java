@@ -0,0 +1,34 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.IOException;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.StreamingSequenceWriter;
+
+/**
+ * A {@link StreamingSequenceWriter} that only counts the events it is handed, so that benchmarks
+ * of the capture path do not measure the cost of writing.
+ */
+final class DiscardingSequenceWriter implements StreamingSequenceWriter {
+
+  // Written so that handing over the events is not optimized away.
+  private volatile long eventCount;
+
+  @Override
+  public void beginSession(long startTimeMillis) {
+  }
+
+  @Override
+  public void appendEvents(MidiEventBuffer events) {
+    eventCount += events.size();
+  }
+
+  @Override
+  public void endSession() {
+  }
+
+  @Override
+  public void write(Sequence sequence) throws IOException {
+    eventCount += sequence.getTracks()[0].size();
+  }
+}
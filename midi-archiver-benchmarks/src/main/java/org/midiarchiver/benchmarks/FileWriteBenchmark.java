@@ -0,0 +1,98 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FileSequenceWriter} writing sessions built from the fixture, from a few events
+ * to a session that is hours long. Sessions are written both from the event buffer and as a
+ * {@link Sequence}, and compressed by a {@link CompressedSequenceWriter}. Files are written to a
+ * temporary directory and are not forced to disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileWriteBenchmark {
+
+  @Param({"100", "10000", "1000000"})
+  public int sessionEvents;
+
+  private final MidiEventBuffer events = new MidiEventBuffer();
+  private Sequence sequence;
+  private File outputDirectory;
+  private FileSequenceWriter fileSequenceWriter;
+  private CompressedSequenceWriter compressedSequenceWriter;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InvalidMidiDataException {
+    RecordedMessages.load().appendTo(events, sessionEvents);
+    events.setStartTimeMillis(System.currentTimeMillis());
+    sequence = events.toSequence();
+    outputDirectory = Files.createTempDirectory("file-write-benchmark").toFile();
+  }
+
+  /**
+   * Creates a new writer for each iteration, since the writer remembers the files it wrote until
+   * they are flushed.
+   */
+  @Setup(Level.Iteration)
+  public void createWriter() {
+    fileSequenceWriter = new FileSequenceWriter(outputDirectory.getPath());
+    compressedSequenceWriter = new CompressedSequenceWriter(outputDirectory.getPath());
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeWriter() {
+    compressedSequenceWriter.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(outputDirectory.toPath())) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public void writeEvents() throws IOException {
+    fileSequenceWriter.write(events);
+  }
+
+  @Benchmark
+  public void writeCompressedEvents() throws IOException {
+    compressedSequenceWriter.write(events);
+  }
+
+  @Benchmark
+  public void writeSequence() throws IOException {
+    fileSequenceWriter.write(sequence);
+  }
+}
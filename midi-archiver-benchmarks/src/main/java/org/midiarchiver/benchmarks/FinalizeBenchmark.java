@@ -0,0 +1,164 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.ArchivingReceiver;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.TestMidiDeviceInfo;
+import org.midiarchiver.core.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of stopping a recording, which hands the recorded session to the writer, and
+ * of preparing for the next one. Before each invocation of the stop benchmarks a session of the
+ * given number of events is recorded by replaying the fixture.
+ *
+ * <p>The writers discard the session, either as the event buffer or, as writers that only
+ * implement {@link SequenceWriter#write(Sequence)} receive it, converted to a {@link Sequence}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FinalizeBenchmark {
+
+  private static final long STOP_RECORDING_DELAY_MILLIS = 60 * 1000;
+
+  /**
+   * A receiver with a timing wheel of its own and a writer that discards sessions.
+   */
+  public abstract static class ReceiverState {
+
+    RecordedMessages recordedMessages;
+    TimingWheel timingWheel;
+    ArchivingReceiver receiver;
+
+    @Setup(Level.Trial)
+    public void setUp(final Blackhole blackhole) throws IOException {
+      recordedMessages = RecordedMessages.load();
+      timingWheel = new TimingWheel();
+      receiver = new ArchivingReceiver(
+          new TestMidiDeviceInfo(getClass().getSimpleName(), "benchmark", "", "1"),
+          newSequenceWriter(blackhole), STOP_RECORDING_DELAY_MILLIS, timingWheel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+      receiver.close();
+      timingWheel.close();
+    }
+
+    abstract SequenceWriter newSequenceWriter(Blackhole blackhole);
+  }
+
+  /**
+   * A receiver that is recording a session when each invocation starts.
+   */
+  public abstract static class SessionState extends ReceiverState {
+
+    @Setup(Level.Invocation)
+    public void recordSession() {
+      recordedMessages.replay(receiver, getSessionEvents());
+    }
+
+    abstract int getSessionEvents();
+  }
+
+  @State(Scope.Thread)
+  public static class BufferSessionState extends SessionState {
+
+    @Param({"1000", "100000"})
+    public int sessionEvents;
+
+    @Override
+    int getSessionEvents() {
+      return sessionEvents;
+    }
+
+    @Override
+    SequenceWriter newSequenceWriter(final Blackhole blackhole) {
+      return new DiscardingBufferWriter(blackhole);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class SequenceSessionState extends SessionState {
+
+    @Param({"1000", "100000"})
+    public int sessionEvents;
+
+    @Override
+    int getSessionEvents() {
+      return sessionEvents;
+    }
+
+    @Override
+    SequenceWriter newSequenceWriter(final Blackhole blackhole) {
+      return blackhole::consume;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class IdleState extends ReceiverState {
+
+    @Override
+    SequenceWriter newSequenceWriter(final Blackhole blackhole) {
+      return new DiscardingBufferWriter(blackhole);
+    }
+  }
+
+  private static final class DiscardingBufferWriter implements SequenceWriter {
+
+    private final Blackhole blackhole;
+
+    DiscardingBufferWriter(final Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(Sequence sequence) {
+      blackhole.consume(sequence);
+    }
+
+    @Override
+    public void write(MidiEventBuffer events) {
+      blackhole.consume(events.size());
+    }
+  }
+
+  @Benchmark
+  public void stopRecording(final BufferSessionState state) {
+    state.receiver.close();
+  }
+
+  @Benchmark
+  public void stopRecordingAsSequence(final SequenceSessionState state) {
+    state.receiver.close();
+  }
+
+  /**
+   * Records a session of a single note and stops it, which includes the preparation needed before
+   * the next session can be recorded.
+   */
+  @Benchmark
+  public void recordSingleNoteSession(final IdleState state) {
+    state.recordedMessages.replay(state.receiver, state.recordedMessages.getFirstNoteOnIndex() + 1);
+    state.receiver.close();
+  }
+}
@@ -0,0 +1,137 @@
+package org.midiarchiver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.sound.midi.ShortMessage;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SessionSummary;
+import org.midiarchiver.core.catalog.CatalogEntry;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.midiarchiver.core.index.PhraseIndex;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures finding phrases in a {@link PhraseIndex} of {@value #YEARS} years of
+ * {@value #SESSIONS_PER_DAY} sessions a day of {@value #SESSION_NOTES} notes each. The melodies
+ * are random walks of small intervals, so a run of a scale is played in many sessions, while a
+ * motif with wide leaps is played in one session in a hundred. The number of n-grams and the size
+ * of the index are reported as secondary results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhraseIndexBenchmark {
+
+  private static final int YEARS = 3;
+  private static final int SESSIONS_PER_DAY = 10;
+  private static final int SESSION_NOTES = 400;
+  private static final long NOTE_INTERVAL_MICROS = 150000;
+  private static final int[] MOTIF = {60, 72, 55, 67, 50, 62};
+  private static final int[] SCALE = {60, 62, 64, 65, 67};
+  private static final int LIMIT = 100;
+
+  /**
+   * The size of the index, which JMH reports with the time of each benchmark. It is set by each
+   * benchmark call, since JMH clears the counters when an iteration starts.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class IndexSize {
+
+    public long gramCount;
+    public long byteCount;
+
+    void set(final PhraseIndexBenchmark benchmark) {
+      gramCount = benchmark.gramCount;
+      byteCount = benchmark.byteCount;
+    }
+  }
+
+  private File dataDirectory;
+  private SessionCatalog catalog;
+  private PhraseIndex phraseIndex;
+  private long gramCount;
+  private long byteCount;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = Files.createTempDirectory("phrase-index-benchmark").toFile();
+    catalog = new SessionCatalog(new File(dataDirectory, "sessions.catalog"));
+    phraseIndex = new PhraseIndex(new File(dataDirectory, "sessions.index"), catalog);
+    Random random = new Random(42);
+    MidiEventBuffer events = new MidiEventBuffer();
+    SessionSummary summary = new SessionSummary();
+    int sessionCount = YEARS * 365 * SESSIONS_PER_DAY;
+    for (int session = 0; session < sessionCount; session++) {
+      events.clear();
+      events.setStartTimeMillis(session * 60000L);
+      int key = 60;
+      int motifStart = session % 100 == 0 ? random.nextInt(SESSION_NOTES - MOTIF.length) : -1;
+      for (int i = 0; i < SESSION_NOTES; i++) {
+        if (motifStart >= 0 && i >= motifStart && i < motifStart + MOTIF.length) {
+          key = MOTIF[i - motifStart];
+        } else {
+          key = Math.max(36, Math.min(96, key + random.nextInt(7) - 3));
+        }
+        events.appendShortMessage(ShortMessage.NOTE_ON, key, 100, 3, i * NOTE_INTERVAL_MICROS);
+      }
+      summary.set(events);
+      CatalogEntry entry = catalog.add("device", summary, "session-" + session + ".mid", 0, 0);
+      phraseIndex.add(entry, summary);
+    }
+    gramCount = phraseIndex.getGramCount();
+    byteCount = phraseIndex.getByteCount();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    catalog.close();
+    try (Stream<Path> paths = Files.walk(dataDirectory.toPath())) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public int findRareMotif(final IndexSize indexSize) {
+    indexSize.set(this);
+    return phraseIndex.find(null, MOTIF, LIMIT).size();
+  }
+
+  /**
+   * A phrase that is played in many sessions, all of whose occurrences are returned.
+   */
+  @Benchmark
+  public int findCommonScale(final IndexSize indexSize) {
+    indexSize.set(this);
+    return phraseIndex.find(null, SCALE, Integer.MAX_VALUE).size();
+  }
+
+  @Benchmark
+  public int findCommonScaleFirstPage(final IndexSize indexSize) {
+    indexSize.set(this);
+    return phraseIndex.find(null, SCALE, LIMIT).size();
+  }
+}
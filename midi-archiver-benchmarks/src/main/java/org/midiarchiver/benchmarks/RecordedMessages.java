@@ -0,0 +1,137 @@
+package org.midiarchiver.benchmarks;
+
+import com.google.common.io.Resources;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.test.tools.CaptureReader;
+import org.midiarchiver.core.test.tools.DataInputTransmitter;
+
+/**
+ * The messages of the recordedMessages.dat fixture from the core tests, loaded once so that they
+ * can be replayed in a loop. Timestamps are relative to the first message, and each replay of the
+ * fixture is offset so that timestamps keep increasing.
+ *
+ * <p>A capture of real traffic recorded with the TestSampleRecorder can be used instead by setting
+ * the {@value #CAPTURE_PROPERTY} system property to its path.
+ */
+final class RecordedMessages {
+
+  private static final String RESOURCE_NAME = "recordedMessages.dat";
+  static final String CAPTURE_PROPERTY = "midiarchiver.capture";
+
+  /** The gap between the last message of one replay and the first message of the next. */
+  private static final long REPLAY_GAP_MICROS = 1000;
+
+  private final MidiMessage[] messages;
+  private final long[] timestamps;
+  private final long spanMicros;
+  private final int firstNoteOnIndex;
+
+  private RecordedMessages(final List<MidiMessage> messages, final List<Long> timestamps) {
+    this.messages = messages.toArray(new MidiMessage[messages.size()]);
+    this.timestamps = new long[timestamps.size()];
+    long firstTimestamp = timestamps.get(0);
+    for (int i = 0; i < this.timestamps.length; i++) {
+      this.timestamps[i] = timestamps.get(i) - firstTimestamp;
+    }
+    this.spanMicros = this.timestamps[this.timestamps.length - 1] + REPLAY_GAP_MICROS;
+    int noteOnIndex = 0;
+    while (noteOnIndex < this.messages.length && !isNoteOn(this.messages[noteOnIndex])) {
+      noteOnIndex++;
+    }
+    this.firstNoteOnIndex = noteOnIndex;
+  }
+
+  static RecordedMessages load() throws IOException {
+    final List<MidiMessage> messages = new ArrayList<>();
+    final List<Long> timestamps = new ArrayList<>();
+    Receiver receiver = new Receiver() {
+      @Override
+      public void send(MidiMessage message, long timeStamp) {
+        messages.add(message);
+        timestamps.add(timeStamp);
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    String capturePath = System.getProperty(CAPTURE_PROPERTY);
+    String source = capturePath != null ? capturePath : RESOURCE_NAME;
+    if (capturePath != null) {
+      try (CaptureReader captureReader = new CaptureReader(Paths.get(capturePath))) {
+        captureReader.replay(receiver);
+      }
+    } else {
+      DataInputTransmitter transmitter = new DataInputTransmitter(
+          new DataInputStream(Resources.getResource(RESOURCE_NAME).openStream()));
+      try {
+        transmitter.setReceiver(receiver);
+      } finally {
+        transmitter.close();
+      }
+    }
+    if (messages.isEmpty()) {
+      throw new IOException(source + " contains no messages");
+    }
+    RecordedMessages recordedMessages = new RecordedMessages(messages, timestamps);
+    if (recordedMessages.firstNoteOnIndex == messages.size()) {
+      throw new IOException(source + " contains no notes, so it would not be recorded");
+    }
+    return recordedMessages;
+  }
+
+  int size() {
+    return messages.length;
+  }
+
+  /**
+   * Returns the index of the first note on message, which starts a recording.
+   */
+  int getFirstNoteOnIndex() {
+    return firstNoteOnIndex;
+  }
+
+  MidiMessage getMessage(int index) {
+    return messages[index % messages.length];
+  }
+
+  /**
+   * Returns the timestamp of the message at the index, where indexes beyond the size of the
+   * fixture refer to later replays of it.
+   */
+  long getTimestamp(int index) {
+    return (index / messages.length) * spanMicros + timestamps[index % messages.length];
+  }
+
+  /**
+   * Sends the messages of the fixture to the receiver until the given number of messages have been
+   * sent.
+   */
+  void replay(final Receiver receiver, final int messageCount) {
+    for (int i = 0; i < messageCount; i++) {
+      receiver.send(getMessage(i), getTimestamp(i));
+    }
+  }
+
+  /**
+   * Appends the messages of the fixture to the buffer until it holds the given number of events.
+   */
+  void appendTo(final MidiEventBuffer events, final int eventCount) {
+    for (int i = 0; i < eventCount; i++) {
+      events.append(getMessage(i), getTimestamp(i));
+    }
+  }
+
+  private static boolean isNoteOn(final MidiMessage message) {
+    return message instanceof ShortMessage
+        && ((ShortMessage) message).getCommand() == ShortMessage.NOTE_ON;
+  }
+}
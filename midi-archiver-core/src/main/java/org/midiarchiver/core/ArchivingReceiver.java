@@ -1,29 +1,54 @@
 package org.midiarchiver.core;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
-import javax.sound.midi.InvalidMidiDataException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiMessage;
-import javax.sound.midi.MidiSystem;
-import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
-import javax.sound.midi.Sequence;
-import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
-import javax.sound.midi.Track;
 import javax.sound.midi.Transmitter;
+import org.midiarchiver.core.filter.MessageFilter;
+import org.midiarchiver.core.metrics.DeviceMetrics;
+import org.midiarchiver.core.trace.MessageReceivedEvent;
+import org.midiarchiver.core.trace.RecordingStartedEvent;
+import org.midiarchiver.core.trace.SessionSwapEvent;
+import org.midiarchiver.core.trace.StopRecordingEvent;
+import org.midiarchiver.core.trace.TimerExtendedEvent;
+import org.midiarchiver.core.trace.TraceEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A {@link Receiver} that archives midi data. When a note is played on the device this receiver
- * starts recording to a sequencer. If no notes are played for a set amount of time the recorded
- * sequence will be written to the provided {@link SequenceWriter}. A new recording will start when
- * the next note is played.
+ * starts recording to a {@link MidiEventBuffer}. If no notes are played for a set amount of time the
+ * recorded events will be written to the provided {@link SequenceWriter}. A new recording will start
+ * when the next note is played.
+ *
+ * <p>The event buffers are allocated once and reused for every recording, so recording a message
+ * does not allocate and no sequencer needs to be prepared between recordings. If the writer is a
+ * {@link StreamingSequenceWriter} the events are handed over in fixed size chunks while recording,
+ * so the buffer does not grow with the length of the session. The chunks are written on the same
+ * executor as the sessions, so the recording thread never waits for the writer.
+ *
+ * <p>Sessions are double buffered. When a recording stops, the session is swapped for a cleared
+ * spare and is written on the io executor of the {@link TimingWheel}, outside the lock that
+ * {@link #send} takes. A note played while the previous session is being written starts a new
+ * recording without waiting, and a slow write does not delay the timeouts of other devices.
+ *
+ * <p>With a {@link PreRollBuffer} the messages received shortly before a recording starts are
+ * kept and recorded at the start of the session.
+ *
+ * <p>Receiving messages and the stages of a session emit the events of the
+ * {@link org.midiarchiver.core.trace} package, which cost a check of a flag unless a flight
+ * recording is running.
  */
 public class ArchivingReceiver implements Receiver {
 
@@ -31,53 +56,253 @@ public class ArchivingReceiver implements Receiver {
 
   private static final int NOTE_ON_STOP_RECORDING_DELAY_MILLIS = 20 * 1000;
 
-  private final class StopRecordingTimerTask extends TimerTask {
+  /** The number of events buffered before they are handed to a streaming writer. */
+  private static final int STREAMING_CHUNK_SIZE = 1024;
+
+  /** The number of chunks that can be waiting to be written to a streaming writer. */
+  private static final int STREAMING_CHUNK_COUNT = 4;
+
+  /**
+   * The events of a session and whether the session has been started on the streaming writer,
+   * which is guarded by the writer lock.
+   */
+  private static final class Session {
+    private MidiEventBuffer events = new MidiEventBuffer();
+    private boolean writerSessionStarted;
+    private long durationMillis;
+    private int journalSlot = SessionJournal.NO_SLOT;
+    // The timestamp before which the events are in finished segments, guarded by the writer lock.
+    private long durableMicros;
+  }
+
+  /**
+   * Events of a session that are appended to the streaming writer on the write executor. The
+   * recording thread swaps its buffer with the empty buffer of a free chunk, so handing over a
+   * chunk does not copy the events.
+   */
+  private final class Chunk implements Runnable {
+    private MidiEventBuffer events = new MidiEventBuffer();
+    private Session session;
+
     @Override
     public void run() {
-      stopRecording();
+      writerLock.lock();
+      try {
+        beginWriterSession(session, events);
+        streamingSequenceWriter.appendEvents(events);
+        markDurable(session);
+      } catch (IOException e) {
+        logger.warn("An error occurred while writing events of device " + getDeviceName(), e);
+      } finally {
+        writerLock.unlock();
+        events.clear();
+        session = null;
+        freeChunks.add(this);
+      }
     }
   }
 
   private final MidiDevice.Info deviceInfo;
+  private final String deviceId;
   private final long stopRecordingDelayMillis;
   private final SequenceWriter sequenceWriter;
-  private final Timer stopRecordingTimer;
+  private final StreamingSequenceWriter streamingSequenceWriter;
+  private final TimingWheel.Timeout stopRecordingTimeout;
+  private final Executor writeExecutor;
+  private final Runnable stopRecordingTask = () -> stopRecording(true);
+  private final SessionJournal journal;
+  // Commits each slot of the journal once the session in it has been durably written.
+  private final Runnable[] journalCommits = new Runnable[SessionJournal.SLOT_COUNT];
+  private final DeviceMetrics deviceMetrics;
+  private final MessageFilter messageFilter;
+  private final PreRollBuffer preRollBuffer;
+  private final LiveEventRing liveEventRing;
+
+  // Orders the calls to the writer, which are made on the write executor, or on the thread that
+  // closes the receiver once the executor no longer accepts work.
+  private final ReentrantLock writerLock = new ReentrantLock();
+  private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(STREAMING_CHUNK_COUNT);
+  private final AtomicReference<Session> spareSession = new AtomicReference<>(new Session());
+  // The number of stopped sessions that have been handed to the write executor but not written.
+  private final AtomicInteger pendingWriteCount = new AtomicInteger();
+  private final Object writesFinished = new Object();
+
+  // Runs the task of the timeout, which is the wheel thread unless the receiver is run by an actor.
+  private volatile Executor timeoutExecutor = MoreExecutors.directExecutor();
+  private Session session = new Session();
+  private boolean recording;
+  private long recordingStartTimestamp;
+  private long lastEventTimestamp;
+
+  /**
+   * Builds an {@link ArchivingReceiver} with the optional collaborators that are set on it. Each
+   * collaborator that is not set is not used.
+   */
+  public static final class Builder {
+    private final MidiDevice.Info deviceInfo;
+    private final SequenceWriter sequenceWriter;
+    private final long stopRecordingDelayMillis;
+    private final TimingWheel timingWheel;
+    private SessionJournal journal;
+    private DeviceMetrics deviceMetrics;
+    private MessageFilter messageFilter;
+    private PreRollBuffer preRollBuffer;
+    private LiveEventRing liveEventRing;
 
-  private Sequencer sequencer;
-  private Receiver receiver;
-  private Long recordingStartTimestamp;
-  private TimerTask stopRecordingTimerTask;
+    private Builder(final MidiDevice.Info deviceInfo, final SequenceWriter sequenceWriter,
+                    final long stopRecordingDelayMillis, final TimingWheel timingWheel) {
+      this.deviceInfo = Preconditions.checkNotNull(deviceInfo);
+      this.sequenceWriter = Preconditions.checkNotNull(sequenceWriter);
+      this.stopRecordingDelayMillis = stopRecordingDelayMillis;
+      this.timingWheel = Preconditions.checkNotNull(timingWheel);
+    }
+
+    /**
+     * @param journal the journal that recorded events are appended to until they are written, or
+     *                null if events should not be journaled. The journal is closed with the
+     *                receiver.
+     */
+    public Builder setJournal(final SessionJournal journal) {
+      this.journal = journal;
+      return this;
+    }
+
+    /**
+     * @param deviceMetrics the metrics that the latency of each message and the duration of each
+     *                      session are recorded in, or null if metrics should not be recorded
+     */
+    public Builder setDeviceMetrics(final DeviceMetrics deviceMetrics) {
+      this.deviceMetrics = deviceMetrics;
+      return this;
+    }
+
+    /**
+     * @param messageFilter the filter that decides which messages are recorded, or null if all
+     *                      messages should be recorded. It is reset when a recording starts.
+     */
+    public Builder setMessageFilter(final MessageFilter messageFilter) {
+      this.messageFilter = messageFilter;
+      return this;
+    }
+
+    /**
+     * @param preRollBuffer the buffer that keeps the messages received while not recording, which
+     *                      are prepended to the next session, or null if they should be discarded
+     */
+    public Builder setPreRollBuffer(final PreRollBuffer preRollBuffer) {
+      this.preRollBuffer = preRollBuffer;
+      return this;
+    }
+
+    /**
+     * @param liveEventRing the ring that every accepted message is published to for live
+     *                      monitoring, whether or not it is recorded, or null if messages should
+     *                      not be published
+     */
+    public Builder setLiveEventRing(final LiveEventRing liveEventRing) {
+      this.liveEventRing = liveEventRing;
+      return this;
+    }
+
+    public ArchivingReceiver build() {
+      return new ArchivingReceiver(this);
+    }
+  }
 
+  /**
+   * @param timingWheel the wheel, usually shared by all receivers, that runs the timeout that stops
+   *                    recording, and whose io executor writes the stopped sessions
+   */
   public ArchivingReceiver(final MidiDevice.Info deviceInfo, final SequenceWriter sequenceWriter,
-                           final long stopRecordingDelayMillis) {
-    this(deviceInfo, sequenceWriter, stopRecordingDelayMillis, new Timer());
+                           final long stopRecordingDelayMillis, final TimingWheel timingWheel) {
+    this(newBuilder(deviceInfo, sequenceWriter, stopRecordingDelayMillis, timingWheel));
+  }
+
+  private ArchivingReceiver(final Builder builder) {
+    this.deviceInfo = builder.deviceInfo;
+    this.deviceId = MidiSystemService.createDeviceId(deviceInfo);
+    this.sequenceWriter = builder.sequenceWriter;
+    this.streamingSequenceWriter = sequenceWriter instanceof StreamingSequenceWriter
+        ? (StreamingSequenceWriter) sequenceWriter : null;
+    this.stopRecordingDelayMillis = builder.stopRecordingDelayMillis;
+    this.stopRecordingTimeout =
+        builder.timingWheel.newTimeout(() -> timeoutExecutor.execute(stopRecordingTask));
+    this.writeExecutor = Preconditions.checkNotNull(builder.timingWheel.getIoExecutor());
+    SessionJournal journal = builder.journal;
+    this.journal = journal;
+    for (int i = 0; i < journalCommits.length; i++) {
+      int slot = i;
+      journalCommits[i] = () -> journal.commit(slot);
+    }
+    this.deviceMetrics = builder.deviceMetrics;
+    this.messageFilter = builder.messageFilter;
+    this.preRollBuffer = builder.preRollBuffer;
+    this.liveEventRing = builder.liveEventRing;
+    if (streamingSequenceWriter != null) {
+      for (int i = 0; i < STREAMING_CHUNK_COUNT; i++) {
+        freeChunks.add(new Chunk());
+      }
+    }
   }
 
-  @VisibleForTesting
-  ArchivingReceiver(final MidiDevice.Info deviceInfo, final SequenceWriter sequenceWriter,
-                    final long stopRecordingDelayMillis, final Timer stopRecordingTimer) {
-    this.deviceInfo = Preconditions.checkNotNull(deviceInfo);
-    this.sequenceWriter = Preconditions.checkNotNull(sequenceWriter);
-    this.stopRecordingDelayMillis = stopRecordingDelayMillis;
-    this.stopRecordingTimer = Preconditions.checkNotNull(stopRecordingTimer);
-    this.sequencer = prepareAndOpenNewSequencer();
+  /**
+   * Returns a builder for a receiver with optional collaborators, such as a journal or metrics.
+   *
+   * @param timingWheel the wheel, usually shared by all receivers, that runs the timeout that stops
+   *                    recording, and whose io executor writes the stopped sessions
+   */
+  public static Builder newBuilder(final MidiDevice.Info deviceInfo,
+                                   final SequenceWriter sequenceWriter,
+                                   final long stopRecordingDelayMillis,
+                                   final TimingWheel timingWheel) {
+    return new Builder(deviceInfo, sequenceWriter, stopRecordingDelayMillis, timingWheel);
   }
 
   /**
    * Handles a message sent from the {@link Transmitter} midi device.
    */
   @Override
-  public synchronized void send(MidiMessage message, long timeStamp) {
+  public void send(MidiMessage message, long timeStamp) {
+    MessageReceivedEvent event = TraceEvents.newMessageReceivedEvent();
+    if (event != null) {
+      event.begin();
+    }
+    if (deviceMetrics == null) {
+      synchronized (this) {
+        record(message, timeStamp);
+      }
+    } else {
+      // The time spent waiting for the lock shows contention with other transmitters, the timeout
+      // and the writer.
+      long startNanos = System.nanoTime();
+      long lockedNanos;
+      synchronized (this) {
+        lockedNanos = System.nanoTime();
+        record(message, timeStamp);
+      }
+      deviceMetrics.recordSend(startNanos, lockedNanos, System.nanoTime());
+    }
+    if (event != null) {
+      event.commit(deviceId, message.getStatus());
+    }
+  }
+
+  private void record(MidiMessage message, long timeStamp) {
     if(timeStamp < 0) {
       timeStamp = System.nanoTime() / 1000;
     }
+    if (messageFilter != null && !messageFilter.accept(message, timeStamp)) {
+      return;
+    }
+    if (liveEventRing != null) {
+      liveEventRing.publish(message, timeStamp);
+    }
     if (message instanceof ShortMessage) {
       ShortMessage shortMessage = (ShortMessage) message;
       switch (shortMessage.getCommand()) {
         case ShortMessage.NOTE_ON:
-          if (sequencer == null || receiver == null || !sequencer.isRecording()) {
-            startRecording();
-            recordingStartTimestamp = timeStamp;
+          if (!recording) {
+            startRecording(timeStamp);
           }
           extendStopRecordingTimer(NOTE_ON_STOP_RECORDING_DELAY_MILLIS);
           break;
@@ -87,87 +312,283 @@ public class ArchivingReceiver implements Receiver {
       }
     }
 
-    if (sequencer != null && sequencer.isRecording()) {
-      receiver.send(message, timeStamp - recordingStartTimestamp);
+    if (recording) {
+      MidiEventBuffer events = session.events;
+      lastEventTimestamp = timeStamp;
+      events.append(message, timeStamp - recordingStartTimestamp);
+      if (journal != null) {
+        journal.append(events, events.size() - 1);
+      }
+      if (streamingSequenceWriter != null && events.size() >= STREAMING_CHUNK_SIZE) {
+        handOverChunk();
+      }
+    } else if (preRollBuffer != null) {
+      preRollBuffer.add(message, timeStamp);
     }
   }
 
   /**
-   * Closes and released devices. If a recording is in progress it will be stoped and the recorded
-   * data will be archived.
+   * Closes the receiver. If a recording is in progress it will be stopped and the recorded data
+   * will be archived. Sessions that are still being written by another thread are waited for,
+   * and then the writer is closed.
    */
   @Override
-  public synchronized void close() {
-    stopRecordingTimer.cancel();
-    stopRecording();
-    if (sequencer != null) {
-      if (sequencer.isOpen()) {
-        sequencer.close();
+  public void close() {
+    stopRecordingTimeout.cancel();
+    stopRecording(false);
+    awaitWrites();
+    writerLock.lock();
+    try {
+      sequenceWriter.close();
+    } catch (IOException e) {
+      logger.warn("An error occurred while closing the writer of device " + getDeviceName(), e);
+    } finally {
+      writerLock.unlock();
+    }
+    synchronized (this) {
+      if (journal != null) {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          logger.warn("An error occurred while closing the journal of device " + getDeviceName(),
+              e);
+        }
       }
-      sequencer = null;
     }
   }
 
+  /**
+   * Sets the executor that the timeout that stops recording is handed to by the timing wheel.
+   */
+  void setTimeoutExecutor(final Executor timeoutExecutor) {
+    this.timeoutExecutor = Preconditions.checkNotNull(timeoutExecutor);
+  }
+
   private void extendStopRecordingTimer(long newStopRecordingDelayMillis) {
-    if (stopRecordingTimerTask != null) {
-      stopRecordingTimerTask.cancel();
+    TimerExtendedEvent event = TraceEvents.newTimerExtendedEvent();
+    if (event != null) {
+      event.begin();
+    }
+    stopRecordingTimeout.reset(newStopRecordingDelayMillis);
+    if (event != null) {
+      event.commit(deviceId, newStopRecordingDelayMillis);
+    }
+  }
+
+  private void startRecording(long timeStamp) {
+    RecordingStartedEvent event = TraceEvents.newRecordingStartedEvent();
+    if (event != null) {
+      event.begin();
+    }
+    MidiEventBuffer events = session.events;
+    events.clear();
+    recordingStartTimestamp =
+        preRollBuffer != null ? preRollBuffer.drainTo(events, timeStamp) : timeStamp;
+    // The session starts with the earliest pre-roll message, not with the note.
+    events.setStartTimeMillis(
+        System.currentTimeMillis() - (timeStamp - recordingStartTimestamp) / 1000);
+    recording = true;
+    if (messageFilter != null) {
+      messageFilter.reset();
+    }
+    if (journal != null) {
+      session.journalSlot = journal.begin(events.getStartTimeMillis());
+      for (int i = 0; i < events.size(); i++) {
+        journal.append(events, i);
+      }
+    }
+    logger.info(getDeviceName() + " - Recording started");
+    if (event != null) {
+      event.commit(deviceId, events.size());
     }
-    stopRecordingTimerTask = new StopRecordingTimerTask();
-    stopRecordingTimer.schedule(stopRecordingTimerTask, newStopRecordingDelayMillis);
   }
 
   /**
-   * Prepares and opens a new sequencer. This should be done in advance because if the sequencer is
-   * prepared while processing a midi message it will cause recording issues on raspberry pi
-   * devices.
+   * Hands the buffered events to the write executor, which appends them to the streaming writer,
+   * so that the buffer does not grow with the length of the session. The session is started on the
+   * writer with its first chunk. If all chunks are still waiting to be written the events stay in
+   * the buffer until the next chunk.
    */
-  private static Sequencer prepareAndOpenNewSequencer() {
-    try {
-      Sequencer sequencer = MidiSystem.getSequencer();
-      sequencer.open();
+  private void handOverChunk() {
+    Chunk chunk = freeChunks.poll();
+    if (chunk == null) {
+      return;
+    }
+    MidiEventBuffer events = session.events;
+    chunk.events.setStartTimeMillis(events.getStartTimeMillis());
+    session.events = chunk.events;
+    chunk.events = events;
+    chunk.session = session;
+    execute(chunk);
+  }
 
-      Sequence seq = new Sequence(Sequence.PPQ, 480);
-      Track currentTrack = seq.createTrack();
-      sequencer.setSequence(seq);
-      sequencer.setTickPosition(0);
-      sequencer.recordEnable(currentTrack, -1);
-      return sequencer;
-    } catch (MidiUnavailableException | InvalidMidiDataException e) {
-      logger.error("Unexpected exception while opening midi sequencer");
-      throw new RuntimeException(e);
+  /**
+   * Stops the recording and hands the session to the write executor.
+   *
+   * @param timedOut whether the timeout stops the recording, in which case it is only stopped if
+   *                 the timeout is still due
+   */
+  private void stopRecording(final boolean timedOut) {
+    StopRecordingEvent event = TraceEvents.newStopRecordingEvent();
+    if (event != null) {
+      event.begin();
+    }
+    Session stoppedSession = swapSession(timedOut);
+    if (stoppedSession == null) {
+      return;
+    }
+    // Writing the session clears it and makes it the spare.
+    int eventCount = stoppedSession.events.size();
+    long durationMillis = stoppedSession.durationMillis;
+    Runnable writeTask = () -> {
+      writerLock.lock();
+      try {
+        writeSession(stoppedSession);
+      } finally {
+        writerLock.unlock();
+        writeFinished();
+      }
+    };
+    execute(writeTask);
+    if (event != null) {
+      event.commit(deviceId, eventCount, durationMillis);
     }
   }
 
-  private synchronized void startRecording() {
+  /**
+   * Runs writer work on the write executor, which runs it in order after the chunks and sessions
+   * handed to it before.
+   */
+  private void execute(final Runnable task) {
     try {
-      receiver = sequencer.getReceiver();
-      sequencer.startRecording();
-      logger.info(getDeviceName() + " - Recording started");
-    } catch (MidiUnavailableException e) {
-      logger.warn("An error occurred while starting recording on device " + getDeviceName(), e);
+      writeExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // The wheel has been closed, so there is no other thread to write on.
+      task.run();
+    }
+  }
+
+  /**
+   * Replaces the session being recorded with the spare session. The stopped session is counted as
+   * pending until it is written.
+   *
+   * @param timedOut whether the timeout stops the recording. When an actor runs the receiver, a
+   *                 note may have reset the timeout after it expired and before its task ran, in
+   *                 which case the timeout is armed again and the recording goes on.
+   * @return the session that was being recorded, or null if the receiver was not recording
+   */
+  private synchronized Session swapSession(final boolean timedOut) {
+    if (!recording || (timedOut && stopRecordingTimeout.isArmed())) {
+      return null;
+    }
+    SessionSwapEvent event = TraceEvents.newSessionSwapEvent();
+    if (event != null) {
+      event.begin();
+    }
+    recording = false;
+    logger.info(getDeviceName() + " - Recording stopped");
+    session.durationMillis = (lastEventTimestamp - recordingStartTimestamp) / 1000;
+    if (deviceMetrics != null) {
+      deviceMetrics.recordSession(session.durationMillis);
     }
+    pendingWriteCount.incrementAndGet();
+    Session stoppedSession = session;
+    Session spare = spareSession.getAndSet(null);
+    // Without a spare the previous session is still being written, which is the only case where a
+    // session is allocated.
+    session = spare != null ? spare : new Session();
+    if (event != null) {
+      event.commit(deviceId, spare != null);
+    }
+    return stoppedSession;
   }
 
-  private synchronized void stopRecording() {
+  /**
+   * Writes the session. Its journal slot is committed once the session has been durably written,
+   * so a session that fails to write is recovered from the journal when the archiver restarts.
+   */
+  private void writeSession(final Session stoppedSession) {
+    Runnable journalCommit = stoppedSession.journalSlot != SessionJournal.NO_SLOT
+        ? journalCommits[stoppedSession.journalSlot] : null;
     try {
-      logger.info(getDeviceName() + " - Recording stopped");
-      if (receiver != null) {
-        receiver.close();
-        receiver = null;
-      }
-      if (sequencer != null) {
-        if (sequencer.isRecording()) {
-          sequencer.stopRecording();
-          sequenceWriter.write(sequencer.getSequence());
-        }
-        if(sequencer.isOpen()) {
-          sequencer.close();
+      if (streamingSequenceWriter != null) {
+        beginWriterSession(stoppedSession, stoppedSession.events);
+        streamingSequenceWriter.appendEvents(stoppedSession.events);
+        // Ending the session forces its segments to storage.
+        streamingSequenceWriter.endSession();
+        if (journalCommit != null) {
+          journalCommit.run();
         }
-        sequencer = prepareAndOpenNewSequencer();
+      } else if (journalCommit != null) {
+        sequenceWriter.write(stoppedSession.events, journalCommit);
+      } else {
+        sequenceWriter.write(stoppedSession.events);
       }
-      recordingStartTimestamp = null;
     } catch (IOException e) {
       logger.warn("An error occurred while stopping recording on device " + getDeviceName(), e);
+    } finally {
+      stoppedSession.events.clear();
+      stoppedSession.writerSessionStarted = false;
+      stoppedSession.journalSlot = SessionJournal.NO_SLOT;
+      stoppedSession.durableMicros = 0;
+      spareSession.compareAndSet(null, stoppedSession);
+    }
+  }
+
+  /**
+   * Marks the events of the session in segments that the streaming writer has finished as durable
+   * in the journal, so that they are not written again if the session is recovered.
+   */
+  private void markDurable(final Session writerSession) {
+    long durableMicros = streamingSequenceWriter.getDurableMicros();
+    if (writerSession.journalSlot != SessionJournal.NO_SLOT
+        && durableMicros > writerSession.durableMicros) {
+      writerSession.durableMicros = durableMicros;
+      journal.markDurable(writerSession.journalSlot, durableMicros);
+    }
+  }
+
+  private void writeFinished() {
+    if (pendingWriteCount.decrementAndGet() == 0) {
+      synchronized (writesFinished) {
+        writesFinished.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits for the sessions that have been handed to the write executor to be written.
+   */
+  private void awaitWrites() {
+    boolean interrupted = false;
+    synchronized (writesFinished) {
+      while (pendingWriteCount.get() > 0) {
+        try {
+          writesFinished.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Starts the session on the streaming writer unless it has been started with an earlier chunk.
+   *
+   * @param events the events being written, whose start time is that of the session
+   */
+  private void beginWriterSession(final Session writerSession, final MidiEventBuffer events) {
+    if (writerSession.writerSessionStarted) {
+      return;
+    }
+    writerSession.writerSessionStarted = true;
+    try {
+      streamingSequenceWriter.beginSession(events.getStartTimeMillis());
+    } catch (IOException e) {
+      logger.warn("An error occurred while starting recording on device " + getDeviceName(), e);
     }
   }
 
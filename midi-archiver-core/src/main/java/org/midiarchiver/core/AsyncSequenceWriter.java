@@ -0,0 +1,64 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import javax.sound.midi.Sequence;
+
+/**
+ * A {@link SequenceWriter} that hands recorded sessions to a {@link WriteBehindPipeline} and
+ * returns without waiting for them to be written. The sessions are written to the delegate writer
+ * on the writer thread of the pipeline.
+ */
+public class AsyncSequenceWriter implements SequenceWriter {
+
+  private final WriteBehindPipeline pipeline;
+  private final SequenceWriter delegate;
+
+  AsyncSequenceWriter(final WriteBehindPipeline pipeline, final SequenceWriter delegate) {
+    this.pipeline = Preconditions.checkNotNull(pipeline);
+    this.delegate = Preconditions.checkNotNull(delegate);
+  }
+
+  /**
+   * Writes the sequence to the delegate on the calling thread. Only sessions written with
+   * {@link #write(MidiEventBuffer)} are written asynchronously.
+   */
+  @Override
+  public void write(Sequence sequence) throws IOException {
+    delegate.write(sequence);
+  }
+
+  @Override
+  public void write(MidiEventBuffer events) throws IOException {
+    pipeline.submit(delegate, events, null);
+  }
+
+  /**
+   * Queues the session like {@link #write(MidiEventBuffer)}. The callback is run on the writer
+   * thread of the pipeline once the session has been written and flushed.
+   */
+  @Override
+  public void write(MidiEventBuffer events, Runnable durableCallback) throws IOException {
+    pipeline.submit(delegate, events, Preconditions.checkNotNull(durableCallback));
+  }
+
+  /**
+   * Does nothing. Sessions are flushed by the pipeline according to its flush policy.
+   */
+  @Override
+  public void flush() {
+  }
+
+  /**
+   * Closes the delegate on the writer thread of the pipeline, after the sessions that were
+   * queued before it have been written and flushed.
+   */
+  @Override
+  public void close() throws IOException {
+    pipeline.submitClose(delegate);
+  }
+
+  public SequenceWriter getDelegate() {
+    return delegate;
+  }
+}
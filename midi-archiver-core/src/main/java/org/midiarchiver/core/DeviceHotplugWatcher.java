@@ -0,0 +1,122 @@
+package org.midiarchiver.core;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directory that contains the device nodes of the sound system, /dev/snd on Linux,
+ * and runs a task when devices are added or removed. Plugging in a device creates several nodes
+ * in quick succession, so the task is run once the directory has been quiet for the debounce
+ * interval.
+ *
+ * <p>The watcher is an optimization over periodic checks for new devices, which should still be
+ * run as a fallback at a lower rate.
+ */
+public class DeviceHotplugWatcher implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceHotplugWatcher.class);
+
+  public static final String DEFAULT_DEVICE_DIRECTORY = "/dev/snd";
+  public static final long DEFAULT_DEBOUNCE_MILLIS = 250;
+
+  private final Path deviceDirectory;
+  private final long debounceMillis;
+  private final Runnable devicesChangedTask;
+
+  private WatchService watchService;
+  private Thread thread;
+
+  public DeviceHotplugWatcher(final Path deviceDirectory, final long debounceMillis,
+                              final Runnable devicesChangedTask) {
+    this.deviceDirectory = Preconditions.checkNotNull(deviceDirectory);
+    this.debounceMillis = debounceMillis;
+    this.devicesChangedTask = Preconditions.checkNotNull(devicesChangedTask);
+  }
+
+  /**
+   * Starts watching the device directory.
+   *
+   * @return false if the directory cannot be watched, in which case only the periodic checks
+   *     detect new devices
+   */
+  public synchronized boolean start() {
+    Preconditions.checkState(thread == null, "The watcher has already been started");
+    if (!Files.isDirectory(deviceDirectory)) {
+      logger.info(deviceDirectory + " does not exist, hotplug detection is disabled");
+      return false;
+    }
+    try {
+      watchService = deviceDirectory.getFileSystem().newWatchService();
+      deviceDirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.warn("Unable to watch " + deviceDirectory + ", hotplug detection is disabled", e);
+      closeWatchService();
+      return false;
+    }
+    thread = new Thread(this::run, "device-hotplug-watcher");
+    thread.setDaemon(true);
+    thread.start();
+    logger.info("Watching " + deviceDirectory + " for device changes");
+    return true;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    Thread thread;
+    synchronized (this) {
+      thread = this.thread;
+      closeWatchService();
+    }
+    if (thread != null) {
+      thread.join();
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        resetKey(watchService.take());
+        // Wait until no more changes arrive within the debounce interval.
+        for (WatchKey key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS); key != null;
+            key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) {
+          resetKey(key);
+        }
+        logger.info("Devices in " + deviceDirectory + " changed");
+        try {
+          devicesChangedTask.run();
+        } catch (RuntimeException e) {
+          logger.warn("An error occurred while handling a device change", e);
+        }
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      logger.debug("Stopped watching " + deviceDirectory);
+    }
+  }
+
+  private static void resetKey(final WatchKey key) {
+    // The events themselves do not matter, any change results in a check for devices.
+    key.pollEvents();
+    key.reset();
+  }
+
+  private void closeWatchService() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        logger.warn("Unable to close watch service", e);
+      }
+    }
+  }
+}
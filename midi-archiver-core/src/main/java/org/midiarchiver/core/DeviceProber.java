@@ -0,0 +1,242 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDevice.Info;
+import javax.sound.midi.MidiUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens midi devices in parallel to find the ones that can be recorded from. All devices of a
+ * check share a single timeout, so a device whose driver hangs while it is opened does not delay
+ * the other devices.
+ *
+ * <p>A device that times out or fails to open is quarantined and is not probed again until its
+ * backoff, which doubles with each consecutive failure, has passed. A probe that times out keeps
+ * running in the background and closes the device if it eventually opens. Devices without
+ * transmitters are remembered and are not opened again until they are removed.
+ */
+public class DeviceProber implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceProber.class);
+
+  public static final long DEFAULT_PROBE_TIMEOUT_MILLIS = 2000;
+  public static final long DEFAULT_MIN_BACKOFF_MILLIS = 5000;
+  public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+  /**
+   * The failures of a quarantined device.
+   */
+  private static final class Quarantine {
+    private int failureCount;
+    private long retryTimeMillis;
+  }
+
+  /**
+   * Opens a single device. A probe that has been abandoned after a timeout closes the device
+   * itself, since there is no one left to take ownership of it.
+   */
+  private final class Probe implements Callable<MidiDevice> {
+
+    private final String deviceId;
+    private final Info deviceInfo;
+    private volatile boolean unrecordable;
+    private boolean finished;
+    private boolean abandoned;
+
+    Probe(final String deviceId, final Info deviceInfo) {
+      this.deviceId = deviceId;
+      this.deviceInfo = deviceInfo;
+    }
+
+    @Override
+    public MidiDevice call() throws MidiUnavailableException {
+      try {
+        MidiDevice midiDevice = openRecordableDevice();
+        synchronized (this) {
+          if (abandoned && midiDevice != null) {
+            logger.info("Closing device " + deviceId + ", which opened after its probe timed out");
+            midiDevice.close();
+            return null;
+          }
+        }
+        return midiDevice;
+      } finally {
+        synchronized (this) {
+          finished = true;
+        }
+        probesInProgress.remove(deviceId);
+      }
+    }
+
+    /**
+     * Abandons the probe if it has not finished.
+     *
+     * @return true if the probe was abandoned, false if it has already finished
+     */
+    synchronized boolean abandon() {
+      if (!finished) {
+        abandoned = true;
+      }
+      return abandoned;
+    }
+
+    private MidiDevice openRecordableDevice() throws MidiUnavailableException {
+      MidiDevice midiDevice = midiSystemService.getMidiDevice(deviceInfo);
+      if (midiDevice.getMaxTransmitters() == 0) {
+        unrecordable = true;
+        return null;
+      }
+      try {
+        if (!midiDevice.isOpen()) {
+          midiDevice.open();
+        }
+        return midiDevice;
+      } catch (MidiUnavailableException | RuntimeException e) {
+        if (midiDevice.isOpen()) {
+          midiDevice.close();
+        }
+        throw e;
+      }
+    }
+  }
+
+  private final MidiSystemService midiSystemService;
+  private final long probeTimeoutMillis;
+  private final long minBackoffMillis;
+  private final long maxBackoffMillis;
+  private final ExecutorService executor;
+  private final Set<String> probesInProgress = ConcurrentHashMap.newKeySet();
+  private final Map<String, Quarantine> quarantinedDevices = new HashMap<>();
+  private final Set<String> unrecordableDeviceIds = new HashSet<>();
+
+  public DeviceProber(final MidiSystemService midiSystemService) {
+    this(midiSystemService, DEFAULT_PROBE_TIMEOUT_MILLIS, DEFAULT_MIN_BACKOFF_MILLIS,
+        DEFAULT_MAX_BACKOFF_MILLIS);
+  }
+
+  public DeviceProber(final MidiSystemService midiSystemService, final long probeTimeoutMillis,
+                      final long minBackoffMillis, final long maxBackoffMillis) {
+    Preconditions.checkArgument(probeTimeoutMillis > 0, "probeTimeoutMillis must be positive");
+    Preconditions.checkArgument(minBackoffMillis > 0 && maxBackoffMillis >= minBackoffMillis,
+        "Invalid backoff");
+    this.midiSystemService = Preconditions.checkNotNull(midiSystemService);
+    this.probeTimeoutMillis = probeTimeoutMillis;
+    this.minBackoffMillis = minBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    // Threads are only created while probes are running, and a hung probe holds on to its thread.
+    this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("device-probe-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Opens the given devices that are not quarantined, unrecordable or still being probed.
+   *
+   * @param devices the devices to probe, by device id
+   * @return the devices that were opened and can be recorded from, by device id
+   */
+  public synchronized Map<String, MidiDevice> probe(final Map<String, Info> devices) {
+    long now = System.currentTimeMillis();
+    Map<Probe, Future<MidiDevice>> probes = new LinkedHashMap<>();
+    for (Map.Entry<String, Info> device : devices.entrySet()) {
+      String deviceId = device.getKey();
+      if (unrecordableDeviceIds.contains(deviceId) || probesInProgress.contains(deviceId)
+          || isQuarantined(deviceId, now)) {
+        continue;
+      }
+      Probe probe = new Probe(deviceId, device.getValue());
+      probesInProgress.add(deviceId);
+      probes.put(probe, executor.submit(probe));
+    }
+
+    Map<String, MidiDevice> openedDevices = new LinkedHashMap<>();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeTimeoutMillis);
+    boolean interrupted = false;
+    for (Map.Entry<Probe, Future<MidiDevice>> entry : probes.entrySet()) {
+      Probe probe = entry.getKey();
+      try {
+        MidiDevice midiDevice = getResult(probe, entry.getValue(), deadline, interrupted);
+        if (midiDevice != null) {
+          quarantinedDevices.remove(probe.deviceId);
+          openedDevices.put(probe.deviceId, midiDevice);
+        } else if (probe.unrecordable) {
+          unrecordableDeviceIds.add(probe.deviceId);
+        }
+      } catch (TimeoutException e) {
+        logger.warn("Timed out opening device " + probe.deviceId);
+        quarantine(probe.deviceId);
+      } catch (ExecutionException e) {
+        logger.debug("Midi device " + probe.deviceId + " is unavailable", e.getCause());
+        quarantine(probe.deviceId);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return openedDevices;
+  }
+
+  /**
+   * Forgets the state of devices that are no longer present, so that they are probed immediately
+   * if they are added back.
+   */
+  public synchronized void retainDevices(final Collection<String> presentDeviceIds) {
+    quarantinedDevices.keySet().retainAll(presentDeviceIds);
+    unrecordableDeviceIds.retainAll(presentDeviceIds);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private MidiDevice getResult(final Probe probe, final Future<MidiDevice> future,
+                               final long deadline, final boolean interrupted)
+      throws TimeoutException, ExecutionException, InterruptedException {
+    try {
+      if (interrupted) {
+        throw new TimeoutException();
+      }
+      return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException | InterruptedException e) {
+      if (probe.abandon()) {
+        throw e;
+      }
+      // The probe finished while it was being abandoned.
+      return Uninterruptibles.getUninterruptibly(future);
+    }
+  }
+
+  private boolean isQuarantined(final String deviceId, final long now) {
+    Quarantine quarantine = quarantinedDevices.get(deviceId);
+    return quarantine != null && now < quarantine.retryTimeMillis;
+  }
+
+  private void quarantine(final String deviceId) {
+    Quarantine quarantine = quarantinedDevices.computeIfAbsent(deviceId, id -> new Quarantine());
+    long backoffMillis = minBackoffMillis << Math.min(quarantine.failureCount, 30);
+    backoffMillis = backoffMillis > 0 ? Math.min(backoffMillis, maxBackoffMillis) : maxBackoffMillis;
+    quarantine.failureCount++;
+    quarantine.retryTimeMillis = System.currentTimeMillis() + backoffMillis;
+    logger.info("Quarantined device " + deviceId + " for " + backoffMillis + "ms");
+  }
+}
@@ -6,10 +6,19 @@ import org.slf4j.LoggerFactory;
 
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Sequence;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * A {@link SequenceWriter} that writes sequences as midi files to the file system.
@@ -19,29 +28,135 @@ public class FileSequenceWriter implements SequenceWriter {
   private static final Logger logger = LoggerFactory.getLogger(FileSequenceWriter.class);
 
   private final String outputDirectoryPath;
+  private final List<File> unflushedFiles = new ArrayList<>();
+  // The directories whose entries have changed since the last flush, guarded by unflushedFiles.
+  private final Set<File> unflushedDirectories = new LinkedHashSet<>();
+  private final SessionListener sessionListener;
+  private final SessionSummary summary = new SessionSummary();
 
   public FileSequenceWriter(String outputDirectoryPath) {
+    this(outputDirectoryPath, null);
+  }
+
+  /**
+   * @param sessionListener notified after each session written by {@link #write(MidiEventBuffer)},
+   *                        or null
+   */
+  public FileSequenceWriter(String outputDirectoryPath, SessionListener sessionListener) {
     this.outputDirectoryPath = Preconditions.checkNotNull(outputDirectoryPath);
+    this.sessionListener = sessionListener;
   }
 
   /**
    * Writes the given sequence to a file. The file path be in the following pattern:
-   * yyyy/MM/dd/hh-mm-ss.mid
+   * yyyy/MM/dd/HH-mm-ss.mid, with a -2, -3, ... suffix if a session started in the same second.
    */
   @Override
   public void write(Sequence sequence) throws IOException {
     String outputFilename = getMidiOutputFileName();
-    MidiSystem.write(sequence, 1, new File(getMidiOutputFileName()));
+    MidiSystem.write(sequence, 1, new File(outputFilename));
     logger.info("Wrote " + outputFilename);
   }
 
-  private String getMidiOutputFileName() {
+  /**
+   * Writes the given events to a file using the same path pattern as {@link #write(Sequence)}. The
+   * path is based on the start time of the session and the file is encoded directly from the
+   * buffer.
+   */
+  @Override
+  public void write(MidiEventBuffer events) throws IOException {
+    long startTimeMillis = events.getStartTimeMillis() > 0
+        ? events.getStartTimeMillis() : System.currentTimeMillis();
+    String outputFilename = getMidiOutputFileName(new Date(startTimeMillis));
+    File outputFile = new File(outputFilename);
+    int length = writeFile(events, outputFile);
+    synchronized (unflushedFiles) {
+      unflushedFiles.add(outputFile);
+      unflushedDirectories.add(outputFile.getParentFile());
+    }
+    logger.info("Wrote " + outputFilename);
+    if (sessionListener != null) {
+      synchronized (summary) {
+        summary.set(events, startTimeMillis);
+        sessionListener.sessionWritten(summary, outputFile, 0, length);
+      }
+    }
+  }
+
+  /**
+   * Encodes the events to the file.
+   *
+   * @return the length of the file
+   */
+  protected int writeFile(MidiEventBuffer events, File outputFile) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+      return MidiFileEncoder.write(events, out);
+    }
+  }
+
+  /**
+   * Returns the extension of the files, including the dot.
+   */
+  protected String getFileExtension() {
+    return ".mid";
+  }
+
+  /**
+   * Forces the files written by {@link #write(MidiEventBuffer)} since the last flush to disk, and
+   * the directories they and the day directories created for them were added to.
+   */
+  @Override
+  public void flush() throws IOException {
+    List<File> files;
+    List<File> directories;
+    synchronized (unflushedFiles) {
+      if (unflushedFiles.isEmpty()) {
+        return;
+      }
+      files = new ArrayList<>(unflushedFiles);
+      unflushedFiles.clear();
+      directories = new ArrayList<>(unflushedDirectories);
+      unflushedDirectories.clear();
+    }
+    for (File file : files) {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+    }
+    for (File directory : directories) {
+      FileSync.forceDirectory(directory);
+    }
+  }
+
+  protected String getMidiOutputFileName() throws IOException {
+    return getMidiOutputFileName(new Date());
+  }
+
+  /**
+   * Returns the path of a new, empty file for a session that started at the given time. The file is
+   * created so that a session that started in the same second gets another name.
+   */
+  private String getMidiOutputFileName(Date date) throws IOException {
     File targetDirectory = new File(outputDirectoryPath + File.separator +
-        new SimpleDateFormat("yyyy/MM/dd").format(new Date()));
+        new SimpleDateFormat("yyyy/MM/dd").format(date));
     if (targetDirectory.mkdirs()) {
       logger.info("Created directory " + targetDirectory);
+      // The year and month directories may have been created as well.
+      File outputDirectory = new File(outputDirectoryPath).getAbsoluteFile();
+      synchronized (unflushedFiles) {
+        for (File directory = targetDirectory.getAbsoluteFile().getParentFile();
+             directory != null && !directory.equals(outputDirectory.getParentFile());
+             directory = directory.getParentFile()) {
+          unflushedDirectories.add(directory);
+        }
+      }
+    }
+    String baseName = new SimpleDateFormat("HH-mm-ss").format(date);
+    File file = new File(targetDirectory.getAbsoluteFile(), baseName + getFileExtension());
+    for (int suffix = 2; !file.createNewFile(); suffix++) {
+      file = new File(targetDirectory.getAbsoluteFile(),
+          baseName + "-" + suffix + getFileExtension());
     }
-    return targetDirectory.getAbsolutePath() + File.separator +
-        new SimpleDateFormat("hh-mm-ss").format(new Date()) + ".mid";
+    return file.getPath();
   }
 }
@@ -0,0 +1,31 @@
+package org.midiarchiver.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forces changes to the file system to storage.
+ */
+public final class FileSync {
+
+  // Directories cannot be opened to be forced on Windows, where their entries are written through.
+  private static final boolean DIRECTORIES_SUPPORTED = File.separatorChar == '/';
+
+  private FileSync() {
+  }
+
+  /**
+   * Forces the entries of a directory, such as those of files that were created, renamed or
+   * deleted in it, to storage.
+   */
+  public static void forceDirectory(final File directory) throws IOException {
+    if (!DIRECTORIES_SUPPORTED) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link LiveEventRing}s of all devices, by device id. A ring is kept when its device is
+ * disconnected, so subscribers keep receiving messages when the device reconnects.
+ */
+public class LiveEventHub {
+
+  private final ConcurrentMap<String, LiveEventRing> rings = new ConcurrentHashMap<>();
+  private final int ringCapacity;
+
+  public LiveEventHub() {
+    this(LiveEventRing.DEFAULT_CAPACITY);
+  }
+
+  public LiveEventHub(final int ringCapacity) {
+    Preconditions.checkArgument(ringCapacity > 0, "ringCapacity must be positive");
+    this.ringCapacity = ringCapacity;
+  }
+
+  public LiveEventRing getOrCreate(final String deviceId) {
+    Preconditions.checkNotNull(deviceId);
+    return rings.computeIfAbsent(deviceId, id -> new LiveEventRing(ringCapacity));
+  }
+
+  /**
+   * Returns the ring of a device, or null if the device has not been connected.
+   */
+  public LiveEventRing get(final String deviceId) {
+    return rings.get(deviceId);
+  }
+
+  public List<String> getDeviceIds() {
+    List<String> deviceIds = new ArrayList<>(rings.keySet());
+    Collections.sort(deviceIds);
+    return deviceIds;
+  }
+}
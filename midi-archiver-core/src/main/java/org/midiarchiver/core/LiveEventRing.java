@@ -0,0 +1,162 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A ring of the most recent messages of a device, written by the receiver of the device and read
+ * by any number of {@link Subscriber}s, in the style of a single producer, multiple consumer
+ * disruptor without gating. The producer never waits for subscribers and overwrites the oldest
+ * message when the ring is full, so a subscriber that falls more than the capacity of the ring
+ * behind loses messages, which it counts, instead of slowing down recording.
+ *
+ * <p>Each slot holds the sequence number, timestamp and packed bytes of a message. The producer
+ * invalidates the sequence of a slot before overwriting it and publishes the new sequence after,
+ * with ordered writes, and a subscriber checks the sequence of a slot after reading it, so it
+ * never sees a torn message. Publishing does not allocate and does nothing while there are no
+ * subscribers. Only short messages are published; system exclusive messages have no fixed size.
+ *
+ * <p>Messages must be published by one thread at a time, which the lock of
+ * {@link ArchivingReceiver#send} or its actor guarantees.
+ */
+public class LiveEventRing {
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private static final int SLOT_LENGTH = 3;
+  private static final long INVALID_SEQUENCE = -1;
+
+  /**
+   * Receives the messages polled by a {@link Subscriber}.
+   */
+  public interface EventHandler {
+    /**
+     * @param data2 the second data byte, or 0 if the message has one data byte or none
+     */
+    void onEvent(long timestampMicros, int status, int data1, int data2);
+  }
+
+  /**
+   * A reader of the ring, which starts with the next message published after it subscribed. A
+   * subscriber is used by one thread at a time.
+   */
+  public final class Subscriber implements AutoCloseable {
+
+    private long nextSequence = cursor.get() + 1;
+    private long lostCount;
+    private boolean closed;
+
+    /**
+     * Passes up to maxEvents of the messages published since the last poll to the handler,
+     * skipping the messages that have been overwritten.
+     *
+     * @return the number of messages passed to the handler
+     */
+    public int poll(final EventHandler handler, final int maxEvents) {
+      long available = cursor.get();
+      long lostBefore = lostCount;
+      int count = 0;
+      while (count < maxEvents && nextSequence <= available) {
+        if (available - nextSequence >= capacity) {
+          long oldest = available - capacity + 1;
+          lostCount += oldest - nextSequence;
+          nextSequence = oldest;
+        }
+        int slot = (int) (nextSequence & mask) * SLOT_LENGTH;
+        long timestamp = slots.get(slot + 1);
+        long message = slots.get(slot + 2);
+        if (slots.get(slot) != nextSequence) {
+          // The producer has overwritten the slot, so the subscriber is a whole ring behind.
+          lostCount++;
+        } else {
+          handler.onEvent(timestamp, (int) message & 0xFF, (int) (message >>> 8) & 0xFF,
+              (int) (message >>> 16) & 0xFF);
+          count++;
+        }
+        nextSequence++;
+      }
+      if (lostCount != lostBefore) {
+        totalLostCount.addAndGet(lostCount - lostBefore);
+      }
+      return count;
+    }
+
+    /**
+     * Returns the number of messages this subscriber has lost by falling behind.
+     */
+    public long getLostCount() {
+      return lostCount;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        subscriberCount.decrementAndGet();
+      }
+    }
+  }
+
+  private final int capacity;
+  private final long mask;
+  private final AtomicLongArray slots;
+  private final AtomicLong cursor = new AtomicLong(-1);
+  private final AtomicInteger subscriberCount = new AtomicInteger();
+  private final AtomicLong totalLostCount = new AtomicLong();
+
+  /**
+   * @param capacity the number of messages kept, rounded up to a power of two
+   */
+  public LiveEventRing(final int capacity) {
+    Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 24,
+        "capacity must be between 1 and 2^24");
+    this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.slots = new AtomicLongArray(this.capacity * SLOT_LENGTH);
+    for (int slot = 0; slot < this.capacity; slot++) {
+      slots.set(slot * SLOT_LENGTH, INVALID_SEQUENCE);
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getSubscriberCount() {
+    return subscriberCount.get();
+  }
+
+  /**
+   * Returns the number of messages lost by all subscribers, including closed ones.
+   */
+  public long getLostCount() {
+    return totalLostCount.get();
+  }
+
+  /**
+   * Publishes a message if it is a short message and there are subscribers.
+   */
+  public void publish(final MidiMessage message, final long timestampMicros) {
+    if (subscriberCount.get() == 0 || !(message instanceof ShortMessage)) {
+      return;
+    }
+    ShortMessage shortMessage = (ShortMessage) message;
+    long sequence = cursor.get() + 1;
+    int slot = (int) (sequence & mask) * SLOT_LENGTH;
+    slots.lazySet(slot, INVALID_SEQUENCE);
+    slots.lazySet(slot + 1, timestampMicros);
+    slots.lazySet(slot + 2, shortMessage.getStatus() | shortMessage.getData1() << 8
+        | shortMessage.getData2() << 16);
+    slots.lazySet(slot, sequence);
+    cursor.lazySet(sequence);
+  }
+
+  public Subscriber subscribe() {
+    subscriberCount.incrementAndGet();
+    return new Subscriber();
+  }
+}
@@ -1,112 +1,274 @@
 package org.midiarchiver.core;
 
 import com.google.common.base.Preconditions;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
 import java.util.function.Function;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiDevice.Info;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
 import javax.sound.midi.Transmitter;
 import org.apache.commons.lang3.tuple.Pair;
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.core.trace.DeviceOpenEvent;
+import org.midiarchiver.core.trace.DeviceScanEvent;
+import org.midiarchiver.core.trace.TraceEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A service that records and archives recorded data on all input midi devices. New devices are
- * detected using a periodic check.
+ * detected using a periodic check, which can be triggered early by a {@link DeviceHotplugWatcher}.
+ * Each device is recorded by an {@link ArchivingReceiver}, which may be run by a
+ * {@link ReceiverActor}.
  */
 public class MidiArchiverService implements AutoCloseable {
 
   private static final Logger logger = LoggerFactory.getLogger(MidiArchiverService.class);
 
   private final MidiSystemService midiSystemService;
-  private final Function<MidiDevice.Info, ArchivingReceiver> archivingReceiverFactory;
-  private final Map<String, Pair<MidiDevice, ArchivingReceiver>> activeDevices = new HashMap<>();
+  private final Function<MidiDevice.Info, ? extends Receiver> archivingReceiverFactory;
+  private final Map<String, Pair<MidiDevice, Receiver>> activeDevices = new HashMap<>();
+  private final DeviceProber deviceProber;
+  private final ArchiverMetrics archiverMetrics;
+  private final Deque<AutoCloseable> closeables = new ArrayDeque<>();
+  private boolean closed;
 
   public MidiArchiverService(
       final MidiSystemService midiSystemService,
-      final Function<MidiDevice.Info, ArchivingReceiver> archivingReceiverFactory) {
+      final Function<MidiDevice.Info, ? extends Receiver> archivingReceiverFactory) {
+    this(midiSystemService, archivingReceiverFactory, new DeviceProber(midiSystemService));
+  }
+
+  /**
+   * @param deviceProber opens new devices, it is closed when this service is closed
+   */
+  public MidiArchiverService(
+      final MidiSystemService midiSystemService,
+      final Function<MidiDevice.Info, ? extends Receiver> archivingReceiverFactory,
+      final DeviceProber deviceProber) {
+    this(midiSystemService, archivingReceiverFactory, deviceProber, null);
+  }
+
+  /**
+   * @param deviceProber opens new devices, it is closed when this service is closed
+   * @param archiverMetrics the metrics that the duration of each check for new devices is
+   *                        recorded in, or null
+   */
+  public MidiArchiverService(
+      final MidiSystemService midiSystemService,
+      final Function<MidiDevice.Info, ? extends Receiver> archivingReceiverFactory,
+      final DeviceProber deviceProber, final ArchiverMetrics archiverMetrics) {
     this.midiSystemService = Preconditions.checkNotNull(midiSystemService);
     this.archivingReceiverFactory = Preconditions.checkNotNull(archivingReceiverFactory);
+    this.deviceProber = Preconditions.checkNotNull(deviceProber);
+    this.archiverMetrics = archiverMetrics;
   }
 
-  public void checkForNewDevices() {
-    logger.info("Checking for new devices");
-    Map<String, Pair<MidiDevice, ArchivingReceiver>> newRecordableDevices = new HashMap<>();
-    for(MidiDevice midiDevice : getRecordableDevices(midiSystemService)) {
-      String deviceId = midiSystemService.getDeviceId(midiDevice.getDeviceInfo());
-      Pair<MidiDevice, ArchivingReceiver> recordableDevice = activeDevices.get(deviceId);
-
-      if (recordableDevice == null) {
-        try {
-          ArchivingReceiver archivingReceiver = startArchiverOnDevice(midiDevice);
-          recordableDevice = Pair.of(midiDevice, archivingReceiver);
-        } catch (MidiUnavailableException e) {
-          logger.debug("Midi device is unavailable", e);
-        }
+  /**
+   * Starts archiving on devices that have been added since the last check and stops archiving on
+   * devices that have been removed. Devices that are already being archived are not reopened.
+   */
+  public synchronized void checkForNewDevices() {
+    if (closed) {
+      return;
+    }
+    logger.debug("Checking for new devices");
+    DeviceScanEvent scanEvent = TraceEvents.newDeviceScanEvent();
+    if (scanEvent != null) {
+      scanEvent.begin();
+    }
+    long startNanos = System.nanoTime();
+    Set<String> presentDeviceIds = new HashSet<>();
+    Map<String, Info> newDevices = new LinkedHashMap<>();
+    for (Info midiDeviceInfo : midiSystemService.getMidiDeviceInfo()) {
+      String deviceId = midiSystemService.getDeviceId(midiDeviceInfo);
+      presentDeviceIds.add(deviceId);
+      if (!activeDevices.containsKey(deviceId)) {
+        newDevices.put(deviceId, midiDeviceInfo);
+      }
+    }
+
+    int openedDeviceCount = 0;
+    for (Map.Entry<String, MidiDevice> openedDevice : deviceProber.probe(newDevices).entrySet()) {
+      MidiDevice midiDevice = openedDevice.getValue();
+      DeviceOpenEvent openEvent = TraceEvents.newDeviceOpenEvent();
+      if (openEvent != null) {
+        openEvent.begin();
+      }
+      boolean succeeded = false;
+      try {
+        Receiver receiver = startArchiverOnDevice(midiDevice);
+        activeDevices.put(openedDevice.getKey(), Pair.of(midiDevice, receiver));
+        openedDeviceCount++;
+        succeeded = true;
+      } catch (MidiUnavailableException e) {
+        logger.debug("Midi device is unavailable", e);
+        midiDevice.close();
       }
-      if(recordableDevice != null) {
-        newRecordableDevices.put(deviceId, recordableDevice);
-        activeDevices.remove(deviceId);
+      MidiDevice.Info midiDeviceInfo = midiDevice.getDeviceInfo();
+      if (openEvent != null) {
+        openEvent.commit(openedDevice.getKey(),
+            midiDeviceInfo.getVendor() + " " + midiDeviceInfo.getName(), succeeded);
       }
     }
 
     // Close devices that are no longer available.
-    closeAll(activeDevices.values());
+    int removedDeviceCount = 0;
+    Iterator<Map.Entry<String, Pair<MidiDevice, Receiver>>> activeDeviceIterator =
+        activeDevices.entrySet().iterator();
+    while (activeDeviceIterator.hasNext()) {
+      Map.Entry<String, Pair<MidiDevice, Receiver>> activeDevice =
+          activeDeviceIterator.next();
+      if (!presentDeviceIds.contains(activeDevice.getKey())) {
+        logger.info("Device " + activeDevice.getKey() + " was removed");
+        closeAll(Collections.singleton(activeDevice.getValue()));
+        activeDeviceIterator.remove();
+        removedDeviceCount++;
+      }
+    }
+    deviceProber.retainDevices(presentDeviceIds);
+    if (archiverMetrics != null) {
+      archiverMetrics.recordDeviceScan(System.nanoTime() - startNanos);
+    }
+    if (scanEvent != null) {
+      scanEvent.commit(presentDeviceIds.size(), newDevices.size(), openedDeviceCount,
+          removedDeviceCount);
+    }
+  }
 
-    activeDevices.clear();
-    activeDevices.putAll(newRecordableDevices);
+  /**
+   * Writes the sessions that were still being recorded or written when a previous run stopped.
+   * Each uncommitted session in the journal files in the directory is replayed through the
+   * {@link SequenceWriter} of its device and marked as committed once it has been durably written.
+   * This should be called before any devices are started.
+   *
+   * @param journalDirectory the directory containing the {@link SessionJournal} files, named by
+   *                         device id
+   * @param sequenceWriterFactory creates the {@link SequenceWriter} for a device id
+   * @return the number of sessions recovered
+   */
+  public int recoverJournals(final File journalDirectory,
+                             final Function<String, SequenceWriter> sequenceWriterFactory) {
+    File[] journalFiles = journalDirectory.listFiles(
+        (File dir, String name) -> name.endsWith(SessionJournal.FILE_EXTENSION));
+    if (journalFiles == null) {
+      return 0;
+    }
+    int recoveredCount = 0;
+    MidiEventBuffer events = new MidiEventBuffer();
+    for (File journalFile : journalFiles) {
+      String fileName = journalFile.getName();
+      String deviceId =
+          fileName.substring(0, fileName.length() - SessionJournal.FILE_EXTENSION.length());
+      SequenceWriter sequenceWriter = null;
+      try {
+        for (int slot = 0; slot < SessionJournal.SLOT_COUNT; slot++) {
+          events.clear();
+          if (!SessionJournal.recover(journalFile, slot, events)) {
+            continue;
+          }
+          Runnable markCommitted = newMarkCommittedTask(journalFile, slot);
+          if (events.isEmpty()) {
+            markCommitted.run();
+            continue;
+          }
+          logger.info("Recovering " + events.size() + " events from " + journalFile);
+          if (sequenceWriter == null) {
+            sequenceWriter = sequenceWriterFactory.apply(deviceId);
+          }
+          sequenceWriter.write(events, markCommitted);
+          recoveredCount++;
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.warn("An error occurred while recovering journal " + journalFile, e);
+      } finally {
+        if (sequenceWriter != null) {
+          try {
+            sequenceWriter.close();
+          } catch (IOException e) {
+            logger.warn("An error occurred while closing the writer of device " + deviceId, e);
+          }
+        }
+      }
+    }
+    return recoveredCount;
+  }
+
+  /**
+   * Registers a resource, such as a {@link WriteBehindPipeline}, that is closed when this service
+   * is closed. Resources are closed after all devices have been closed, in the reverse order of
+   * registration.
+   */
+  public void registerCloseable(final AutoCloseable closeable) {
+    closeables.push(Preconditions.checkNotNull(closeable));
   }
 
   @Override
   public void close() throws Exception {
     logger.info("Closing " + getClass().getSimpleName());
-    closeAll(activeDevices.values());
-  }
+    synchronized (this) {
+      closed = true;
+      closeAll(activeDevices.values());
+      activeDevices.clear();
+    }
+    deviceProber.close();
 
-  private static List<MidiDevice> getRecordableDevices(final MidiSystemService midiSystemService) {
-    List<MidiDevice> recordableDevices = new ArrayList<>();
-    for (Info midiDeviceInfo : midiSystemService.getMidiDeviceInfo()) {
-      MidiDevice midiDevice = null;
+    Exception closeException = null;
+    while (!closeables.isEmpty()) {
       try {
-        midiDevice = midiSystemService.getMidiDevice(midiDeviceInfo);
-        if (!midiDevice.isOpen()) {
-          midiDevice.open();
-        }
-        if (midiDevice.getMaxTransmitters() != 0) {
-          recordableDevices.add(midiDevice);
-        }
-      } catch (MidiUnavailableException e) {
-        if (midiDevice != null && midiDevice.isOpen()) {
-          midiDevice.close();
+        closeables.pop().close();
+      } catch (Exception e) {
+        logger.warn("An error occurred while closing a resource", e);
+        if (closeException == null) {
+          closeException = e;
         }
       }
     }
-    return recordableDevices;
+    if (closeException != null) {
+      throw closeException;
+    }
   }
 
-  private ArchivingReceiver startArchiverOnDevice(final MidiDevice midiDevice)
+  private Receiver startArchiverOnDevice(final MidiDevice midiDevice)
       throws MidiUnavailableException {
     MidiDevice.Info midiDeviceInfo = midiDevice.getDeviceInfo();
     Transmitter transmitter = midiDevice.getTransmitter();
     String deviceName = midiDeviceInfo.getVendor() + " " + midiDeviceInfo.getName();
     logger.info("Starting archiver on device: " + deviceName);
 
-    ArchivingReceiver archivingReceiver = archivingReceiverFactory.apply(midiDeviceInfo);
-    transmitter.setReceiver(archivingReceiver);
+    Receiver receiver = archivingReceiverFactory.apply(midiDeviceInfo);
+    transmitter.setReceiver(receiver);
     if(!midiDevice.isOpen()) {
       midiDevice.open();
     }
-    return archivingReceiver;
+    return receiver;
+  }
+
+  private static Runnable newMarkCommittedTask(final File journalFile, final int slot) {
+    return () -> {
+      try {
+        SessionJournal.markCommitted(journalFile, slot);
+      } catch (IOException e) {
+        logger.warn("Unable to mark the recovered session in journal " + journalFile
+            + " as committed", e);
+      }
+    };
   }
 
-  private void closeAll(Collection<Pair<MidiDevice, ArchivingReceiver>> deviceWithReceiverList) {
-    for (Pair<MidiDevice, ArchivingReceiver> deviceWithReceiver : deviceWithReceiverList) {
+  private void closeAll(Collection<Pair<MidiDevice, Receiver>> deviceWithReceiverList) {
+    for (Pair<MidiDevice, Receiver> deviceWithReceiver : deviceWithReceiverList) {
       deviceWithReceiver.getRight().close();
       deviceWithReceiver.getLeft().close();
     }
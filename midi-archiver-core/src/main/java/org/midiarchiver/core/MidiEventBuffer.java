@@ -0,0 +1,308 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+
+/**
+ * A reusable buffer of captured midi events. Short messages are packed into primitive arrays and
+ * the bytes of longer messages (system exclusive) are copied into a shared byte pool, so appending
+ * an event does not allocate once the buffer has grown to the size of a typical session. The buffer
+ * is cleared and reused for the next session instead of being discarded.
+ *
+ * <p>Each event has a timestamp in microseconds relative to the start of the session. This class is
+ * not thread safe.
+ */
+public class MidiEventBuffer {
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** The resolution, in ticks per quarter note, used when the buffer is converted to a file. */
+  public static final int RESOLUTION = 480;
+
+  /** The tempo assumed when converting timestamps to ticks (120 bpm). */
+  public static final int MICROS_PER_QUARTER_NOTE = 500000;
+
+  private static final int LONG_MESSAGE_FLAG = 0x80000000;
+  private static final int DEFAULT_DATA_CAPACITY = 1024;
+
+  private long[] timestamps;
+  private int[] messages;
+  private int size;
+
+  private byte[] data;
+  private int dataSize;
+
+  private long startTimeMillis;
+
+  public MidiEventBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public MidiEventBuffer(final int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    this.timestamps = new long[capacity];
+    this.messages = new int[capacity];
+    this.data = new byte[DEFAULT_DATA_CAPACITY];
+  }
+
+  /**
+   * Appends a message to the buffer. Short messages are stored without allocating.
+   *
+   * @param message the message to append
+   * @param timestampMicros the time of the message relative to the start of the session
+   */
+  public void append(final MidiMessage message, final long timestampMicros) {
+    if (message instanceof ShortMessage) {
+      ShortMessage shortMessage = (ShortMessage) message;
+      appendShortMessage(shortMessage.getStatus(), shortMessage.getData1(),
+          shortMessage.getData2(), shortMessage.getLength(), timestampMicros);
+    } else {
+      byte[] messageBytes = message.getMessage();
+      appendLongMessage(messageBytes, 0, message.getLength(), timestampMicros);
+    }
+  }
+
+  /**
+   * Appends a short message given as its status and data bytes.
+   *
+   * @param length the length of the message in bytes including the status byte (1 to 3)
+   */
+  public void appendShortMessage(final int status, final int data1, final int data2,
+                                 final int length, final long timestampMicros) {
+    ensureCapacity(size + 1);
+    timestamps[size] = timestampMicros;
+    messages[size] = (status & 0xFF) | (data1 & 0xFF) << 8 | (data2 & 0xFF) << 16 | length << 24;
+    size++;
+  }
+
+  /**
+   * Appends a message of arbitrary length, such as a system exclusive message. The bytes are copied
+   * into the buffer.
+   */
+  public void appendLongMessage(final byte[] messageBytes, final int offset, final int length,
+                                final long timestampMicros) {
+    Preconditions.checkArgument(length > 0, "message must not be empty");
+    ensureCapacity(size + 1);
+    ensureDataCapacity(dataSize + 4 + length);
+    int entryOffset = dataSize;
+    data[dataSize++] = (byte) (length >>> 24);
+    data[dataSize++] = (byte) (length >>> 16);
+    data[dataSize++] = (byte) (length >>> 8);
+    data[dataSize++] = (byte) length;
+    System.arraycopy(messageBytes, offset, data, dataSize, length);
+    dataSize += length;
+    timestamps[size] = timestampMicros;
+    messages[size] = LONG_MESSAGE_FLAG | entryOffset;
+    size++;
+  }
+
+  /**
+   * Appends the event at the given index of another buffer.
+   */
+  public void append(final MidiEventBuffer source, final int index, final long timestampMicros) {
+    if (source.isShortMessage(index)) {
+      ensureCapacity(size + 1);
+      timestamps[size] = timestampMicros;
+      messages[size] = source.messages[index];
+      size++;
+    } else {
+      int entryOffset = source.messages[index] & ~LONG_MESSAGE_FLAG;
+      appendLongMessage(source.data, entryOffset + 4, source.getLength(index), timestampMicros);
+    }
+  }
+
+  /**
+   * Replaces the contents of this buffer with a copy of the given buffer.
+   */
+  public void copyFrom(final MidiEventBuffer source) {
+    ensureCapacity(source.size);
+    ensureDataCapacity(source.dataSize);
+    System.arraycopy(source.timestamps, 0, timestamps, 0, source.size);
+    System.arraycopy(source.messages, 0, messages, 0, source.size);
+    System.arraycopy(source.data, 0, data, 0, source.dataSize);
+    size = source.size;
+    dataSize = source.dataSize;
+    startTimeMillis = source.startTimeMillis;
+  }
+
+  /**
+   * Removes all events from the buffer. The allocated storage is retained for reuse.
+   */
+  public void clear() {
+    size = 0;
+    dataSize = 0;
+    startTimeMillis = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the wall clock time, in milliseconds since the epoch, at which the session started.
+   */
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  public void setStartTimeMillis(final long startTimeMillis) {
+    this.startTimeMillis = startTimeMillis;
+  }
+
+  /**
+   * Returns the timestamp of the event at the given index in microseconds relative to the start of
+   * the session.
+   */
+  public long getTimestamp(final int index) {
+    checkIndex(index);
+    return timestamps[index];
+  }
+
+  /**
+   * Returns the timestamp of the last event in microseconds, or 0 if the buffer is empty.
+   */
+  public long getDurationMicros() {
+    return size == 0 ? 0 : timestamps[size - 1];
+  }
+
+  /**
+   * Returns the tick of the event at the given index at {@link #RESOLUTION} ticks per quarter note.
+   */
+  public long getTick(final int index) {
+    return toTick(getTimestamp(index));
+  }
+
+  public boolean isShortMessage(final int index) {
+    checkIndex(index);
+    return (messages[index] & LONG_MESSAGE_FLAG) == 0;
+  }
+
+  public int getStatus(final int index) {
+    checkIndex(index);
+    int message = messages[index];
+    if ((message & LONG_MESSAGE_FLAG) == 0) {
+      return message & 0xFF;
+    }
+    return data[(message & ~LONG_MESSAGE_FLAG) + 4] & 0xFF;
+  }
+
+  /**
+   * Returns the first data byte of a short message.
+   */
+  public int getData1(final int index) {
+    checkIndex(index);
+    return (messages[index] >>> 8) & 0xFF;
+  }
+
+  /**
+   * Returns the second data byte of a short message.
+   */
+  public int getData2(final int index) {
+    checkIndex(index);
+    return (messages[index] >>> 16) & 0xFF;
+  }
+
+  /**
+   * Returns the length of the message at the given index in bytes, including the status byte.
+   */
+  public int getLength(final int index) {
+    checkIndex(index);
+    int message = messages[index];
+    if ((message & LONG_MESSAGE_FLAG) == 0) {
+      return message >>> 24;
+    }
+    int entryOffset = message & ~LONG_MESSAGE_FLAG;
+    return (data[entryOffset] & 0xFF) << 24 | (data[entryOffset + 1] & 0xFF) << 16
+        | (data[entryOffset + 2] & 0xFF) << 8 | (data[entryOffset + 3] & 0xFF);
+  }
+
+  /**
+   * Copies the bytes of the message at the given index, including the status byte, into the given
+   * array.
+   *
+   * @return the number of bytes copied
+   */
+  public int getMessage(final int index, final byte[] dest, final int destOffset) {
+    int length = getLength(index);
+    int message = messages[index];
+    if ((message & LONG_MESSAGE_FLAG) == 0) {
+      for (int i = 0; i < length; i++) {
+        dest[destOffset + i] = (byte) (message >>> (i * 8));
+      }
+    } else {
+      System.arraycopy(data, (message & ~LONG_MESSAGE_FLAG) + 4, dest, destOffset, length);
+    }
+    return length;
+  }
+
+  /**
+   * Returns the message byte at the given position of the message at the given index.
+   */
+  public int getMessageByte(final int index, final int position) {
+    int message = messages[index];
+    if ((message & LONG_MESSAGE_FLAG) == 0) {
+      return (message >>> (position * 8)) & 0xFF;
+    }
+    return data[(message & ~LONG_MESSAGE_FLAG) + 4 + position] & 0xFF;
+  }
+
+  /**
+   * Creates a {@link Sequence} containing the events in this buffer. This allocates a
+   * {@link MidiEvent} per event and is provided for {@link SequenceWriter} implementations that
+   * need a {@link Sequence}.
+   */
+  public Sequence toSequence() throws InvalidMidiDataException {
+    Sequence sequence = new Sequence(Sequence.PPQ, RESOLUTION);
+    Track track = sequence.createTrack();
+    for (int i = 0; i < size; i++) {
+      if (!MidiFileEncoder.isEncodable(getStatus(i))) {
+        continue;
+      }
+      byte[] messageBytes = new byte[getLength(i)];
+      getMessage(i, messageBytes, 0);
+      MidiMessage message;
+      if (isShortMessage(i)) {
+        message = new ShortMessage(getStatus(i), getData1(i), getData2(i));
+      } else {
+        message = new SysexMessage(messageBytes, messageBytes.length);
+      }
+      track.add(new MidiEvent(message, getTick(i)));
+    }
+    return sequence;
+  }
+
+  static long toTick(final long timestampMicros) {
+    return timestampMicros * RESOLUTION / MICROS_PER_QUARTER_NOTE;
+  }
+
+  private void ensureCapacity(final int requiredCapacity) {
+    if (requiredCapacity > messages.length) {
+      int newCapacity = Math.max(requiredCapacity, messages.length * 2);
+      timestamps = Arrays.copyOf(timestamps, newCapacity);
+      messages = Arrays.copyOf(messages, newCapacity);
+    }
+  }
+
+  private void ensureDataCapacity(final int requiredCapacity) {
+    if (requiredCapacity > data.length) {
+      data = Arrays.copyOf(data, Math.max(requiredCapacity, data.length * 2));
+    }
+  }
+
+  private void checkIndex(final int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+}
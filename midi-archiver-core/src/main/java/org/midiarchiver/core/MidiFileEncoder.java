@@ -0,0 +1,183 @@
+package org.midiarchiver.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the events of a {@link MidiEventBuffer} as a Standard MIDI File without building an
+ * intermediate {@link javax.sound.midi.Sequence}. Files are written as type 1 files containing a
+ * single track at {@link MidiEventBuffer#RESOLUTION} ticks per quarter note. Channel messages are
+ * written using running status.
+ *
+ * <p>System real-time messages cannot be stored in a midi file and are skipped. System common
+ * messages are stored as escaped (0xF7) events.
+ */
+public final class MidiFileEncoder {
+
+  public static final int HEADER_CHUNK_LENGTH = 14;
+  public static final int TRACK_CHUNK_HEADER_LENGTH = 8;
+
+  private static final int HEADER_CHUNK_TYPE = 0x4D546864; // MThd
+  private static final int TRACK_CHUNK_TYPE = 0x4D54726B; // MTrk
+  private static final int FILE_TYPE = 1;
+
+  private static final byte[] END_OF_TRACK = {0x00, (byte) 0xFF, 0x2F, 0x00};
+
+  private MidiFileEncoder() {
+  }
+
+  /**
+   * Returns true if a message with the given status can be stored in a midi file.
+   */
+  public static boolean isEncodable(final int status) {
+    return status < 0xF8;
+  }
+
+  /**
+   * Writes the events in the buffer to the output stream as a complete midi file.
+   *
+   * @return the number of bytes written
+   */
+  public static int write(final MidiEventBuffer events, final OutputStream out)
+      throws IOException {
+    int trackLength = getTrackLength(events);
+    writeHeaderChunk(out);
+    writeTrackChunkHeader(out, trackLength);
+
+    int runningStatus = 0;
+    long previousTick = 0;
+    for (int i = 0; i < events.size(); i++) {
+      int status = events.getStatus(i);
+      if (!isEncodable(status)) {
+        continue;
+      }
+      long tick = Math.max(previousTick, events.getTick(i));
+      writeVariableLength(out, tick - previousTick);
+      previousTick = tick;
+      runningStatus = writeMessage(events, i, status, runningStatus, out);
+    }
+    writeEndOfTrack(out);
+    return HEADER_CHUNK_LENGTH + TRACK_CHUNK_HEADER_LENGTH + trackLength;
+  }
+
+  /**
+   * Returns the size in bytes of the midi file that {@link #write} produces for the buffer.
+   */
+  public static int getFileLength(final MidiEventBuffer events) {
+    return HEADER_CHUNK_LENGTH + TRACK_CHUNK_HEADER_LENGTH + getTrackLength(events);
+  }
+
+  /**
+   * Returns the length of the data of the track chunk for the events in the buffer.
+   */
+  static int getTrackLength(final MidiEventBuffer events) {
+    int length = 0;
+    int runningStatus = 0;
+    long previousTick = 0;
+    for (int i = 0; i < events.size(); i++) {
+      int status = events.getStatus(i);
+      if (!isEncodable(status)) {
+        continue;
+      }
+      long tick = Math.max(previousTick, events.getTick(i));
+      length += getVariableLengthSize(tick - previousTick);
+      previousTick = tick;
+      int messageLength = events.getLength(i);
+      if (status < 0xF0) {
+        length += status == runningStatus ? messageLength - 1 : messageLength;
+        runningStatus = status;
+      } else if (status == 0xF0 || status == 0xF7) {
+        length += 1 + getVariableLengthSize(messageLength - 1) + messageLength - 1;
+        runningStatus = 0;
+      } else {
+        length += 1 + getVariableLengthSize(messageLength) + messageLength;
+        runningStatus = 0;
+      }
+    }
+    return length + END_OF_TRACK.length;
+  }
+
+  static void writeHeaderChunk(final OutputStream out) throws IOException {
+    writeInt(out, HEADER_CHUNK_TYPE);
+    writeInt(out, 6);
+    writeShort(out, FILE_TYPE);
+    writeShort(out, 1);
+    writeShort(out, MidiEventBuffer.RESOLUTION);
+  }
+
+  static void writeTrackChunkHeader(final OutputStream out, final int trackLength)
+      throws IOException {
+    writeInt(out, TRACK_CHUNK_TYPE);
+    writeInt(out, trackLength);
+  }
+
+  /**
+   * Writes the end of track meta event with a delta time of zero.
+   */
+  static void writeEndOfTrack(final OutputStream out) throws IOException {
+    out.write(END_OF_TRACK);
+  }
+
+  /**
+   * Writes the message at the given index without its delta time.
+   *
+   * @return the running status after the message was written
+   */
+  static int writeMessage(final MidiEventBuffer events, final int index, final int status,
+                          final int runningStatus, final OutputStream out) throws IOException {
+    int messageLength = events.getLength(index);
+    if (status < 0xF0) {
+      if (status != runningStatus) {
+        out.write(status);
+      }
+      for (int position = 1; position < messageLength; position++) {
+        out.write(events.getMessageByte(index, position));
+      }
+      return status;
+    }
+    if (status == 0xF0 || status == 0xF7) {
+      out.write(status);
+      writeVariableLength(out, messageLength - 1);
+      for (int position = 1; position < messageLength; position++) {
+        out.write(events.getMessageByte(index, position));
+      }
+    } else {
+      out.write(0xF7);
+      writeVariableLength(out, messageLength);
+      for (int position = 0; position < messageLength; position++) {
+        out.write(events.getMessageByte(index, position));
+      }
+    }
+    return 0;
+  }
+
+  static void writeVariableLength(final OutputStream out, final long value) throws IOException {
+    int shift = (getVariableLengthSize(value) - 1) * 7;
+    for (; shift > 0; shift -= 7) {
+      out.write((int) ((value >>> shift) & 0x7F) | 0x80);
+    }
+    out.write((int) (value & 0x7F));
+  }
+
+  static int getVariableLengthSize(final long value) {
+    int size = 1;
+    long remaining = value >>> 7;
+    while (remaining != 0) {
+      size++;
+      remaining >>>= 7;
+    }
+    return size;
+  }
+
+  static void writeInt(final OutputStream out, final int value) throws IOException {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static void writeShort(final OutputStream out, final int value) throws IOException {
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
@@ -1,6 +1,8 @@
 package org.midiarchiver.core;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
@@ -10,6 +12,9 @@ import javax.sound.midi.MidiUnavailableException;
  */
 public class MidiSystemService {
 
+  // Device ids by vendor, name and version, which is what the id is derived from.
+  private final Map<String, String> deviceIds = new ConcurrentHashMap<>();
+
   public MidiDevice.Info[] getMidiDeviceInfo() {
     return MidiSystem.getMidiDeviceInfo();
   }
@@ -18,8 +23,23 @@ public class MidiSystemService {
     return MidiSystem.getMidiDevice(deviceInfo);
   }
 
+  /**
+   * Returns a stable id for the device. Ids are cached, since they are looked up for every device
+   * on every check for new devices.
+   */
   public String getDeviceId(final MidiDevice.Info deviceInfo) {
-    String deviceIdString = deviceInfo.getVendor() + deviceInfo.getName() + deviceInfo.getVersion();
-    return UUID.nameUUIDFromBytes(deviceIdString.getBytes()).toString();
+    return deviceIds.computeIfAbsent(getDeviceIdString(deviceInfo),
+        key -> UUID.nameUUIDFromBytes(key.getBytes()).toString());
+  }
+
+  /**
+   * Returns the id that {@link #getDeviceId} returns for the device, without caching it.
+   */
+  public static String createDeviceId(final MidiDevice.Info deviceInfo) {
+    return UUID.nameUUIDFromBytes(getDeviceIdString(deviceInfo).getBytes()).toString();
+  }
+
+  private static String getDeviceIdString(final MidiDevice.Info deviceInfo) {
+    return deviceInfo.getVendor() + deviceInfo.getName() + deviceInfo.getVersion();
   }
 }
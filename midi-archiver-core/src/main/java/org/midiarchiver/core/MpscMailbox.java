@@ -0,0 +1,103 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of items with a timestamp, for any number of producers and a single
+ * consumer. Slots are allocated once, so offering and polling do not allocate.
+ *
+ * <p>Each slot has a sequence number, as in Dmitry Vyukov's bounded queue: a producer claims a
+ * slot by advancing the tail with a compare and set and publishes it by setting the sequence of
+ * the slot, and the consumer releases the slot for the next lap by setting its sequence again.
+ */
+final class MpscMailbox {
+
+  /**
+   * Receives the items polled from the mailbox.
+   */
+  interface Consumer {
+    void accept(Object item, long timestamp);
+  }
+
+  private final Object[] items;
+  private final long[] timestamps;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // Only accessed by the consumer, but read by producers to decide whether to schedule it.
+  private volatile long head;
+
+  /**
+   * @param capacity the maximum number of queued items, rounded up to a power of two
+   */
+  MpscMailbox(final int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    int size = Math.max(Integer.highestOneBit(capacity - 1) << 1, 1);
+    this.items = new Object[size];
+    this.timestamps = new long[size];
+    this.sequences = new AtomicLongArray(size);
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an item.
+   *
+   * @return false if the mailbox is full
+   */
+  boolean offer(final Object item, final long timestamp) {
+    long position;
+    int index;
+    while (true) {
+      position = tail.get();
+      index = (int) position & mask;
+      long sequence = sequences.get(index);
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (sequence < position) {
+        // The slot still holds the item of the previous lap.
+        return false;
+      }
+    }
+    items[index] = item;
+    timestamps[index] = timestamp;
+    // The ordered write publishes the item and timestamp to the consumer.
+    sequences.lazySet(index, position + 1);
+    return true;
+  }
+
+  /**
+   * Removes the oldest item and hands it to the consumer. Must only be called by the consumer
+   * thread.
+   *
+   * @return false if there is no published item
+   */
+  boolean poll(final Consumer consumer) {
+    long position = head;
+    int index = (int) position & mask;
+    if (sequences.get(index) != position + 1) {
+      return false;
+    }
+    Object item = items[index];
+    long timestamp = timestamps[index];
+    items[index] = null;
+    sequences.lazySet(index, position + items.length);
+    head = position + 1;
+    consumer.accept(item, timestamp);
+    return true;
+  }
+
+  /**
+   * Returns true if no item has been claimed. An item that has been claimed by a producer but not
+   * yet published makes the mailbox non-empty.
+   */
+  boolean isEmpty() {
+    return tail.get() == head;
+  }
+}
@@ -0,0 +1,83 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A fixed size ring of the most recent messages received while a device is not recording. When a
+ * recording starts, the messages from the last pre-roll interval are moved to the start of the
+ * session, so that a program change, a bank select or a pedal pressed just before the first note
+ * is archived with it.
+ *
+ * <p>The ring is allocated once and older messages are overwritten, so its memory use does not
+ * depend on the traffic between sessions. Only short messages are kept; system exclusive messages
+ * have no fixed size and are not retained.
+ */
+public class PreRollBuffer {
+
+  public static final int DEFAULT_CAPACITY = 512;
+
+  private final long[] timestamps;
+  private final int[] messages;
+  private final long preRollMicros;
+  private int next;
+  private int size;
+
+  /**
+   * @param capacity the maximum number of messages that are kept
+   * @param preRollMicros how long before the start of a recording messages are kept for
+   */
+  public PreRollBuffer(final int capacity, final long preRollMicros) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    this.timestamps = new long[capacity];
+    this.messages = new int[capacity];
+    this.preRollMicros = preRollMicros;
+  }
+
+  /**
+   * Adds a message, overwriting the oldest message if the ring is full.
+   *
+   * @param timeStamp the timestamp of the message in microseconds
+   */
+  public void add(final MidiMessage message, final long timeStamp) {
+    if (!(message instanceof ShortMessage)) {
+      return;
+    }
+    ShortMessage shortMessage = (ShortMessage) message;
+    timestamps[next] = timeStamp;
+    messages[next] = shortMessage.getStatus() | shortMessage.getData1() << 8
+        | shortMessage.getData2() << 16 | shortMessage.getLength() << 24;
+    next = (next + 1) % messages.length;
+    size = Math.min(size + 1, messages.length);
+  }
+
+  /**
+   * Appends the messages received within the pre-roll interval before the given time to the
+   * buffer and empties the ring. The timestamps of the appended messages are relative to the
+   * earliest of them.
+   *
+   * @param events the buffer of the session that is starting
+   * @param timeStamp the timestamp of the message that starts the recording, in microseconds
+   * @return the timestamp that the session starts at, which is the timestamp of the earliest
+   *     appended message or the given time if none were appended
+   */
+  public long drainTo(final MidiEventBuffer events, final long timeStamp) {
+    int first = (next - size + messages.length) % messages.length;
+    int skipped = 0;
+    while (skipped < size && timestamps[(first + skipped) % messages.length]
+        < timeStamp - preRollMicros) {
+      skipped++;
+    }
+    long startTimestamp = skipped < size
+        ? Math.min(timestamps[(first + skipped) % messages.length], timeStamp) : timeStamp;
+    for (int i = skipped; i < size; i++) {
+      int index = (first + i) % messages.length;
+      int message = messages[index];
+      events.appendShortMessage(message & 0xFF, message >>> 8 & 0xFF, message >>> 16 & 0xFF,
+          message >>> 24, Math.max(timestamps[index] - startTimestamp, 0));
+    }
+    size = 0;
+    return startTimestamp;
+  }
+}
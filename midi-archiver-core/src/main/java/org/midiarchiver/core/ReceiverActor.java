@@ -0,0 +1,159 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an {@link ArchivingReceiver} as a single writer actor. {@link #send} only adds the message
+ * to a lock-free {@link MpscMailbox}, which is processed in batches by a task on a small pool
+ * shared by all devices, so the thread of a midi driver never waits for the receiver.
+ *
+ * <p>The timeout that stops recording and the closing of the receiver are delivered through the
+ * mailbox as well, so the receiver is only ever used by one thread at a time and its locks are
+ * never contended. When the mailbox is full the sending thread waits for it to drain, backing off
+ * up to a millisecond at a time, so messages are not lost. The timeout never waits, since the
+ * timing wheel runs the timeouts of all devices. If the mailbox is full it is run by the actor
+ * after the current batch.
+ */
+public class ReceiverActor implements Receiver {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReceiverActor.class);
+
+  public static final int DEFAULT_MAILBOX_CAPACITY = 4096;
+
+  /** The number of items processed before the task yields its thread to other actors. */
+  private static final int BATCH_SIZE = 256;
+
+  private static final long MIN_BACKOFF_NANOS = 1000;
+  private static final long MAX_BACKOFF_NANOS = 1000 * 1000;
+
+  private final ArchivingReceiver archivingReceiver;
+  private final Executor executor;
+  private final MpscMailbox mailbox;
+  private final MpscMailbox.Consumer dispatcher = this::dispatch;
+  private final Runnable processTask = this::process;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  // The timeout that did not fit in the mailbox.
+  private final AtomicReference<Runnable> overflowedTimeout = new AtomicReference<>();
+
+  public ReceiverActor(final ArchivingReceiver archivingReceiver, final Executor executor) {
+    this(archivingReceiver, executor, DEFAULT_MAILBOX_CAPACITY);
+  }
+
+  /**
+   * @param executor the pool that processes the mailbox
+   * @param mailboxCapacity the number of messages that can be queued before senders wait
+   */
+  public ReceiverActor(final ArchivingReceiver archivingReceiver, final Executor executor,
+                       final int mailboxCapacity) {
+    this.archivingReceiver = Preconditions.checkNotNull(archivingReceiver);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.mailbox = new MpscMailbox(mailboxCapacity);
+    archivingReceiver.setTimeoutExecutor(this::executeTimeout);
+  }
+
+  /**
+   * Queues a message for the receiver. Messages without a timestamp are timestamped when they are
+   * queued rather than when they are recorded.
+   */
+  @Override
+  public void send(final MidiMessage message, long timeStamp) {
+    if (closed.get()) {
+      return;
+    }
+    if (timeStamp < 0) {
+      timeStamp = System.nanoTime() / 1000;
+    }
+    enqueue(message, timeStamp);
+  }
+
+  /**
+   * Closes the receiver on the actor, after the messages that have already been queued, and waits
+   * for it to be closed.
+   */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    CountDownLatch receiverClosed = new CountDownLatch(1);
+    enqueue((Runnable) () -> {
+      try {
+        archivingReceiver.close();
+      } finally {
+        receiverClosed.countDown();
+      }
+    }, 0);
+    Uninterruptibles.awaitUninterruptibly(receiverClosed);
+  }
+
+  /**
+   * Hands the timeout to the actor without waiting for room in the mailbox.
+   */
+  private void executeTimeout(final Runnable task) {
+    if (closed.get()) {
+      return;
+    }
+    if (!mailbox.offer(task, 0)) {
+      overflowedTimeout.set(task);
+    }
+    schedule();
+  }
+
+  private void enqueue(final Object item, final long timestamp) {
+    long backoffNanos = MIN_BACKOFF_NANOS;
+    while (!mailbox.offer(item, timestamp)) {
+      schedule();
+      LockSupport.parkNanos(backoffNanos);
+      backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+    }
+    schedule();
+  }
+
+  private void schedule() {
+    if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+      executor.execute(processTask);
+    }
+  }
+
+  private void process() {
+    try {
+      int processed = 0;
+      while (processed < BATCH_SIZE && mailbox.poll(dispatcher)) {
+        processed++;
+      }
+      Runnable timeout = overflowedTimeout.getAndSet(null);
+      if (timeout != null) {
+        dispatch(timeout, 0);
+      }
+    } finally {
+      scheduled.set(false);
+    }
+    // An item queued while the flag was still set has not scheduled the actor.
+    if (!mailbox.isEmpty() || overflowedTimeout.get() != null) {
+      schedule();
+    }
+  }
+
+  private void dispatch(final Object item, final long timestamp) {
+    try {
+      if (item instanceof MidiMessage) {
+        archivingReceiver.send((MidiMessage) item, timestamp);
+      } else {
+        ((Runnable) item).run();
+      }
+    } catch (RuntimeException e) {
+      logger.error("Unexpected exception in receiver actor", e);
+    }
+  }
+}
@@ -1,12 +1,55 @@
 package org.midiarchiver.core;
 
+import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.Sequence;
+import java.io.Closeable;
 import java.io.IOException;
 
 /**
- * An interface for writing a {@link Sequence}.
+ * An interface for writing a {@link Sequence}. A writer is closed with the receiver that it was
+ * created for.
  */
-public interface SequenceWriter {
+public interface SequenceWriter extends Closeable {
 
   void write(Sequence sequence) throws IOException;
+
+  /**
+   * Writes the events of a recorded session. The buffer is reused once this method returns, so
+   * implementations must not retain a reference to it. The default implementation converts the
+   * events to a {@link Sequence} and calls {@link #write(Sequence)}.
+   */
+  default void write(MidiEventBuffer events) throws IOException {
+    try {
+      write(events.toSequence());
+    } catch (InvalidMidiDataException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Writes the events of a recorded session and runs the callback once they are durably stored,
+   * for example to commit the session in a {@link SessionJournal}. The callback is not run if the
+   * session could not be written. The default implementation calls {@link #write(MidiEventBuffer)}
+   * and {@link #flush()} and then runs the callback on the calling thread.
+   */
+  default void write(MidiEventBuffer events, Runnable durableCallback) throws IOException {
+    write(events);
+    flush();
+    durableCallback.run();
+  }
+
+  /**
+   * Forces the sessions written so far to durable storage. The default implementation does
+   * nothing.
+   */
+  default void flush() throws IOException {
+  }
+
+  /**
+   * Releases the files and other resources held by the writer. No sessions are written after it
+   * is closed. The default implementation does nothing.
+   */
+  @Override
+  default void close() throws IOException {
+  }
 }
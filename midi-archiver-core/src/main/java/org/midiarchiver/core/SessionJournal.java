@@ -0,0 +1,414 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory-mapped, append-only journal of the events of the sessions that a device is recording or
+ * has not finished writing yet. If the process or the device stops before a session is durably
+ * written, the session can be recovered from the journal with
+ * {@link #recover(File, int, MidiEventBuffer)}.
+ *
+ * <p>Events are appended by writing to the mapped file, which does not allocate or make a system
+ * call. The mapped file is forced to storage at most once per force interval, by the io executor of
+ * the {@link TimingWheel}, so a power failure loses at most the events of the last interval. When
+ * the records fill three quarters of the mapped file, the io executor maps it again with twice the
+ * size. The thread appending events never forces or maps the file: if a record does not fit before
+ * the larger mapping is ready, the rest of the session is not journaled.
+ *
+ * <p>The header has {@link #SLOT_COUNT} slots, so that the session being recorded can be journaled
+ * while the previous session is still being written. A session occupies a slot from
+ * {@link #begin(long)} until it is committed with {@link #commit(int)}, which should only be called
+ * once the session has been written and forced to storage. Each record is tagged with the
+ * generation of its session. A new session starts at the beginning of the records if the other
+ * slot is committed, and after the records of the other session otherwise, so records left over
+ * from earlier sessions are ignored during recovery without having to be erased.
+ *
+ * <p>A session that is written to segments while it is recorded is marked with
+ * {@link #markDurable(int, long)} as each segment is finished, so that only the events after the
+ * finished segments are recovered.
+ */
+public class SessionJournal implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionJournal.class);
+
+  public static final String FILE_EXTENSION = ".journal";
+  public static final int DEFAULT_CAPACITY = 256 * 1024;
+  public static final long DEFAULT_FORCE_INTERVAL_MILLIS = 1000;
+  public static final int SLOT_COUNT = 2;
+  /** Returned by {@link #begin(long)} if the session is not journaled. */
+  public static final int NO_SLOT = -1;
+
+  private static final int MAGIC = 0x4D414A31; // MAJ1
+  private static final int VERSION = 1;
+  private static final int STATE_COMMITTED = 0;
+  private static final int STATE_OPEN = 1;
+
+  // Header layout, followed by the slots.
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int SLOTS_OFFSET = 8;
+  private static final int HEADER_LENGTH = 64;
+
+  // Slot layout.
+  private static final int SLOT_GENERATION_OFFSET = 0;
+  private static final int SLOT_STATE_OFFSET = 4;
+  private static final int SLOT_START_TIME_OFFSET = 8;
+  private static final int SLOT_START_POSITION_OFFSET = 16;
+  private static final int SLOT_DURABLE_POSITION_OFFSET = 20;
+  private static final int SLOT_LENGTH = 24;
+
+  // Record layout. Long messages are followed by their bytes padded to a multiple of 4.
+  private static final int RECORD_GENERATION_OFFSET = 0;
+  private static final int RECORD_MESSAGE_OFFSET = 4;
+  private static final int RECORD_TIMESTAMP_OFFSET = 8;
+  private static final int RECORD_LENGTH = 16;
+  private static final int LONG_MESSAGE_FLAG = 0x80000000;
+
+  private final File file;
+  private final FileChannel channel;
+  private final long forceIntervalMillis;
+  private final Executor ioExecutor;
+  private final TimingWheel.Timeout forceTimeout;
+  private final Runnable growTask = this::grow;
+  // The end of the records of each slot, which is only known once the next session begins.
+  private final int[] slotEndPositions = new int[SLOT_COUNT];
+
+  private volatile MappedByteBuffer buffer;
+  private volatile boolean dirty;
+  private volatile boolean growRequested;
+  private boolean closed;
+  private int generation;
+  private int slot = NO_SLOT;
+  private int position = HEADER_LENGTH;
+  private boolean failed = true;
+
+  /**
+   * Opens the journal file, creating it if needed.
+   *
+   * @param timingWheel the wheel that schedules the periodic force of the journal on its io
+   *                    executor
+   */
+  public SessionJournal(final File file, final int capacity, final TimingWheel timingWheel,
+                        final long forceIntervalMillis) throws IOException {
+    Preconditions.checkArgument(capacity > HEADER_LENGTH, "capacity is too small");
+    this.file = Preconditions.checkNotNull(file);
+    this.forceIntervalMillis = forceIntervalMillis;
+    Executor ioExecutor = timingWheel.getIoExecutor();
+    this.ioExecutor = ioExecutor;
+    Runnable forceTask = this::force;
+    // Forcing waits for the storage, which the wheel thread must not do.
+    this.forceTimeout = timingWheel.newTimeout(() -> {
+      try {
+        ioExecutor.execute(forceTask);
+      } catch (RejectedExecutionException e) {
+        logger.debug("Not forcing journal " + file + ", the timing wheel is closed");
+      }
+    });
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent.mkdirs()) {
+      logger.info("Created directory " + parent);
+    }
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.buffer = channel.map(MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+    if (buffer.getInt(MAGIC_OFFSET) == MAGIC) {
+      for (int i = 0; i < SLOT_COUNT; i++) {
+        generation = Math.max(generation, buffer.getInt(getSlotOffset(i) + SLOT_GENERATION_OFFSET));
+        // Sessions that have not been recovered yet keep their slot until they are committed.
+        slotEndPositions[i] = isOpen(buffer, i) ? readSlot(buffer, i, null, 0) : HEADER_LENGTH;
+      }
+    } else {
+      buffer.putInt(VERSION_OFFSET, VERSION);
+      for (int i = 0; i < SLOT_COUNT; i++) {
+        buffer.putInt(getSlotOffset(i) + SLOT_STATE_OFFSET, STATE_COMMITTED);
+        slotEndPositions[i] = HEADER_LENGTH;
+      }
+      buffer.putInt(MAGIC_OFFSET, MAGIC);
+      markDirty();
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Starts journaling a new session in a committed slot. If both slots are still open the session
+   * is not journaled.
+   *
+   * @return the slot of the session, which is passed to {@link #commit(int)}, or {@link #NO_SLOT}
+   */
+  public synchronized int begin(final long startTimeMillis) {
+    MappedByteBuffer buffer = this.buffer;
+    if (slot != NO_SLOT) {
+      slotEndPositions[slot] = position;
+    }
+    slot = NO_SLOT;
+    failed = true;
+    int startPosition = HEADER_LENGTH;
+    for (int i = 0; i < SLOT_COUNT; i++) {
+      if (!isOpen(buffer, i)) {
+        slot = i;
+      } else {
+        startPosition = Math.max(startPosition, slotEndPositions[i]);
+      }
+    }
+    if (slot == NO_SLOT) {
+      logger.warn("Not journaling the session, the previous sessions in journal " + file
+          + " have not been written");
+      return NO_SLOT;
+    }
+    generation++;
+    position = startPosition;
+    failed = false;
+    int slotOffset = getSlotOffset(slot);
+    buffer.putInt(slotOffset + SLOT_GENERATION_OFFSET, generation);
+    buffer.putLong(slotOffset + SLOT_START_TIME_OFFSET, startTimeMillis);
+    buffer.putInt(slotOffset + SLOT_START_POSITION_OFFSET, startPosition);
+    buffer.putInt(slotOffset + SLOT_DURABLE_POSITION_OFFSET, startPosition);
+    buffer.putInt(slotOffset + SLOT_STATE_OFFSET, STATE_OPEN);
+    markDirty();
+    return slot;
+  }
+
+  /**
+   * Appends the event at the given index of the buffer to the session that was begun last.
+   */
+  public void append(final MidiEventBuffer events, final int index) {
+    if (failed) {
+      return;
+    }
+    boolean shortMessage = events.isShortMessage(index);
+    int length = events.getLength(index);
+    int recordLength = shortMessage ? RECORD_LENGTH : RECORD_LENGTH + ((length + 3) & ~3);
+    MappedByteBuffer buffer = this.buffer;
+    if (position + recordLength > buffer.capacity()) {
+      logger.warn("Not journaling the rest of the session, journal " + file + " is full");
+      failed = true;
+      return;
+    }
+    if (shortMessage) {
+      buffer.putInt(position + RECORD_MESSAGE_OFFSET, events.getStatus(index)
+          | events.getData1(index) << 8 | events.getData2(index) << 16 | length << 24);
+    } else {
+      buffer.putInt(position + RECORD_MESSAGE_OFFSET, LONG_MESSAGE_FLAG | length);
+      for (int i = 0; i < length; i++) {
+        buffer.put(position + RECORD_LENGTH + i, (byte) events.getMessageByte(index, i));
+      }
+    }
+    buffer.putLong(position + RECORD_TIMESTAMP_OFFSET, events.getTimestamp(index));
+    // The generation is written last so that a partially written record is not recovered.
+    buffer.putInt(position + RECORD_GENERATION_OFFSET, generation);
+    position += recordLength;
+    markDirty();
+    if (position > buffer.capacity() - buffer.capacity() / 4 && !growRequested) {
+      requestGrow();
+    }
+  }
+
+  /**
+   * Marks the events of the session in the given slot before the given timestamp as durably
+   * written, so they are not recovered. This may be called by the thread that writes the session,
+   * for events that were appended before they were handed to it.
+   */
+  public synchronized void markDurable(final int slot, final long durableMicros) {
+    MappedByteBuffer buffer = this.buffer;
+    int slotOffset = getSlotOffset(slot);
+    int generation = buffer.getInt(slotOffset + SLOT_GENERATION_OFFSET);
+    int durablePosition = buffer.getInt(slotOffset + SLOT_DURABLE_POSITION_OFFSET);
+    int position = durablePosition;
+    while (position + RECORD_LENGTH <= buffer.capacity()
+        && buffer.getInt(position + RECORD_GENERATION_OFFSET) == generation
+        && buffer.getLong(position + RECORD_TIMESTAMP_OFFSET) < durableMicros) {
+      position += getRecordLength(buffer, position);
+    }
+    if (position != durablePosition) {
+      buffer.putInt(slotOffset + SLOT_DURABLE_POSITION_OFFSET, position);
+      markDirty();
+    }
+  }
+
+  /**
+   * Marks the session in the given slot as written, which frees the slot. A committed session is
+   * not recovered. This may be called by the thread that wrote the session.
+   */
+  public synchronized void commit(final int slot) {
+    MappedByteBuffer buffer = this.buffer;
+    buffer.putInt(getSlotOffset(slot) + SLOT_STATE_OFFSET, STATE_COMMITTED);
+    if (closed) {
+      // Sessions may be committed by a writer that finishes after the receiver has been closed.
+      buffer.force();
+    } else {
+      markDirty();
+    }
+  }
+
+  /**
+   * Forces changes to the journal to storage.
+   */
+  public void force() {
+    if (dirty) {
+      dirty = false;
+      buffer.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    forceTimeout.cancel();
+    force();
+    channel.close();
+  }
+
+  /**
+   * Reads the uncommitted session in the given slot of the journal file, if there is one.
+   *
+   * @param events the buffer that the events of the session are added to
+   * @return true if the slot contained an uncommitted session
+   */
+  public static boolean recover(final File file, final int slot, final MidiEventBuffer events)
+      throws IOException {
+    Preconditions.checkElementIndex(slot, SLOT_COUNT);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_LENGTH) {
+        return false;
+      }
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt(MAGIC_OFFSET) != MAGIC || !isOpen(buffer, slot)) {
+        return false;
+      }
+      // The events after the finished segments of a session are recovered as a session that starts
+      // with the first of them, as the next segment would have.
+      int slotOffset = getSlotOffset(slot);
+      int durablePosition = buffer.getInt(slotOffset + SLOT_DURABLE_POSITION_OFFSET);
+      long baseMicros = durablePosition > buffer.getInt(slotOffset + SLOT_START_POSITION_OFFSET)
+          && durablePosition + RECORD_LENGTH <= buffer.limit()
+          ? buffer.getLong(durablePosition + RECORD_TIMESTAMP_OFFSET) : 0;
+      events.setStartTimeMillis(
+          buffer.getLong(slotOffset + SLOT_START_TIME_OFFSET) + baseMicros / 1000);
+      readSlot(buffer, slot, events, baseMicros);
+      return true;
+    }
+  }
+
+  /**
+   * Marks the session in the given slot of the journal file as committed.
+   */
+  public static void markCommitted(final File file, final int slot) throws IOException {
+    Preconditions.checkElementIndex(slot, SLOT_COUNT);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_LENGTH);
+      buffer.putInt(getSlotOffset(slot) + SLOT_STATE_OFFSET, STATE_COMMITTED);
+      buffer.force();
+    }
+  }
+
+  private static int getSlotOffset(final int slot) {
+    return SLOTS_OFFSET + slot * SLOT_LENGTH;
+  }
+
+  private static boolean isOpen(final MappedByteBuffer buffer, final int slot) {
+    return buffer.getInt(getSlotOffset(slot) + SLOT_STATE_OFFSET) == STATE_OPEN;
+  }
+
+  /**
+   * Reads the records of the session in the given slot that have not been marked durable.
+   *
+   * @param events the buffer that the events are added to, or null if they are only skipped
+   * @param baseMicros subtracted from the timestamps of the events
+   * @return the position after the last record of the session
+   */
+  private static int readSlot(final MappedByteBuffer buffer, final int slot,
+                              final MidiEventBuffer events, final long baseMicros) {
+    int slotOffset = getSlotOffset(slot);
+    int generation = buffer.getInt(slotOffset + SLOT_GENERATION_OFFSET);
+    int limit = buffer.limit();
+    int position = Math.max(HEADER_LENGTH,
+        Math.max(buffer.getInt(slotOffset + SLOT_START_POSITION_OFFSET),
+            buffer.getInt(slotOffset + SLOT_DURABLE_POSITION_OFFSET)));
+    byte[] messageBytes = new byte[0];
+    while (position + RECORD_LENGTH <= limit
+        && buffer.getInt(position + RECORD_GENERATION_OFFSET) == generation) {
+      int message = buffer.getInt(position + RECORD_MESSAGE_OFFSET);
+      long timestamp = buffer.getLong(position + RECORD_TIMESTAMP_OFFSET) - baseMicros;
+      if ((message & LONG_MESSAGE_FLAG) == 0) {
+        if (events != null) {
+          events.appendShortMessage(message & 0xFF, (message >>> 8) & 0xFF,
+              (message >>> 16) & 0xFF, message >>> 24, timestamp);
+        }
+        position += RECORD_LENGTH;
+      } else {
+        int length = message & ~LONG_MESSAGE_FLAG;
+        if (length <= 0 || position + RECORD_LENGTH + length > limit) {
+          break;
+        }
+        if (events != null) {
+          if (messageBytes.length < length) {
+            messageBytes = new byte[length];
+          }
+          for (int i = 0; i < length; i++) {
+            messageBytes[i] = buffer.get(position + RECORD_LENGTH + i);
+          }
+          events.appendLongMessage(messageBytes, 0, length, timestamp);
+        }
+        position += RECORD_LENGTH + ((length + 3) & ~3);
+      }
+    }
+    return position;
+  }
+
+  private static int getRecordLength(final MappedByteBuffer buffer, final int position) {
+    int message = buffer.getInt(position + RECORD_MESSAGE_OFFSET);
+    return (message & LONG_MESSAGE_FLAG) == 0
+        ? RECORD_LENGTH : RECORD_LENGTH + (((message & ~LONG_MESSAGE_FLAG) + 3) & ~3);
+  }
+
+  private void markDirty() {
+    dirty = true;
+    if (!forceTimeout.isArmed()) {
+      forceTimeout.reset(forceIntervalMillis);
+    }
+  }
+
+  private void requestGrow() {
+    growRequested = true;
+    try {
+      ioExecutor.execute(growTask);
+    } catch (RejectedExecutionException e) {
+      logger.debug("Not growing journal " + file + ", the timing wheel is closed");
+    }
+  }
+
+  /**
+   * Maps the journal with twice its size. The records appended to the smaller mapping in the
+   * meantime are in the same pages of the file, so they are not lost. If the journal cannot be
+   * grown, growing is not requested again and sessions that outgrow it are not journaled.
+   */
+  private synchronized void grow() {
+    if (closed) {
+      return;
+    }
+    long newCapacity = (long) buffer.capacity() * 2;
+    try {
+      if (newCapacity > Integer.MAX_VALUE) {
+        throw new IOException("Journal is full");
+      }
+      buffer = channel.map(MapMode.READ_WRITE, 0, newCapacity);
+      growRequested = false;
+    } catch (IOException e) {
+      logger.warn("Unable to grow journal " + file, e);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package org.midiarchiver.core;
+
+import java.io.File;
+
+/**
+ * Notified by a {@link SequenceWriter} after it has written a session, or a segment of a session,
+ * that was passed to it as a {@link MidiEventBuffer}.
+ */
+@FunctionalInterface
+public interface SessionListener {
+
+  /**
+   * Called after a session has been written.
+   *
+   * @param summary the statistics of the session, which are only valid for the duration of the call
+   * @param file the file that contains the session
+   * @param offset the position of the midi file of the session within the file
+   * @param length the length of the midi file of the session in bytes
+   */
+  void sessionWritten(SessionSummary summary, File file, long offset, long length);
+}
@@ -0,0 +1,154 @@
+package org.midiarchiver.core;
+
+import java.util.Arrays;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Statistics of a written session, such as its duration, the number of notes and the channels
+ * that were used, and the notes that were played, for the content index. A summary is accumulated
+ * event by event and is reused between sessions.
+ */
+public class SessionSummary {
+
+  private static final int INITIAL_NOTE_CAPACITY = 64;
+  // The note arrays of a long session are dropped on reset rather than kept for the next ones.
+  private static final int MAX_RETAINED_NOTE_CAPACITY = 4096;
+
+  private long startTimeMillis;
+  private long startMicros;
+  private long endMicros;
+  private int eventCount;
+  private int noteCount;
+  private int channelMask;
+  private int lowestNote;
+  private int highestNote;
+  // The channel and key of each note, as channel << 7 | key, and its offset from the start.
+  private int[] notes = new int[INITIAL_NOTE_CAPACITY];
+  private long[] noteMicros = new long[INITIAL_NOTE_CAPACITY];
+
+  public SessionSummary() {
+    reset(0, 0);
+  }
+
+  /**
+   * Starts a new summary.
+   *
+   * @param startTimeMillis the wall clock time of the first event
+   * @param startMicros the timestamp, relative to the start of the session, of the first event
+   */
+  public void reset(final long startTimeMillis, final long startMicros) {
+    this.startTimeMillis = startTimeMillis;
+    this.startMicros = startMicros;
+    this.endMicros = startMicros;
+    this.eventCount = 0;
+    this.noteCount = 0;
+    this.channelMask = 0;
+    this.lowestNote = -1;
+    this.highestNote = -1;
+    if (notes.length > MAX_RETAINED_NOTE_CAPACITY) {
+      notes = new int[INITIAL_NOTE_CAPACITY];
+      noteMicros = new long[INITIAL_NOTE_CAPACITY];
+    }
+  }
+
+  /**
+   * Resets the summary and adds all of the events in the buffer.
+   */
+  public void set(final MidiEventBuffer events) {
+    set(events, events.getStartTimeMillis());
+  }
+
+  /**
+   * Resets the summary with the given start time and adds all of the events in the buffer.
+   */
+  public void set(final MidiEventBuffer events, final long startTimeMillis) {
+    reset(startTimeMillis, 0);
+    for (int i = 0; i < events.size(); i++) {
+      add(events, i);
+    }
+  }
+
+  /**
+   * Adds the event at the given index of the buffer.
+   */
+  public void add(final MidiEventBuffer events, final int index) {
+    eventCount++;
+    endMicros = Math.max(endMicros, events.getTimestamp(index));
+    int status = events.getStatus(index);
+    if (status >= 0xF0) {
+      return;
+    }
+    channelMask |= 1 << (status & 0x0F);
+    if ((status & 0xF0) == ShortMessage.NOTE_ON && events.getData2(index) > 0) {
+      int note = events.getData1(index);
+      if (noteCount == notes.length) {
+        notes = Arrays.copyOf(notes, noteCount * 2);
+        noteMicros = Arrays.copyOf(noteMicros, noteCount * 2);
+      }
+      notes[noteCount] = (status & 0x0F) << 7 | note;
+      noteMicros[noteCount] = events.getTimestamp(index) - startMicros;
+      noteCount++;
+      lowestNote = lowestNote < 0 ? note : Math.min(lowestNote, note);
+      highestNote = Math.max(highestNote, note);
+    }
+  }
+
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  public long getDurationMillis() {
+    return (endMicros - startMicros) / 1000;
+  }
+
+  public long getEndTimeMillis() {
+    return startTimeMillis + getDurationMillis();
+  }
+
+  public int getEventCount() {
+    return eventCount;
+  }
+
+  public int getNoteCount() {
+    return noteCount;
+  }
+
+  /**
+   * Returns a mask with bit n set if a channel message was sent on channel n (0-15).
+   */
+  public int getChannelMask() {
+    return channelMask;
+  }
+
+  /**
+   * Returns the lowest note that was played, or -1 if no notes were played.
+   */
+  public int getLowestNote() {
+    return lowestNote;
+  }
+
+  /**
+   * Returns the highest note that was played, or -1 if no notes were played.
+   */
+  public int getHighestNote() {
+    return highestNote;
+  }
+
+  /**
+   * Returns the key of the note at the given index, in the order the notes were added.
+   */
+  public int getNoteKey(final int index) {
+    return notes[index] & 0x7F;
+  }
+
+  public int getNoteChannel(final int index) {
+    return notes[index] >>> 7;
+  }
+
+  /**
+   * Returns the time of the note at the given index relative to the start of the summary.
+   */
+  public long getNoteMicros(final int index) {
+    return noteMicros[index];
+  }
+}
@@ -0,0 +1,306 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link StreamingSequenceWriter} that encodes sessions into midi files as the events arrive.
+ * The track chunk is written with a placeholder length that is filled in when the file is
+ * finished. Files use the same yyyy/MM/dd/HH-mm-ss.mid layout as {@link FileSequenceWriter}.
+ *
+ * <p>A session can be split into several segment files. A new segment is started when the current
+ * one reaches the maximum number of events or the maximum duration. Each segment is a complete midi
+ * file whose ticks start at zero and whose name is based on the time the segment started. Events
+ * with the same timestamp are never split between segments, so that the events before a finished
+ * segment are told apart by their timestamp, which {@link #getDurableMicros()} returns.
+ *
+ * <p>The writer encodes through a fixed size buffer, so its memory use does not depend on the
+ * length of the session.
+ *
+ * <p>A segment that was being written when the process stopped keeps the placeholder length, so it
+ * is not a valid midi file. The journal recovers the events of such a segment, so it is deleted
+ * when the writer of its directory is created, or by {@link #deleteUnfinishedSegments(File)}.
+ */
+public class StreamingMidiFileWriter implements StreamingSequenceWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(StreamingMidiFileWriter.class);
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int TRACK_CHUNK_TYPE = 0x4D54726B; // MTrk
+
+  /**
+   * An output stream that writes to the channel of the current segment through a reused buffer.
+   */
+  private static final class ChannelOutputStream extends OutputStream {
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+    private FileChannel channel;
+    private int count;
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flush();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      byteBuffer.clear().limit(count);
+      while (byteBuffer.hasRemaining()) {
+        channel.write(byteBuffer);
+      }
+      count = 0;
+    }
+  }
+
+  private final String outputDirectoryPath;
+  private final int maxSegmentEvents;
+  private final long maxSegmentDurationMicros;
+  private final ChannelOutputStream out = new ChannelOutputStream();
+  private final SessionListener sessionListener;
+  private final SessionSummary summary = new SessionSummary();
+
+  private long sessionStartTimeMillis;
+  private File segmentFile;
+  private long segmentStartMicros;
+  private int segmentEventCount;
+  private long trackStartPosition;
+  private long previousTick;
+  private long previousTimestamp;
+  private int runningStatus;
+  private long durableMicros;
+
+  public StreamingMidiFileWriter(final String outputDirectoryPath) {
+    this(outputDirectoryPath, 0, 0);
+  }
+
+  /**
+   * @param maxSegmentEvents the number of events after which a new segment is started, or 0 for
+   *                         no limit
+   * @param maxSegmentDurationMillis the duration after which a new segment is started, or 0 for no
+   *                                 limit
+   */
+  public StreamingMidiFileWriter(final String outputDirectoryPath, final int maxSegmentEvents,
+                                 final long maxSegmentDurationMillis) {
+    this(outputDirectoryPath, maxSegmentEvents, maxSegmentDurationMillis, null);
+  }
+
+  /**
+   * @param sessionListener notified after each segment has been written, or null
+   */
+  public StreamingMidiFileWriter(final String outputDirectoryPath, final int maxSegmentEvents,
+                                 final long maxSegmentDurationMillis,
+                                 final SessionListener sessionListener) {
+    Preconditions.checkArgument(maxSegmentEvents >= 0, "maxSegmentEvents must not be negative");
+    Preconditions.checkArgument(maxSegmentDurationMillis >= 0,
+        "maxSegmentDurationMillis must not be negative");
+    this.outputDirectoryPath = Preconditions.checkNotNull(outputDirectoryPath);
+    this.maxSegmentEvents = maxSegmentEvents;
+    this.maxSegmentDurationMicros = maxSegmentDurationMillis * 1000;
+    this.sessionListener = sessionListener;
+    deleteUnfinishedSegments(new File(outputDirectoryPath));
+  }
+
+  /**
+   * Writes the given sequence to a file in a single step.
+   */
+  @Override
+  public void write(Sequence sequence) throws IOException {
+    File outputFile = createSegmentFile(System.currentTimeMillis());
+    MidiSystem.write(sequence, 1, outputFile);
+    logger.info("Wrote " + outputFile);
+  }
+
+  @Override
+  public void beginSession(long startTimeMillis) throws IOException {
+    if (out.channel != null) {
+      endSession();
+    }
+    sessionStartTimeMillis = startTimeMillis;
+    durableMicros = 0;
+    beginSegment(0);
+  }
+
+  @Override
+  public void appendEvents(MidiEventBuffer events) throws IOException {
+    if (out.channel == null) {
+      throw new IOException("No session has been started");
+    }
+    for (int i = 0; i < events.size(); i++) {
+      int status = events.getStatus(i);
+      if (!MidiFileEncoder.isEncodable(status)) {
+        continue;
+      }
+      long timestamp = events.getTimestamp(i);
+      if (isSegmentFull(timestamp)) {
+        endSegment();
+        durableMicros = timestamp;
+        beginSegment(timestamp);
+      }
+      previousTimestamp = timestamp;
+      long tick = Math.max(previousTick, MidiEventBuffer.toTick(timestamp - segmentStartMicros));
+      MidiFileEncoder.writeVariableLength(out, tick - previousTick);
+      previousTick = tick;
+      runningStatus = MidiFileEncoder.writeMessage(events, i, status, runningStatus, out);
+      segmentEventCount++;
+      summary.add(events, i);
+    }
+  }
+
+  @Override
+  public void endSession() throws IOException {
+    if (out.channel != null) {
+      endSegment();
+    }
+  }
+
+  @Override
+  public long getDurableMicros() {
+    return durableMicros;
+  }
+
+  /**
+   * Forces the segment that is currently being written to storage.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (out.channel != null) {
+      out.flush();
+      out.channel.force(false);
+    }
+  }
+
+  private boolean isSegmentFull(long timestamp) {
+    if (segmentEventCount > 0 && timestamp == previousTimestamp) {
+      return false;
+    }
+    return (maxSegmentEvents > 0 && segmentEventCount >= maxSegmentEvents)
+        || (maxSegmentDurationMicros > 0
+        && timestamp - segmentStartMicros >= maxSegmentDurationMicros);
+  }
+
+  private void beginSegment(long startMicros) throws IOException {
+    segmentFile = createSegmentFile(sessionStartTimeMillis + startMicros / 1000);
+    out.channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE);
+    segmentStartMicros = startMicros;
+    segmentEventCount = 0;
+    summary.reset(sessionStartTimeMillis + startMicros / 1000, startMicros);
+    previousTick = 0;
+    runningStatus = 0;
+
+    MidiFileEncoder.writeHeaderChunk(out);
+    MidiFileEncoder.writeTrackChunkHeader(out, 0);
+    trackStartPosition = MidiFileEncoder.HEADER_CHUNK_LENGTH
+        + MidiFileEncoder.TRACK_CHUNK_HEADER_LENGTH;
+  }
+
+  /**
+   * Writes the end of track event, fills in the length of the track chunk, forces the file to
+   * storage and closes it.
+   */
+  private void endSegment() throws IOException {
+    FileChannel channel = out.channel;
+    long fileLength;
+    try {
+      MidiFileEncoder.writeEndOfTrack(out);
+      out.flush();
+      fileLength = channel.position();
+      int trackLength = (int) (fileLength - trackStartPosition);
+      ByteBuffer length = ByteBuffer.allocate(4).putInt(0, trackLength);
+      channel.write(length, trackStartPosition - 4);
+      channel.force(false);
+      logger.info("Wrote " + segmentFile);
+    } finally {
+      out.channel = null;
+      out.count = 0;
+      channel.close();
+    }
+    if (sessionListener != null) {
+      sessionListener.sessionWritten(summary, segmentFile, 0, fileLength);
+    }
+  }
+
+  /**
+   * Deletes the segments with a placeholder track length in the latest day directory of an output
+   * directory, which holds the last segment that was written to it. This is done for the output
+   * directory of each new writer, and should be done for the other directories that a previous
+   * writer of the same sessions may have written to.
+   */
+  public static void deleteUnfinishedSegments(final File outputDirectory) {
+    File directory = outputDirectory;
+    for (int level = 0; level < 3 && directory != null; level++) {
+      directory = getLatestSubdirectory(directory);
+    }
+    File[] files = directory != null
+        ? directory.listFiles((File dir, String name) -> name.endsWith(".mid")) : null;
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      try {
+        if (isUnfinishedSegment(file)) {
+          Files.delete(file.toPath());
+          logger.warn("Deleted unfinished segment " + file);
+        }
+      } catch (IOException e) {
+        logger.warn("Unable to check segment " + file, e);
+      }
+    }
+  }
+
+  private static File getLatestSubdirectory(final File directory) {
+    File[] subdirectories = directory.listFiles(File::isDirectory);
+    if (subdirectories == null || subdirectories.length == 0) {
+      return null;
+    }
+    Arrays.sort(subdirectories);
+    return subdirectories[subdirectories.length - 1];
+  }
+
+  private static boolean isUnfinishedSegment(final File file) throws IOException {
+    int trackStart = MidiFileEncoder.HEADER_CHUNK_LENGTH + MidiFileEncoder.TRACK_CHUNK_HEADER_LENGTH;
+    if (file.length() <= trackStart) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(trackStart);
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      in.readFully(header.array());
+    }
+    return header.getInt(MidiFileEncoder.HEADER_CHUNK_LENGTH) == TRACK_CHUNK_TYPE
+        && header.getInt(trackStart - 4) == 0;
+  }
+
+  private File createSegmentFile(long startTimeMillis) throws IOException {
+    Date date = new Date(startTimeMillis);
+    File targetDirectory = new File(outputDirectoryPath + File.separator +
+        new SimpleDateFormat("yyyy/MM/dd").format(date));
+    if (targetDirectory.mkdirs()) {
+      logger.info("Created directory " + targetDirectory);
+    }
+    String baseName = new SimpleDateFormat("HH-mm-ss").format(date);
+    File file = new File(targetDirectory, baseName + ".mid");
+    for (int suffix = 2; file.exists(); suffix++) {
+      file = new File(targetDirectory, baseName + "-" + suffix + ".mid");
+    }
+    return file;
+  }
+}
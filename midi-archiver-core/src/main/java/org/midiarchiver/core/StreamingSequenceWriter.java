@@ -0,0 +1,53 @@
+package org.midiarchiver.core;
+
+import java.io.IOException;
+
+/**
+ * A {@link SequenceWriter} that writes a session while it is being recorded. The recording
+ * receiver hands over its events in chunks, so the events of a session do not need to be held in
+ * memory until the session ends.
+ */
+public interface StreamingSequenceWriter extends SequenceWriter {
+
+  /**
+   * Starts writing a new session.
+   *
+   * @param startTimeMillis the wall clock time at which the session started
+   */
+  void beginSession(long startTimeMillis) throws IOException;
+
+  /**
+   * Writes the events in the buffer. The timestamps of the events are relative to the start of the
+   * session and must not be earlier than the events of the previous chunk. The buffer is reused
+   * once this method returns.
+   */
+  void appendEvents(MidiEventBuffer events) throws IOException;
+
+  /**
+   * Finishes writing the current session.
+   */
+  void endSession() throws IOException;
+
+  /**
+   * Returns the timestamp before which the events of the current session have been written to
+   * finished segments that are forced to storage, or 0 if none have been. Events before it do not
+   * need to be recovered if the session is not finished.
+   */
+  default long getDurableMicros() {
+    return 0;
+  }
+
+  /**
+   * Writes a complete session by beginning, appending to and ending a session.
+   */
+  @Override
+  default void write(MidiEventBuffer events) throws IOException {
+    beginSession(events.getStartTimeMillis() > 0
+        ? events.getStartTimeMillis() : System.currentTimeMillis());
+    try {
+      appendEvents(events);
+    } finally {
+      endSession();
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package org.midiarchiver.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel that runs idle timeouts for many receivers on a single thread.
+ *
+ * <p>Each user creates one {@link Timeout} up front and then calls {@link Timeout#reset(long)}
+ * whenever its deadline moves. Moving the deadline later only stores the new deadline, so it does
+ * not allocate and does not touch the wheel. When the wheel reaches a timeout whose deadline has
+ * moved into the future, the timeout is moved to the bucket of its new deadline. A timeout whose
+ * deadline moves before its bucket is handed back to the wheel thread, which moves it to an earlier
+ * bucket.
+ *
+ * <p>Timeout tasks run on the wheel thread and should return quickly, as a slow task delays the
+ * timeouts of every other user. Tasks that write or force files should hand that work to the
+ * {@link #getIoExecutor() io executor} of the wheel.
+ */
+public class TimingWheel implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+  public static final long DEFAULT_TICK_MILLIS = 100;
+  public static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private static final long NOT_IN_BUCKET = Long.MAX_VALUE;
+
+  /**
+   * A reusable timeout that runs a task once its deadline passes. A timeout is disarmed until
+   * {@link #reset(long)} is called and is disarmed again after its task has run.
+   */
+  public static class Timeout {
+
+    private static final AtomicLongFieldUpdater<Timeout> DEADLINE_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(Timeout.class, "deadlineMillis");
+
+    private final TimingWheel wheel;
+    private final Runnable task;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // Whether the timeout is waiting to be added to the wheel or moved within it.
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /** The deadline, or 0 if the timeout is disarmed. */
+    private volatile long deadlineMillis;
+
+    /** The tick at which the bucket holding the timeout is processed, written by the wheel thread. */
+    private volatile long bucketTick = NOT_IN_BUCKET;
+
+    // Link to the next timeout in the bucket, only accessed by the wheel thread.
+    private Timeout next;
+    // Link to the next timeout waiting to be added to the wheel.
+    private Timeout nextPending;
+
+    Timeout(final TimingWheel wheel, final Runnable task) {
+      this.wheel = wheel;
+      this.task = task;
+    }
+
+    /**
+     * Arms the timeout to run its task after the given delay, replacing any earlier deadline.
+     */
+    public void reset(final long delayMillis) {
+      long deadline = Math.max(1, wheel.clock.getAsLong() + delayMillis);
+      deadlineMillis = deadline;
+      if ((scheduled.compareAndSet(false, true) || deadline / wheel.tickMillis < bucketTick)
+          && pending.compareAndSet(false, true)) {
+        wheel.addPending(this);
+      }
+    }
+
+    /**
+     * Disarms the timeout. The task will not run unless the timeout is reset.
+     */
+    public void cancel() {
+      deadlineMillis = 0;
+    }
+
+    /**
+     * Returns whether the timeout has a deadline. A timeout is disarmed when its task is run, so a
+     * task that is handed to another thread can check that the timeout has not been reset since.
+     */
+    public boolean isArmed() {
+      return deadlineMillis != 0;
+    }
+  }
+
+  private final long tickMillis;
+  private final int mask;
+  private final Timeout[] buckets;
+  private final LongSupplier clock;
+  private final AtomicReference<Timeout> pendingTimeouts = new AtomicReference<>();
+  private final Thread wheelThread;
+  private final ExecutorService ioExecutor;
+
+  private long lastProcessedTick;
+  private volatile boolean closed;
+
+  public TimingWheel() {
+    this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * @param tickMillis the resolution of the wheel
+   * @param wheelSize the number of buckets, rounded up to a power of two
+   */
+  public TimingWheel(final long tickMillis, final int wheelSize) {
+    this(tickMillis, wheelSize, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()), true);
+  }
+
+  @VisibleForTesting
+  TimingWheel(final long tickMillis, final int wheelSize, final LongSupplier clock,
+              final boolean startThread) {
+    Preconditions.checkArgument(tickMillis > 0, "tickMillis must be positive");
+    Preconditions.checkArgument(wheelSize > 0, "wheelSize must be positive");
+    int size = Integer.highestOneBit(wheelSize - 1) << 1;
+    this.tickMillis = tickMillis;
+    this.mask = Math.max(size, 1) - 1;
+    this.buckets = new Timeout[mask + 1];
+    this.clock = Preconditions.checkNotNull(clock);
+    this.lastProcessedTick = clock.getAsLong() / tickMillis;
+    if (startThread) {
+      this.wheelThread = new Thread(this::runWheel, "timing-wheel");
+      this.wheelThread.setDaemon(true);
+      this.wheelThread.start();
+      this.ioExecutor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("timing-wheel-io").setDaemon(true).build());
+    } else {
+      this.wheelThread = null;
+      this.ioExecutor = MoreExecutors.newDirectExecutorService();
+    }
+  }
+
+  /**
+   * Creates a disarmed timeout that runs the given task on the wheel thread.
+   */
+  public Timeout newTimeout(final Runnable task) {
+    return new Timeout(this, Preconditions.checkNotNull(task));
+  }
+
+  /**
+   * Returns the executor that timeout tasks hand blocking work to, such as writing a session. It
+   * runs the work on a single thread in the order it was handed over. Work handed over after the
+   * wheel is closed is rejected.
+   */
+  public Executor getIoExecutor() {
+    return ioExecutor;
+  }
+
+  /**
+   * Stops the wheel and waits for the work handed to the io executor to finish.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (wheelThread != null) {
+      wheelThread.interrupt();
+      wheelThread.join();
+    }
+    ioExecutor.shutdown();
+    ioExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the tasks of all timeouts whose deadline has passed.
+   */
+  @VisibleForTesting
+  void expireTimeouts() {
+    long now = clock.getAsLong();
+    long currentTick = now / tickMillis;
+    addPendingTimeouts();
+    while (lastProcessedTick < currentTick) {
+      lastProcessedTick++;
+      processBucket((int) (lastProcessedTick & mask), now);
+    }
+  }
+
+  private void runWheel() {
+    while (!closed) {
+      try {
+        long now = clock.getAsLong();
+        Thread.sleep(tickMillis - now % tickMillis);
+        expireTimeouts();
+      } catch (InterruptedException e) {
+        if (!closed) {
+          logger.warn("Timing wheel interrupted");
+        }
+        return;
+      } catch (RuntimeException e) {
+        logger.error("Unexpected exception in timing wheel", e);
+      }
+    }
+  }
+
+  private void addPending(final Timeout timeout) {
+    Timeout head;
+    do {
+      head = pendingTimeouts.get();
+      timeout.nextPending = head;
+    } while (!pendingTimeouts.compareAndSet(head, timeout));
+  }
+
+  private void addPendingTimeouts() {
+    Timeout timeout = pendingTimeouts.getAndSet(null);
+    while (timeout != null) {
+      Timeout nextPending = timeout.nextPending;
+      timeout.nextPending = null;
+      // A deadline moved earlier after this point adds the timeout to the pending list again.
+      timeout.pending.set(false);
+      if (timeout.bucketTick != NOT_IN_BUCKET) {
+        remove(timeout);
+      }
+      long deadlineMillis = timeout.deadlineMillis;
+      if (deadlineMillis == 0) {
+        unschedule(timeout);
+      } else {
+        insert(timeout, deadlineMillis);
+      }
+      timeout = nextPending;
+    }
+  }
+
+  private void processBucket(final int bucketIndex, final long now) {
+    Timeout timeout = buckets[bucketIndex];
+    buckets[bucketIndex] = null;
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      timeout.next = null;
+      timeout.bucketTick = NOT_IN_BUCKET;
+
+      long deadlineMillis = timeout.deadlineMillis;
+      if (deadlineMillis == 0) {
+        unschedule(timeout);
+      } else if (deadlineMillis > now) {
+        insert(timeout, deadlineMillis);
+      } else if (Timeout.DEADLINE_UPDATER.compareAndSet(timeout, deadlineMillis, 0)) {
+        unschedule(timeout);
+        runTask(timeout);
+      } else {
+        // The deadline was reset concurrently, so the timeout is processed again.
+        insert(timeout, Math.max(1, timeout.deadlineMillis));
+      }
+      timeout = next;
+    }
+  }
+
+  /**
+   * Marks the timeout as no longer being in the wheel. If the timeout was reset at the same time it
+   * is added back.
+   */
+  private void unschedule(final Timeout timeout) {
+    timeout.scheduled.set(false);
+    if (timeout.deadlineMillis != 0 && timeout.scheduled.compareAndSet(false, true)) {
+      insert(timeout, timeout.deadlineMillis);
+    }
+  }
+
+  private void insert(final Timeout timeout, final long deadlineMillis) {
+    long tick = Math.max(deadlineMillis / tickMillis, lastProcessedTick + 1);
+    int bucketIndex = (int) (tick & mask);
+    timeout.next = buckets[bucketIndex];
+    buckets[bucketIndex] = timeout;
+    // A deadline beyond one rotation is processed when the wheel first reaches its bucket.
+    timeout.bucketTick = lastProcessedTick + 1 + ((tick - lastProcessedTick - 1) & mask);
+  }
+
+  private void remove(final Timeout timeout) {
+    int bucketIndex = (int) (timeout.bucketTick & mask);
+    Timeout previous = null;
+    Timeout current = buckets[bucketIndex];
+    while (current != null && current != timeout) {
+      previous = current;
+      current = current.next;
+    }
+    if (current != null) {
+      if (previous == null) {
+        buckets[bucketIndex] = current.next;
+      } else {
+        previous.next = current.next;
+      }
+    }
+    timeout.next = null;
+    timeout.bucketTick = NOT_IN_BUCKET;
+  }
+
+  private static void runTask(final Timeout timeout) {
+    try {
+      timeout.task.run();
+    } catch (RuntimeException e) {
+      logger.error("Unexpected exception in timeout task", e);
+    }
+  }
+}
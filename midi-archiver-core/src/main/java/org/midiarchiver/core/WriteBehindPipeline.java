@@ -0,0 +1,341 @@
+package org.midiarchiver.core;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes recorded sessions on a dedicated writer thread so that the threads that record midi data
+ * never wait for storage. Sessions are copied into one of a fixed number of preallocated slots and
+ * handed to the writer thread through a bounded queue. The writer thread writes queued sessions in
+ * batches and forces them to storage according to the {@link FlushPolicy}. The durable callback of
+ * a session is run once it has been forced. Writers with sessions that have a durable callback are
+ * forced after each batch if the policy is {@link FlushPolicy#NONE}.
+ *
+ * <p>A single pipeline is shared by all devices. Use {@link #newWriter(SequenceWriter)} to create
+ * the {@link AsyncSequenceWriter} for each device.
+ */
+public class WriteBehindPipeline implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(WriteBehindPipeline.class);
+
+  public static final int DEFAULT_QUEUE_CAPACITY = 16;
+  public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5 * 1000;
+
+  /**
+   * Controls when written sessions are forced to durable storage.
+   */
+  public enum FlushPolicy {
+    /**
+     * Sessions are left to the operating system to write back, unless they have a durable
+     * callback, in which case they are forced after their batch.
+     */
+    NONE,
+    /** Sessions are forced after every batch. */
+    EVERY_BATCH,
+    /** Sessions are forced at most once per flush interval. */
+    INTERVAL
+  }
+
+  /**
+   * Controls what happens when a session is submitted while all slots are in use.
+   */
+  public enum BackpressurePolicy {
+    /** The submitting thread waits for a free slot. */
+    BLOCK,
+    /** The submitting thread writes the session itself. */
+    CALLER_WRITES
+  }
+
+  private static final class PendingWrite {
+    private final MidiEventBuffer events = new MidiEventBuffer();
+    private SequenceWriter delegate;
+    private Runnable durableCallback;
+    private boolean close;
+  }
+
+  private static final PendingWrite SHUTDOWN = new PendingWrite();
+
+  private final int maxBatchSize;
+  private final FlushPolicy flushPolicy;
+  private final long flushIntervalMillis;
+  private final BackpressurePolicy backpressurePolicy;
+  private final BlockingQueue<PendingWrite> freeSlots;
+  private final BlockingQueue<PendingWrite> pendingWrites;
+  private final List<PendingWrite> batch;
+  private final List<SequenceWriter> unflushedWriters = new ArrayList<>();
+  // The callbacks of the sessions written since the last flush, and the writers of the sessions.
+  private final List<Runnable> durableCallbacks = new ArrayList<>();
+  private final List<SequenceWriter> durableCallbackWriters = new ArrayList<>();
+  private final List<SequenceWriter> failedWriters = new ArrayList<>();
+  private final Thread writerThread;
+
+  private volatile boolean closed;
+  private long lastFlushTimeMillis;
+
+  public WriteBehindPipeline() {
+    this(DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE, FlushPolicy.INTERVAL,
+        DEFAULT_FLUSH_INTERVAL_MILLIS, BackpressurePolicy.BLOCK);
+  }
+
+  /**
+   * @param queueCapacity the maximum number of sessions waiting to be written
+   * @param maxBatchSize the maximum number of sessions written before the sessions are flushed
+   * @param flushPolicy when written sessions are forced to storage
+   * @param flushIntervalMillis the flush interval used by {@link FlushPolicy#INTERVAL}
+   * @param backpressurePolicy what to do when the queue is full
+   */
+  public WriteBehindPipeline(final int queueCapacity, final int maxBatchSize,
+                             final FlushPolicy flushPolicy, final long flushIntervalMillis,
+                             final BackpressurePolicy backpressurePolicy) {
+    Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+    Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    this.maxBatchSize = maxBatchSize;
+    this.flushPolicy = Preconditions.checkNotNull(flushPolicy);
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.backpressurePolicy = Preconditions.checkNotNull(backpressurePolicy);
+    this.freeSlots = new ArrayBlockingQueue<>(queueCapacity);
+    this.pendingWrites = new ArrayBlockingQueue<>(queueCapacity + 1);
+    this.batch = new ArrayList<>(maxBatchSize);
+    for (int i = 0; i < queueCapacity; i++) {
+      freeSlots.add(new PendingWrite());
+    }
+    this.writerThread = new Thread(this::runWriter, "write-behind-pipeline");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * Creates a {@link SequenceWriter} that writes sessions to the given writer on the writer
+   * thread of this pipeline.
+   */
+  public AsyncSequenceWriter newWriter(final SequenceWriter delegate) {
+    return new AsyncSequenceWriter(this, delegate);
+  }
+
+  /**
+   * Queues a copy of the events to be written to the given writer. If the pipeline has been
+   * closed the events are written on the calling thread.
+   *
+   * @param durableCallback run once the events have been written and flushed, or null
+   */
+  void submit(final SequenceWriter delegate, final MidiEventBuffer events,
+              final Runnable durableCallback) throws IOException {
+    PendingWrite pendingWrite = closed ? null : acquireSlot();
+    if (pendingWrite == null) {
+      if (durableCallback != null) {
+        delegate.write(events, durableCallback);
+      } else {
+        delegate.write(events);
+      }
+      return;
+    }
+    pendingWrite.events.copyFrom(events);
+    pendingWrite.delegate = delegate;
+    pendingWrite.durableCallback = durableCallback;
+    pendingWrites.add(pendingWrite);
+  }
+
+  /**
+   * Queues the given writer to be closed once the sessions that were queued before it have been
+   * written. The writer waits for a free slot regardless of the backpressure policy, so that it is
+   * never closed before its sessions are written. If the pipeline has been closed the writer is
+   * closed on the calling thread.
+   */
+  void submitClose(final SequenceWriter delegate) throws IOException {
+    PendingWrite pendingWrite = null;
+    if (!closed) {
+      try {
+        pendingWrite = freeSlots.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting to queue a writer to be closed", e);
+      }
+    }
+    if (pendingWrite == null) {
+      delegate.close();
+      return;
+    }
+    pendingWrite.delegate = delegate;
+    pendingWrite.close = true;
+    pendingWrites.add(pendingWrite);
+  }
+
+  /**
+   * Writes all queued sessions, flushes them and stops the writer thread. Sessions submitted after
+   * the pipeline is closed are written on the submitting thread.
+   */
+  @Override
+  public synchronized void close() throws InterruptedException {
+    if (closed) {
+      return;
+    }
+    logger.info("Closing " + getClass().getSimpleName());
+    closed = true;
+    pendingWrites.add(SHUTDOWN);
+    writerThread.join();
+
+    // Sessions may still be queued behind the shutdown marker by threads that raced with close.
+    if (!pendingWrites.isEmpty()) {
+      pendingWrites.drainTo(batch);
+      writeBatch();
+      flushWriters();
+    }
+  }
+
+  private PendingWrite acquireSlot() throws IOException {
+    PendingWrite pendingWrite = freeSlots.poll();
+    if (pendingWrite != null || backpressurePolicy == BackpressurePolicy.CALLER_WRITES) {
+      return pendingWrite;
+    }
+    try {
+      return freeSlots.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to queue a session", e);
+    }
+  }
+
+  private void runWriter() {
+    lastFlushTimeMillis = System.currentTimeMillis();
+    boolean shutdown = false;
+    while (!shutdown) {
+      try {
+        PendingWrite first = flushPolicy == FlushPolicy.INTERVAL && !unflushedWriters.isEmpty()
+            ? pendingWrites.poll(flushIntervalMillis, TimeUnit.MILLISECONDS)
+            : pendingWrites.take();
+        if (first != null) {
+          batch.add(first);
+          pendingWrites.drainTo(batch, maxBatchSize - 1);
+        }
+        shutdown = writeBatch();
+        if (shutdown || flushPolicy == FlushPolicy.EVERY_BATCH
+            || (flushPolicy == FlushPolicy.NONE && !durableCallbacks.isEmpty())
+            || (flushPolicy == FlushPolicy.INTERVAL
+            && System.currentTimeMillis() - lastFlushTimeMillis >= flushIntervalMillis)) {
+          flushWriters();
+        }
+      } catch (InterruptedException e) {
+        logger.warn("Write behind pipeline interrupted");
+        shutdown = true;
+      }
+    }
+  }
+
+  /**
+   * Writes the sessions in the current batch and returns the slots to the free list.
+   *
+   * @return true if the batch contained the shutdown marker
+   */
+  private boolean writeBatch() {
+    boolean shutdown = false;
+    for (PendingWrite pendingWrite : batch) {
+      if (pendingWrite == SHUTDOWN) {
+        shutdown = true;
+        continue;
+      }
+      if (pendingWrite.close) {
+        closeWriter(pendingWrite.delegate);
+      } else {
+        try {
+          pendingWrite.delegate.write(pendingWrite.events);
+          if (!unflushedWriters.contains(pendingWrite.delegate)) {
+            unflushedWriters.add(pendingWrite.delegate);
+          }
+          if (pendingWrite.durableCallback != null) {
+            durableCallbacks.add(pendingWrite.durableCallback);
+            durableCallbackWriters.add(pendingWrite.delegate);
+          }
+        } catch (IOException | RuntimeException e) {
+          logger.warn("An error occurred while writing a session", e);
+        }
+      }
+      pendingWrite.events.clear();
+      pendingWrite.delegate = null;
+      pendingWrite.durableCallback = null;
+      pendingWrite.close = false;
+      freeSlots.add(pendingWrite);
+    }
+    batch.clear();
+    return shutdown;
+  }
+
+  /**
+   * Flushes the sessions of the writer, unless the flush policy is {@link FlushPolicy#NONE} and
+   * none of them has a durable callback, and closes it.
+   */
+  private void closeWriter(final SequenceWriter writer) {
+    if (unflushedWriters.remove(writer) && needsFlush(writer)) {
+      try {
+        writer.flush();
+      } catch (IOException | RuntimeException e) {
+        logger.warn("An error occurred while flushing sessions", e);
+        failedWriters.add(writer);
+      }
+    }
+    runCallbacks(writer);
+    failedWriters.remove(writer);
+    try {
+      writer.close();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("An error occurred while closing a writer", e);
+    }
+  }
+
+  private void flushWriters() {
+    for (SequenceWriter writer : unflushedWriters) {
+      if (!needsFlush(writer)) {
+        continue;
+      }
+      try {
+        writer.flush();
+      } catch (IOException | RuntimeException e) {
+        logger.warn("An error occurred while flushing sessions", e);
+        failedWriters.add(writer);
+      }
+    }
+    unflushedWriters.clear();
+    runCallbacks(null);
+    failedWriters.clear();
+    lastFlushTimeMillis = System.currentTimeMillis();
+  }
+
+  private boolean needsFlush(final SequenceWriter writer) {
+    return flushPolicy != FlushPolicy.NONE || durableCallbackWriters.contains(writer);
+  }
+
+  /**
+   * Runs and removes the durable callbacks of the given writer, or of all writers if it is null.
+   * The callbacks of writers that failed to flush are removed without running them.
+   */
+  private void runCallbacks(final SequenceWriter writer) {
+    int i = 0;
+    while (i < durableCallbacks.size()) {
+      SequenceWriter callbackWriter = durableCallbackWriters.get(i);
+      if (writer != null && writer != callbackWriter) {
+        i++;
+        continue;
+      }
+      Runnable durableCallback = durableCallbacks.remove(i);
+      durableCallbackWriters.remove(i);
+      if (!failedWriters.contains(callbackWriter)) {
+        runCallback(durableCallback);
+      }
+    }
+  }
+
+  private static void runCallback(final Runnable durableCallback) {
+    try {
+      durableCallback.run();
+    } catch (RuntimeException e) {
+      logger.warn("An error occurred while running the callback of a written session", e);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.midiarchiver.core.archive;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Adler32;
+
+/**
+ * Constants and the preset dictionary shared by {@link CompressedSequenceWriter} and
+ * {@link CompressedMidiFileReader}.
+ *
+ * <p>A compressed midi file is a standard midi file compressed with Deflate in the zlib format,
+ * using a preset dictionary of byte sequences that are common in recorded sessions: the header
+ * chunks, tempo events and runs of note and controller events. The dictionary lets the short
+ * files of most sessions refer to these sequences instead of spelling them out. The zlib header
+ * records the Adler-32 checksum of the dictionary, so a file can only be read with the dictionary
+ * it was written with.
+ *
+ * <pre>
+ * file: magic (4) midi file length (4) zlib stream
+ * </pre>
+ */
+public final class CompressedMidiFile {
+
+  public static final String FILE_EXTENSION = ".midz";
+
+  static final int MAGIC = 0x4D49445A; // MIDZ
+  static final int HEADER_LENGTH = 8;
+  /** The largest midi file that is decompressed, far more than any recorded session. */
+  static final int MAX_MIDI_FILE_LENGTH = 64 * 1024 * 1024;
+  /** The largest ratio of decompressed to compressed bytes that Deflate can achieve. */
+  static final int MAX_DEFLATE_RATIO = 1032;
+
+  private static final String DICTIONARY_RESOURCE = "midi.dict";
+  private static final byte[] DICTIONARY = loadDictionary();
+  private static final int DICTIONARY_ADLER = computeAdler(DICTIONARY);
+
+  private CompressedMidiFile() {
+  }
+
+  /**
+   * Returns true if the file at the given location is a compressed midi file.
+   */
+  public static boolean isCompressed(final String location) {
+    return location.endsWith(FILE_EXTENSION);
+  }
+
+  /**
+   * Returns a copy of the preset dictionary.
+   */
+  public static byte[] getDictionary() {
+    return DICTIONARY.clone();
+  }
+
+  static byte[] dictionary() {
+    return DICTIONARY;
+  }
+
+  static int getDictionaryAdler() {
+    return DICTIONARY_ADLER;
+  }
+
+  private static byte[] loadDictionary() {
+    try (InputStream in = CompressedMidiFile.class.getResourceAsStream(DICTIONARY_RESOURCE)) {
+      if (in == null) {
+        throw new IllegalStateException("Missing resource " + DICTIONARY_RESOURCE);
+      }
+      return ByteStreams.toByteArray(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static int computeAdler(final byte[] bytes) {
+    Adler32 adler = new Adler32();
+    adler.update(bytes, 0, bytes.length);
+    return (int) adler.getValue();
+  }
+}
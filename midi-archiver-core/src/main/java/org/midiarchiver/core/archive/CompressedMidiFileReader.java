@@ -0,0 +1,82 @@
+package org.midiarchiver.core.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+/**
+ * Reads the compressed midi files written by {@link CompressedSequenceWriter}. Sessions are small,
+ * so a file is decompressed into memory in one step.
+ */
+public final class CompressedMidiFileReader {
+
+  private CompressedMidiFileReader() {
+  }
+
+  /**
+   * Returns the standard midi file stored in the compressed file.
+   */
+  public static byte[] read(final File file) throws IOException {
+    return decompress(Files.readAllBytes(file.toPath()));
+  }
+
+  public static Sequence readSequence(final File file) throws IOException {
+    try {
+      return MidiSystem.getSequence(new ByteArrayInputStream(read(file)));
+    } catch (InvalidMidiDataException e) {
+      throw new IOException("Invalid midi data in " + file, e);
+    }
+  }
+
+  /**
+   * Returns the standard midi file stored in the bytes of a compressed file.
+   */
+  public static byte[] decompress(final byte[] compressed) throws IOException {
+    ByteBuffer header = ByteBuffer.wrap(compressed);
+    if (compressed.length < CompressedMidiFile.HEADER_LENGTH
+        || header.getInt(0) != CompressedMidiFile.MAGIC) {
+      throw new IOException("Not a compressed midi file");
+    }
+    // The length is checked before it is allocated, so a corrupt header cannot exhaust the heap.
+    int length = header.getInt(4);
+    long compressedLength = compressed.length - CompressedMidiFile.HEADER_LENGTH;
+    if (length < 0 || length > CompressedMidiFile.MAX_MIDI_FILE_LENGTH
+        || length > compressedLength * CompressedMidiFile.MAX_DEFLATE_RATIO) {
+      throw new IOException("Invalid length " + length);
+    }
+    byte[] midiFile = new byte[length];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed, CompressedMidiFile.HEADER_LENGTH,
+          compressed.length - CompressedMidiFile.HEADER_LENGTH);
+      int offset = 0;
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(midiFile, offset, length - offset);
+        offset += inflated;
+        if (inflater.needsDictionary()) {
+          if (inflater.getAdler() != CompressedMidiFile.getDictionaryAdler()) {
+            throw new IOException("The file was compressed with an unknown dictionary");
+          }
+          inflater.setDictionary(CompressedMidiFile.dictionary());
+        } else if (inflated == 0 && (inflater.needsInput() || offset == length)) {
+          break;
+        }
+      }
+      if (!inflater.finished() || offset != length) {
+        throw new IOException("Truncated compressed midi file");
+      }
+      return midiFile;
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed midi file", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
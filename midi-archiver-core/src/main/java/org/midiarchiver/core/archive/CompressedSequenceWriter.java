@@ -0,0 +1,138 @@
+package org.midiarchiver.core.archive;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+import org.midiarchiver.core.SessionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link FileSequenceWriter} that writes each session as a compressed midi file, see
+ * {@link CompressedMidiFile}. Sessions are compressed by the thread that writes them, which is the
+ * write-behind thread in the service rather than a capture thread.
+ *
+ * <p>The deflater and the encoding buffer are reused, so writes are serialized. The native memory
+ * of the deflater is released when the writer is closed.
+ */
+public class CompressedSequenceWriter extends FileSequenceWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(CompressedSequenceWriter.class);
+
+  private final Deflater deflater;
+  private final boolean useDictionary;
+  private final EncodingBuffer encodingBuffer = new EncodingBuffer();
+  private final byte[] compressBuffer = new byte[8192];
+
+  public CompressedSequenceWriter(String outputDirectoryPath) {
+    this(outputDirectoryPath, null);
+  }
+
+  public CompressedSequenceWriter(String outputDirectoryPath, SessionListener sessionListener) {
+    this(outputDirectoryPath, sessionListener, Deflater.BEST_COMPRESSION, true);
+  }
+
+  /**
+   * @param level the Deflate compression level
+   * @param useDictionary whether to compress with the preset dictionary, which the benchmarks turn
+   *                      off to measure what it saves
+   */
+  public CompressedSequenceWriter(String outputDirectoryPath, SessionListener sessionListener,
+                                  int level, boolean useDictionary) {
+    super(outputDirectoryPath, sessionListener);
+    Preconditions.checkArgument(level >= Deflater.NO_COMPRESSION
+        && level <= Deflater.BEST_COMPRESSION, "Invalid level %s", level);
+    this.deflater = new Deflater(level);
+    this.useDictionary = useDictionary;
+  }
+
+  /**
+   * Writes the given sequence to a compressed file.
+   */
+  @Override
+  public synchronized void write(Sequence sequence) throws IOException {
+    String outputFilename = getMidiOutputFileName();
+    encodingBuffer.reset();
+    MidiSystem.write(sequence, 1, encodingBuffer);
+    try (OutputStream out = new FileOutputStream(outputFilename)) {
+      compress(encodingBuffer.buffer(), encodingBuffer.size(), out);
+    }
+    logger.info("Wrote " + outputFilename);
+  }
+
+  @Override
+  public synchronized void write(MidiEventBuffer events) throws IOException {
+    super.write(events);
+  }
+
+  @Override
+  protected int writeFile(MidiEventBuffer events, File outputFile) throws IOException {
+    encodingBuffer.reset();
+    MidiFileEncoder.write(events, encodingBuffer);
+    try (OutputStream out = new FileOutputStream(outputFile)) {
+      return compress(encodingBuffer.buffer(), encodingBuffer.size(), out);
+    }
+  }
+
+  /**
+   * Releases the deflater. Nothing can be written or compressed once the writer is closed.
+   */
+  @Override
+  public synchronized void close() {
+    deflater.end();
+  }
+
+  @Override
+  protected String getFileExtension() {
+    return CompressedMidiFile.FILE_EXTENSION;
+  }
+
+  /**
+   * Compresses a midi file to the output stream.
+   *
+   * @return the number of bytes written
+   */
+  public synchronized int compress(byte[] midiFile, int length, OutputStream out) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(CompressedMidiFile.HEADER_LENGTH);
+    header.putInt(CompressedMidiFile.MAGIC).putInt(length);
+    out.write(header.array());
+    int written = CompressedMidiFile.HEADER_LENGTH;
+    deflater.reset();
+    if (useDictionary) {
+      byte[] dictionary = CompressedMidiFile.dictionary();
+      deflater.setDictionary(dictionary, 0, dictionary.length);
+    }
+    deflater.setInput(midiFile, 0, length);
+    deflater.finish();
+    while (!deflater.finished()) {
+      int compressed = deflater.deflate(compressBuffer);
+      out.write(compressBuffer, 0, compressed);
+      written += compressed;
+    }
+    return written;
+  }
+
+  /**
+   * A {@link ByteArrayOutputStream} that exposes its buffer, so the encoded file is not copied.
+   */
+  private static final class EncodingBuffer extends ByteArrayOutputStream {
+
+    EncodingBuffer() {
+      super(8192);
+    }
+
+    byte[] buffer() {
+      return buf;
+    }
+  }
+}
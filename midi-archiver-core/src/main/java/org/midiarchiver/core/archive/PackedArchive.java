@@ -0,0 +1,74 @@
+package org.midiarchiver.core.archive;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Constants and file naming shared by {@link PackedArchiveWriter} and {@link PackedArchiveReader}.
+ *
+ * <p>A packed archive stores the sessions of one device in a series of segments. Each segment is a
+ * pair of files: a data file containing the sessions as complete midi files one after another, and
+ * an index file containing a fixed size entry per session with its offset and length in the data
+ * file. An index entry is only written after the session data, so a session is part of the archive
+ * once its index entry is complete.
+ *
+ * <pre>
+ * data file:  magic (4) version (4) session* (midi files)
+ * index file: magic (4) version (4) entry*
+ * entry:      offset (8) length (4) start time millis (8) duration millis (4)
+ * </pre>
+ */
+public final class PackedArchive {
+
+  public static final String DATA_FILE_EXTENSION = ".pack";
+  public static final String INDEX_FILE_EXTENSION = ".idx";
+
+  static final int DATA_MAGIC = 0x4D41504B; // MAPK
+  static final int INDEX_MAGIC = 0x4D414958; // MAIX
+  static final int VERSION = 1;
+  static final int FILE_HEADER_LENGTH = 8;
+  static final int INDEX_ENTRY_LENGTH = 24;
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private PackedArchive() {
+  }
+
+  static File getDataFile(final File directory, final int segmentNumber) {
+    return new File(directory, getSegmentName(segmentNumber) + DATA_FILE_EXTENSION);
+  }
+
+  static File getIndexFile(final File directory, final int segmentNumber) {
+    return new File(directory, getSegmentName(segmentNumber) + INDEX_FILE_EXTENSION);
+  }
+
+  /**
+   * Returns the numbers of the segments in the directory in ascending order.
+   */
+  public static int[] listSegments(final File directory) {
+    File[] indexFiles = directory.listFiles((File dir, String name) ->
+        name.startsWith(SEGMENT_PREFIX) && name.endsWith(INDEX_FILE_EXTENSION));
+    if (indexFiles == null) {
+      return new int[0];
+    }
+    int[] segmentNumbers = new int[indexFiles.length];
+    int count = 0;
+    for (File indexFile : indexFiles) {
+      String name = indexFile.getName();
+      try {
+        segmentNumbers[count] = Integer.parseInt(name.substring(
+            SEGMENT_PREFIX.length(), name.length() - INDEX_FILE_EXTENSION.length()));
+        count++;
+      } catch (NumberFormatException e) {
+        // Not a segment index.
+      }
+    }
+    int[] result = Arrays.copyOf(segmentNumbers, count);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static String getSegmentName(final int segmentNumber) {
+    return String.format("%s%06d", SEGMENT_PREFIX, segmentNumber);
+  }
+}
@@ -0,0 +1,138 @@
+package org.midiarchiver.core.archive;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+/**
+ * Reads the sessions of one segment of a packed archive. The index of the segment is loaded when
+ * the reader is opened, so a session is read with a single positional read of the data file and
+ * without scanning the sessions before it.
+ */
+public class PackedArchiveReader implements AutoCloseable {
+
+  private final int segmentNumber;
+  private final FileChannel dataChannel;
+  private final long[] offsets;
+  private final int[] lengths;
+  private final long[] startTimesMillis;
+  private final int[] durationsMillis;
+  private final int sessionCount;
+
+  public PackedArchiveReader(final File directory, final int segmentNumber) throws IOException {
+    Preconditions.checkNotNull(directory);
+    this.segmentNumber = segmentNumber;
+    ByteBuffer index;
+    try (FileChannel indexChannel = FileChannel.open(
+        PackedArchive.getIndexFile(directory, segmentNumber).toPath(), StandardOpenOption.READ)) {
+      index = readFully(indexChannel, 0, (int) indexChannel.size());
+    }
+    if (index.limit() < PackedArchive.FILE_HEADER_LENGTH
+        || index.getInt(0) != PackedArchive.INDEX_MAGIC) {
+      throw new IOException("Segment " + segmentNumber + " in " + directory
+          + " does not have a valid index");
+    }
+
+    this.dataChannel = FileChannel.open(
+        PackedArchive.getDataFile(directory, segmentNumber).toPath(), StandardOpenOption.READ);
+    long dataSize = dataChannel.size();
+    int entryCount = (index.limit() - PackedArchive.FILE_HEADER_LENGTH)
+        / PackedArchive.INDEX_ENTRY_LENGTH;
+    this.offsets = new long[entryCount];
+    this.lengths = new int[entryCount];
+    this.startTimesMillis = new long[entryCount];
+    this.durationsMillis = new int[entryCount];
+    int count = 0;
+    for (int i = 0; i < entryCount; i++) {
+      int position = PackedArchive.FILE_HEADER_LENGTH + i * PackedArchive.INDEX_ENTRY_LENGTH;
+      long offset = index.getLong(position);
+      int length = index.getInt(position + 8);
+      if (offset + length > dataSize) {
+        // The session data was not completely written.
+        break;
+      }
+      offsets[i] = offset;
+      lengths[i] = length;
+      startTimesMillis[i] = index.getLong(position + 12);
+      durationsMillis[i] = index.getInt(position + 20);
+      count++;
+    }
+    this.sessionCount = count;
+  }
+
+  public int getSegmentNumber() {
+    return segmentNumber;
+  }
+
+  public int getSessionCount() {
+    return sessionCount;
+  }
+
+  public long getStartTimeMillis(final int session) {
+    return startTimesMillis[checkSession(session)];
+  }
+
+  public long getDurationMillis(final int session) {
+    return durationsMillis[checkSession(session)];
+  }
+
+  /**
+   * Returns the size in bytes of the midi file of the session.
+   */
+  public int getLength(final int session) {
+    return lengths[checkSession(session)];
+  }
+
+  /**
+   * Returns the midi file of the session.
+   */
+  public byte[] readSession(final int session) throws IOException {
+    return readFully(dataChannel, offsets[checkSession(session)], lengths[session]).array();
+  }
+
+  public Sequence readSequence(final int session) throws IOException, InvalidMidiDataException {
+    return MidiSystem.getSequence(new ByteArrayInputStream(readSession(session)));
+  }
+
+  /**
+   * Writes the midi file of the session to the target channel. The bytes are transferred by the
+   * file system where possible instead of being copied through the heap.
+   */
+  public void transferSession(final int session, final WritableByteChannel target)
+      throws IOException {
+    long position = offsets[checkSession(session)];
+    long end = position + lengths[session];
+    while (position < end) {
+      position += dataChannel.transferTo(position, end - position, target);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    dataChannel.close();
+  }
+
+  private int checkSession(final int session) {
+    return Preconditions.checkElementIndex(session, sessionCount);
+  }
+
+  private static ByteBuffer readFully(final FileChannel channel, final long position,
+                                      final int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -0,0 +1,231 @@
+package org.midiarchiver.core.archive;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.SessionListener;
+import org.midiarchiver.core.SessionSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SequenceWriter} that appends sessions to large segment files instead of creating a file
+ * per session. See {@link PackedArchive} for the layout. A new segment is started when the current
+ * one would grow beyond the maximum segment size.
+ *
+ * <p>When the writer is created it continues the last segment in the directory. The data of a
+ * session is forced to storage before its index entry is written, so every complete index entry
+ * refers to complete data. Data that was written after the last complete index entry, for example
+ * because of a power failure, is discarded.
+ */
+public class PackedArchiveWriter implements SequenceWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(PackedArchiveWriter.class);
+
+  public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * A byte array output stream whose contents can be written without copying them.
+   */
+  private static final class SessionOutputStream extends ByteArrayOutputStream {
+
+    SessionOutputStream() {
+      super(64 * 1024);
+    }
+
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  private final File directory;
+  private final long maxSegmentBytes;
+  private final SessionOutputStream sessionOut = new SessionOutputStream();
+  private final ByteBuffer indexEntry = ByteBuffer.allocate(PackedArchive.INDEX_ENTRY_LENGTH);
+  private final SessionListener sessionListener;
+  private final SessionSummary summary = new SessionSummary();
+
+  private int segmentNumber;
+  private FileChannel dataChannel;
+  private FileChannel indexChannel;
+
+  public PackedArchiveWriter(final String outputDirectoryPath) {
+    this(outputDirectoryPath, DEFAULT_MAX_SEGMENT_BYTES);
+  }
+
+  public PackedArchiveWriter(final String outputDirectoryPath, final long maxSegmentBytes) {
+    this(outputDirectoryPath, maxSegmentBytes, null);
+  }
+
+  /**
+   * @param sessionListener notified after each session written by {@link #write(MidiEventBuffer)},
+   *                        or null
+   */
+  public PackedArchiveWriter(final String outputDirectoryPath, final long maxSegmentBytes,
+                             final SessionListener sessionListener) {
+    Preconditions.checkArgument(maxSegmentBytes > PackedArchive.FILE_HEADER_LENGTH,
+        "maxSegmentBytes is too small");
+    this.directory = new File(Preconditions.checkNotNull(outputDirectoryPath));
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.sessionListener = sessionListener;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public synchronized void write(Sequence sequence) throws IOException {
+    sessionOut.reset();
+    MidiSystem.write(sequence, 1, sessionOut);
+    append(sequence.getMicrosecondLength() / 1000, System.currentTimeMillis());
+  }
+
+  @Override
+  public synchronized void write(MidiEventBuffer events) throws IOException {
+    sessionOut.reset();
+    MidiFileEncoder.write(events, sessionOut);
+    long startTimeMillis = events.getStartTimeMillis() > 0
+        ? events.getStartTimeMillis() : System.currentTimeMillis();
+    long offset = append(events.getDurationMicros() / 1000, startTimeMillis);
+    if (sessionListener != null) {
+      summary.set(events, startTimeMillis);
+      sessionListener.sessionWritten(summary,
+          PackedArchive.getDataFile(directory, segmentNumber), offset, sessionOut.size());
+    }
+  }
+
+  /**
+   * Forces the current segment to storage.
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (dataChannel != null) {
+      dataChannel.force(false);
+      indexChannel.force(false);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closeSegment();
+  }
+
+  /**
+   * Appends the session in the session output stream to the current segment.
+   *
+   * @return the offset of the session in the data file of the segment
+   */
+  private long append(long durationMillis, long startTimeMillis) throws IOException {
+    int length = sessionOut.size();
+    if (dataChannel == null) {
+      openLastSegment();
+    }
+    long offset = dataChannel.size();
+    if (offset > PackedArchive.FILE_HEADER_LENGTH && offset + length > maxSegmentBytes) {
+      closeSegment();
+      openSegment(segmentNumber + 1);
+      offset = dataChannel.size();
+    }
+
+    ByteBuffer session = sessionOut.toByteBuffer();
+    while (session.hasRemaining()) {
+      dataChannel.write(session, offset + session.position());
+    }
+    // The index entry must not reach storage before the data it refers to.
+    dataChannel.force(false);
+
+    indexEntry.clear();
+    indexEntry.putLong(offset).putInt(length).putLong(startTimeMillis)
+        .putInt((int) Math.min(Integer.MAX_VALUE, durationMillis));
+    indexEntry.flip();
+    long indexPosition = indexChannel.size();
+    while (indexEntry.hasRemaining()) {
+      indexChannel.write(indexEntry, indexPosition + indexEntry.position());
+    }
+    logger.info("Wrote session of " + length + " bytes to segment " + segmentNumber + " in "
+        + directory);
+    return offset;
+  }
+
+  private void openLastSegment() throws IOException {
+    if (directory.mkdirs()) {
+      logger.info("Created directory " + directory);
+    }
+    int[] segments = PackedArchive.listSegments(directory);
+    openSegment(segments.length == 0 ? 1 : segments[segments.length - 1]);
+  }
+
+  /**
+   * Opens the given segment, creating it if it does not exist and discarding any data that is not
+   * referenced by a complete index entry.
+   */
+  private void openSegment(int segmentNumber) throws IOException {
+    this.segmentNumber = segmentNumber;
+    dataChannel = FileChannel.open(PackedArchive.getDataFile(directory, segmentNumber).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    indexChannel = FileChannel.open(PackedArchive.getIndexFile(directory, segmentNumber).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (indexChannel.size() < PackedArchive.FILE_HEADER_LENGTH) {
+      writeFileHeader(dataChannel, PackedArchive.DATA_MAGIC);
+      writeFileHeader(indexChannel, PackedArchive.INDEX_MAGIC);
+      return;
+    }
+
+    long entryCount = (indexChannel.size() - PackedArchive.FILE_HEADER_LENGTH)
+        / PackedArchive.INDEX_ENTRY_LENGTH;
+    long dataEnd = PackedArchive.FILE_HEADER_LENGTH;
+    if (entryCount > 0) {
+      ByteBuffer lastEntry = ByteBuffer.allocate(PackedArchive.INDEX_ENTRY_LENGTH);
+      long lastEntryPosition = PackedArchive.FILE_HEADER_LENGTH
+          + (entryCount - 1) * PackedArchive.INDEX_ENTRY_LENGTH;
+      while (lastEntry.hasRemaining()) {
+        if (indexChannel.read(lastEntry, lastEntryPosition + lastEntry.position()) < 0) {
+          throw new IOException("Unexpected end of index in segment " + segmentNumber);
+        }
+      }
+      dataEnd = lastEntry.getLong(0) + lastEntry.getInt(8);
+    }
+    if (dataChannel.size() < dataEnd) {
+      throw new IOException("Segment " + segmentNumber + " in " + directory + " is truncated");
+    }
+    long indexEnd = PackedArchive.FILE_HEADER_LENGTH
+        + entryCount * PackedArchive.INDEX_ENTRY_LENGTH;
+    if (indexChannel.size() > indexEnd || dataChannel.size() > dataEnd) {
+      logger.warn("Discarding incomplete session in segment " + segmentNumber + " in "
+          + directory);
+      indexChannel.truncate(indexEnd);
+      dataChannel.truncate(dataEnd);
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    if (dataChannel != null) {
+      try {
+        dataChannel.close();
+        indexChannel.close();
+      } finally {
+        dataChannel = null;
+        indexChannel = null;
+      }
+    }
+  }
+
+  private static void writeFileHeader(FileChannel channel, int magic) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(PackedArchive.FILE_HEADER_LENGTH);
+    header.putInt(magic).putInt(PackedArchive.VERSION).flip();
+    channel.truncate(0);
+    while (header.hasRemaining()) {
+      channel.write(header, header.position());
+    }
+  }
+}
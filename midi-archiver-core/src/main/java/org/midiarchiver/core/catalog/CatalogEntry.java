@@ -0,0 +1,123 @@
+package org.midiarchiver.core.catalog;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A session in the {@link SessionCatalog}. The midi file of the session is stored in the location
+ * file starting at the given offset, which is 0 unless the file contains several sessions.
+ */
+public final class CatalogEntry {
+
+  private final int id;
+  private final String deviceId;
+  private final long startTimeMillis;
+  private final long endTimeMillis;
+  private final int noteCount;
+  private final int channelMask;
+  private final int lowestNote;
+  private final int highestNote;
+  private final String location;
+  private final long offset;
+  private final long length;
+
+  CatalogEntry(int id, String deviceId, long startTimeMillis, long endTimeMillis, int noteCount,
+               int channelMask, int lowestNote, int highestNote, String location, long offset,
+               long length) {
+    this.id = id;
+    this.deviceId = deviceId;
+    this.startTimeMillis = startTimeMillis;
+    this.endTimeMillis = endTimeMillis;
+    this.noteCount = noteCount;
+    this.channelMask = channelMask;
+    this.lowestNote = lowestNote;
+    this.highestNote = highestNote;
+    this.location = location;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Returns the id of the entry, which is assigned in the order that sessions were added.
+   */
+  public int getId() {
+    return id;
+  }
+
+  public String getDeviceId() {
+    return deviceId;
+  }
+
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  public long getEndTimeMillis() {
+    return endTimeMillis;
+  }
+
+  public long getDurationMillis() {
+    return endTimeMillis - startTimeMillis;
+  }
+
+  public int getNoteCount() {
+    return noteCount;
+  }
+
+  /**
+   * Returns a mask with bit n set if the session contains channel messages for channel n (0-15).
+   */
+  public int getChannelMask() {
+    return channelMask;
+  }
+
+  /**
+   * Returns the lowest note of the session, or -1 if it contains no notes.
+   */
+  public int getLowestNote() {
+    return lowestNote;
+  }
+
+  /**
+   * Returns the highest note of the session, or -1 if it contains no notes.
+   */
+  public int getHighestNote() {
+    return highestNote;
+  }
+
+  /**
+   * Returns the path of the file that contains the session.
+   */
+  public String getLocation() {
+    return location;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns a copy of the entry for the session stored at another location.
+   */
+  CatalogEntry withLocation(final String location, final long offset, final long length) {
+    return new CatalogEntry(id, deviceId, startTimeMillis, endTimeMillis, noteCount, channelMask,
+        lowestNote, highestNote, location, offset, length);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("id", id)
+        .add("deviceId", deviceId)
+        .add("startTimeMillis", startTimeMillis)
+        .add("endTimeMillis", endTimeMillis)
+        .add("noteCount", noteCount)
+        .add("location", location)
+        .add("offset", offset)
+        .add("length", length)
+        .toString();
+  }
+}
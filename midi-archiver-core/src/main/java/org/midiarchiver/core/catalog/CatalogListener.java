@@ -0,0 +1,18 @@
+package org.midiarchiver.core.catalog;
+
+import org.midiarchiver.core.SessionSummary;
+
+/**
+ * Notified by a {@link SessionCatalog} after a written session has been added to it.
+ */
+@FunctionalInterface
+public interface CatalogListener {
+
+  /**
+   * Called after a session has been added and its record forced to storage.
+   *
+   * @param entry the new entry of the session
+   * @param summary the statistics of the session, which are only valid for the duration of the call
+   */
+  void sessionAdded(CatalogEntry entry, SessionSummary summary);
+}
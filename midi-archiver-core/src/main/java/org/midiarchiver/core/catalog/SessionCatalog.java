@@ -0,0 +1,479 @@
+package org.midiarchiver.core.catalog;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.midiarchiver.core.SessionListener;
+import org.midiarchiver.core.SessionSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent catalog of the sessions that have been written. Sequence writers add sessions
+ * through the {@link SessionListener} returned by {@link #newListener(String)}, so queries never
+ * have to open or parse the midi files. A {@link CatalogListener} added with
+ * {@link #addListener} is notified of each session that is added, for example to index it.
+ *
+ * <p>The catalog file is an append-only log of length prefixed records, which add a session, or
+ * move or remove a session that was added before. The whole catalog is kept in memory ordered by
+ * start time, so a query is a binary search followed by a scan of the matching entries. A record
+ * that was only partly written when the process stopped is discarded when the catalog is opened.
+ * Each record is forced to storage before the method that appended it returns, so a session whose
+ * write is reported durable is not dropped from the catalog by a power failure.
+ */
+public class SessionCatalog implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionCatalog.class);
+
+  private static final int MAGIC = 0x4D414354; // MACT
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 8;
+
+  private static final int ADD_RECORD = 0;
+  private static final int RELOCATE_RECORD = 1;
+  private static final int REMOVE_RECORD = 2;
+
+  private final File file;
+  private final FileChannel channel;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+  private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+
+  // Entries in the order they were added, indexed by id, with null for removed entries.
+  private final List<CatalogEntry> entriesById = new ArrayList<>();
+  private final List<String> deviceIds = new ArrayList<>();
+  private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+
+  // Entries ordered by start time, with their start times for binary search.
+  private CatalogEntry[] entries = new CatalogEntry[256];
+  private long[] startTimes = new long[256];
+  private int size;
+  private long maxDurationMillis;
+
+  /**
+   * Opens the catalog file, creating it if needed, and loads its entries.
+   */
+  public SessionCatalog(final File file) throws IOException {
+    this.file = Preconditions.checkNotNull(file);
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent.mkdirs()) {
+      logger.info("Created directory " + parent);
+    }
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      load();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    logger.info("Loaded " + size + " sessions from catalog " + file);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Adds a listener that is notified of each session added to the catalog after this call, on the
+   * thread that adds it.
+   */
+  public void addListener(final CatalogListener listener) {
+    listeners.add(Preconditions.checkNotNull(listener));
+  }
+
+  public void removeListener(final CatalogListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Returns a listener that adds the sessions written for the given device to the catalog.
+   */
+  public SessionListener newListener(final String deviceId) {
+    Preconditions.checkNotNull(deviceId);
+    return (SessionSummary summary, File sessionFile, long offset, long length) -> {
+      try {
+        add(deviceId, summary, sessionFile.getPath(), offset, length);
+      } catch (IOException e) {
+        logger.warn("Unable to add session in " + sessionFile + " to catalog " + file, e);
+      }
+    };
+  }
+
+  /**
+   * Adds a session to the catalog.
+   *
+   * @return the new entry
+   */
+  public CatalogEntry add(final String deviceId, final SessionSummary summary,
+                          final String location, final long offset, final long length)
+      throws IOException {
+    CatalogEntry entry;
+    lock.writeLock().lock();
+    try {
+      entry = new CatalogEntry(entriesById.size(), internDeviceId(deviceId),
+          summary.getStartTimeMillis(), summary.getEndTimeMillis(), summary.getNoteCount(),
+          summary.getChannelMask(), summary.getLowestNote(), summary.getHighestNote(), location,
+          offset, length);
+      startRecord(ADD_RECORD);
+      writeEntry(entry);
+      appendRecord();
+      addEntry(entry);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    force();
+    for (CatalogListener listener : listeners) {
+      listener.sessionAdded(entry, summary);
+    }
+    return entry;
+  }
+
+  /**
+   * Records that a session has been moved to another location, for example after it was
+   * compressed.
+   *
+   * @return the updated entry, or null if there is no such entry
+   */
+  public CatalogEntry relocate(final int id, final String location, final long offset,
+                               final long length) throws IOException {
+    Preconditions.checkNotNull(location);
+    CatalogEntry relocated;
+    lock.writeLock().lock();
+    try {
+      CatalogEntry entry = getEntry(id);
+      if (entry == null) {
+        return null;
+      }
+      startRecord(RELOCATE_RECORD);
+      recordOut.writeInt(id);
+      recordOut.writeUTF(location);
+      recordOut.writeLong(offset);
+      recordOut.writeLong(length);
+      appendRecord();
+      relocated = entry.withLocation(location, offset, length);
+      replaceEntry(entry, relocated);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    force();
+    return relocated;
+  }
+
+  /**
+   * Removes a session, for example after its file was deleted. The ids of the other sessions do
+   * not change.
+   *
+   * @return true if the entry existed
+   */
+  public boolean remove(final int id) throws IOException {
+    lock.writeLock().lock();
+    try {
+      CatalogEntry entry = getEntry(id);
+      if (entry == null) {
+        return false;
+      }
+      startRecord(REMOVE_RECORD);
+      recordOut.writeInt(id);
+      appendRecord();
+      replaceEntry(entry, null);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    force();
+    return true;
+  }
+
+  /**
+   * Returns the entry with the given id, or null if there is no such entry.
+   */
+  public CatalogEntry getEntry(final int id) {
+    lock.readLock().lock();
+    try {
+      return id >= 0 && id < entriesById.size() ? entriesById.get(id) : null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the id that the next session added will have. Every smaller id has been assigned,
+   * although its entry may have been removed.
+   */
+  public int getNextId() {
+    lock.readLock().lock();
+    try {
+      return entriesById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the sessions that overlap the given time range, ordered by start time.
+   *
+   * @param deviceId the device to return sessions for, or null for all devices
+   * @param fromMillis the start of the range
+   * @param toMillis the end of the range, exclusive
+   * @param offset the number of matching sessions to skip
+   * @param limit the maximum number of sessions to return
+   */
+  public List<CatalogEntry> find(final String deviceId, final long fromMillis,
+                                 final long toMillis, final int offset, final int limit) {
+    Preconditions.checkArgument(offset >= 0, "offset must not be negative");
+    Preconditions.checkArgument(limit >= 0, "limit must not be negative");
+    lock.readLock().lock();
+    try {
+      List<CatalogEntry> result = new ArrayList<>(Math.min(limit, 64));
+      int skipped = 0;
+      int end = lowerBound(toMillis);
+      for (int i = getFirstCandidate(fromMillis); i < end && result.size() < limit; i++) {
+        if (matches(entries[i], deviceId, fromMillis)) {
+          if (skipped < offset) {
+            skipped++;
+          } else {
+            result.add(entries[i]);
+          }
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of sessions that {@link #find} would return without an offset or limit.
+   */
+  public int count(final String deviceId, final long fromMillis, final long toMillis) {
+    lock.readLock().lock();
+    try {
+      int count = 0;
+      int end = lowerBound(toMillis);
+      for (int i = getFirstCandidate(fromMillis); i < end; i++) {
+        if (matches(entries[i], deviceId, fromMillis)) {
+          count++;
+        }
+      }
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the ids of the devices that have sessions in the catalog.
+   */
+  public List<String> getDeviceIds() {
+    lock.readLock().lock();
+    try {
+      return Collections.unmodifiableList(new ArrayList<>(deviceIds));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      channel.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static boolean matches(final CatalogEntry entry, final String deviceId,
+                                 final long fromMillis) {
+    return entry.getEndTimeMillis() >= fromMillis
+        && (deviceId == null || deviceId.equals(entry.getDeviceId()));
+  }
+
+  /**
+   * Returns the index of the first entry that could end at or after the given time. No entry is
+   * longer than the longest duration in the catalog, so earlier entries can be skipped.
+   */
+  private int getFirstCandidate(final long fromMillis) {
+    long earliestStart = fromMillis - maxDurationMillis;
+    return lowerBound(earliestStart > fromMillis ? Long.MIN_VALUE : earliestStart);
+  }
+
+  /**
+   * Returns the index of the first entry that starts at or after the given time.
+   */
+  private int lowerBound(final long timeMillis) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (startTimes[mid] < timeMillis) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void addEntry(final CatalogEntry entry) {
+    entriesById.add(entry);
+    if (size == entries.length) {
+      entries = Arrays.copyOf(entries, size * 2);
+      startTimes = Arrays.copyOf(startTimes, size * 2);
+    }
+    // Sessions are usually added in order, so this is almost always the end of the array.
+    int index = size;
+    while (index > 0 && startTimes[index - 1] > entry.getStartTimeMillis()) {
+      index--;
+    }
+    System.arraycopy(entries, index, entries, index + 1, size - index);
+    System.arraycopy(startTimes, index, startTimes, index + 1, size - index);
+    entries[index] = entry;
+    startTimes[index] = entry.getStartTimeMillis();
+    size++;
+    maxDurationMillis = Math.max(maxDurationMillis, entry.getDurationMillis());
+  }
+
+  /**
+   * Replaces an entry with an entry with the same id, or removes it if the replacement is null.
+   */
+  private void replaceEntry(final CatalogEntry entry, final CatalogEntry replacement) {
+    entriesById.set(entry.getId(), replacement);
+    int index = lowerBound(entry.getStartTimeMillis());
+    while (entries[index] != entry) {
+      index++;
+    }
+    if (replacement != null) {
+      entries[index] = replacement;
+    } else {
+      System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+      System.arraycopy(startTimes, index + 1, startTimes, index, size - index - 1);
+      size--;
+      entries[size] = null;
+    }
+  }
+
+  private String internDeviceId(final String deviceId) {
+    int index = deviceIds.indexOf(deviceId);
+    if (index >= 0) {
+      return deviceIds.get(index);
+    }
+    deviceIds.add(deviceId);
+    return deviceId;
+  }
+
+  private void startRecord(final int type) throws IOException {
+    recordBytes.reset();
+    recordOut.writeInt(0);
+    recordOut.writeByte(type);
+  }
+
+  private void writeEntry(final CatalogEntry entry) throws IOException {
+    recordOut.writeUTF(entry.getDeviceId());
+    recordOut.writeLong(entry.getStartTimeMillis());
+    recordOut.writeLong(entry.getEndTimeMillis());
+    recordOut.writeInt(entry.getNoteCount());
+    recordOut.writeShort(entry.getChannelMask());
+    recordOut.writeByte(entry.getLowestNote());
+    recordOut.writeByte(entry.getHighestNote());
+    recordOut.writeUTF(entry.getLocation());
+    recordOut.writeLong(entry.getOffset());
+    recordOut.writeLong(entry.getLength());
+  }
+
+  private void appendRecord() throws IOException {
+    ByteBuffer record = ByteBuffer.wrap(recordBytes.toByteArray());
+    record.putInt(0, record.limit() - 4);
+    long position = channel.size();
+    while (record.hasRemaining()) {
+      channel.write(record, position + record.position());
+    }
+  }
+
+  /**
+   * Forces the appended records to storage. This is done outside of the lock, so that queries do
+   * not wait for the storage.
+   */
+  private void force() throws IOException {
+    channel.force(false);
+  }
+
+  /**
+   * Loads the entries of the catalog file.
+   */
+  private void load() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < HEADER_LENGTH) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+      header.flip();
+      channel.truncate(0);
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      return;
+    }
+    if (fileSize > Integer.MAX_VALUE) {
+      throw new IOException("Catalog " + file + " is too large");
+    }
+    ByteBuffer contents = ByteBuffer.allocate((int) fileSize);
+    while (contents.hasRemaining()) {
+      if (channel.read(contents, contents.position()) < 0) {
+        throw new IOException("Unexpected end of catalog " + file);
+      }
+    }
+    if (contents.getInt(0) != MAGIC) {
+      throw new IOException(file + " is not a session catalog");
+    }
+
+    int position = HEADER_LENGTH;
+    while (position + 4 <= contents.limit()) {
+      int recordLength = contents.getInt(position);
+      if (recordLength <= 0 || position + 4 + recordLength > contents.limit()) {
+        break;
+      }
+      DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(contents.array(), position + 4, recordLength));
+      int type = in.readUnsignedByte();
+      if (type == ADD_RECORD) {
+        addEntry(new CatalogEntry(entriesById.size(), internDeviceId(in.readUTF()),
+            in.readLong(), in.readLong(), in.readInt(), in.readUnsignedShort(), in.readByte(),
+            in.readByte(), in.readUTF(), in.readLong(), in.readLong()));
+      } else {
+        CatalogEntry entry = getEntry(in.readInt());
+        if (entry == null) {
+          throw new IOException("Catalog " + file + " changes a session it does not contain");
+        }
+        replaceEntry(entry, type == RELOCATE_RECORD
+            ? entry.withLocation(in.readUTF(), in.readLong(), in.readLong()) : null);
+      }
+      position += 4 + recordLength;
+    }
+    if (position < fileSize) {
+      logger.warn("Discarding incomplete entry at the end of catalog " + file);
+      channel.truncate(position);
+    }
+  }
+}
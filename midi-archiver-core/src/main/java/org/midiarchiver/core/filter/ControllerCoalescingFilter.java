@@ -0,0 +1,58 @@
+package org.midiarchiver.core.filter;
+
+import java.util.Arrays;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Drops control changes that set a controller to the value it already has, which some devices
+ * send continuously, for example for a pedal that is held down. Channel mode messages, controllers
+ * 120 to 127, are always kept since they are commands rather than values. So are the controllers
+ * of registered and non-registered parameter numbers, data entry 6 and 38, data increment and
+ * decrement 96 and 97 and the parameter selects 98 to 101, since the same value may be sent for
+ * different parameters or may step a parameter again.
+ */
+public class ControllerCoalescingFilter implements MessageFilter {
+
+  private static final int CHANNEL_COUNT = 16;
+  private static final int CONTROLLER_COUNT = 120;
+  private static final int DATA_ENTRY_MSB = 6;
+  private static final int DATA_ENTRY_LSB = 38;
+  private static final int DATA_INCREMENT = 96;
+  private static final int RPN_MSB = 101;
+
+  private final int[] values = new int[CHANNEL_COUNT * CONTROLLER_COUNT];
+
+  public ControllerCoalescingFilter() {
+    reset();
+  }
+
+  @Override
+  public boolean accept(final MidiMessage message, final long timeStamp) {
+    if (!(message instanceof ShortMessage)) {
+      return true;
+    }
+    ShortMessage shortMessage = (ShortMessage) message;
+    int controller = shortMessage.getData1();
+    if (shortMessage.getCommand() != ShortMessage.CONTROL_CHANGE
+        || controller >= CONTROLLER_COUNT || isParameterController(controller)) {
+      return true;
+    }
+    int index = shortMessage.getChannel() * CONTROLLER_COUNT + controller;
+    if (values[index] == shortMessage.getData2()) {
+      return false;
+    }
+    values[index] = shortMessage.getData2();
+    return true;
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(values, -1);
+  }
+
+  private static boolean isParameterController(final int controller) {
+    return controller == DATA_ENTRY_MSB || controller == DATA_ENTRY_LSB
+        || (controller >= DATA_INCREMENT && controller <= RPN_MSB);
+  }
+}
@@ -0,0 +1,31 @@
+package org.midiarchiver.core.filter;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Decides which of the messages received from a device are recorded. Filters run on the thread
+ * that delivers the messages, before they are recorded, so they must not block or allocate.
+ * Filters are not thread safe, each receiver has filters of its own.
+ */
+public interface MessageFilter {
+
+  /**
+   * @param timeStamp the timestamp of the message in microseconds
+   * @return true if the message should be recorded, false if it should be dropped
+   */
+  boolean accept(MidiMessage message, long timeStamp);
+
+  /**
+   * Forgets the messages seen so far. This is called when a recording starts, so that the state a
+   * filter keeps does not carry over from one session to the next.
+   */
+  default void reset() {
+  }
+
+  /**
+   * Returns the name that the messages dropped by this filter are counted under.
+   */
+  default String getName() {
+    return getClass().getSimpleName();
+  }
+}
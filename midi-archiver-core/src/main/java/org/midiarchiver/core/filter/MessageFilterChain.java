@@ -0,0 +1,53 @@
+package org.midiarchiver.core.filter;
+
+import com.google.common.base.Preconditions;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Runs a message through a list of filters in order, and counts the messages dropped by each
+ * filter. A message is dropped by the first filter that does not accept it.
+ */
+public class MessageFilterChain implements MessageFilter {
+
+  private final MessageFilter[] filters;
+  private final AtomicLongArray dropCounts;
+
+  public MessageFilterChain(final List<MessageFilter> filters) {
+    Preconditions.checkArgument(!filters.isEmpty(), "filters must not be empty");
+    this.filters = filters.toArray(new MessageFilter[filters.size()]);
+    this.dropCounts = new AtomicLongArray(this.filters.length);
+  }
+
+  @Override
+  public boolean accept(final MidiMessage message, final long timeStamp) {
+    for (int i = 0; i < filters.length; i++) {
+      if (!filters[i].accept(message, timeStamp)) {
+        dropCounts.incrementAndGet(i);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void reset() {
+    for (MessageFilter filter : filters) {
+      filter.reset();
+    }
+  }
+
+  /**
+   * Returns the number of messages dropped by each filter, by filter name.
+   */
+  public Map<String, Long> getDropCounts() {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = 0; i < filters.length; i++) {
+      result.merge(filters[i].getName(), dropCounts.get(i), Long::sum);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,17 @@
+package org.midiarchiver.core.filter;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Drops system real time messages, such as the timing clock, which is sent 24 times per quarter
+ * note, and active sensing, which is sent every 300ms even when nothing is played. These make up
+ * most of the messages of some devices and carry nothing that needs to be archived.
+ */
+public class RealTimeMessageFilter implements MessageFilter {
+
+  @Override
+  public boolean accept(final MidiMessage message, final long timeStamp) {
+    return message.getStatus() < ShortMessage.TIMING_CLOCK;
+  }
+}
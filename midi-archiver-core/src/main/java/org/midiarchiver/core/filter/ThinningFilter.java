@@ -0,0 +1,69 @@
+package org.midiarchiver.core.filter;
+
+import java.util.Arrays;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Thins the continuous streams of aftertouch and pitch bend messages to at most one message per
+ * interval for each channel, and for polyphonic aftertouch for each key. Messages that return to
+ * the rest value, no pressure or a centered pitch bend, are always kept, so that a thinned stream
+ * never ends with the wrong value.
+ */
+public class ThinningFilter implements MessageFilter {
+
+  private static final int CHANNEL_COUNT = 16;
+  private static final int KEY_COUNT = 128;
+  private static final int PITCH_BEND_CENTER = 0x2000;
+
+  private final long minIntervalMicros;
+  private final long[] channelPressureTimes = new long[CHANNEL_COUNT];
+  private final long[] pitchBendTimes = new long[CHANNEL_COUNT];
+  private final long[] polyPressureTimes = new long[CHANNEL_COUNT * KEY_COUNT];
+
+  /**
+   * @param minIntervalMicros the minimum time between two messages of the same stream
+   */
+  public ThinningFilter(final long minIntervalMicros) {
+    this.minIntervalMicros = minIntervalMicros;
+    reset();
+  }
+
+  @Override
+  public boolean accept(final MidiMessage message, final long timeStamp) {
+    if (!(message instanceof ShortMessage)) {
+      return true;
+    }
+    ShortMessage shortMessage = (ShortMessage) message;
+    int channel = shortMessage.getChannel();
+    switch (shortMessage.getCommand()) {
+      case ShortMessage.CHANNEL_PRESSURE:
+        return accept(channelPressureTimes, channel, timeStamp, shortMessage.getData1() == 0);
+      case ShortMessage.PITCH_BEND:
+        int pitchBend = shortMessage.getData1() | shortMessage.getData2() << 7;
+        return accept(pitchBendTimes, channel, timeStamp, pitchBend == PITCH_BEND_CENTER);
+      case ShortMessage.POLY_PRESSURE:
+        return accept(polyPressureTimes, channel * KEY_COUNT + shortMessage.getData1(), timeStamp,
+            shortMessage.getData2() == 0);
+      default:
+        return true;
+    }
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(channelPressureTimes, Long.MIN_VALUE);
+    Arrays.fill(pitchBendTimes, Long.MIN_VALUE);
+    Arrays.fill(polyPressureTimes, Long.MIN_VALUE);
+  }
+
+  private boolean accept(final long[] lastTimes, final int stream, final long timeStamp,
+                         final boolean restValue) {
+    long lastTime = lastTimes[stream];
+    if (!restValue && lastTime != Long.MIN_VALUE && timeStamp - lastTime < minIntervalMicros) {
+      return false;
+    }
+    lastTimes[stream] = timeStamp;
+    return true;
+  }
+}
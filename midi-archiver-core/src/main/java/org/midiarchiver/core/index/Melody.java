@@ -0,0 +1,73 @@
+package org.midiarchiver.core.index;
+
+import java.util.Arrays;
+import org.midiarchiver.core.SessionSummary;
+
+/**
+ * The melody of a session, reduced to one note at a time for the {@link PhraseIndex}. Notes that
+ * start within {@value #CHORD_WINDOW_MICROS} microseconds of each other are played together, and
+ * only the highest of them is kept, as the top voice of a chord usually carries the tune. Notes on
+ * the percussion channel are ignored. A melody is reused between sessions.
+ */
+class Melody {
+
+  static final long CHORD_WINDOW_MICROS = 30000;
+  static final int PERCUSSION_CHANNEL = 9;
+
+  private int[] keys = new int[256];
+  private long[] offsetMillis = new long[256];
+  private int size;
+  private long chordStartMicros;
+  private long lastMicros;
+
+  void clear() {
+    size = 0;
+    lastMicros = 0;
+  }
+
+  /**
+   * Replaces the melody with the notes of a summary.
+   */
+  void set(final SessionSummary summary) {
+    clear();
+    for (int i = 0; i < summary.getNoteCount(); i++) {
+      addNote(summary.getNoteChannel(i), summary.getNoteKey(i), summary.getNoteMicros(i));
+    }
+  }
+
+  /**
+   * Adds a note. Notes are expected in the order they were played; a note that is earlier than
+   * the previous note is treated as if it was played at the same time.
+   */
+  void addNote(final int channel, final int key, final long micros) {
+    if (channel == PERCUSSION_CHANNEL) {
+      return;
+    }
+    long time = Math.max(micros, lastMicros);
+    lastMicros = time;
+    if (size > 0 && time - chordStartMicros < CHORD_WINDOW_MICROS) {
+      keys[size - 1] = Math.max(keys[size - 1], key);
+      return;
+    }
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      offsetMillis = Arrays.copyOf(offsetMillis, size * 2);
+    }
+    keys[size] = key;
+    offsetMillis[size] = time / 1000;
+    chordStartMicros = time;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int getKey(final int index) {
+    return keys[index];
+  }
+
+  long getOffsetMillis(final int index) {
+    return offsetMillis[index];
+  }
+}
@@ -0,0 +1,458 @@
+package org.midiarchiver.core.index;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.sound.midi.ShortMessage;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SessionSummary;
+import org.midiarchiver.core.archive.CompressedMidiFile;
+import org.midiarchiver.core.archive.CompressedMidiFileReader;
+import org.midiarchiver.core.catalog.CatalogEntry;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.midiarchiver.core.scan.MidiEventHandler;
+import org.midiarchiver.core.scan.MidiFileDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An inverted index of the melodies of the sessions in a {@link SessionCatalog}, which finds the
+ * sessions in which a phrase was played without reading their files.
+ *
+ * <p>The melody of each session is reduced to the intervals between consecutive notes, so a
+ * phrase is found in any key, and every run of {@value #GRAM_LENGTH} intervals is an n-gram,
+ * packed in an int. The index keeps a {@link PostingLists posting list} of the sessions and
+ * positions of each n-gram. A phrase is found by intersecting the lists of its n-grams and
+ * checking that they occur one after another.
+ *
+ * <p>Sessions are indexed in the order of their catalog ids. When {@link #add} is added to the
+ * catalog as a {@link org.midiarchiver.core.catalog.CatalogListener}, sessions are indexed from
+ * their {@link SessionSummary} as they are added to the catalog, and {@link #backfill()} indexes the sessions that are not indexed yet by
+ * decoding their files, for example those written before the index existed. A session written
+ * while earlier sessions are not indexed yet leaves a gap, which is filled by the backfill thread
+ * started by {@link #startBackfill()}, so the thread writing the session never decodes files. The
+ * index is kept in memory and saved to its file on {@link #close()}; sessions added after it was
+ * last saved are indexed again when it is opened.
+ */
+public class PhraseIndex implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(PhraseIndex.class);
+
+  /** The number of intervals, and so one less than the number of notes, of an n-gram. */
+  public static final int GRAM_LENGTH = 4;
+
+  private static final int MAGIC = 0x4D494458; // MIDX
+  private static final int VERSION = 1;
+
+  private final File file;
+  private final SessionCatalog catalog;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ReentrantLock backfillLock = new ReentrantLock();
+  private final Melody melody = new Melody();
+  private final Melody backfillMelody = new Melody();
+  private final AtomicBoolean backfillRequested = new AtomicBoolean();
+
+  private volatile ExecutorService backfillExecutor;
+
+  private PostingLists postingLists = new PostingLists();
+  private int nextSessionId;
+  private long[] sortKeys = new long[256];
+  private int[] gramPositions = new int[256];
+  private long[] gramOffsets = new long[256];
+
+  /**
+   * Opens the index file, if it exists, and loads the index. An index that cannot be loaded is
+   * rebuilt by the next {@link #backfill()}.
+   */
+  public PhraseIndex(final File file, final SessionCatalog catalog) {
+    this.file = Preconditions.checkNotNull(file);
+    this.catalog = Preconditions.checkNotNull(catalog);
+    if (file.exists()) {
+      try {
+        load();
+        logger.info("Loaded phrase index " + file + " of " + nextSessionId + " sessions");
+      } catch (IOException e) {
+        logger.warn("Unable to load phrase index " + file + ", rebuilding it", e);
+        postingLists = new PostingLists();
+        nextSessionId = 0;
+      }
+    }
+  }
+
+  /**
+   * Indexes a session that has just been added to the catalog. If earlier sessions have not been
+   * indexed yet, the session is left to the backfill thread, which indexes it from its file after
+   * them.
+   */
+  public void add(final CatalogEntry entry, final SessionSummary summary) {
+    lock.writeLock().lock();
+    try {
+      if (entry.getId() < nextSessionId) {
+        return;
+      }
+      if (entry.getId() == nextSessionId) {
+        melody.set(summary);
+        index(melody);
+        return;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    requestBackfill();
+  }
+
+  /**
+   * Starts the backfill thread, which indexes the sessions that are not indexed yet and then the
+   * gaps left by {@link #add}, saving the index after each run that indexed sessions. Without it,
+   * gaps are left until {@link #backfill()} is called.
+   */
+  public synchronized void startBackfill() {
+    Preconditions.checkState(backfillExecutor == null, "The backfill thread is already started");
+    backfillExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("phrase-index-backfill").setDaemon(true).setPriority(Thread.MIN_PRIORITY)
+        .build());
+    requestBackfill();
+  }
+
+  /**
+   * Indexes the sessions of the catalog that have not been indexed yet, reading them from their
+   * files. Sessions that cannot be read are skipped.
+   *
+   * @return the number of sessions indexed
+   */
+  public int backfill() {
+    backfillLock.lock();
+    try {
+      int indexedCount = 0;
+      int sessionId;
+      while ((sessionId = getNextSessionId()) < catalog.getNextId()) {
+        CatalogEntry entry = catalog.getEntry(sessionId);
+        backfillMelody.clear();
+        if (entry != null) {
+          try {
+            readMelody(entry, backfillMelody);
+          } catch (IOException e) {
+            logger.warn("Unable to index session " + sessionId + " in " + entry.getLocation(), e);
+          }
+        }
+        lock.writeLock().lock();
+        try {
+          // The session may have been indexed as it was written in the meantime.
+          if (nextSessionId == sessionId) {
+            index(backfillMelody);
+            indexedCount++;
+          }
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      return indexedCount;
+    } finally {
+      backfillLock.unlock();
+    }
+  }
+
+  /**
+   * Finds the sessions in which a phrase was played, in any key.
+   *
+   * @param deviceId the device to find sessions of, or null for all devices
+   * @param keys the keys of the notes of the phrase, at least {@value #GRAM_LENGTH} + 1
+   * @param limit the maximum number of matches to return
+   * @return the occurrences of the phrase, ordered by session id and offset
+   */
+  public List<PhraseMatch> find(final String deviceId, final int[] keys, final int limit) {
+    Preconditions.checkArgument(keys.length > GRAM_LENGTH,
+        "A phrase must have at least " + (GRAM_LENGTH + 1) + " notes");
+    List<PhraseMatch> matches = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      int gramCount = keys.length - GRAM_LENGTH;
+      PostingLists.Cursor[] cursors = new PostingLists.Cursor[gramCount];
+      for (int i = 0; i < gramCount; i++) {
+        cursors[i] = postingLists.newCursor(getGram(keys, i));
+        if (cursors[i] == null) {
+          return Collections.emptyList();
+        }
+      }
+      int sessionId = 0;
+      while (matches.size() < limit) {
+        // Advances every cursor to the session, or the next session in which all n-grams occur.
+        boolean aligned = true;
+        for (PostingLists.Cursor cursor : cursors) {
+          if (!cursor.advanceTo(sessionId)) {
+            return matches;
+          }
+          if (cursor.getSessionId() > sessionId) {
+            sessionId = cursor.getSessionId();
+            aligned = false;
+          }
+        }
+        if (aligned) {
+          addMatches(sessionId, deviceId, cursors, limit, matches);
+          sessionId++;
+        }
+      }
+      return matches;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of sessions that have been indexed, including sessions without notes.
+   */
+  public int getNextSessionId() {
+    lock.readLock().lock();
+    try {
+      return nextSessionId;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int getGramCount() {
+    lock.readLock().lock();
+    try {
+      return postingLists.getGramCount();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the size of the posting lists in bytes.
+   */
+  public long getByteCount() {
+    lock.readLock().lock();
+    try {
+      return postingLists.getByteCount();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Saves the index to its file, replacing the file atomically.
+   */
+  public synchronized void save() throws IOException {
+    File newFile = new File(file.getPath() + ".new");
+    lock.readLock().lock();
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(newFile), 64 * 1024))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(GRAM_LENGTH);
+      out.writeInt(nextSessionId);
+      postingLists.write(out);
+    } finally {
+      lock.readLock().unlock();
+    }
+    Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Stops the backfill thread, waiting for a run in progress to finish, and saves the index.
+   */
+  @Override
+  public void close() throws IOException, InterruptedException {
+    ExecutorService executor = backfillExecutor;
+    if (executor != null) {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    save();
+  }
+
+  private void requestBackfill() {
+    ExecutorService executor = backfillExecutor;
+    if (executor == null || !backfillRequested.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(this::runBackfill);
+    } catch (RejectedExecutionException e) {
+      // Closed; the gap is filled when the index is next opened.
+      backfillRequested.set(false);
+    }
+  }
+
+  private void runBackfill() {
+    // Cleared first so that a gap left during this run requests another one.
+    backfillRequested.set(false);
+    long startMillis = System.currentTimeMillis();
+    int indexedCount = backfill();
+    if (indexedCount > 0) {
+      logger.info("Indexed " + indexedCount + " sessions in "
+          + (System.currentTimeMillis() - startMillis) + " ms");
+      try {
+        save();
+      } catch (IOException e) {
+        logger.warn("Unable to save phrase index " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Packs the intervals between the GRAM_LENGTH + 1 notes from the given index, one per byte.
+   */
+  static int getGram(final int[] keys, final int from) {
+    int gram = 0;
+    for (int i = from; i < from + GRAM_LENGTH; i++) {
+      gram = gram << 8 | (keys[i + 1] - keys[i]) & 0xFF;
+    }
+    return gram;
+  }
+
+  private void addMatches(final int sessionId, final String deviceId,
+                          final PostingLists.Cursor[] cursors, final int limit,
+                          final List<PhraseMatch> matches) {
+    CatalogEntry entry = catalog.getEntry(sessionId);
+    if (entry == null || (deviceId != null && !deviceId.equals(entry.getDeviceId()))) {
+      return;
+    }
+    PostingLists.Cursor first = cursors[0];
+    for (int i = 0; i < first.getOccurrenceCount() && matches.size() < limit; i++) {
+      int position = first.getPosition(i);
+      boolean matched = true;
+      for (int j = 1; j < cursors.length && matched; j++) {
+        matched = cursors[j].containsPosition(position + j);
+      }
+      if (matched) {
+        matches.add(new PhraseMatch(entry, first.getOffsetMillis(i)));
+      }
+    }
+  }
+
+  /**
+   * Adds the n-grams of a melody as the next session. Called with the write lock held.
+   */
+  private void index(final Melody sessionMelody) {
+    int sessionId = nextSessionId++;
+    int gramCount = sessionMelody.size() - GRAM_LENGTH;
+    if (gramCount <= 0) {
+      return;
+    }
+    if (sortKeys.length < gramCount) {
+      sortKeys = new long[gramCount];
+      gramPositions = new int[gramCount];
+      gramOffsets = new long[gramCount];
+    }
+    // The n-gram ending at each interval is the previous one shifted by one interval.
+    int gram = 0;
+    for (int i = 0; i < sessionMelody.size() - 1; i++) {
+      gram = gram << 8 | (sessionMelody.getKey(i + 1) - sessionMelody.getKey(i)) & 0xFF;
+      int position = i - GRAM_LENGTH + 1;
+      if (position >= 0) {
+        sortKeys[position] = (long) gram << 32 | position;
+      }
+    }
+    // Groups the occurrences by n-gram, in order of position.
+    Arrays.sort(sortKeys, 0, gramCount);
+    int start = 0;
+    for (int i = 0; i < gramCount; i++) {
+      int position = (int) sortKeys[i];
+      gramPositions[i] = position;
+      gramOffsets[i] = sessionMelody.getOffsetMillis(position);
+      if (i + 1 == gramCount || sortKeys[i + 1] >>> 32 != sortKeys[i] >>> 32) {
+        postingLists.append((int) (sortKeys[i] >>> 32), sessionId, gramPositions, gramOffsets,
+            start, i + 1);
+        start = i + 1;
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != GRAM_LENGTH) {
+        throw new IOException("Not a phrase index of version " + VERSION);
+      }
+      int sessionCount = in.readInt();
+      if (sessionCount > catalog.getNextId()) {
+        throw new IOException("The index has more sessions than the catalog");
+      }
+      postingLists.read(in);
+      nextSessionId = sessionCount;
+    }
+  }
+
+  /**
+   * Decodes the notes of an archived session into a melody.
+   */
+  private static void readMelody(final CatalogEntry entry, final Melody sessionMelody)
+      throws IOException {
+    File sessionFile = new File(entry.getLocation());
+    ByteBuffer buffer;
+    if (CompressedMidiFile.isCompressed(entry.getLocation())) {
+      buffer = ByteBuffer.wrap(CompressedMidiFileReader.read(sessionFile));
+    } else {
+      buffer = ByteBuffer.allocate(Math.toIntExact(entry.getLength()));
+      try (FileChannel channel = FileChannel.open(sessionFile.toPath(),
+          StandardOpenOption.READ)) {
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, entry.getOffset() + buffer.position()) < 0) {
+            throw new EOFException("Session " + entry.getId() + " is truncated");
+          }
+        }
+      }
+      buffer.flip();
+    }
+    MidiFileDecoder.decode(buffer, new MelodyHandler(sessionMelody));
+  }
+
+  /**
+   * Adds the notes of a decoded file to a melody. Archived files have a single track and the
+   * tempo that {@link MidiEventBuffer} assumes.
+   */
+  private static class MelodyHandler implements MidiEventHandler {
+
+    private final Melody sessionMelody;
+    private int division = MidiEventBuffer.RESOLUTION;
+
+    MelodyHandler(final Melody sessionMelody) {
+      this.sessionMelody = sessionMelody;
+    }
+
+    @Override
+    public void header(final int format, final int trackCount, final int division) {
+      if (division > 0 && division < 0x8000) {
+        this.division = division;
+      }
+    }
+
+    @Override
+    public void channelMessage(final int track, final long tick, final int status,
+                               final int data1, final int data2) {
+      if ((status & 0xF0) == ShortMessage.NOTE_ON && data2 > 0) {
+        sessionMelody.addNote(status & 0x0F, data1,
+            tick * MidiEventBuffer.MICROS_PER_QUARTER_NOTE / division);
+      }
+    }
+  }
+}
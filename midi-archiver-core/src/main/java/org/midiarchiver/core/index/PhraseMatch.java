@@ -0,0 +1,38 @@
+package org.midiarchiver.core.index;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.midiarchiver.core.catalog.CatalogEntry;
+
+/**
+ * An occurrence of a phrase found by the {@link PhraseIndex}.
+ */
+public final class PhraseMatch {
+
+  private final CatalogEntry session;
+  private final long offsetMillis;
+
+  public PhraseMatch(final CatalogEntry session, final long offsetMillis) {
+    this.session = Preconditions.checkNotNull(session);
+    this.offsetMillis = offsetMillis;
+  }
+
+  public CatalogEntry getSession() {
+    return session;
+  }
+
+  /**
+   * Returns the time of the first note of the phrase relative to the start of the session.
+   */
+  public long getOffsetMillis() {
+    return offsetMillis;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("session", session.getId())
+        .add("offsetMillis", offsetMillis)
+        .toString();
+  }
+}
@@ -0,0 +1,268 @@
+package org.midiarchiver.core.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The posting lists of the {@link PhraseIndex}, by n-gram, in an open addressing table of
+ * primitive arrays. A posting list is a byte array of variable length integers: for each session
+ * that contains the n-gram, in increasing order of id, the difference to the previous session id
+ * and the number of occurrences, followed by the difference of the position and of the offset in
+ * milliseconds of each occurrence to the previous one in the session. Most of these fit in a byte.
+ */
+class PostingLists {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // The table maps an n-gram to its list number plus one, or 0 for a free slot.
+  private int[] tableGrams = new int[INITIAL_CAPACITY * 2];
+  private int[] tableLists = new int[INITIAL_CAPACITY * 2];
+
+  private int[] grams = new int[INITIAL_CAPACITY];
+  private byte[][] postings = new byte[INITIAL_CAPACITY][];
+  private int[] lengths = new int[INITIAL_CAPACITY];
+  private int[] lastSessionIds = new int[INITIAL_CAPACITY];
+  private int count;
+  private long byteCount;
+
+  /**
+   * A reader of the posting list of an n-gram, which decodes one session at a time.
+   */
+  class Cursor {
+
+    private final byte[] bytes;
+    private final int length;
+    private int position;
+    private int decodedSessionId;
+    private int sessionId = -1;
+    private int occurrenceCount;
+    private int[] positions = new int[16];
+    private long[] offsets = new long[16];
+
+    Cursor(final int list) {
+      this.bytes = postings[list];
+      this.length = lengths[list];
+    }
+
+    /**
+     * Moves to the next session, returning false at the end of the list.
+     */
+    boolean next() {
+      if (position >= length) {
+        sessionId = Integer.MAX_VALUE;
+        return false;
+      }
+      decodedSessionId += readVarint();
+      sessionId = decodedSessionId;
+      occurrenceCount = readVarint();
+      if (occurrenceCount > positions.length) {
+        positions = new int[occurrenceCount];
+        offsets = new long[occurrenceCount];
+      }
+      int gramPosition = 0;
+      long offset = 0;
+      for (int i = 0; i < occurrenceCount; i++) {
+        gramPosition += readVarint();
+        offset += readVarint();
+        positions[i] = gramPosition;
+        offsets[i] = offset;
+      }
+      return true;
+    }
+
+    /**
+     * Moves to the first session with an id of at least the given id, returning false if there is
+     * none.
+     */
+    boolean advanceTo(final int targetSessionId) {
+      while (sessionId < targetSessionId) {
+        if (!next()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    int getSessionId() {
+      return sessionId;
+    }
+
+    int getOccurrenceCount() {
+      return occurrenceCount;
+    }
+
+    int getPosition(final int index) {
+      return positions[index];
+    }
+
+    long getOffsetMillis(final int index) {
+      return offsets[index];
+    }
+
+    boolean containsPosition(final int gramPosition) {
+      return Arrays.binarySearch(positions, 0, occurrenceCount, gramPosition) >= 0;
+    }
+
+    private int readVarint() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = bytes[position++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+  }
+
+  int getGramCount() {
+    return count;
+  }
+
+  long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * Returns the number of bytes in the posting list of an n-gram, or -1 if it has none.
+   */
+  int getLength(final int gram) {
+    int list = find(gram);
+    return list < 0 ? -1 : lengths[list];
+  }
+
+  /**
+   * Returns a cursor positioned before the first session of the posting list of an n-gram, or
+   * null if no session contains it.
+   */
+  Cursor newCursor(final int gram) {
+    int list = find(gram);
+    return list < 0 ? null : new Cursor(list);
+  }
+
+  /**
+   * Appends the occurrences of an n-gram in a session, which must have a greater id than the
+   * sessions already in its list. The positions must be increasing.
+   */
+  void append(final int gram, final int sessionId, final int[] gramPositions,
+              final long[] offsetMillis, final int from, final int to) {
+    int list = find(gram);
+    int previousSessionId = 0;
+    if (list < 0) {
+      list = insert(gram);
+    } else {
+      previousSessionId = lastSessionIds[list];
+    }
+    int start = lengths[list];
+    ensureCapacity(list, start + 10 + (to - from) * 15);
+    writeVarint(list, sessionId - previousSessionId);
+    writeVarint(list, to - from);
+    int previousPosition = 0;
+    long previousOffset = 0;
+    for (int i = from; i < to; i++) {
+      writeVarint(list, gramPositions[i] - previousPosition);
+      writeVarint(list, (int) (offsetMillis[i] - previousOffset));
+      previousPosition = gramPositions[i];
+      previousOffset = offsetMillis[i];
+    }
+    lastSessionIds[list] = sessionId;
+    byteCount += lengths[list] - start;
+  }
+
+  void write(final DataOutput out) throws IOException {
+    out.writeInt(count);
+    for (int list = 0; list < count; list++) {
+      out.writeInt(grams[list]);
+      out.writeInt(lastSessionIds[list]);
+      out.writeInt(lengths[list]);
+      out.write(postings[list], 0, lengths[list]);
+    }
+  }
+
+  void read(final DataInput in) throws IOException {
+    int listCount = in.readInt();
+    for (int i = 0; i < listCount; i++) {
+      int list = insert(in.readInt());
+      lastSessionIds[list] = in.readInt();
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Invalid posting list length " + length);
+      }
+      postings[list] = new byte[length];
+      in.readFully(postings[list]);
+      lengths[list] = length;
+      byteCount += length;
+    }
+  }
+
+  private int find(final int gram) {
+    int mask = tableGrams.length - 1;
+    for (int slot = hash(gram) & mask; tableLists[slot] != 0; slot = (slot + 1) & mask) {
+      if (tableGrams[slot] == gram) {
+        return tableLists[slot] - 1;
+      }
+    }
+    return -1;
+  }
+
+  private int insert(final int gram) {
+    if (count == grams.length) {
+      int capacity = count * 2;
+      grams = Arrays.copyOf(grams, capacity);
+      postings = Arrays.copyOf(postings, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lastSessionIds = Arrays.copyOf(lastSessionIds, capacity);
+      rehash(capacity * 2);
+    }
+    int list = count++;
+    grams[list] = gram;
+    postings[list] = new byte[16];
+    int mask = tableGrams.length - 1;
+    int slot = hash(gram) & mask;
+    while (tableLists[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    tableGrams[slot] = gram;
+    tableLists[slot] = list + 1;
+    return list;
+  }
+
+  private void rehash(final int tableCapacity) {
+    tableGrams = new int[tableCapacity];
+    tableLists = new int[tableCapacity];
+    int mask = tableCapacity - 1;
+    for (int list = 0; list < count; list++) {
+      int slot = hash(grams[list]) & mask;
+      while (tableLists[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      tableGrams[slot] = grams[list];
+      tableLists[slot] = list + 1;
+    }
+  }
+
+  private void ensureCapacity(final int list, final int capacity) {
+    if (postings[list].length < capacity) {
+      postings[list] = Arrays.copyOf(postings[list], Math.max(capacity, postings[list].length * 2));
+    }
+  }
+
+  private void writeVarint(final int list, int value) {
+    byte[] bytes = postings[list];
+    int position = lengths[list];
+    while ((value & ~0x7F) != 0) {
+      bytes[position++] = (byte) (value & 0x7F | 0x80);
+      value >>>= 7;
+    }
+    bytes[position++] = (byte) value;
+    lengths[list] = position;
+  }
+
+  private static int hash(final int gram) {
+    int h = gram * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
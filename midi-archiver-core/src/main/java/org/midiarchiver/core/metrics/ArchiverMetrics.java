@@ -0,0 +1,35 @@
+package org.midiarchiver.core.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics of the archiver and of each of its devices, by device id.
+ */
+public class ArchiverMetrics {
+
+  private final Map<String, DeviceMetrics> deviceMetrics = new ConcurrentHashMap<>();
+  private final LatencyHistogram deviceScanNanos = new LatencyHistogram();
+
+  /**
+   * Returns the metrics of a device, which are created when a device is first seen and kept when
+   * it is removed, so that they continue when it is added back.
+   */
+  public DeviceMetrics getDeviceMetrics(final String deviceId) {
+    return deviceMetrics.computeIfAbsent(deviceId, id -> new DeviceMetrics());
+  }
+
+  public Map<String, DeviceMetrics> getDeviceMetrics() {
+    return Collections.unmodifiableMap(deviceMetrics);
+  }
+
+  public void recordDeviceScan(final long durationNanos) {
+    deviceScanNanos.record(durationNanos);
+  }
+
+  /** The time taken by each check for new devices. */
+  public LatencyHistogram getDeviceScanNanos() {
+    return deviceScanNanos;
+  }
+}
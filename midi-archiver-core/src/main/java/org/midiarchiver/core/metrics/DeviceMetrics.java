@@ -0,0 +1,114 @@
+package org.midiarchiver.core.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.midiarchiver.core.filter.MessageFilterChain;
+
+/**
+ * The metrics of a single device. Recording a metric does not allocate, so it can be done for
+ * every message that is received.
+ */
+public class DeviceMetrics {
+
+  private final LatencyHistogram sendLatencyNanos = new LatencyHistogram();
+  private final LatencyHistogram lockWaitNanos = new LatencyHistogram();
+  private final RateMeter messageRate = new RateMeter();
+  private final LatencyHistogram sessionDurationMillis = new LatencyHistogram();
+  private final LatencyHistogram writeLatencyNanos = new LatencyHistogram();
+  private final LatencyHistogram appendLatencyNanos = new LatencyHistogram();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private volatile MessageFilterChain messageFilterChain;
+
+  /**
+   * Records a message sent to the receiver of the device.
+   *
+   * @param startNanos the {@link System#nanoTime()} at which the receiver was called
+   * @param lockedNanos the time at which the receiver acquired its lock
+   * @param endNanos the time at which the receiver returned
+   */
+  public void recordSend(final long startNanos, final long lockedNanos, final long endNanos) {
+    sendLatencyNanos.record(endNanos - startNanos);
+    lockWaitNanos.record(lockedNanos - startNanos);
+    messageRate.mark(startNanos);
+  }
+
+  public void recordSession(final long durationMillis) {
+    sessionDurationMillis.record(durationMillis);
+  }
+
+  /**
+   * Records a call to the writer of the device that wrote a whole session.
+   */
+  public void recordWrite(final long latencyNanos) {
+    writeLatencyNanos.record(latencyNanos);
+  }
+
+  /**
+   * Records a call to a streaming writer of the device that appended a chunk of a session, or
+   * ended a session.
+   */
+  public void recordAppend(final long latencyNanos) {
+    appendLatencyNanos.record(latencyNanos);
+  }
+
+  public void recordBytesWritten(final long length) {
+    bytesWritten.addAndGet(length);
+  }
+
+  /**
+   * Sets the filter chain of the current receiver of the device, which counts the messages it
+   * drops.
+   */
+  public void setMessageFilterChain(final MessageFilterChain messageFilterChain) {
+    this.messageFilterChain = messageFilterChain;
+  }
+
+  /** The time spent in the receiver per message, including the time spent waiting for its lock. */
+  public LatencyHistogram getSendLatencyNanos() {
+    return sendLatencyNanos;
+  }
+
+  /** The time spent waiting for the lock of the receiver per message. */
+  public LatencyHistogram getLockWaitNanos() {
+    return lockWaitNanos;
+  }
+
+  public long getMessageCount() {
+    return sendLatencyNanos.getCount();
+  }
+
+  public double getMessagesPerSecond() {
+    return messageRate.getRate(System.nanoTime());
+  }
+
+  public long getSessionCount() {
+    return sessionDurationMillis.getCount();
+  }
+
+  public LatencyHistogram getSessionDurationMillis() {
+    return sessionDurationMillis;
+  }
+
+  public LatencyHistogram getWriteLatencyNanos() {
+    return writeLatencyNanos;
+  }
+
+  public LatencyHistogram getAppendLatencyNanos() {
+    return appendLatencyNanos;
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * Returns the number of messages dropped by each filter of the current receiver of the device,
+   * by filter name.
+   */
+  public Map<String, Long> getDroppedMessages() {
+    MessageFilterChain messageFilterChain = this.messageFilterChain;
+    return messageFilterChain == null
+        ? Collections.emptyMap() : messageFilterChain.getDropCounts();
+  }
+}
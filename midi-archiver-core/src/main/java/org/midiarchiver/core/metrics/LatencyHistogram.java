@@ -0,0 +1,106 @@
+package org.midiarchiver.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, that can be recorded from
+ * any number of threads without locking or allocating.
+ *
+ * <p>As in HdrHistogram, values are counted in buckets whose width grows with the value: values
+ * below {@value #SUB_BUCKET_COUNT} are counted exactly, and every power of two above that is split
+ * into {@value #HALF_SUB_BUCKET_COUNT} buckets of equal width. A recorded value is therefore
+ * reported with a relative error of at most 1 in {@value #HALF_SUB_BUCKET_COUNT}, at any
+ * magnitude.
+ *
+ * <p>The statistics are read without stopping recording, so they may not reflect values that are
+ * being recorded concurrently.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+  private static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a value. Negative values, which a clock that is not monotonic can produce, are
+   * recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(getIndex(value));
+    totalCount.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) sum.get() / count;
+  }
+
+  /**
+   * Returns the value at the given percentile, as the highest value that is counted in the same
+   * bucket. Returns 0 if no values have been recorded.
+   *
+   * @param percentile the percentile, from 0 to 100
+   */
+  public long getValueAtPercentile(final double percentile) {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += counts.get(i);
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getHighestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int getIndex(final long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // Values in [2^(SUB_BUCKET_BITS + shift - 1), 2^(SUB_BUCKET_BITS + shift)) share a shift.
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT
+        + (int) (value >>> shift) - HALF_SUB_BUCKET_COUNT;
+  }
+
+  static long getHighestValue(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+    long subBucket = HALF_SUB_BUCKET_COUNT + (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT;
+    long lowestValue = subBucket << shift;
+    return lowestValue + (1L << shift) - 1;
+  }
+}
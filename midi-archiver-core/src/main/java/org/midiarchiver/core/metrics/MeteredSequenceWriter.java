@@ -0,0 +1,114 @@
+package org.midiarchiver.core.metrics;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.StreamingSequenceWriter;
+
+/**
+ * A {@link SequenceWriter} that records the latency of each write to another writer in the metrics
+ * of a device. The number of bytes written is only known to the writer, so it is recorded by the
+ * session listener of the writer instead.
+ */
+public class MeteredSequenceWriter implements SequenceWriter {
+
+  /**
+   * A {@link MeteredSequenceWriter} for a {@link StreamingSequenceWriter}, which records the
+   * latency of appending each chunk and of ending each session apart from whole session writes.
+   */
+  private static final class Streaming extends MeteredSequenceWriter
+      implements StreamingSequenceWriter {
+
+    private final StreamingSequenceWriter delegate;
+
+    Streaming(final StreamingSequenceWriter delegate, final DeviceMetrics deviceMetrics) {
+      super(delegate, deviceMetrics);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void beginSession(long startTimeMillis) throws IOException {
+      delegate.beginSession(startTimeMillis);
+    }
+
+    @Override
+    public void appendEvents(MidiEventBuffer events) throws IOException {
+      long startNanos = System.nanoTime();
+      try {
+        delegate.appendEvents(events);
+      } finally {
+        deviceMetrics.recordAppend(System.nanoTime() - startNanos);
+      }
+    }
+
+    @Override
+    public void endSession() throws IOException {
+      long startNanos = System.nanoTime();
+      try {
+        delegate.endSession();
+      } finally {
+        deviceMetrics.recordAppend(System.nanoTime() - startNanos);
+      }
+    }
+
+    @Override
+    public long getDurableMicros() {
+      return delegate.getDurableMicros();
+    }
+
+    @Override
+    public void write(MidiEventBuffer events) throws IOException {
+      StreamingSequenceWriter.super.write(events);
+    }
+  }
+
+  private final SequenceWriter delegate;
+  final DeviceMetrics deviceMetrics;
+
+  private MeteredSequenceWriter(final SequenceWriter delegate, final DeviceMetrics deviceMetrics) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.deviceMetrics = Preconditions.checkNotNull(deviceMetrics);
+  }
+
+  /**
+   * Wraps a writer, keeping it a {@link StreamingSequenceWriter} if it is one.
+   */
+  public static SequenceWriter wrap(final SequenceWriter delegate,
+                                    final DeviceMetrics deviceMetrics) {
+    return delegate instanceof StreamingSequenceWriter
+        ? new Streaming((StreamingSequenceWriter) delegate, deviceMetrics)
+        : new MeteredSequenceWriter(delegate, deviceMetrics);
+  }
+
+  @Override
+  public void write(Sequence sequence) throws IOException {
+    long startNanos = System.nanoTime();
+    try {
+      delegate.write(sequence);
+    } finally {
+      deviceMetrics.recordWrite(System.nanoTime() - startNanos);
+    }
+  }
+
+  @Override
+  public void write(MidiEventBuffer events) throws IOException {
+    long startNanos = System.nanoTime();
+    try {
+      delegate.write(events);
+    } finally {
+      deviceMetrics.recordWrite(System.nanoTime() - startNanos);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    delegate.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+}
@@ -0,0 +1,61 @@
+package org.midiarchiver.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events per second over the last few seconds, without locking or allocating. Events are
+ * counted in a ring of one second slots, and a slot is cleared when the first event of a new
+ * second is counted in it. An event counted concurrently with the clearing of its slot may be
+ * lost, which is acceptable for a rate.
+ */
+public class RateMeter {
+
+  private static final int SLOT_COUNT = 8;
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /** The number of complete seconds the rate is averaged over. */
+  public static final int WINDOW_SECONDS = SLOT_COUNT - 2;
+
+  private final AtomicLongArray counts = new AtomicLongArray(SLOT_COUNT);
+  private final AtomicLongArray seconds = new AtomicLongArray(SLOT_COUNT);
+
+  public RateMeter() {
+    for (int i = 0; i < SLOT_COUNT; i++) {
+      seconds.set(i, -1);
+    }
+  }
+
+  /**
+   * Counts an event.
+   *
+   * @param nanoTime the {@link System#nanoTime()} at which the event happened
+   */
+  public void mark(final long nanoTime) {
+    long second = nanoTime / NANOS_PER_SECOND;
+    int slot = (int) (second & (SLOT_COUNT - 1));
+    long slotSecond = seconds.get(slot);
+    if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+      counts.set(slot, 0);
+    }
+    counts.incrementAndGet(slot);
+  }
+
+  /**
+   * Returns the average number of events per second over the last {@link #WINDOW_SECONDS}
+   * complete seconds.
+   *
+   * @param nanoTime the current {@link System#nanoTime()}
+   */
+  public double getRate(final long nanoTime) {
+    long currentSecond = nanoTime / NANOS_PER_SECOND;
+    long count = 0;
+    for (long second = currentSecond - WINDOW_SECONDS; second < currentSecond; second++) {
+      int slot = (int) (second & (SLOT_COUNT - 1));
+      if (seconds.get(slot) == second) {
+        count += counts.get(slot);
+      }
+    }
+    return (double) count / WINDOW_SECONDS;
+  }
+}
@@ -0,0 +1,39 @@
+package org.midiarchiver.core.scan;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Aggregates the events of the files scanned by {@link ArchiveScanner}. The scanner creates an
+ * aggregator for each part of the archive it scans in parallel and merges them, so an aggregator
+ * is only used by one thread at a time and does not need to be thread safe.
+ *
+ * @param <A> the type of the aggregator
+ */
+public interface ArchiveAggregator<A extends ArchiveAggregator<A>> extends MidiEventHandler {
+
+  /**
+   * Called before the events of a file.
+   *
+   * @param length the length of the file, which is compressed for compressed files
+   */
+  void startFile(String deviceId, Path file, long length);
+
+  /**
+   * Called after the events of a file that was decoded completely.
+   */
+  default void endFile() {
+  }
+
+  /**
+   * Called instead of {@link #endFile()} when a file could not be read or decoded. Some of its
+   * events may have been passed to the aggregator.
+   */
+  default void fileFailed(IOException e) {
+  }
+
+  /**
+   * Adds the results of another aggregator, which was used for other files, to this one.
+   */
+  void merge(A other);
+}
@@ -0,0 +1,233 @@
+package org.midiarchiver.core.scan;
+
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import org.midiarchiver.core.archive.CompressedMidiFile;
+import org.midiarchiver.core.archive.CompressedMidiFileReader;
+
+/**
+ * Scans the midi files of an archive in parallel and passes their events to
+ * {@link ArchiveAggregator}s, for bulk operations such as computing statistics or verifying the
+ * archive. The archive is laid out as {@code <deviceId>/yyyy/MM/dd/<file>} under the data
+ * directory, as written by {@link org.midiarchiver.core.FileSequenceWriter}. An archive striped
+ * across several storage roots is scanned as one, with the directories of a device on every root.
+ *
+ * <p>Each directory is a fork join task, and the files of a directory are split into tasks of at
+ * most {@value #FILES_PER_TASK} files, so idle threads steal days and files from busy ones. Files
+ * are decoded with {@link MidiFileDecoder}. Large files are memory mapped, while small files, which
+ * most sessions are, are read into a buffer of the task, which is cheaper than mapping them.
+ * Compressed files are decompressed in memory. Other files are ignored.
+ */
+public class ArchiveScanner {
+
+  static final int FILES_PER_TASK = 16;
+  static final int MAPPED_FILE_THRESHOLD = 64 * 1024;
+
+  private final List<Path> dataDirectories;
+  private final ForkJoinPool pool;
+
+  public ArchiveScanner(final String dataDirectoryPath) {
+    this(dataDirectoryPath, ForkJoinPool.commonPool());
+  }
+
+  public ArchiveScanner(final String dataDirectoryPath, final ForkJoinPool pool) {
+    this(Collections.singletonList(dataDirectoryPath), pool);
+  }
+
+  /**
+   * @param dataDirectoryPaths the storage roots of the archive
+   */
+  public ArchiveScanner(final List<String> dataDirectoryPaths, final ForkJoinPool pool) {
+    this.dataDirectories = new ArrayList<>(dataDirectoryPaths.size());
+    for (String dataDirectoryPath : dataDirectoryPaths) {
+      dataDirectories.add(new File(Preconditions.checkNotNull(dataDirectoryPath)).toPath());
+    }
+    this.pool = Preconditions.checkNotNull(pool);
+  }
+
+  /**
+   * Scans the files of all devices.
+   *
+   * @param aggregatorFactory creates the aggregators of the tasks
+   * @return the merged aggregator
+   */
+  public <A extends ArchiveAggregator<A>> A scan(final Supplier<A> aggregatorFactory)
+      throws IOException {
+    return scan(null, aggregatorFactory);
+  }
+
+  /**
+   * Scans the files of a device, or of all devices if deviceId is null.
+   */
+  public <A extends ArchiveAggregator<A>> A scan(final String deviceId,
+                                                 final Supplier<A> aggregatorFactory)
+      throws IOException {
+    Preconditions.checkNotNull(aggregatorFactory);
+    List<DirectoryTask<A>> tasks = new ArrayList<>();
+    for (Path dataDirectory : dataDirectories) {
+      if (deviceId != null) {
+        Path deviceDirectory = dataDirectory.resolve(deviceId);
+        if (Files.isDirectory(deviceDirectory)) {
+          tasks.add(new DirectoryTask<>(deviceId, deviceDirectory, aggregatorFactory));
+        }
+      } else if (Files.isDirectory(dataDirectory)) {
+        try (DirectoryStream<Path> devices = Files.newDirectoryStream(dataDirectory)) {
+          for (Path deviceDirectory : devices) {
+            if (Files.isDirectory(deviceDirectory)) {
+              tasks.add(new DirectoryTask<>(deviceDirectory.getFileName().toString(),
+                  deviceDirectory, aggregatorFactory));
+            }
+          }
+        }
+      }
+    }
+    try {
+      return pool.invoke(new RecursiveTask<A>() {
+        @Override
+        protected A compute() {
+          return joinAll(tasks, aggregatorFactory.get());
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static <A extends ArchiveAggregator<A>> A joinAll(
+      final List<? extends ForkJoinTask<A>> tasks, final A aggregator) {
+    for (ForkJoinTask<A> task : ForkJoinTask.invokeAll(tasks)) {
+      aggregator.merge(task.join());
+    }
+    return aggregator;
+  }
+
+  /**
+   * Scans a directory, forking a task for each of its subdirectories and for each group of its
+   * files.
+   */
+  private static final class DirectoryTask<A extends ArchiveAggregator<A>>
+      extends RecursiveTask<A> {
+
+    private final String deviceId;
+    private final Path directory;
+    private final Supplier<A> aggregatorFactory;
+
+    DirectoryTask(final String deviceId, final Path directory,
+                  final Supplier<A> aggregatorFactory) {
+      this.deviceId = deviceId;
+      this.directory = directory;
+      this.aggregatorFactory = aggregatorFactory;
+    }
+
+    @Override
+    protected A compute() {
+      List<RecursiveTask<A>> tasks = new ArrayList<>();
+      List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          if (Files.isDirectory(entry)) {
+            tasks.add(new DirectoryTask<>(deviceId, entry, aggregatorFactory));
+          } else if (isMidiFile(entry)) {
+            files.add(entry);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (!files.isEmpty()) {
+        tasks.add(new FilesTask<>(deviceId, files, 0, files.size(), aggregatorFactory));
+      }
+      return joinAll(tasks, aggregatorFactory.get());
+    }
+  }
+
+  /**
+   * Decodes a range of the files of a directory, splitting it in halves while it has more than
+   * {@value #FILES_PER_TASK} files.
+   */
+  private static final class FilesTask<A extends ArchiveAggregator<A>> extends RecursiveTask<A> {
+
+    private final String deviceId;
+    private final List<Path> files;
+    private final int from;
+    private final int to;
+    private final Supplier<A> aggregatorFactory;
+    private ByteBuffer buffer;
+
+    FilesTask(final String deviceId, final List<Path> files, final int from, final int to,
+              final Supplier<A> aggregatorFactory) {
+      this.deviceId = deviceId;
+      this.files = files;
+      this.from = from;
+      this.to = to;
+      this.aggregatorFactory = aggregatorFactory;
+    }
+
+    @Override
+    protected A compute() {
+      if (to - from > FILES_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        List<FilesTask<A>> halves = new ArrayList<>(2);
+        halves.add(new FilesTask<>(deviceId, files, from, middle, aggregatorFactory));
+        halves.add(new FilesTask<>(deviceId, files, middle, to, aggregatorFactory));
+        return joinAll(halves, aggregatorFactory.get());
+      }
+      A aggregator = aggregatorFactory.get();
+      for (int index = from; index < to; index++) {
+        Path file = files.get(index);
+        long length = file.toFile().length();
+        aggregator.startFile(deviceId, file, length);
+        try {
+          MidiFileDecoder.decode(read(file, length), aggregator);
+          aggregator.endFile();
+        } catch (IOException e) {
+          aggregator.fileFailed(e);
+        }
+      }
+      return aggregator;
+    }
+
+    private ByteBuffer read(final Path file, final long length) throws IOException {
+      if (CompressedMidiFile.isCompressed(file.toString())) {
+        return ByteBuffer.wrap(CompressedMidiFileReader.read(file.toFile()));
+      }
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        if (length >= MAPPED_FILE_THRESHOLD) {
+          // The mapping remains valid after the channel is closed.
+          return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (buffer == null) {
+          buffer = ByteBuffer.allocate(MAPPED_FILE_THRESHOLD);
+        }
+        buffer.clear().limit((int) length);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            throw new IOException(file + " is shorter than expected");
+          }
+        }
+        buffer.flip();
+        return buffer;
+      }
+    }
+  }
+
+  private static boolean isMidiFile(final Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(".mid") || CompressedMidiFile.isCompressed(name);
+  }
+}
@@ -0,0 +1,95 @@
+package org.midiarchiver.core.scan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * An {@link ArchiveAggregator} that counts the files, events and notes of an archive, and the
+ * files that could not be decoded, which verifies the archive.
+ */
+public class ArchiveStatistics implements ArchiveAggregator<ArchiveStatistics> {
+
+  private long fileCount;
+  private long byteCount;
+  private long eventCount;
+  private long noteCount;
+  private final long[] noteCounts = new long[128];
+  private final List<Path> failedFiles = new ArrayList<>();
+
+  private Path currentFile;
+
+  @Override
+  public void startFile(final String deviceId, final Path file, final long length) {
+    currentFile = file;
+    fileCount++;
+    byteCount += length;
+  }
+
+  @Override
+  public void channelMessage(final int track, final long tick, final int status, final int data1,
+                             final int data2) {
+    eventCount++;
+    if ((status & 0xF0) == ShortMessage.NOTE_ON && data2 > 0) {
+      noteCount++;
+      noteCounts[data1]++;
+    }
+  }
+
+  @Override
+  public void sysexMessage(final int track, final long tick, final int status,
+                           final ByteBuffer file, final int offset, final int length) {
+    eventCount++;
+  }
+
+  @Override
+  public void fileFailed(final IOException e) {
+    failedFiles.add(currentFile);
+  }
+
+  @Override
+  public void merge(final ArchiveStatistics other) {
+    fileCount += other.fileCount;
+    byteCount += other.byteCount;
+    eventCount += other.eventCount;
+    noteCount += other.noteCount;
+    for (int note = 0; note < noteCounts.length; note++) {
+      noteCounts[note] += other.noteCounts[note];
+    }
+    failedFiles.addAll(other.failedFiles);
+  }
+
+  public long getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * Returns the total length of the files as stored.
+   */
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * Returns the number of channel and system exclusive messages.
+   */
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  public long getNoteCount() {
+    return noteCount;
+  }
+
+  public long getNoteCount(final int note) {
+    return noteCounts[note];
+  }
+
+  public List<Path> getFailedFiles() {
+    return Collections.unmodifiableList(failedFiles);
+  }
+}
@@ -0,0 +1,34 @@
+package org.midiarchiver.core.scan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the events decoded by {@link MidiFileDecoder}. Variable length data is passed as a
+ * region of the buffer of the file, which is only valid during the call.
+ */
+public interface MidiEventHandler {
+
+  /**
+   * Called with the header chunk, before the events of the file.
+   */
+  default void header(int format, int trackCount, int division) {
+  }
+
+  /**
+   * Called for each channel message, with data2 set to 0 for messages with one data byte.
+   */
+  void channelMessage(int track, long tick, int status, int data1, int data2);
+
+  /**
+   * Called for each system exclusive message, with the bytes that follow the status byte.
+   */
+  default void sysexMessage(int track, long tick, int status, ByteBuffer file, int offset,
+                            int length) {
+  }
+
+  /**
+   * Called for each meta event other than the end of a track.
+   */
+  default void metaEvent(int track, long tick, int type, ByteBuffer file, int offset, int length) {
+  }
+}
@@ -0,0 +1,133 @@
+package org.midiarchiver.core.scan;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes standard midi files to a {@link MidiEventHandler} without creating objects for the
+ * events, so that files can be scanned much faster than by building a
+ * {@link javax.sound.midi.Sequence} for each of them. Unknown chunks are skipped. A track without
+ * an end of track event, such as the track of a segment whose length was never filled in, is
+ * invalid.
+ */
+public final class MidiFileDecoder {
+
+  private static final int HEADER_CHUNK_TYPE = 0x4D546864; // MThd
+  private static final int TRACK_CHUNK_TYPE = 0x4D54726B; // MTrk
+  private static final int META_EVENT = 0xFF;
+  private static final int END_OF_TRACK = 0x2F;
+
+  private MidiFileDecoder() {
+  }
+
+  /**
+   * Decodes the file in the buffer, from its position to its limit.
+   *
+   * @return the number of events passed to the handler
+   * @throws IOException if the file is not a valid midi file, after the events before the error
+   *                     were passed to the handler
+   */
+  public static int decode(final ByteBuffer file, final MidiEventHandler handler)
+      throws IOException {
+    try {
+      if (file.remaining() < 14 || file.getInt(file.position()) != HEADER_CHUNK_TYPE) {
+        throw new IOException("Not a midi file");
+      }
+      int headerStart = file.position() + 8;
+      int headerLength = file.getInt(file.position() + 4);
+      handler.header(file.getShort(headerStart) & 0xFFFF, file.getShort(headerStart + 2) & 0xFFFF,
+          file.getShort(headerStart + 4) & 0xFFFF);
+      int position = checkedEnd(file, headerStart, headerLength);
+      int eventCount = 0;
+      int track = 0;
+      while (position + 8 <= file.limit()) {
+        int chunkType = file.getInt(position);
+        int chunkStart = position + 8;
+        int chunkEnd = checkedEnd(file, chunkStart, file.getInt(position + 4));
+        if (chunkType == TRACK_CHUNK_TYPE) {
+          eventCount += decodeTrack(file, chunkStart, chunkEnd, track++, handler);
+        }
+        position = chunkEnd;
+      }
+      return eventCount;
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated midi file", e);
+    }
+  }
+
+  private static int decodeTrack(final ByteBuffer file, final int start, final int end,
+                                 final int track, final MidiEventHandler handler)
+      throws IOException {
+    int position = start;
+    long tick = 0;
+    int runningStatus = 0;
+    int eventCount = 0;
+    while (position < end) {
+      // The delta time, a variable length quantity.
+      long delta = 0;
+      int b;
+      do {
+        b = file.get(position++) & 0xFF;
+        delta = delta << 7 | b & 0x7F;
+      } while ((b & 0x80) != 0);
+      tick += delta;
+
+      int status = file.get(position) & 0xFF;
+      if (status < 0x80) {
+        if (runningStatus == 0) {
+          throw new IOException("Missing status byte in track " + track);
+        }
+        status = runningStatus;
+      } else {
+        position++;
+      }
+      if (status == META_EVENT) {
+        int type = file.get(position++) & 0xFF;
+        long length = 0;
+        do {
+          b = file.get(position++) & 0xFF;
+          length = length << 7 | b & 0x7F;
+        } while ((b & 0x80) != 0);
+        int dataEnd = checkedEnd(file, position, length);
+        if (type == END_OF_TRACK) {
+          return eventCount;
+        }
+        handler.metaEvent(track, tick, type, file, position, (int) length);
+        position = dataEnd;
+      } else if (status == 0xF0 || status == 0xF7) {
+        long length = 0;
+        do {
+          b = file.get(position++) & 0xFF;
+          length = length << 7 | b & 0x7F;
+        } while ((b & 0x80) != 0);
+        int dataEnd = checkedEnd(file, position, length);
+        handler.sysexMessage(track, tick, status, file, position, (int) length);
+        position = dataEnd;
+        runningStatus = 0;
+      } else if (status < 0xF0) {
+        int data1 = file.get(position++) & 0xFF;
+        int command = status & 0xF0;
+        int data2 = command == 0xC0 || command == 0xD0 ? 0 : file.get(position++) & 0xFF;
+        handler.channelMessage(track, tick, status, data1, data2);
+        runningStatus = status;
+      } else {
+        throw new IOException("Invalid status " + status + " in track " + track);
+      }
+      eventCount++;
+    }
+    if (position > end) {
+      throw new IOException("Event past the end of track " + track);
+    }
+    throw new IOException("Missing end of track event in track " + track);
+  }
+
+  private static int checkedEnd(final ByteBuffer file, final int start, final long length)
+      throws IOException {
+    long end = start + length;
+    if (length < 0 || end > file.limit()) {
+      throw new IOException("Chunk or event past the end of the file");
+    }
+    return (int) end;
+  }
+}
@@ -0,0 +1,183 @@
+package org.midiarchiver.core.storage;
+
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The storage roots that sessions are spread across, for example a USB disk and the SD card of a
+ * Raspberry Pi, or several disks of a bigger machine. Each session is placed on a root chosen by
+ * the {@link PlacementPolicy} among the healthy roots with enough free space.
+ *
+ * <p>A root is checked before it is chosen: its directory must be writable and its usable space,
+ * which is looked up at most once per check interval, must be at least the minimum free space. A
+ * root that fails a write is quarantined, like a device that fails to open in
+ * {@link org.midiarchiver.core.DeviceProber}, until a backoff that doubles with each consecutive
+ * failure has passed, and its writes fail over to the other roots. When no root is available the
+ * root whose quarantine ends first is chosen anyway, so a single root keeps being retried.
+ */
+public class StoragePool {
+
+  private static final Logger logger = LoggerFactory.getLogger(StoragePool.class);
+
+  public static final long DEFAULT_MIN_FREE_BYTES = 64 * 1024 * 1024;
+  public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+  public static final long DEFAULT_MIN_BACKOFF_MILLIS = 5000;
+  public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+  /**
+   * How a session is placed among the available roots.
+   */
+  public enum PlacementPolicy {
+    /**
+     * The root with the fewest sessions being written, and of those the one that has been written
+     * the fewest bytes, which stripes sessions evenly across roots.
+     */
+    LEAST_LOADED,
+    /**
+     * A random root, with a probability proportional to its free space above the minimum, which
+     * fills roots of different sizes at the same rate.
+     */
+    FREE_SPACE_WEIGHTED
+  }
+
+  private final List<StorageRoot> roots;
+  private final PlacementPolicy placementPolicy;
+  private final long minFreeBytes;
+  private final long checkIntervalMillis;
+  private final long minBackoffMillis;
+  private final long maxBackoffMillis;
+
+  public StoragePool(final List<String> rootPaths) {
+    this(rootPaths, PlacementPolicy.LEAST_LOADED, DEFAULT_MIN_FREE_BYTES,
+        DEFAULT_CHECK_INTERVAL_MILLIS, DEFAULT_MIN_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+  }
+
+  /**
+   * @param minFreeBytes the usable space below which a root is considered full
+   * @param checkIntervalMillis how long the usable space of a root is cached
+   */
+  public StoragePool(final List<String> rootPaths, final PlacementPolicy placementPolicy,
+                     final long minFreeBytes, final long checkIntervalMillis,
+                     final long minBackoffMillis, final long maxBackoffMillis) {
+    Preconditions.checkArgument(!rootPaths.isEmpty(), "There must be at least one root");
+    Preconditions.checkArgument(minFreeBytes >= 0, "minFreeBytes must not be negative");
+    Preconditions.checkArgument(minBackoffMillis > 0 && maxBackoffMillis >= minBackoffMillis,
+        "Invalid backoff");
+    List<StorageRoot> roots = new ArrayList<>(rootPaths.size());
+    for (String rootPath : rootPaths) {
+      roots.add(new StorageRoot(roots.size(), new File(Preconditions.checkNotNull(rootPath))));
+    }
+    this.roots = Collections.unmodifiableList(roots);
+    this.placementPolicy = Preconditions.checkNotNull(placementPolicy);
+    this.minFreeBytes = minFreeBytes;
+    this.checkIntervalMillis = checkIntervalMillis;
+    this.minBackoffMillis = minBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  public List<StorageRoot> getRoots() {
+    return roots;
+  }
+
+  /**
+   * Returns the paths of the roots, for reading across all of them.
+   */
+  public List<String> getRootPaths() {
+    List<String> rootPaths = new ArrayList<>(roots.size());
+    for (StorageRoot root : roots) {
+      rootPaths.add(root.getPath());
+    }
+    return rootPaths;
+  }
+
+  /**
+   * Chooses the root to write a session to.
+   */
+  public StorageRoot selectRoot() {
+    return selectRoot(Collections.emptyList());
+  }
+
+  /**
+   * Chooses the root to write a session to, other than the given roots that already failed to
+   * write it, or returns null if every root has been excluded.
+   */
+  public StorageRoot selectRoot(final List<StorageRoot> excludedRoots) {
+    long nowMillis = System.currentTimeMillis();
+    List<StorageRoot> candidates = new ArrayList<>(roots.size());
+    StorageRoot fallback = null;
+    for (StorageRoot root : roots) {
+      if (excludedRoots.contains(root)) {
+        continue;
+      }
+      if (root.check(nowMillis, checkIntervalMillis, minFreeBytes)) {
+        candidates.add(root);
+      } else if (fallback == null || root.getRetryTimeMillis() < fallback.getRetryTimeMillis()) {
+        fallback = root;
+      }
+    }
+    if (candidates.isEmpty()) {
+      return fallback;
+    }
+    return placementPolicy == PlacementPolicy.LEAST_LOADED
+        ? selectLeastLoaded(candidates) : selectWeightedByFreeSpace(candidates);
+  }
+
+  /**
+   * Quarantines a root after a write to it failed.
+   */
+  public void markFailed(final StorageRoot root, final IOException e) {
+    long backoffMillis = root.markFailed(System.currentTimeMillis(), minBackoffMillis,
+        maxBackoffMillis);
+    logger.warn("Write to storage root " + root + " failed, not using it for " + backoffMillis
+        + "ms", e);
+  }
+
+  /**
+   * Ends the quarantine of a root after a write to it succeeded.
+   */
+  public void markHealthy(final StorageRoot root) {
+    if (!root.isHealthy()) {
+      root.markHealthy();
+      logger.info("Storage root " + root + " is healthy again");
+    }
+  }
+
+  private static StorageRoot selectLeastLoaded(final List<StorageRoot> candidates) {
+    StorageRoot selected = null;
+    for (StorageRoot root : candidates) {
+      if (selected == null || root.getActiveWrites() < selected.getActiveWrites()
+          || root.getActiveWrites() == selected.getActiveWrites()
+          && root.getBytesWritten() < selected.getBytesWritten()) {
+        selected = root;
+      }
+    }
+    return selected;
+  }
+
+  private StorageRoot selectWeightedByFreeSpace(final List<StorageRoot> candidates) {
+    long totalWeight = 0;
+    for (StorageRoot root : candidates) {
+      totalWeight += getWeight(root);
+    }
+    long choice = ThreadLocalRandom.current().nextLong(totalWeight);
+    for (StorageRoot root : candidates) {
+      choice -= getWeight(root);
+      if (choice < 0) {
+        return root;
+      }
+    }
+    // The usable space of a root was updated by another thread.
+    return candidates.get(candidates.size() - 1);
+  }
+
+  private long getWeight(final StorageRoot root) {
+    return Math.max(0, root.getUsableBytes() - minFreeBytes) + 1;
+  }
+}
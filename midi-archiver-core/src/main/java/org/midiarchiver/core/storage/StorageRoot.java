@@ -0,0 +1,128 @@
+package org.midiarchiver.core.storage;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of a {@link StoragePool} that sessions are written to, usually on a disk of its own.
+ * The usable space of the root is cached between health checks, since looking it up is a system
+ * call.
+ */
+public final class StorageRoot {
+
+  private final int index;
+  private final File directory;
+  private final AtomicInteger activeWrites = new AtomicInteger();
+  private final AtomicLong bytesWritten = new AtomicLong();
+
+  // Guarded by this.
+  private long usableBytes;
+  private long checkTimeMillis;
+  private int failureCount;
+  private long retryTimeMillis;
+
+  StorageRoot(final int index, final File directory) {
+    this.index = index;
+    this.directory = directory;
+  }
+
+  int getIndex() {
+    return index;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public String getPath() {
+    return directory.getPath();
+  }
+
+  /**
+   * Returns the usable space found by the last health check.
+   */
+  public synchronized long getUsableBytes() {
+    return usableBytes;
+  }
+
+  /**
+   * Returns the number of sessions being written to the root.
+   */
+  public int getActiveWrites() {
+    return activeWrites.get();
+  }
+
+  /**
+   * Returns the number of bytes written to the root since the pool was created.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * Returns true if the root is not quarantined after a failure.
+   */
+  public synchronized boolean isHealthy() {
+    return failureCount == 0;
+  }
+
+  void startWrite() {
+    activeWrites.incrementAndGet();
+  }
+
+  void endWrite() {
+    activeWrites.decrementAndGet();
+  }
+
+  void recordBytesWritten(final long length) {
+    bytesWritten.addAndGet(length);
+  }
+
+  /**
+   * Checks that the directory is writable and looks up its usable space, at most once per check
+   * interval, and returns whether the root can be written to.
+   */
+  synchronized boolean check(final long nowMillis, final long checkIntervalMillis,
+                             final long minFreeBytes) {
+    if (failureCount > 0 && nowMillis < retryTimeMillis) {
+      return false;
+    }
+    if (failureCount > 0 || nowMillis - checkTimeMillis >= checkIntervalMillis) {
+      checkTimeMillis = nowMillis;
+      boolean writable = (directory.isDirectory() || directory.mkdirs()) && directory.canWrite();
+      usableBytes = writable ? directory.getUsableSpace() : 0;
+      if (!writable) {
+        return false;
+      }
+    }
+    return usableBytes >= minFreeBytes;
+  }
+
+  /**
+   * Quarantines the root until a backoff that doubles with each consecutive failure has passed.
+   *
+   * @return the backoff
+   */
+  synchronized long markFailed(final long nowMillis, final long minBackoffMillis,
+                               final long maxBackoffMillis) {
+    long backoffMillis = Math.min(maxBackoffMillis,
+        minBackoffMillis << Math.min(failureCount, 30));
+    failureCount++;
+    retryTimeMillis = nowMillis + backoffMillis;
+    return backoffMillis;
+  }
+
+  synchronized void markHealthy() {
+    failureCount = 0;
+  }
+
+  synchronized long getRetryTimeMillis() {
+    return retryTimeMillis;
+  }
+
+  @Override
+  public String toString() {
+    return directory.getPath();
+  }
+}
@@ -0,0 +1,142 @@
+package org.midiarchiver.core.storage;
+
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.SessionListener;
+
+/**
+ * A {@link SequenceWriter} that writes the sessions of a device across the roots of a
+ * {@link StoragePool}, each with a {@link FileSequenceWriter} for the directory of the device on
+ * that root. A session that fails to be written to a root is written to another root, until every
+ * root has failed.
+ *
+ * <p>The sessions of a device are in the same directory layout on every root, and the session
+ * listener is given the file on the root it was written to, so the catalog and
+ * {@link org.midiarchiver.core.scan.ArchiveScanner} see all roots as one archive.
+ */
+public class StripedSequenceWriter implements SequenceWriter {
+
+  private final StoragePool storagePool;
+  private final FileSequenceWriter[] writers;
+
+  public StripedSequenceWriter(StoragePool storagePool, String deviceId,
+                               SessionListener sessionListener) {
+    this(storagePool, deviceId, sessionListener, FileSequenceWriter::new);
+  }
+
+  /**
+   * @param sessionListener notified after each session written, or null
+   * @param writerFactory creates the writer for the directory of the device on a root, given the
+   *                      path of the directory and a session listener
+   */
+  public StripedSequenceWriter(
+      StoragePool storagePool, String deviceId, SessionListener sessionListener,
+      BiFunction<String, SessionListener, ? extends FileSequenceWriter> writerFactory) {
+    this.storagePool = Preconditions.checkNotNull(storagePool);
+    Preconditions.checkNotNull(deviceId);
+    List<StorageRoot> roots = storagePool.getRoots();
+    this.writers = new FileSequenceWriter[roots.size()];
+    for (StorageRoot root : roots) {
+      SessionListener rootListener = (summary, file, offset, length) -> {
+        root.recordBytesWritten(length);
+        if (sessionListener != null) {
+          sessionListener.sessionWritten(summary, file, offset, length);
+        }
+      };
+      writers[root.getIndex()] = writerFactory.apply(
+          root.getPath() + File.separator + deviceId, rootListener);
+    }
+  }
+
+  @Override
+  public void write(Sequence sequence) throws IOException {
+    write(writer -> writer.write(sequence));
+  }
+
+  @Override
+  public void write(MidiEventBuffer events) throws IOException {
+    write(writer -> writer.write(events));
+  }
+
+  /**
+   * Flushes the writers of all roots, quarantining the roots that fail.
+   */
+  @Override
+  public void flush() throws IOException {
+    IOException failure = null;
+    for (StorageRoot root : storagePool.getRoots()) {
+      try {
+        writers[root.getIndex()].flush();
+      } catch (IOException e) {
+        storagePool.markFailed(root, e);
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Closes the writers of all roots.
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (FileSequenceWriter writer : writers) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private interface Write {
+    void to(FileSequenceWriter writer) throws IOException;
+  }
+
+  private void write(final Write write) throws IOException {
+    List<StorageRoot> failedRoots = new ArrayList<>(1);
+    IOException failure = null;
+    for (StorageRoot root = storagePool.selectRoot(); root != null;
+         root = storagePool.selectRoot(failedRoots)) {
+      root.startWrite();
+      try {
+        write.to(writers[root.getIndex()]);
+        storagePool.markHealthy(root);
+        return;
+      } catch (IOException e) {
+        storagePool.markFailed(root, e);
+        failedRoots.add(root);
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      } finally {
+        root.endWrite();
+      }
+    }
+    throw failure;
+  }
+}
@@ -0,0 +1,38 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The archiver was started on a device that has been probed: a receiver was created and connected
+ * to the transmitter of the device, and the device was opened.
+ */
+@Name("org.midiarchiver.DeviceOpen")
+@Label("Device Open")
+@Description("The archiver was started on a device")
+@Category({"MIDI Archiver", "Devices"})
+@StackTrace(false)
+public class DeviceOpenEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Device Name")
+  String deviceName;
+
+  @Label("Succeeded")
+  boolean succeeded;
+
+  public void commit(final String deviceId, final String deviceName, final boolean succeeded) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.deviceName = deviceName;
+      this.succeeded = succeeded;
+      commit();
+    }
+  }
+}
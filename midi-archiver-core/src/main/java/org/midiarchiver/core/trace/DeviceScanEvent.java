@@ -0,0 +1,43 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A check for new and removed devices by the
+ * {@link org.midiarchiver.core.MidiArchiverService}, including probing and opening new devices.
+ */
+@Name("org.midiarchiver.DeviceScan")
+@Label("Device Scan")
+@Description("The archiver checked for new and removed devices")
+@Category({"MIDI Archiver", "Devices"})
+@StackTrace(false)
+public class DeviceScanEvent extends Event {
+
+  @Label("Present Devices")
+  int presentDeviceCount;
+
+  @Label("New Devices")
+  int newDeviceCount;
+
+  @Label("Opened Devices")
+  int openedDeviceCount;
+
+  @Label("Removed Devices")
+  int removedDeviceCount;
+
+  public void commit(final int presentDeviceCount, final int newDeviceCount,
+                     final int openedDeviceCount, final int removedDeviceCount) {
+    if (shouldCommit()) {
+      this.presentDeviceCount = presentDeviceCount;
+      this.newDeviceCount = newDeviceCount;
+      this.openedDeviceCount = openedDeviceCount;
+      this.removedDeviceCount = removedDeviceCount;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A message handled by {@link org.midiarchiver.core.ArchivingReceiver#send}, with the time spent
+ * waiting for and holding the lock of the receiver. The event is disabled by default, as it is
+ * emitted for every message, and is enabled by the {@link TraceRecorder}.
+ */
+@Name("org.midiarchiver.MessageReceived")
+@Label("Message Received")
+@Description("A midi message was handled by an archiving receiver")
+@Category({"MIDI Archiver", "Capture"})
+@Enabled(false)
+@StackTrace(false)
+public class MessageReceivedEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Status")
+  int status;
+
+  /**
+   * Ends the event and commits it if it is enabled and exceeds its threshold.
+   */
+  public void commit(final String deviceId, final int status) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.status = status;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A receiver started recording a session, with the time it took to move the pre-roll messages
+ * into the session and to begin the session on the journal and the streaming writer.
+ */
+@Name("org.midiarchiver.RecordingStarted")
+@Label("Recording Started")
+@Description("An archiving receiver started recording a session")
+@Category({"MIDI Archiver", "Session"})
+@StackTrace(false)
+public class RecordingStartedEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Pre-roll Events")
+  @Description("The number of messages from before the first note that start the session")
+  int preRollEventCount;
+
+  public void commit(final String deviceId, final int preRollEventCount) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.preRollEventCount = preRollEventCount;
+      commit();
+    }
+  }
+}
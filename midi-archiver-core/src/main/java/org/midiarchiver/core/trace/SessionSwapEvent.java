@@ -0,0 +1,35 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The buffer of a stopped session was swapped for the spare buffer, which prepares the receiver
+ * for the next recording. Without a spare, because the previous session is still being written, a
+ * new buffer is allocated.
+ */
+@Name("org.midiarchiver.SessionSwap")
+@Label("Session Swap")
+@Description("A receiver swapped the buffer of a stopped session for a cleared spare")
+@Category({"MIDI Archiver", "Session"})
+@StackTrace(false)
+public class SessionSwapEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Spare Available")
+  boolean spareAvailable;
+
+  public void commit(final String deviceId, final boolean spareAvailable) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.spareAvailable = spareAvailable;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A call to a {@link org.midiarchiver.core.SequenceWriter} traced by a
+ * {@link TracedSequenceWriter}: a whole session, or a chunk or the end of a streamed session.
+ */
+@Name("org.midiarchiver.SessionWrite")
+@Label("Session Write")
+@Description("A sequence writer wrote a session or a part of a session")
+@Category({"MIDI Archiver", "Write"})
+@StackTrace(false)
+public class SessionWriteEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Writer")
+  String writer;
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Events")
+  @Description("The number of events written, or 0 for the end of a session or a sequence")
+  int eventCount;
+
+  @Label("Failed")
+  boolean failed;
+
+  public void commit(final String deviceId, final String writer, final String operation,
+                     final int eventCount, final boolean failed) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.writer = writer;
+      this.operation = operation;
+      this.eventCount = eventCount;
+      this.failed = failed;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A recording was stopped by its timeout or by closing the receiver. The duration of the event
+ * includes swapping the session and handing it to the write executor. The write itself is traced
+ * by {@link SessionWriteEvent}.
+ */
+@Name("org.midiarchiver.StopRecording")
+@Label("Stop Recording")
+@Description("A receiver stopped recording and handed the session to its writer")
+@Category({"MIDI Archiver", "Session"})
+@StackTrace(false)
+public class StopRecordingEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Events")
+  int eventCount;
+
+  @Label("Session Duration")
+  @Timespan(Timespan.MILLISECONDS)
+  long sessionDurationMillis;
+
+  public void commit(final String deviceId, final int eventCount,
+                     final long sessionDurationMillis) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.eventCount = eventCount;
+      this.sessionDurationMillis = sessionDurationMillis;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The timeout that stops a recording was pushed back by a note.
+ */
+@Name("org.midiarchiver.TimerExtended")
+@Label("Stop Recording Timer Extended")
+@Description("The timeout that stops a recording was pushed back")
+@Category({"MIDI Archiver", "Session"})
+@StackTrace(false)
+public class TimerExtendedEvent extends Event {
+
+  @Label("Device Id")
+  String deviceId;
+
+  @Label("Delay")
+  @Timespan(Timespan.MILLISECONDS)
+  long delayMillis;
+
+  public void commit(final String deviceId, final long delayMillis) {
+    if (shouldCommit()) {
+      this.deviceId = deviceId;
+      this.delayMillis = delayMillis;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.midiarchiver.core.trace;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Creates the events of this package only when they are enabled, so that a disabled event costs
+ * a check of a flag rather than an allocation on the capture path. Each method returns null when
+ * its event is disabled, which callers check before beginning and committing the event.
+ *
+ * <p>The JFR classes are only loaded when flight recordings are available, so on a JDK without
+ * them, such as JDK 8 before 8u262, tracing is a no-op rather than a {@link NoClassDefFoundError}.
+ */
+public final class TraceEvents {
+
+  private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+  /**
+   * The event types, loaded when the first event is created and only if {@link #AVAILABLE}.
+   */
+  private static final class Types {
+
+    static final EventType MESSAGE_RECEIVED = EventType.getEventType(MessageReceivedEvent.class);
+    static final EventType RECORDING_STARTED =
+        EventType.getEventType(RecordingStartedEvent.class);
+    static final EventType TIMER_EXTENDED = EventType.getEventType(TimerExtendedEvent.class);
+    static final EventType SESSION_SWAP = EventType.getEventType(SessionSwapEvent.class);
+    static final EventType STOP_RECORDING = EventType.getEventType(StopRecordingEvent.class);
+    static final EventType SESSION_WRITE = EventType.getEventType(SessionWriteEvent.class);
+    static final EventType DEVICE_SCAN = EventType.getEventType(DeviceScanEvent.class);
+    static final EventType DEVICE_OPEN = EventType.getEventType(DeviceOpenEvent.class);
+  }
+
+  private TraceEvents() {
+  }
+
+  /**
+   * Returns whether this JDK supports flight recordings.
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  public static MessageReceivedEvent newMessageReceivedEvent() {
+    return AVAILABLE && Types.MESSAGE_RECEIVED.isEnabled() ? new MessageReceivedEvent() : null;
+  }
+
+  public static RecordingStartedEvent newRecordingStartedEvent() {
+    return AVAILABLE && Types.RECORDING_STARTED.isEnabled() ? new RecordingStartedEvent() : null;
+  }
+
+  public static TimerExtendedEvent newTimerExtendedEvent() {
+    return AVAILABLE && Types.TIMER_EXTENDED.isEnabled() ? new TimerExtendedEvent() : null;
+  }
+
+  public static SessionSwapEvent newSessionSwapEvent() {
+    return AVAILABLE && Types.SESSION_SWAP.isEnabled() ? new SessionSwapEvent() : null;
+  }
+
+  public static StopRecordingEvent newStopRecordingEvent() {
+    return AVAILABLE && Types.STOP_RECORDING.isEnabled() ? new StopRecordingEvent() : null;
+  }
+
+  public static SessionWriteEvent newSessionWriteEvent() {
+    return AVAILABLE && Types.SESSION_WRITE.isEnabled() ? new SessionWriteEvent() : null;
+  }
+
+  public static DeviceScanEvent newDeviceScanEvent() {
+    return AVAILABLE && Types.DEVICE_SCAN.isEnabled() ? new DeviceScanEvent() : null;
+  }
+
+  public static DeviceOpenEvent newDeviceOpenEvent() {
+    return AVAILABLE && Types.DEVICE_OPEN.isEnabled() ? new DeviceOpenEvent() : null;
+  }
+
+  private static boolean isFlightRecorderAvailable() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder", false, TraceEvents.class.getClassLoader());
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+    return FlightRecorder.isAvailable();
+  }
+}
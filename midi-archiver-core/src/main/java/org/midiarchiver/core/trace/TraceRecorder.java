@@ -0,0 +1,124 @@
+package org.midiarchiver.core.trace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts a flight recording on demand with the JDK's default settings and the events of this
+ * package, including {@link MessageReceivedEvent}, which is otherwise disabled. The recording keeps
+ * the events of a window of time, which can be dumped to a file while it runs. The events that
+ * record the environment variables and system properties of the process are disabled, as they may
+ * hold secrets.
+ *
+ * <p>Flight recordings need JDK 8u262 or later; on an earlier JDK {@link #start} fails.
+ */
+public class TraceRecorder implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TraceRecorder.class);
+
+  public static final long DEFAULT_MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+  private static final String RECORDING_NAME = "midi-archiver";
+
+  private static final List<String> DISABLED_EVENT_NAMES = Arrays.asList(
+      "jdk.InitialEnvironmentVariable",
+      "jdk.InitialSystemProperty");
+
+  private Recording recording;
+
+  /**
+   * Starts a recording that keeps the events of the given amount of time.
+   *
+   * @return false if a recording is already running
+   * @throws IOException if flight recordings are not available or the settings cannot be read
+   */
+  public synchronized boolean start(final long maxAgeMillis) throws IOException {
+    if (recording != null) {
+      return false;
+    }
+    if (!TraceEvents.isAvailable()) {
+      throw new IOException("Flight recordings are not available in this JDK");
+    }
+    Configuration configuration;
+    try {
+      configuration = Configuration.getConfiguration("default");
+    } catch (ParseException e) {
+      throw new IOException("The default recording settings could not be read", e);
+    }
+    Map<String, String> settings = new HashMap<>(configuration.getSettings());
+    for (String eventName : DISABLED_EVENT_NAMES) {
+      settings.put(eventName + "#enabled", "false");
+    }
+    Recording newRecording = new Recording(settings);
+    newRecording.setName(RECORDING_NAME);
+    newRecording.setToDisk(true);
+    newRecording.setMaxAge(Duration.ofMillis(maxAgeMillis));
+    enableEvents(newRecording);
+    newRecording.start();
+    recording = newRecording;
+    logger.info("Flight recording started, keeping " + maxAgeMillis + " ms of events");
+    return true;
+  }
+
+  public synchronized boolean isRunning() {
+    return recording != null;
+  }
+
+  /**
+   * Writes the events recorded so far to a file, without stopping the recording.
+   *
+   * @return false if no recording is running
+   */
+  public synchronized boolean dump(final Path path) throws IOException {
+    if (recording == null) {
+      return false;
+    }
+    recording.dump(path);
+    return true;
+  }
+
+  /**
+   * Stops and discards the recording.
+   *
+   * @return false if no recording was running
+   */
+  public synchronized boolean stop() {
+    if (recording == null) {
+      return false;
+    }
+    recording.close();
+    recording = null;
+    logger.info("Flight recording stopped");
+    return true;
+  }
+
+  @Override
+  public void close() {
+    stop();
+  }
+
+  /**
+   * Enables the events of this package. The event classes are only loaded here, once flight
+   * recordings are known to be available.
+   */
+  private static void enableEvents(final Recording recording) {
+    recording.enable(MessageReceivedEvent.class).withoutStackTrace();
+    recording.enable(RecordingStartedEvent.class).withoutStackTrace();
+    recording.enable(TimerExtendedEvent.class).withoutStackTrace();
+    recording.enable(SessionSwapEvent.class).withoutStackTrace();
+    recording.enable(StopRecordingEvent.class).withoutStackTrace();
+    recording.enable(SessionWriteEvent.class).withoutStackTrace();
+    recording.enable(DeviceScanEvent.class).withoutStackTrace();
+    recording.enable(DeviceOpenEvent.class).withoutStackTrace();
+  }
+}
@@ -0,0 +1,142 @@
+package org.midiarchiver.core.trace;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.StreamingSequenceWriter;
+
+/**
+ * A {@link SequenceWriter} that emits a {@link SessionWriteEvent} for each write to another
+ * writer. When the event is not enabled a write costs a check of a flag.
+ */
+public class TracedSequenceWriter implements SequenceWriter {
+
+  /**
+   * A {@link TracedSequenceWriter} for a {@link StreamingSequenceWriter}, which also traces writing
+   * each chunk and ending each session.
+   */
+  private static final class Streaming extends TracedSequenceWriter
+      implements StreamingSequenceWriter {
+
+    private final StreamingSequenceWriter delegate;
+
+    Streaming(final StreamingSequenceWriter delegate, final String deviceId) {
+      super(delegate, deviceId);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void beginSession(long startTimeMillis) throws IOException {
+      delegate.beginSession(startTimeMillis);
+    }
+
+    @Override
+    public void appendEvents(MidiEventBuffer events) throws IOException {
+      SessionWriteEvent event = TraceEvents.newSessionWriteEvent();
+      if (event != null) {
+        event.begin();
+      }
+      boolean failed = true;
+      try {
+        delegate.appendEvents(events);
+        failed = false;
+      } finally {
+        if (event != null) {
+          event.commit(deviceId, writerName, "appendEvents", events.size(), failed);
+        }
+      }
+    }
+
+    @Override
+    public void endSession() throws IOException {
+      SessionWriteEvent event = TraceEvents.newSessionWriteEvent();
+      if (event != null) {
+        event.begin();
+      }
+      boolean failed = true;
+      try {
+        delegate.endSession();
+        failed = false;
+      } finally {
+        if (event != null) {
+          event.commit(deviceId, writerName, "endSession", 0, failed);
+        }
+      }
+    }
+
+    @Override
+    public long getDurableMicros() {
+      return delegate.getDurableMicros();
+    }
+
+    @Override
+    public void write(MidiEventBuffer events) throws IOException {
+      StreamingSequenceWriter.super.write(events);
+    }
+  }
+
+  private final SequenceWriter delegate;
+  final String deviceId;
+  final String writerName;
+
+  private TracedSequenceWriter(final SequenceWriter delegate, final String deviceId) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.deviceId = Preconditions.checkNotNull(deviceId);
+    this.writerName = delegate.getClass().getSimpleName();
+  }
+
+  /**
+   * Wraps a writer, keeping it a {@link StreamingSequenceWriter} if it is one.
+   */
+  public static SequenceWriter wrap(final SequenceWriter delegate, final String deviceId) {
+    return delegate instanceof StreamingSequenceWriter
+        ? new Streaming((StreamingSequenceWriter) delegate, deviceId)
+        : new TracedSequenceWriter(delegate, deviceId);
+  }
+
+  @Override
+  public void write(Sequence sequence) throws IOException {
+    SessionWriteEvent event = TraceEvents.newSessionWriteEvent();
+    if (event != null) {
+      event.begin();
+    }
+    boolean failed = true;
+    try {
+      delegate.write(sequence);
+      failed = false;
+    } finally {
+      if (event != null) {
+        event.commit(deviceId, writerName, "write", 0, failed);
+      }
+    }
+  }
+
+  @Override
+  public void write(MidiEventBuffer events) throws IOException {
+    SessionWriteEvent event = TraceEvents.newSessionWriteEvent();
+    if (event != null) {
+      event.begin();
+    }
+    boolean failed = true;
+    try {
+      delegate.write(events);
+      failed = false;
+    } finally {
+      if (event != null) {
+        event.commit(deviceId, writerName, "write", events.size(), failed);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    delegate.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+}
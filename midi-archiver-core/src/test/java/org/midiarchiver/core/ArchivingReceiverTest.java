@@ -2,20 +2,30 @@ package org.midiarchiver.core;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.Sequence;
@@ -23,8 +33,12 @@ import javax.sound.midi.ShortMessage;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.midiarchiver.core.filter.ControllerCoalescingFilter;
+import org.midiarchiver.core.filter.MessageFilterChain;
+import org.midiarchiver.core.metrics.DeviceMetrics;
 import org.midiarchiver.core.test.tools.DataInputTransmitter;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -40,31 +54,43 @@ public class ArchivingReceiverTest {
   @Mock
   private SequenceWriter mockSequenceWriter;
   @Mock
-  private Timer mockTimer;
+  private TimingWheel mockTimingWheel;
+  @Mock
+  private TimingWheel.Timeout mockTimeout;
+  @Mock
+  private SessionJournal mockJournal;
+  @Mock
+  private StreamingSequenceWriter mockStreamingSequenceWriter;
 
+  private final List<Sequence> writtenSequences = new ArrayList<>();
   private ArchivingReceiver archivingReceiver;
+  private final ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+  private Runnable stopRecordingTask;
 
   @Before
   public void setUp() throws Exception {
-    archivingReceiver =
-        new ArchivingReceiver(deviceInfo, mockSequenceWriter, TEST_STOP_RECORDING_DELAY_MILLIS, mockTimer);
+    when(mockTimingWheel.newTimeout(taskCaptor.capture())).thenReturn(mockTimeout);
+    when(mockTimingWheel.getIoExecutor()).thenReturn(MoreExecutors.directExecutor());
+    stubSequenceWriter();
+    archivingReceiver = new ArchivingReceiver(
+        deviceInfo, mockSequenceWriter, TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel);
+    stopRecordingTask = taskCaptor.getValue();
   }
 
   @Test
   public void testSend_singleNoteRecording() throws InvalidMidiDataException, IOException {
-    reset(mockTimer, mockSequenceWriter);
-    ArgumentCaptor<TimerTask> timerTaskCaptor = ArgumentCaptor.forClass(TimerTask.class);
-    ArgumentCaptor<Sequence> sequenceCaptor = ArgumentCaptor.forClass(Sequence.class);
+    reset(mockTimeout, mockSequenceWriter);
+    stubSequenceWriter();
     long timeStamp = 1000;
 
     archivingReceiver.send(createNoteOnMessage(), timeStamp);
     archivingReceiver.send(createNoteOffMessage(), timeStamp);
-    verify(mockTimer, times(2)).schedule(timerTaskCaptor.capture(), anyLong());
-    verify(mockTimer).schedule(timerTaskCaptor.capture(), eq(TEST_STOP_RECORDING_DELAY_MILLIS));
-    verify(mockSequenceWriter, never()).write(sequenceCaptor.capture());
-    timerTaskCaptor.getValue().run();
-    verify(mockSequenceWriter).write(sequenceCaptor.capture());
-    Sequence sequence = sequenceCaptor.getValue();
+    verify(mockTimeout, times(2)).reset(anyLong());
+    verify(mockTimeout).reset(eq(TEST_STOP_RECORDING_DELAY_MILLIS));
+    verify(mockSequenceWriter, never()).write(any(MidiEventBuffer.class));
+    stopRecordingTask.run();
+    verify(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    Sequence sequence = getLastWrittenSequence();
     assertTrue(sequence.getTracks().length > 0);
   }
 
@@ -77,17 +103,14 @@ public class ArchivingReceiverTest {
 
   @Test
   public void testSend_recordedMessages() throws IOException {
-    ArgumentCaptor<TimerTask> timerTaskCaptor = ArgumentCaptor.forClass(TimerTask.class);
-    ArgumentCaptor<Sequence> sequenceCaptor = ArgumentCaptor.forClass(Sequence.class);
-
     try (DataInputTransmitter dataInputTransmitter = new DataInputTransmitter(
         new DataInputStream(Resources.getResource("recordedMessages.dat").openStream()))) {
       dataInputTransmitter.setReceiver(archivingReceiver);
-      verify(mockTimer, atLeastOnce()).schedule(timerTaskCaptor.capture(), anyLong());
-      verify(mockSequenceWriter, never()).write(sequenceCaptor.capture());
-      timerTaskCaptor.getValue().run();
-      verify(mockSequenceWriter).write(sequenceCaptor.capture());
-      Sequence sequence = sequenceCaptor.getValue();
+      verify(mockTimeout, atLeastOnce()).reset(anyLong());
+      verify(mockSequenceWriter, never()).write(any(MidiEventBuffer.class));
+      stopRecordingTask.run();
+      verify(mockSequenceWriter).write(any(MidiEventBuffer.class));
+      Sequence sequence = getLastWrittenSequence();
       assertTrue(sequence.getTracks().length > 0);
       assertTrue(sequence.getTickLength() > 0);
       assertEquals(0, sequence.getTracks()[0].get(0).getTick());
@@ -97,30 +120,294 @@ public class ArchivingReceiverTest {
   @Test
   public void testClose_notRecording() throws IOException {
     archivingReceiver.close();
-    verify(mockTimer).cancel();
-    verify(mockSequenceWriter, never()).write(any(Sequence.class));
+    verify(mockTimeout).cancel();
+    verify(mockSequenceWriter, never()).write(any(MidiEventBuffer.class));
   }
 
   @Test
   public void testClose_duringRecording() throws InvalidMidiDataException, IOException {
-    ArgumentCaptor<Sequence> sequenceCaptor = ArgumentCaptor.forClass(Sequence.class);
     long timeStamp = 1000;
 
     archivingReceiver.send(createNoteOnMessage(), timeStamp);
     archivingReceiver.send(createNoteOffMessage(), timeStamp);
-    verify(mockTimer, times(2)).schedule(any(TimerTask.class), anyLong());
-    verify(mockTimer).schedule(any(TimerTask.class), eq(TEST_STOP_RECORDING_DELAY_MILLIS));
-    verify(mockSequenceWriter, never()).write(sequenceCaptor.capture());
+    verify(mockTimeout, times(2)).reset(anyLong());
+    verify(mockTimeout).reset(eq(TEST_STOP_RECORDING_DELAY_MILLIS));
+    verify(mockSequenceWriter, never()).write(any(MidiEventBuffer.class));
 
     archivingReceiver.close();
-    verify(mockTimer).cancel();
+    verify(mockTimeout).cancel();
 
-    // Close should cause the sequence to be written.
-    verify(mockSequenceWriter).write(sequenceCaptor.capture());
-    Sequence sequence = sequenceCaptor.getValue();
+    // Close should cause the sequence to be written, and then close the writer.
+    InOrder inOrder = inOrder(mockSequenceWriter);
+    inOrder.verify(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    inOrder.verify(mockSequenceWriter).close();
+    Sequence sequence = getLastWrittenSequence();
     assertTrue(sequence.getTracks().length > 0);
   }
 
+  @Test
+  public void testSend_journalsRecordedEvents() throws Exception {
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel).setJournal(mockJournal).build();
+    when(mockJournal.begin(anyLong())).thenReturn(1);
+    archivingReceiver.send(createNoteOffMessage(), 500);
+    verify(mockJournal, never()).begin(anyLong());
+
+    archivingReceiver.send(createNoteOnMessage(), 1000);
+    archivingReceiver.send(createNoteOffMessage(), 2000);
+    verify(mockJournal).begin(anyLong());
+    verify(mockJournal).append(any(MidiEventBuffer.class), eq(0));
+    verify(mockJournal).append(any(MidiEventBuffer.class), eq(1));
+    verify(mockJournal, never()).commit(anyInt());
+
+    archivingReceiver.close();
+    InOrder inOrder = inOrder(mockSequenceWriter, mockJournal);
+    inOrder.verify(mockSequenceWriter).write(any(MidiEventBuffer.class), any(Runnable.class));
+    inOrder.verify(mockJournal).commit(1);
+    inOrder.verify(mockJournal).close();
+  }
+
+  @Test
+  public void testStopRecording_failedWriteIsNotCommitted() throws Exception {
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel).setJournal(mockJournal).build();
+    doThrow(new IOException("disk full")).when(mockSequenceWriter)
+        .write(any(MidiEventBuffer.class), any(Runnable.class));
+    archivingReceiver.send(createNoteOnMessage(), 1000);
+    archivingReceiver.close();
+
+    verify(mockSequenceWriter).write(any(MidiEventBuffer.class), any(Runnable.class));
+    verify(mockJournal, never()).commit(anyInt());
+    verify(mockJournal).close();
+  }
+
+  @Test
+  public void testSend_streamingChunksInFinishedSegmentsAreMarkedDurable() throws Exception {
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockStreamingSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel).setJournal(mockJournal).build();
+    when(mockJournal.begin(anyLong())).thenReturn(1);
+    when(mockStreamingSequenceWriter.getDurableMicros()).thenReturn(500L);
+    for (int i = 0; i < 1500; i++) {
+      archivingReceiver.send(createNoteOnMessage(), 1000 + i);
+    }
+    verify(mockJournal).markDurable(1, 500L);
+
+    archivingReceiver.close();
+    verify(mockJournal).markDurable(1, 500L);
+    verify(mockJournal).commit(1);
+  }
+
+  @Test
+  public void testSend_streamingWriterReceivesChunks() throws Exception {
+    archivingReceiver = new ArchivingReceiver(deviceInfo, mockStreamingSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel);
+    for (int i = 0; i < 1500; i++) {
+      archivingReceiver.send(createNoteOnMessage(), 1000 + i);
+    }
+    verify(mockStreamingSequenceWriter).beginSession(anyLong());
+    verify(mockStreamingSequenceWriter).appendEvents(any(MidiEventBuffer.class));
+    verify(mockStreamingSequenceWriter, never()).endSession();
+
+    archivingReceiver.close();
+    verify(mockStreamingSequenceWriter, times(2)).appendEvents(any(MidiEventBuffer.class));
+    verify(mockStreamingSequenceWriter).endSession();
+    verify(mockStreamingSequenceWriter, never()).write(any(MidiEventBuffer.class));
+  }
+
+  @Test
+  public void testSend_recordsMetrics() throws Exception {
+    DeviceMetrics deviceMetrics = new DeviceMetrics();
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel).setDeviceMetrics(deviceMetrics).build();
+    archivingReceiver.send(createNoteOnMessage(), 1000);
+    archivingReceiver.send(createNoteOffMessage(), 2501000);
+    archivingReceiver.close();
+
+    assertEquals(2, deviceMetrics.getMessageCount());
+    assertEquals(2, deviceMetrics.getSendLatencyNanos().getCount());
+    assertEquals(2, deviceMetrics.getLockWaitNanos().getCount());
+    assertEquals(1, deviceMetrics.getSessionCount());
+    assertEquals(2500, deviceMetrics.getSessionDurationMillis().getMax());
+  }
+
+  @Test
+  public void testSend_filteredMessagesAreNotRecorded() throws Exception {
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel)
+        .setMessageFilter(new MessageFilterChain(Arrays.asList(new ControllerCoalescingFilter())))
+        .build();
+    // The filter is reset when recording starts, so the first value of a session is recorded.
+    archivingReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 500);
+    archivingReceiver.send(createNoteOnMessage(), 1000);
+    archivingReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 1500);
+    archivingReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 2000);
+    archivingReceiver.send(createNoteOffMessage(), 2500);
+    archivingReceiver.close();
+
+    assertEquals(3, getLastWrittenSequence().getTracks()[0].size() - 1);
+  }
+
+  @Test
+  public void testSend_preRollMessagesStartTheSession() throws Exception {
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel)
+        .setJournal(mockJournal)
+        .setPreRollBuffer(new PreRollBuffer(16, 1000))
+        .build();
+    List<Long> writtenTimestamps = new ArrayList<>();
+    doAnswer(invocation -> {
+      MidiEventBuffer events = (MidiEventBuffer) invocation.getArguments()[0];
+      for (int i = 0; i < events.size(); i++) {
+        writtenTimestamps.add(events.getTimestamp(i));
+      }
+      ((Runnable) invocation.getArguments()[1]).run();
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class), any(Runnable.class));
+    // The program change is older than the pre-roll and is not recorded.
+    archivingReceiver.send(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, 1, 0), 500);
+    archivingReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 2000);
+    archivingReceiver.send(createNoteOnMessage(), 2500);
+    archivingReceiver.send(createNoteOffMessage(), 3000);
+    archivingReceiver.close();
+
+    assertEquals(Arrays.asList(0L, 500L, 1000L), writtenTimestamps);
+    verify(mockJournal, times(3)).append(any(MidiEventBuffer.class), anyInt());
+  }
+
+  @Test
+  public void testSend_publishesFilteredMessagesToLiveRing() throws Exception {
+    LiveEventRing liveEventRing = new LiveEventRing(16);
+    archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo, mockSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel)
+        .setMessageFilter(new MessageFilterChain(Arrays.asList(new ControllerCoalescingFilter())))
+        .setLiveEventRing(liveEventRing)
+        .build();
+    List<Long> publishedTimestamps = new ArrayList<>();
+    try (LiveEventRing.Subscriber subscriber = liveEventRing.subscribe()) {
+      // Messages are published whether or not they are recorded, unless they are filtered.
+      archivingReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 500);
+      archivingReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 600);
+      archivingReceiver.send(createNoteOnMessage(), 1000);
+      archivingReceiver.send(createNoteOffMessage(), 1500);
+      subscriber.poll((timestampMicros, status, data1, data2) ->
+          publishedTimestamps.add(timestampMicros), 16);
+    }
+    archivingReceiver.close();
+
+    assertEquals(Arrays.asList(500L, 1000L, 1500L), publishedTimestamps);
+  }
+
+  @Test(timeout = 10000)
+  public void testSend_recordingStartsWhilePreviousSessionIsWritten() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> writtenEventCounts = new ArrayList<>();
+    doAnswer(invocation -> {
+      writtenEventCounts.add(((MidiEventBuffer) invocation.getArguments()[0]).size());
+      if (writtenEventCounts.size() == 1) {
+        writing.countDown();
+        release.await();
+      }
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    archivingReceiver.send(createNoteOnMessage(), 1000);
+    Thread timeoutThread = new Thread(stopRecordingTask);
+    timeoutThread.start();
+    writing.await();
+
+    // The first session is still being written, which must not block the next one.
+    archivingReceiver.send(createNoteOnMessage(), 2000);
+    archivingReceiver.send(createNoteOffMessage(), 3000);
+    archivingReceiver.send(createNoteOffMessage(), 4000);
+    release.countDown();
+    timeoutThread.join();
+    archivingReceiver.close();
+
+    assertEquals(Arrays.asList(1, 3), writtenEventCounts);
+  }
+
+  @Test(timeout = 10000)
+  public void testSend_streamingSessionStartsWhilePreviousSessionIsWritten() throws Exception {
+    ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    when(mockTimingWheel.getIoExecutor()).thenReturn(ioExecutor);
+    archivingReceiver = new ArchivingReceiver(deviceInfo, mockStreamingSequenceWriter,
+        TEST_STOP_RECORDING_DELAY_MILLIS, mockTimingWheel);
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      writing.countDown();
+      release.await();
+      return null;
+    }).doNothing().when(mockStreamingSequenceWriter).endSession();
+    archivingReceiver.send(createNoteOnMessage(), 1000);
+    taskCaptor.getValue().run();
+    writing.await();
+
+    // The second session is recorded without waiting for the writer, and its chunks are appended
+    // once the first session has ended.
+    for (int i = 0; i < 2000; i++) {
+      archivingReceiver.send(createNoteOnMessage(), 2000 + i);
+    }
+    verify(mockStreamingSequenceWriter, times(1)).beginSession(anyLong());
+    release.countDown();
+    archivingReceiver.close();
+    ioExecutor.shutdown();
+
+    InOrder inOrder = inOrder(mockStreamingSequenceWriter);
+    inOrder.verify(mockStreamingSequenceWriter).beginSession(anyLong());
+    inOrder.verify(mockStreamingSequenceWriter).endSession();
+    inOrder.verify(mockStreamingSequenceWriter).beginSession(anyLong());
+    inOrder.verify(mockStreamingSequenceWriter, times(2)).appendEvents(any(MidiEventBuffer.class));
+    inOrder.verify(mockStreamingSequenceWriter).endSession();
+  }
+
+  @Test(timeout = 10000)
+  public void testStopRecording_writesOffWheelThread() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      writing.countDown();
+      release.await();
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    try (TimingWheel timingWheel = new TimingWheel(5, 64)) {
+      archivingReceiver = new ArchivingReceiver(deviceInfo, mockSequenceWriter, 10, timingWheel);
+      archivingReceiver.send(createNoteOnMessage(), -1);
+      archivingReceiver.send(createNoteOffMessage(), -1);
+      writing.await();
+
+      // A slow write does not hold up the timeouts of other devices.
+      CountDownLatch otherTimeout = new CountDownLatch(1);
+      timingWheel.newTimeout(otherTimeout::countDown).reset(10);
+      otherTimeout.await();
+      release.countDown();
+      archivingReceiver.close();
+      verify(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    }
+  }
+
+  /**
+   * The receiver reuses its event buffer once the write returns, so the written events are
+   * converted to a sequence while the write is in progress.
+   */
+  private void stubSequenceWriter() throws IOException {
+    doAnswer(invocation -> {
+      MidiEventBuffer events = (MidiEventBuffer) invocation.getArguments()[0];
+      writtenSequences.add(events.toSequence());
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    doAnswer(invocation -> {
+      MidiEventBuffer events = (MidiEventBuffer) invocation.getArguments()[0];
+      writtenSequences.add(events.toSequence());
+      ((Runnable) invocation.getArguments()[1]).run();
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class), any(Runnable.class));
+  }
+
+  private Sequence getLastWrittenSequence() {
+    return writtenSequences.get(writtenSequences.size() - 1);
+  }
+
   private ShortMessage createNoteOnMessage() throws InvalidMidiDataException {
     return new ShortMessage(ShortMessage.NOTE_ON, 1, 0, 0);
   }
@@ -0,0 +1,51 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link DeviceHotplugWatcher}.
+ */
+public class DeviceHotplugWatcherTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testStart_runsTaskOnceForBurstOfChanges() throws Exception {
+    AtomicInteger runCount = new AtomicInteger();
+    Semaphore changed = new Semaphore(0);
+    try (DeviceHotplugWatcher watcher = new DeviceHotplugWatcher(
+        temporaryFolder.getRoot().toPath(), 500, () -> {
+          runCount.incrementAndGet();
+          changed.release();
+        })) {
+      assertTrue(watcher.start());
+      temporaryFolder.newFile("midiC1D0");
+      temporaryFolder.newFile("controlC1");
+      assertTrue(changed.tryAcquire(30, TimeUnit.SECONDS));
+      assertEquals(1, runCount.get());
+
+      new File(temporaryFolder.getRoot(), "midiC1D0").delete();
+      assertTrue(changed.tryAcquire(30, TimeUnit.SECONDS));
+      assertEquals(2, runCount.get());
+    }
+  }
+
+  @Test
+  public void testStart_missingDirectory() throws Exception {
+    try (DeviceHotplugWatcher watcher = new DeviceHotplugWatcher(
+        new File(temporaryFolder.getRoot(), "missing").toPath(), 100, () -> { })) {
+      assertFalse(watcher.start());
+    }
+  }
+}
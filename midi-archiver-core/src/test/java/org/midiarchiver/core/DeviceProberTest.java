@@ -0,0 +1,127 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Unit test for {@link DeviceProber}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceProberTest {
+
+  @Mock
+  private MidiSystemService mockMidiSystemService;
+  @Mock
+  private MidiDevice mockDevice1;
+  @Mock
+  private MidiDevice mockDevice2;
+
+  private MidiDevice.Info deviceInfo1;
+  private MidiDevice.Info deviceInfo2;
+  private Map<String, MidiDevice.Info> devices;
+  private DeviceProber deviceProber;
+
+  @Before
+  public void setUp() throws MidiUnavailableException {
+    deviceInfo1 = new TestMidiDeviceInfo("name1", "vendor1", "", "1");
+    deviceInfo2 = new TestMidiDeviceInfo("name2", "vendor2", "", "2");
+    devices = ImmutableMap.of("device1", deviceInfo1, "device2", deviceInfo2);
+    when(mockMidiSystemService.getMidiDevice(deviceInfo1)).thenReturn(mockDevice1);
+    when(mockMidiSystemService.getMidiDevice(deviceInfo2)).thenReturn(mockDevice2);
+    when(mockDevice1.getMaxTransmitters()).thenReturn(-1);
+    when(mockDevice2.getMaxTransmitters()).thenReturn(-1);
+  }
+
+  @After
+  public void tearDown() {
+    if (deviceProber != null) {
+      deviceProber.close();
+    }
+  }
+
+  @Test
+  public void testProbe_opensDevicesInParallel() throws Exception {
+    deviceProber = new DeviceProber(mockMidiSystemService, 10000, 1000, 1000);
+    // Each device only opens once the other one is being opened.
+    CountDownLatch opening = new CountDownLatch(2);
+    doAnswer(invocation -> {
+      opening.countDown();
+      assertTrue(opening.await(10, TimeUnit.SECONDS));
+      return null;
+    }).when(mockDevice1).open();
+    doAnswer(invocation -> {
+      opening.countDown();
+      assertTrue(opening.await(10, TimeUnit.SECONDS));
+      return null;
+    }).when(mockDevice2).open();
+
+    assertEquals(ImmutableMap.of("device1", mockDevice1, "device2", mockDevice2),
+        deviceProber.probe(devices));
+  }
+
+  @Test
+  public void testProbe_hungDeviceIsQuarantinedAndClosedWhenItOpens() throws Exception {
+    deviceProber = new DeviceProber(mockMidiSystemService, 200, 60000, 60000);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> release.await(10, TimeUnit.SECONDS)).when(mockDevice1).open();
+
+    assertEquals(ImmutableMap.of("device2", mockDevice2), deviceProber.probe(devices));
+    assertEquals(Collections.emptyMap(),
+        deviceProber.probe(ImmutableMap.of("device1", deviceInfo1)));
+    verify(mockMidiSystemService, times(1)).getMidiDevice(deviceInfo1);
+
+    release.countDown();
+    verify(mockDevice1, timeout(5000)).close();
+  }
+
+  @Test
+  public void testProbe_unavailableDeviceIsRetriedAfterBackoff() throws Exception {
+    deviceProber = new DeviceProber(mockMidiSystemService, 1000, 100, 1000);
+    doThrow(new MidiUnavailableException()).when(mockDevice1).open();
+    Map<String, MidiDevice.Info> device1 = ImmutableMap.of("device1", deviceInfo1);
+
+    assertEquals(Collections.emptyMap(), deviceProber.probe(device1));
+    assertEquals(Collections.emptyMap(), deviceProber.probe(device1));
+    verify(mockMidiSystemService, times(1)).getMidiDevice(deviceInfo1);
+
+    Thread.sleep(150);
+    deviceProber.probe(device1);
+    verify(mockMidiSystemService, times(2)).getMidiDevice(deviceInfo1);
+
+    // A device that is removed and added back is probed immediately.
+    deviceProber.retainDevices(Collections.emptySet());
+    deviceProber.probe(device1);
+    verify(mockMidiSystemService, times(3)).getMidiDevice(deviceInfo1);
+  }
+
+  @Test
+  public void testProbe_outputOnlyDeviceIsNotProbedAgain() throws Exception {
+    deviceProber = new DeviceProber(mockMidiSystemService);
+    when(mockDevice1.getMaxTransmitters()).thenReturn(0);
+    Map<String, MidiDevice.Info> device1 = ImmutableMap.of("device1", deviceInfo1);
+
+    assertEquals(Collections.emptyMap(), deviceProber.probe(device1));
+    assertEquals(Collections.emptyMap(), deviceProber.probe(device1));
+    verify(mockMidiSystemService, times(1)).getMidiDevice(deviceInfo1);
+  }
+}
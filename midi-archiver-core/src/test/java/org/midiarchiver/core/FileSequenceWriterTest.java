@@ -0,0 +1,55 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import javax.sound.midi.ShortMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link FileSequenceWriter}.
+ */
+public class FileSequenceWriterTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testWrite_sessionsGetDistinctFiles() throws Exception {
+    List<File> files = new ArrayList<>();
+    FileSequenceWriter writer = new FileSequenceWriter(temporaryFolder.getRoot().getPath(),
+        (SessionSummary summary, File sessionFile, long offset, long length) ->
+            files.add(sessionFile));
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(2017, Calendar.JULY, 14, 3, 0, 0);
+    long morningMillis = calendar.getTimeInMillis();
+
+    // Sessions twelve hours apart, and two sessions starting in the same second.
+    writer.write(createEvents(morningMillis));
+    writer.write(createEvents(morningMillis + 12 * 60 * 60 * 1000L));
+    writer.write(createEvents(morningMillis + 500));
+    writer.flush();
+
+    assertEquals(3, files.size());
+    assertEquals("03-00-00.mid", files.get(0).getName());
+    assertEquals("15-00-00.mid", files.get(1).getName());
+    assertEquals("03-00-00-2.mid", files.get(2).getName());
+    for (File file : files) {
+      assertEquals(new File(temporaryFolder.getRoot(), "2017/07/14").getAbsolutePath(),
+          file.getParent());
+    }
+  }
+
+  private static MidiEventBuffer createEvents(final long startTimeMillis) {
+    MidiEventBuffer events = new MidiEventBuffer();
+    events.setStartTimeMillis(startTimeMillis);
+    events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, 0);
+    return events;
+  }
+}
@@ -0,0 +1,75 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LiveEventRing}.
+ */
+public class LiveEventRingTest {
+
+  private final List<long[]> events = new ArrayList<>();
+  private final LiveEventRing.EventHandler handler = (timestampMicros, status, data1, data2) ->
+      events.add(new long[] {timestampMicros, status, data1, data2});
+
+  @Test
+  public void testPoll_receivesMessagesInOrder() throws Exception {
+    LiveEventRing ring = new LiveEventRing(16);
+    try (LiveEventRing.Subscriber subscriber = ring.subscribe()) {
+      ring.publish(new ShortMessage(ShortMessage.NOTE_ON, 2, 60, 100), 1000);
+      ring.publish(new SysexMessage(new byte[] {(byte) 0xF0, 0x7E, (byte) 0xF7}, 3), 1500);
+      ring.publish(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, 5, 0), 2000);
+
+      assertEquals(1, subscriber.poll(handler, 1));
+      assertEquals(1, subscriber.poll(handler, 16));
+      assertEquals(0, subscriber.poll(handler, 16));
+    }
+    assertEquals(2, events.size());
+    assertEquals(1000, events.get(0)[0]);
+    assertEquals(0x92, events.get(0)[1]);
+    assertEquals(60, events.get(0)[2]);
+    assertEquals(100, events.get(0)[3]);
+    assertEquals(2000, events.get(1)[0]);
+    assertEquals(0xC0, events.get(1)[1]);
+    assertEquals(5, events.get(1)[2]);
+    assertEquals(0, ring.getSubscriberCount());
+  }
+
+  @Test
+  public void testPoll_slowSubscriberLosesOldestMessages() throws Exception {
+    LiveEventRing ring = new LiveEventRing(5);
+    assertEquals(8, ring.getCapacity());
+    LiveEventRing.Subscriber slowSubscriber = ring.subscribe();
+    LiveEventRing.Subscriber fastSubscriber = ring.subscribe();
+    for (int i = 0; i < 20; i++) {
+      ring.publish(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, i), i);
+      if (i % 4 == 3) {
+        fastSubscriber.poll((timestampMicros, status, data1, data2) -> { }, 16);
+      }
+    }
+
+    assertEquals(8, slowSubscriber.poll(handler, 16));
+    assertEquals(12, slowSubscriber.getLostCount());
+    for (int i = 0; i < 8; i++) {
+      assertEquals(12 + i, events.get(i)[3]);
+    }
+    assertEquals(0, fastSubscriber.getLostCount());
+    assertEquals(12, ring.getLostCount());
+  }
+
+  @Test
+  public void testPublish_skippedWithoutSubscribers() throws Exception {
+    LiveEventRing ring = new LiveEventRing(16);
+    ring.publish(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 1000);
+    try (LiveEventRing.Subscriber subscriber = ring.subscribe()) {
+      ring.publish(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 2000);
+      assertEquals(1, subscriber.poll(handler, 16));
+    }
+    assertEquals(2000, events.get(0)[0]);
+  }
+}
@@ -1,11 +1,18 @@
 package org.midiarchiver.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiDevice.Info;
@@ -13,7 +20,9 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Transmitter;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -24,6 +33,9 @@ import org.mockito.runners.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class MidiArchiverServiceTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Mock
   private MidiDevice mockDevice1;
   private MidiDevice.Info mockDeviceInfo1;
@@ -42,6 +54,10 @@ public class MidiArchiverServiceTest {
   private Transmitter mockTransmitter1;
   @Mock
   private Transmitter mockTransmitter2;
+  @Mock
+  private Function<String, SequenceWriter> mockSequenceWriterFactory;
+  @Mock
+  private SequenceWriter mockSequenceWriter;
 
   private MidiArchiverService midiArchiverService;
 
@@ -52,6 +68,8 @@ public class MidiArchiverServiceTest {
 
     when(mockMidiSystemService.getMidiDeviceInfo()).thenReturn(
         new MidiDevice.Info[]{mockDeviceInfo1});
+    when(mockMidiSystemService.getDeviceId(mockDeviceInfo1)).thenReturn("device1");
+    when(mockMidiSystemService.getDeviceId(mockDeviceInfo2)).thenReturn("device2");
     when(mockMidiSystemService.getMidiDevice(mockDeviceInfo1)).thenReturn(mockDevice1);
     when(mockMidiSystemService.getMidiDevice(mockDeviceInfo2)).thenReturn(mockDevice2);
     when(mockDevice1.getDeviceInfo()).thenReturn(mockDeviceInfo1);
@@ -99,6 +117,29 @@ public class MidiArchiverServiceTest {
         mockDevice2, mockDeviceInfo2, mockArchivingReceiver2, mockTransmitter2);
   }
 
+  @Test
+  public void testCheckForNewDevices_activeDeviceIsNotReopened() throws Exception {
+    midiArchiverService.checkForNewDevices();
+    midiArchiverService.checkForNewDevices();
+
+    verify(mockMidiSystemService, times(1)).getMidiDevice(mockDeviceInfo1);
+    verify(mockDevice1, times(1)).getTransmitter();
+    verify(mockArchivingReceiverFactory, times(1)).apply(mockDeviceInfo1);
+  }
+
+  @Test
+  public void testCheckForNewDevices_outputOnlyDeviceIsNotReopened() throws Exception {
+    when(mockMidiSystemService.getMidiDeviceInfo()).thenReturn(
+        new MidiDevice.Info[]{mockDeviceInfo2});
+    when(mockDevice2.getMaxTransmitters()).thenReturn(0);
+    midiArchiverService.checkForNewDevices();
+    midiArchiverService.checkForNewDevices();
+
+    verify(mockMidiSystemService, times(1)).getMidiDevice(mockDeviceInfo2);
+    verify(mockDevice2, never()).open();
+    verify(mockArchivingReceiverFactory, never()).apply(mockDeviceInfo2);
+  }
+
   @Test
   public void testCheckForNewDevices_deviceRemovedAfterInitialCheck() throws Exception {
     midiArchiverService.checkForNewDevices();
@@ -132,6 +173,34 @@ public class MidiArchiverServiceTest {
     verify(mockArchivingReceiverFactory, never()).apply(mockDeviceInfo2);
   }
 
+  @Test
+  public void testRecoverJournals() throws Exception {
+    File journalFile = temporaryFolder.newFile("device1" + SessionJournal.FILE_EXTENSION);
+    try (TimingWheel timingWheel = new TimingWheel();
+         SessionJournal journal = new SessionJournal(journalFile, 1024, timingWheel, 1000)) {
+      MidiEventBuffer events = new MidiEventBuffer();
+      events.appendShortMessage(0x90, 60, 100, 3, 0);
+      journal.begin(System.currentTimeMillis());
+      journal.append(events, 0);
+    }
+    when(mockSequenceWriterFactory.apply("device1")).thenReturn(mockSequenceWriter);
+    List<Runnable> durableCallbacks = new ArrayList<>();
+    doAnswer(invocation -> durableCallbacks.add((Runnable) invocation.getArguments()[1]))
+        .when(mockSequenceWriter).write(any(MidiEventBuffer.class), any(Runnable.class));
+
+    assertEquals(1, midiArchiverService.recoverJournals(
+        temporaryFolder.getRoot(), mockSequenceWriterFactory));
+    verify(mockSequenceWriter).write(any(MidiEventBuffer.class), any(Runnable.class));
+    verify(mockSequenceWriter).close();
+
+    // The session is only committed once it has been durably written.
+    assertEquals(1, midiArchiverService.recoverJournals(
+        temporaryFolder.getRoot(), mockSequenceWriterFactory));
+    durableCallbacks.get(0).run();
+    assertEquals(0, midiArchiverService.recoverJournals(
+        temporaryFolder.getRoot(), mockSequenceWriterFactory));
+  }
+
   private void verifyRecordingStartedOnDevice(MidiDevice mockDevice, MidiDevice.Info mockDeviceInfo,
       ArchivingReceiver mockArchivingReceiver, Transmitter mockTransmitter)
       throws MidiUnavailableException {
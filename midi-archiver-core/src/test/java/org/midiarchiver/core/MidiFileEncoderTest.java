@@ -0,0 +1,86 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link MidiFileEncoder}.
+ */
+public class MidiFileEncoderTest {
+
+  private MidiEventBuffer events;
+
+  @Before
+  public void setUp() {
+    events = new MidiEventBuffer(2);
+  }
+
+  @Test
+  public void testWrite_readableByMidiSystem() throws Exception {
+    events.appendShortMessage(ShortMessage.NOTE_ON | 1, 60, 100, 3, 0);
+    events.appendShortMessage(ShortMessage.NOTE_ON | 1, 64, 100, 3, 1000);
+    events.appendShortMessage(0xF8, 0, 0, 1, 1500);
+    events.appendShortMessage(ShortMessage.NOTE_OFF | 1, 60, 0, 3, 500000);
+    byte[] sysex = {(byte) 0xF0, 0x43, 0x10, 0x4C, 0x00, (byte) 0xF7};
+    events.appendLongMessage(sysex, 0, sysex.length, 1000000);
+    events.appendShortMessage(ShortMessage.PROGRAM_CHANGE | 2, 5, 0, 2, 2000000);
+
+    Sequence sequence = encodeAndRead();
+
+    assertEquals(MidiEventBuffer.RESOLUTION, sequence.getResolution());
+    Track track = sequence.getTracks()[0];
+    // The timing clock message is skipped and an end of track event is added.
+    assertEquals(6, track.size());
+    assertShortMessage(track.get(0), 0, ShortMessage.NOTE_ON | 1, 60, 100);
+    assertShortMessage(track.get(1), 0, ShortMessage.NOTE_ON | 1, 64, 100);
+    assertShortMessage(track.get(2), MidiEventBuffer.RESOLUTION, ShortMessage.NOTE_OFF | 1, 60, 0);
+    assertEquals(2 * MidiEventBuffer.RESOLUTION, track.get(3).getTick());
+    assertArrayEquals(sysex, ((SysexMessage) track.get(3).getMessage()).getMessage());
+    assertShortMessage(track.get(4), 4 * MidiEventBuffer.RESOLUTION,
+        ShortMessage.PROGRAM_CHANGE | 2, 5, 0);
+  }
+
+  @Test
+  public void testGetFileLength() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, i, 100, 3, i * 100000L);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int written = MidiFileEncoder.write(events, out);
+    assertEquals(out.size(), written);
+    assertEquals(out.size(), MidiFileEncoder.getFileLength(events));
+  }
+
+  @Test
+  public void testWrite_empty() throws Exception {
+    Sequence sequence = encodeAndRead();
+    assertEquals(1, sequence.getTracks().length);
+    assertEquals(0, sequence.getTickLength());
+  }
+
+  private Sequence encodeAndRead() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MidiFileEncoder.write(events, out);
+    return MidiSystem.getSequence(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  private static void assertShortMessage(MidiEvent event, long tick, int status, int data1,
+                                         int data2) {
+    ShortMessage message = (ShortMessage) event.getMessage();
+    assertEquals(tick, event.getTick());
+    assertEquals(status, message.getStatus());
+    assertEquals(data1, message.getData1());
+    assertEquals(data2, message.getData2());
+  }
+}
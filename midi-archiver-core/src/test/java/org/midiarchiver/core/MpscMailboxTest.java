@@ -0,0 +1,84 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link MpscMailbox}.
+ */
+public class MpscMailboxTest {
+
+  private final List<Object> items = new ArrayList<>();
+  private final List<Long> timestamps = new ArrayList<>();
+  private final MpscMailbox.Consumer consumer = (item, timestamp) -> {
+    items.add(item);
+    timestamps.add(timestamp);
+  };
+
+  @Test
+  public void testOffer_failsWhenFullAndReusesSlots() {
+    MpscMailbox mailbox = new MpscMailbox(3);
+    assertTrue(mailbox.isEmpty());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(mailbox.offer("item" + i, i));
+    }
+    assertFalse(mailbox.offer("item4", 4));
+
+    assertTrue(mailbox.poll(consumer));
+    assertTrue(mailbox.offer("item4", 4));
+    while (mailbox.poll(consumer)) {
+      // Drains the mailbox.
+    }
+    assertTrue(mailbox.isEmpty());
+    assertEquals(5, items.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals("item" + i, items.get(i));
+      assertEquals(i, (long) timestamps.get(i));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testOffer_concurrentProducersKeepTheirOrder() throws Exception {
+    MpscMailbox mailbox = new MpscMailbox(64);
+    int producerCount = 4;
+    int itemsPerProducer = 10000;
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < producerCount; p++) {
+      final int producer = p;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < itemsPerProducer; i++) {
+          while (!mailbox.offer(producer, i)) {
+            Thread.yield();
+          }
+        }
+      });
+      thread.start();
+      producers.add(thread);
+    }
+    start.countDown();
+    long[] nextTimestamps = new long[producerCount];
+    int received = 0;
+    while (received < producerCount * itemsPerProducer) {
+      if (mailbox.poll((item, timestamp) ->
+          assertEquals(nextTimestamps[(Integer) item]++, timestamp))) {
+        received++;
+      }
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertTrue(mailbox.isEmpty());
+  }
+}
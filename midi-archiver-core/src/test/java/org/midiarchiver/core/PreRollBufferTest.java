@@ -0,0 +1,53 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PreRollBuffer}.
+ */
+public class PreRollBufferTest {
+
+  private final MidiEventBuffer events = new MidiEventBuffer();
+
+  @Test
+  public void testDrainTo_appendsMessagesWithinPreRoll() throws Exception {
+    PreRollBuffer preRollBuffer = new PreRollBuffer(16, 1000);
+    preRollBuffer.add(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, 1, 0), 500);
+    preRollBuffer.add(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 64, 127), 1500);
+    preRollBuffer.add(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 7, 100), 2000);
+
+    assertEquals(1500, preRollBuffer.drainTo(events, 2500));
+    assertEquals(2, events.size());
+    assertEquals(0xB0, events.getStatus(0));
+    assertEquals(64, events.getData1(0));
+    assertEquals(127, events.getData2(0));
+    assertEquals(3, events.getLength(0));
+    assertEquals(0, events.getTimestamp(0));
+    assertEquals(500, events.getTimestamp(1));
+
+    // The ring is empty once it has been drained.
+    events.clear();
+    assertEquals(3000, preRollBuffer.drainTo(events, 3000));
+    assertEquals(0, events.size());
+  }
+
+  @Test
+  public void testAdd_overwritesOldestMessagesWhenFull() throws Exception {
+    PreRollBuffer preRollBuffer = new PreRollBuffer(4, 1000000);
+    for (int i = 0; i < 10; i++) {
+      preRollBuffer.add(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, i), i * 10);
+    }
+    preRollBuffer.add(new SysexMessage(new byte[] {(byte) 0xF0, 0x7E, (byte) 0xF7}, 3), 95);
+
+    assertEquals(60, preRollBuffer.drainTo(events, 100));
+    assertEquals(4, events.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(6 + i, events.getData2(i));
+      assertEquals(i * 10, events.getTimestamp(i));
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Unit test for {@link ReceiverActor}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ReceiverActorTest {
+
+  @Mock
+  private MidiDevice.Info deviceInfo;
+  @Mock
+  private SequenceWriter mockSequenceWriter;
+  @Mock
+  private TimingWheel mockTimingWheel;
+  @Mock
+  private TimingWheel.Timeout mockTimeout;
+
+  private final ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+  private final List<String> writingThreads = Collections.synchronizedList(new ArrayList<>());
+  private final List<Integer> writtenEventCounts = Collections.synchronizedList(new ArrayList<>());
+  private ExecutorService executor;
+  private ReceiverActor receiverActor;
+
+  @Before
+  public void setUp() throws Exception {
+    when(mockTimingWheel.newTimeout(taskCaptor.capture())).thenReturn(mockTimeout);
+    when(mockTimingWheel.getIoExecutor()).thenReturn(MoreExecutors.directExecutor());
+    doAnswer(invocation -> {
+      writingThreads.add(Thread.currentThread().getName());
+      writtenEventCounts.add(((MidiEventBuffer) invocation.getArguments()[0]).size());
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    executor = Executors.newFixedThreadPool(2, runnable -> new Thread(runnable, "actor-pool"));
+    receiverActor = new ReceiverActor(
+        new ArchivingReceiver(deviceInfo, mockSequenceWriter, 5000, mockTimingWheel), executor, 16);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 10000)
+  public void testSend_messagesFromAllThreadsAreRecorded() throws Exception {
+    receiverActor.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0);
+    List<Thread> senders = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread sender = new Thread(() -> {
+        try {
+          for (int i = 0; i < 1000; i++) {
+            receiverActor.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, i % 128), i);
+          }
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      sender.start();
+      senders.add(sender);
+    }
+    for (Thread sender : senders) {
+      sender.join();
+    }
+    receiverActor.close();
+
+    assertEquals(Collections.singletonList(4001), writtenEventCounts);
+    assertEquals(Collections.singletonList("actor-pool"), writingThreads);
+  }
+
+  @Test(timeout = 10000)
+  public void testTimeout_stopsRecordingOnTheActor() throws Exception {
+    CountDownLatch written = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      writingThreads.add(Thread.currentThread().getName());
+      written.countDown();
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    receiverActor.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 1000);
+
+    // The wheel thread only hands the timeout to the actor.
+    taskCaptor.getValue().run();
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("actor-pool"), writingThreads);
+    receiverActor.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testTimeout_doesNotWaitForFullMailbox() throws Exception {
+    List<Runnable> tasks = new ArrayList<>();
+    receiverActor = new ReceiverActor(
+        new ArchivingReceiver(deviceInfo, mockSequenceWriter, 5000, mockTimingWheel), tasks::add,
+        16);
+    receiverActor.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0);
+    for (int i = 1; i < 16; i++) {
+      receiverActor.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, i), i);
+    }
+
+    // The actor has not run yet, so the timeout does not fit in the mailbox.
+    taskCaptor.getValue().run();
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+    assertEquals(Collections.singletonList(16), writtenEventCounts);
+  }
+
+  @Test
+  public void testTimeout_skippedWhenResetBeforeItRuns() throws Exception {
+    List<Runnable> tasks = new ArrayList<>();
+    receiverActor = new ReceiverActor(
+        new ArchivingReceiver(deviceInfo, mockSequenceWriter, 5000, mockTimingWheel), tasks::add,
+        16);
+    receiverActor.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0);
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+
+    // The timeout expires while a note is queued, and the note resets it before the task runs.
+    receiverActor.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 62, 100), 1000);
+    taskCaptor.getValue().run();
+    when(mockTimeout.isArmed()).thenReturn(true);
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+    assertEquals(Collections.emptyList(), writtenEventCounts);
+
+    when(mockTimeout.isArmed()).thenReturn(false);
+    taskCaptor.getValue().run();
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+    assertEquals(Collections.singletonList(2), writtenEventCounts);
+  }
+}
@@ -0,0 +1,220 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link SessionJournal}.
+ */
+public class SessionJournalTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private TimingWheel timingWheel;
+  private File journalFile;
+  private SessionJournal journal;
+  private MidiEventBuffer events;
+
+  @Before
+  public void setUp() throws IOException {
+    timingWheel = new TimingWheel(10, 8, () -> 0, false);
+    journalFile = new File(temporaryFolder.getRoot(), "device" + SessionJournal.FILE_EXTENSION);
+    journal = new SessionJournal(journalFile, 128, timingWheel, 1000);
+    events = new MidiEventBuffer();
+  }
+
+  @After
+  public void cleanUp() throws IOException {
+    journal.close();
+  }
+
+  @Test
+  public void testRecover_uncommittedSession() throws IOException {
+    int slot = journal.begin(START_TIME_MILLIS);
+    appendAndJournal(ShortMessage.NOTE_ON, 60, 100, 0);
+    byte[] sysex = {(byte) 0xF0, 0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7};
+    events.appendLongMessage(sysex, 0, sysex.length, 250);
+    journal.append(events, events.size() - 1);
+    for (int i = 1; i <= 20; i++) {
+      appendAndJournal(ShortMessage.NOTE_OFF, 60, 0, i * 1000L);
+    }
+
+    MidiEventBuffer recovered = new MidiEventBuffer();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+
+    assertEquals(START_TIME_MILLIS, recovered.getStartTimeMillis());
+    assertEquals(events.size(), recovered.size());
+    for (int i = 0; i < events.size(); i++) {
+      assertEquals(events.getTimestamp(i), recovered.getTimestamp(i));
+      assertEquals(events.getStatus(i), recovered.getStatus(i));
+      assertEquals(events.getLength(i), recovered.getLength(i));
+    }
+    byte[] recoveredSysex = new byte[sysex.length];
+    recovered.getMessage(1, recoveredSysex, 0);
+    assertArrayEquals(sysex, recoveredSysex);
+  }
+
+  @Test
+  public void testRecover_committedSession() throws IOException {
+    int slot = journal.begin(START_TIME_MILLIS);
+    appendAndJournal(ShortMessage.NOTE_ON, 60, 100, 0);
+    journal.commit(slot);
+
+    assertFalse(SessionJournal.recover(journalFile, slot, new MidiEventBuffer()));
+  }
+
+  @Test
+  public void testRecover_ignoresEventsOfEarlierSession() throws IOException {
+    journal.commit(journal.begin(START_TIME_MILLIS));
+    int slot = journal.begin(START_TIME_MILLIS);
+    for (int i = 0; i < 10; i++) {
+      appendAndJournal(ShortMessage.NOTE_ON, 60, 100, i);
+    }
+    journal.commit(slot);
+    events.clear();
+    // Both slots are committed, so the session overwrites the records of the earlier sessions.
+    slot = journal.begin(START_TIME_MILLIS + 1000);
+    appendAndJournal(ShortMessage.NOTE_ON, 62, 100, 0);
+
+    MidiEventBuffer recovered = new MidiEventBuffer();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+    assertEquals(1, recovered.size());
+    assertEquals(62, recovered.getData1(0));
+  }
+
+  @Test
+  public void testRecover_sessionBeingWrittenWhileNextSessionIsRecorded() throws IOException {
+    int firstSlot = journal.begin(START_TIME_MILLIS);
+    for (int i = 0; i < 10; i++) {
+      appendAndJournal(ShortMessage.NOTE_ON, 60, 100, i);
+    }
+    events.clear();
+    int secondSlot = journal.begin(START_TIME_MILLIS + 1000);
+    appendAndJournal(ShortMessage.NOTE_ON, 62, 100, 0);
+    assertNotEquals(firstSlot, secondSlot);
+    // Both slots hold sessions that have not been written.
+    assertEquals(SessionJournal.NO_SLOT, journal.begin(START_TIME_MILLIS + 2000));
+
+    MidiEventBuffer recovered = new MidiEventBuffer();
+    assertTrue(SessionJournal.recover(journalFile, firstSlot, recovered));
+    assertEquals(10, recovered.size());
+    assertEquals(START_TIME_MILLIS, recovered.getStartTimeMillis());
+    recovered.clear();
+    assertTrue(SessionJournal.recover(journalFile, secondSlot, recovered));
+    assertEquals(1, recovered.size());
+
+    // The next session starts after the records of the session that is still open.
+    journal.commit(firstSlot);
+    events.clear();
+    assertEquals(firstSlot, journal.begin(START_TIME_MILLIS + 3000));
+    appendAndJournal(ShortMessage.NOTE_ON, 64, 100, 0);
+    appendAndJournal(ShortMessage.NOTE_ON, 65, 100, 0);
+    recovered.clear();
+    assertTrue(SessionJournal.recover(journalFile, secondSlot, recovered));
+    assertEquals(1, recovered.size());
+    assertEquals(62, recovered.getData1(0));
+    recovered.clear();
+    assertTrue(SessionJournal.recover(journalFile, firstSlot, recovered));
+    assertEquals(2, recovered.size());
+  }
+
+  @Test
+  public void testRecover_afterReopen() throws IOException {
+    int slot = journal.begin(START_TIME_MILLIS);
+    appendAndJournal(ShortMessage.NOTE_ON, 60, 100, 0);
+    journal.close();
+
+    journal = new SessionJournal(journalFile, 128, timingWheel, 1000);
+    MidiEventBuffer recovered = new MidiEventBuffer();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+    assertEquals(1, recovered.size());
+    // The session that has not been recovered yet keeps its slot.
+    events.clear();
+    assertNotEquals(slot, journal.begin(START_TIME_MILLIS + 1000));
+    appendAndJournal(ShortMessage.NOTE_ON, 62, 100, 0);
+    recovered.clear();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+    assertEquals(1, recovered.size());
+    assertEquals(60, recovered.getData1(0));
+
+    SessionJournal.markCommitted(journalFile, slot);
+    assertFalse(SessionJournal.recover(journalFile, slot, new MidiEventBuffer()));
+  }
+
+  @Test
+  public void testRecover_eventsAfterDurableSegments() throws IOException {
+    int slot = journal.begin(START_TIME_MILLIS);
+    for (int i = 0; i < 6; i++) {
+      appendAndJournal(ShortMessage.NOTE_ON, 60 + i, 100, i * 1000000L);
+    }
+    journal.markDurable(slot, 2000000L);
+    journal.markDurable(slot, 3500000L);
+
+    // The remaining events are recovered as a session starting with the first of them.
+    MidiEventBuffer recovered = new MidiEventBuffer();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+    assertEquals(2, recovered.size());
+    assertEquals(START_TIME_MILLIS + 4000, recovered.getStartTimeMillis());
+    assertEquals(64, recovered.getData1(0));
+    assertEquals(0, recovered.getTimestamp(0));
+    assertEquals(1000000L, recovered.getTimestamp(1));
+  }
+
+  @Test
+  public void testAppend_growsJournalOnIoExecutor() throws IOException {
+    List<Runnable> ioTasks = new ArrayList<>();
+    TimingWheel mockTimingWheel = mock(TimingWheel.class);
+    when(mockTimingWheel.getIoExecutor()).thenReturn(ioTasks::add);
+    when(mockTimingWheel.newTimeout(any(Runnable.class)))
+        .thenReturn(mock(TimingWheel.Timeout.class));
+    journal.close();
+    journal = new SessionJournal(journalFile, 128, mockTimingWheel, 1000);
+
+    // The header and four records fill the journal, and growing it is requested at three quarters.
+    int slot = journal.begin(START_TIME_MILLIS);
+    for (int i = 0; i < 6; i++) {
+      appendAndJournal(ShortMessage.NOTE_ON, 60, 100, i);
+    }
+    assertEquals(1, ioTasks.size());
+    MidiEventBuffer recovered = new MidiEventBuffer();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+    assertEquals(4, recovered.size());
+
+    // Once grown, the next session is journaled in full.
+    ioTasks.get(0).run();
+    journal.commit(slot);
+    events.clear();
+    slot = journal.begin(START_TIME_MILLIS + 1000);
+    for (int i = 0; i < 6; i++) {
+      appendAndJournal(ShortMessage.NOTE_ON, 62, 100, i);
+    }
+    recovered.clear();
+    assertTrue(SessionJournal.recover(journalFile, slot, recovered));
+    assertEquals(6, recovered.size());
+  }
+
+  private void appendAndJournal(int status, int data1, int data2, long timestamp) {
+    events.appendShortMessage(status, data1, data2, 3, timestamp);
+    journal.append(events, events.size() - 1);
+  }
+}
@@ -0,0 +1,184 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link StreamingMidiFileWriter}.
+ */
+public class StreamingMidiFileWriterTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MidiEventBuffer events;
+
+  @Before
+  public void setUp() {
+    events = new MidiEventBuffer();
+  }
+
+  @Test
+  public void testAppendEvents_multipleChunks() throws Exception {
+    StreamingMidiFileWriter writer =
+        new StreamingMidiFileWriter(temporaryFolder.getRoot().getPath());
+    writer.beginSession(START_TIME_MILLIS);
+    for (int chunk = 0; chunk < 3; chunk++) {
+      events.clear();
+      for (int i = 0; i < 100; i++) {
+        events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, (chunk * 100 + i) * 10000L);
+      }
+      writer.appendEvents(events);
+    }
+    writer.endSession();
+
+    List<File> files = getMidiFiles();
+    assertEquals(1, files.size());
+    Track track = MidiSystem.getSequence(files.get(0)).getTracks()[0];
+    // 300 notes and the end of track event.
+    assertEquals(301, track.size());
+    assertEquals(MidiEventBuffer.toTick(299 * 10000L), track.get(299).getTick());
+  }
+
+  @Test
+  public void testAppendEvents_rollsOverAfterMaxEvents() throws Exception {
+    StreamingMidiFileWriter writer =
+        new StreamingMidiFileWriter(temporaryFolder.getRoot().getPath(), 40, 0);
+    for (int i = 0; i < 100; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, 1000000L + i * 1000L);
+    }
+    events.setStartTimeMillis(START_TIME_MILLIS);
+    writer.write(events);
+
+    List<File> files = getMidiFiles();
+    assertEquals(3, files.size());
+    int eventCount = 0;
+    int segmentsStartingAtZero = 0;
+    for (File file : files) {
+      Sequence sequence = MidiSystem.getSequence(file);
+      Track track = sequence.getTracks()[0];
+      eventCount += track.size() - 1;
+      if (track.get(0).getTick() == 0) {
+        segmentsStartingAtZero++;
+      }
+    }
+    assertEquals(100, eventCount);
+    // The first segment starts with the session, the following ones with their first event.
+    assertEquals(2, segmentsStartingAtZero);
+  }
+
+  @Test
+  public void testAppendEvents_doesNotSplitEventsWithSameTimestamp() throws Exception {
+    StreamingMidiFileWriter writer =
+        new StreamingMidiFileWriter(temporaryFolder.getRoot().getPath(), 2, 0);
+    writer.beginSession(START_TIME_MILLIS);
+    events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, 0);
+    events.appendShortMessage(ShortMessage.NOTE_ON, 64, 100, 3, 1000000L);
+    events.appendShortMessage(ShortMessage.NOTE_ON, 67, 100, 3, 1000000L);
+    events.appendShortMessage(ShortMessage.NOTE_OFF, 60, 0, 3, 2000000L);
+    writer.appendEvents(events);
+    assertEquals(2000000L, writer.getDurableMicros());
+    writer.endSession();
+
+    List<File> files = getMidiFiles();
+    assertEquals(2, files.size());
+    assertEquals(4, MidiSystem.getSequence(files.get(0)).getTracks()[0].size());
+    assertEquals(2, MidiSystem.getSequence(files.get(1)).getTracks()[0].size());
+  }
+
+  @Test
+  public void testAppendEvents_rollsOverAfterMaxDuration() throws Exception {
+    StreamingMidiFileWriter writer =
+        new StreamingMidiFileWriter(temporaryFolder.getRoot().getPath(), 0, 1000);
+    writer.beginSession(START_TIME_MILLIS);
+    for (int i = 0; i < 10; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 500000L);
+    }
+    assertEquals(0, writer.getDurableMicros());
+    writer.appendEvents(events);
+    // The events before the segment being written are in finished segments.
+    assertEquals(4000000L, writer.getDurableMicros());
+    writer.endSession();
+
+    List<File> files = getMidiFiles();
+    assertEquals(5, files.size());
+    for (File file : files) {
+      Track track = MidiSystem.getSequence(file).getTracks()[0];
+      assertEquals(3, track.size());
+      assertEquals(0, track.get(0).getTick());
+    }
+  }
+
+  @Test
+  public void testEndSession_notifiesListenerOfEachSegment() throws Exception {
+    List<Long> segmentStartTimes = new ArrayList<>();
+    List<Long> segmentLengths = new ArrayList<>();
+    StreamingMidiFileWriter writer = new StreamingMidiFileWriter(
+        temporaryFolder.getRoot().getPath(), 0, 1000,
+        (SessionSummary summary, File file, long offset, long length) -> {
+          assertEquals(2, summary.getNoteCount());
+          assertEquals(500, summary.getDurationMillis());
+          segmentStartTimes.add(summary.getStartTimeMillis());
+          segmentLengths.add(length);
+        });
+    for (int i = 0; i < 4; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 500000L);
+    }
+    events.setStartTimeMillis(START_TIME_MILLIS);
+    writer.write(events);
+
+    assertEquals(Arrays.asList(START_TIME_MILLIS, START_TIME_MILLIS + 1000), segmentStartTimes);
+    List<File> files = getMidiFiles();
+    assertEquals(Arrays.asList(files.get(0).length(), files.get(1).length()), segmentLengths);
+  }
+
+  @Test
+  public void testNew_deletesUnfinishedSegment() throws Exception {
+    String outputDirectoryPath = temporaryFolder.getRoot().getPath();
+    StreamingMidiFileWriter writer = new StreamingMidiFileWriter(outputDirectoryPath);
+    events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, 0);
+    events.setStartTimeMillis(START_TIME_MILLIS);
+    writer.write(events);
+    // A session that is still being written when the process stops.
+    writer.beginSession(START_TIME_MILLIS + 60000);
+    writer.appendEvents(events);
+    writer.flush();
+    assertEquals(2, getMidiFiles().size());
+
+    new StreamingMidiFileWriter(outputDirectoryPath);
+    List<File> files = getMidiFiles();
+    assertEquals(1, files.size());
+    assertEquals(2, MidiSystem.getSequence(files.get(0)).getTracks()[0].size());
+  }
+
+  private List<File> getMidiFiles() throws IOException {
+    try (Stream<Path> paths = Files.walk(temporaryFolder.getRoot().toPath())) {
+      List<File> files = paths.map(Path::toFile)
+          .filter(file -> file.getName().endsWith(".mid"))
+          .sorted()
+          .collect(Collectors.toList());
+      assertTrue(!files.isEmpty());
+      return files;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TimingWheel}.
+ */
+public class TimingWheelTest {
+
+  private static final long TICK_MILLIS = 10;
+  private static final int WHEEL_SIZE = 8;
+
+  private long now;
+  private TimingWheel timingWheel;
+  private final AtomicInteger runCount = new AtomicInteger();
+  private TimingWheel.Timeout timeout;
+
+  @Before
+  public void setUp() {
+    now = 1000;
+    timingWheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, () -> now, false);
+    timeout = timingWheel.newTimeout(runCount::incrementAndGet);
+  }
+
+  @Test
+  public void testReset_runsTaskOnceAfterDeadline() {
+    timeout.reset(50);
+    advance(40);
+    assertEquals(0, runCount.get());
+    assertTrue(timeout.isArmed());
+
+    advance(10);
+    assertEquals(1, runCount.get());
+    assertFalse(timeout.isArmed());
+
+    advance(500);
+    assertEquals(1, runCount.get());
+  }
+
+  @Test
+  public void testReset_extendsDeadlineInPlace() {
+    timeout.reset(50);
+    for (int i = 0; i < 10; i++) {
+      advance(30);
+      timeout.reset(50);
+    }
+    assertEquals(0, runCount.get());
+    advance(50);
+    assertEquals(1, runCount.get());
+  }
+
+  @Test
+  public void testReset_shortensDeadline() {
+    TimingWheel.Timeout otherTimeout = timingWheel.newTimeout(runCount::incrementAndGet);
+    otherTimeout.reset(500);
+    timeout.reset(500);
+    advance(10);
+    timeout.reset(30);
+    advance(20);
+    assertEquals(0, runCount.get());
+    advance(10);
+    assertEquals(1, runCount.get());
+    assertTrue(otherTimeout.isArmed());
+    advance(470);
+    assertEquals(2, runCount.get());
+  }
+
+  @Test
+  public void testReset_deadlineBeyondOneRotation() {
+    long delayMillis = TICK_MILLIS * WHEEL_SIZE * 3 + 5;
+    timeout.reset(delayMillis);
+    advance(delayMillis - TICK_MILLIS);
+    assertEquals(0, runCount.get());
+    advance(TICK_MILLIS);
+    assertEquals(1, runCount.get());
+  }
+
+  @Test
+  public void testReset_afterTaskHasRun() {
+    timeout.reset(20);
+    advance(20);
+    timeout.reset(20);
+    advance(20);
+    assertEquals(2, runCount.get());
+  }
+
+  @Test
+  public void testCancel() {
+    timeout.reset(20);
+    advance(10);
+    timeout.cancel();
+    advance(100);
+    assertEquals(0, runCount.get());
+    assertFalse(timeout.isArmed());
+  }
+
+  @Test
+  public void testWheelThread_runsTask() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    try (TimingWheel threadedWheel = new TimingWheel(5, WHEEL_SIZE)) {
+      threadedWheel.newTimeout(latch::countDown).reset(20);
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  private void advance(long millis) {
+    for (long step = 0; step < millis; step += TICK_MILLIS) {
+      now += Math.min(TICK_MILLIS, millis - step);
+      timingWheel.expireTimeouts();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package org.midiarchiver.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.midiarchiver.core.WriteBehindPipeline.BackpressurePolicy;
+import org.midiarchiver.core.WriteBehindPipeline.FlushPolicy;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Unit test for {@link WriteBehindPipeline}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindPipelineTest {
+
+  @Mock
+  private SequenceWriter mockSequenceWriter;
+
+  private final List<Integer> writtenSessionSizes =
+      Collections.synchronizedList(new ArrayList<>());
+  private final List<Thread> writerThreads = Collections.synchronizedList(new ArrayList<>());
+  private final CountDownLatch writesReleased = new CountDownLatch(1);
+  private WriteBehindPipeline pipeline;
+
+  @Before
+  public void setUp() throws IOException {
+    doAnswer(invocation -> {
+      writerThreads.add(Thread.currentThread());
+      writesReleased.await(10, TimeUnit.SECONDS);
+      writtenSessionSizes.add(((MidiEventBuffer) invocation.getArguments()[0]).size());
+      return null;
+    }).when(mockSequenceWriter).write(any(MidiEventBuffer.class));
+  }
+
+  @After
+  public void cleanUp() throws Exception {
+    writesReleased.countDown();
+    if (pipeline != null) {
+      pipeline.close();
+    }
+  }
+
+  @Test
+  public void testWrite_writesCopyOnWriterThread() throws Exception {
+    pipeline = new WriteBehindPipeline(4, 4, FlushPolicy.EVERY_BATCH, 0, BackpressurePolicy.BLOCK);
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    MidiEventBuffer events = createEvents(3);
+
+    writer.write(events);
+    events.clear();
+    writesReleased.countDown();
+
+    verify(mockSequenceWriter, timeout(5000)).flush();
+    assertEquals(Collections.singletonList(3), writtenSessionSizes);
+    assertNotSame(Thread.currentThread(), writerThreads.get(0));
+  }
+
+  @Test
+  public void testClose_drainsQueuedSessions() throws Exception {
+    pipeline = new WriteBehindPipeline(4, 2, FlushPolicy.NONE, 0, BackpressurePolicy.BLOCK);
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    for (int i = 1; i <= 4; i++) {
+      writer.write(createEvents(i));
+    }
+    writesReleased.countDown();
+    pipeline.close();
+
+    assertEquals(4, writtenSessionSizes.size());
+    assertTrue(writtenSessionSizes.containsAll(Arrays.asList(1, 2, 3, 4)));
+    verify(mockSequenceWriter, never()).flush();
+  }
+
+  @Test
+  public void testWrite_runsDurableCallbackAfterFlush() throws Exception {
+    pipeline = new WriteBehindPipeline(4, 4, FlushPolicy.EVERY_BATCH, 0, BackpressurePolicy.BLOCK);
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    Runnable mockCallback = mock(Runnable.class);
+    writer.write(createEvents(1), mockCallback);
+    writesReleased.countDown();
+
+    verify(mockCallback, timeout(5000)).run();
+    InOrder inOrder = inOrder(mockSequenceWriter, mockCallback);
+    inOrder.verify(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    inOrder.verify(mockSequenceWriter).flush();
+    inOrder.verify(mockCallback).run();
+  }
+
+  @Test
+  public void testWrite_flushesSessionsWithDurableCallbackWithoutFlushPolicy() throws Exception {
+    pipeline = new WriteBehindPipeline(4, 4, FlushPolicy.NONE, 0, BackpressurePolicy.BLOCK);
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    Runnable mockCallback = mock(Runnable.class);
+    writer.write(createEvents(1), mockCallback);
+    writesReleased.countDown();
+
+    verify(mockCallback, timeout(5000)).run();
+    InOrder inOrder = inOrder(mockSequenceWriter, mockCallback);
+    inOrder.verify(mockSequenceWriter).write(any(MidiEventBuffer.class));
+    inOrder.verify(mockSequenceWriter).flush();
+    inOrder.verify(mockCallback).run();
+  }
+
+  @Test
+  public void testWrite_skipsDurableCallbackWhenFlushFails() throws Exception {
+    pipeline = new WriteBehindPipeline(4, 4, FlushPolicy.EVERY_BATCH, 0, BackpressurePolicy.BLOCK);
+    doThrow(new IOException("disk full")).when(mockSequenceWriter).flush();
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    Runnable mockCallback = mock(Runnable.class);
+    writer.write(createEvents(1), mockCallback);
+    writesReleased.countDown();
+    pipeline.close();
+
+    verify(mockSequenceWriter, atLeastOnce()).flush();
+    verify(mockCallback, never()).run();
+  }
+
+  @Test
+  public void testClose_closesWriterAfterQueuedSessions() throws Exception {
+    pipeline = new WriteBehindPipeline(4, 4, FlushPolicy.EVERY_BATCH, 0, BackpressurePolicy.BLOCK);
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    writer.write(createEvents(1));
+    writer.write(createEvents(2));
+    writer.close();
+    verify(mockSequenceWriter, never()).close();
+    writesReleased.countDown();
+
+    verify(mockSequenceWriter, timeout(5000)).close();
+    InOrder inOrder = inOrder(mockSequenceWriter);
+    inOrder.verify(mockSequenceWriter, times(2)).write(any(MidiEventBuffer.class));
+    inOrder.verify(mockSequenceWriter).flush();
+    inOrder.verify(mockSequenceWriter).close();
+  }
+
+  @Test
+  public void testWrite_callerWritesWhenQueueIsFull() throws Exception {
+    pipeline = new WriteBehindPipeline(1, 1, FlushPolicy.INTERVAL, 10,
+        BackpressurePolicy.CALLER_WRITES);
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+
+    // The first session occupies the only slot until writes are released.
+    writer.write(createEvents(1));
+    Thread callerThread = new Thread(() -> {
+      try {
+        writer.write(createEvents(2));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    callerThread.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!writerThreads.contains(callerThread) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    writesReleased.countDown();
+    callerThread.join(5000);
+
+    verify(mockSequenceWriter, timeout(5000).times(2)).write(any(MidiEventBuffer.class));
+    assertTrue(writerThreads.contains(callerThread));
+    verify(mockSequenceWriter, timeout(5000).atLeastOnce()).flush();
+  }
+
+  @Test
+  public void testClose_writesSessionsSubmittedAfterCloseOnCaller() throws Exception {
+    pipeline = new WriteBehindPipeline();
+    SequenceWriter writer = pipeline.newWriter(mockSequenceWriter);
+    writesReleased.countDown();
+    pipeline.close();
+
+    writer.write(createEvents(1));
+    verify(mockSequenceWriter, atLeastOnce()).write(any(MidiEventBuffer.class));
+    assertEquals(Thread.currentThread(), writerThreads.get(0));
+  }
+
+  private static MidiEventBuffer createEvents(int count) {
+    MidiEventBuffer events = new MidiEventBuffer();
+    for (int i = 0; i < count; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 1000L);
+    }
+    return events;
+  }
+}
@@ -0,0 +1,117 @@
+package org.midiarchiver.core.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+
+/**
+ * Unit test for {@link CompressedSequenceWriter} and {@link CompressedMidiFileReader}.
+ */
+public class CompressedSequenceWriterTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MidiEventBuffer events;
+
+  @Before
+  public void setUp() {
+    events = new MidiEventBuffer();
+    events.setStartTimeMillis(START_TIME_MILLIS);
+    for (int note = 0; note < 50; note++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60 + note % 12, 100, 3, note * 250000L);
+      events.appendShortMessage(ShortMessage.NOTE_OFF, 60 + note % 12, 0, 3,
+          note * 250000L + 200000L);
+    }
+  }
+
+  @Test
+  public void testWrite_roundTrip() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    try (CompressedSequenceWriter writer = new CompressedSequenceWriter(directory.getPath())) {
+      writer.write(events);
+    }
+
+    File file = listFiles(directory).get(0);
+    assertTrue(CompressedMidiFile.isCompressed(file.getName()));
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    MidiFileEncoder.write(events, expected);
+    assertArrayEquals(expected.toByteArray(), CompressedMidiFileReader.read(file));
+    assertTrue(file.length() < expected.size());
+    Sequence sequence = CompressedMidiFileReader.readSequence(file);
+    // The notes and the end of track event.
+    assertEquals(events.size() + 1, sequence.getTracks()[0].size());
+  }
+
+  @Test
+  public void testWrite_withoutDictionary() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    try (CompressedSequenceWriter writer =
+             new CompressedSequenceWriter(directory.getPath(), null, Deflater.BEST_SPEED, false)) {
+      writer.write(events);
+    }
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    MidiFileEncoder.write(events, expected);
+    assertArrayEquals(expected.toByteArray(),
+        CompressedMidiFileReader.read(listFiles(directory).get(0)));
+  }
+
+  @Test
+  public void testWrite_sequence() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    try (CompressedSequenceWriter writer = new CompressedSequenceWriter(directory.getPath())) {
+      writer.write(events.toSequence());
+    }
+
+    Sequence sequence = CompressedMidiFileReader.readSequence(listFiles(directory).get(0));
+    assertEquals(events.size() + 1, sequence.getTracks()[0].size());
+  }
+
+  @Test
+  public void testDecompress_invalidLength() throws Exception {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    byte[] midiFile = new byte[100];
+    try (CompressedSequenceWriter writer = new CompressedSequenceWriter("")) {
+      writer.compress(midiFile, midiFile.length, compressed);
+    }
+    byte[] corrupt = compressed.toByteArray();
+    ByteBuffer.wrap(corrupt).putInt(4, Integer.MAX_VALUE);
+
+    try {
+      CompressedMidiFileReader.decompress(corrupt);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Invalid length"));
+    }
+  }
+
+  private static List<File> listFiles(final File directory) throws Exception {
+    try (Stream<Path> paths = Files.walk(directory.toPath())) {
+      return paths.filter(Files::isRegularFile).map(Path::toFile)
+          .collect(Collectors.toList());
+    }
+  }
+}
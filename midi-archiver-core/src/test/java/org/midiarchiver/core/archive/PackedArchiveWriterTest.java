@@ -0,0 +1,126 @@
+package org.midiarchiver.core.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+
+/**
+ * Unit test for {@link PackedArchiveWriter} and {@link PackedArchiveReader}.
+ */
+public class PackedArchiveWriterTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private MidiEventBuffer events;
+
+  @Before
+  public void setUp() {
+    directory = temporaryFolder.getRoot();
+    events = new MidiEventBuffer();
+  }
+
+  @Test
+  public void testWrite_sessionsCanBeReadIndividually() throws Exception {
+    try (PackedArchiveWriter writer = new PackedArchiveWriter(directory.getPath())) {
+      for (int session = 0; session < 3; session++) {
+        writeSession(writer, session, 10 + session);
+      }
+    }
+
+    assertArrayEquals(new int[] {1}, PackedArchive.listSegments(directory));
+    try (PackedArchiveReader reader = new PackedArchiveReader(directory, 1)) {
+      assertEquals(3, reader.getSessionCount());
+      for (int session = 0; session < 3; session++) {
+        assertEquals(START_TIME_MILLIS + session * 60000L, reader.getStartTimeMillis(session));
+        Track track = reader.readSequence(session).getTracks()[0];
+        // The notes and the end of track event.
+        assertEquals(10 + session + 1, track.size());
+      }
+
+      fillSession(1, 11);
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      MidiFileEncoder.write(events, expected);
+      assertArrayEquals(expected.toByteArray(), reader.readSession(1));
+      ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+      reader.transferSession(1, Channels.newChannel(transferred));
+      assertArrayEquals(expected.toByteArray(), transferred.toByteArray());
+    }
+  }
+
+  @Test
+  public void testWrite_rollsOverToNewSegment() throws Exception {
+    fillSession(0, 100);
+    int sessionLength = MidiFileEncoder.getFileLength(events);
+    try (PackedArchiveWriter writer =
+             new PackedArchiveWriter(directory.getPath(), sessionLength * 2 + 8)) {
+      for (int session = 0; session < 5; session++) {
+        writeSession(writer, session, 100);
+      }
+    }
+
+    assertArrayEquals(new int[] {1, 2, 3}, PackedArchive.listSegments(directory));
+    int sessionCount = 0;
+    for (int segment = 1; segment <= 3; segment++) {
+      try (PackedArchiveReader reader = new PackedArchiveReader(directory, segment)) {
+        sessionCount += reader.getSessionCount();
+      }
+    }
+    assertEquals(5, sessionCount);
+  }
+
+  @Test
+  public void testWrite_continuesLastSegmentAndDiscardsIncompleteSession() throws Exception {
+    try (PackedArchiveWriter writer = new PackedArchiveWriter(directory.getPath())) {
+      writeSession(writer, 0, 10);
+    }
+    // Simulate a session whose data and part of its index entry were written before a crash.
+    try (RandomAccessFile data = new RandomAccessFile(PackedArchive.getDataFile(directory, 1), "rw");
+         RandomAccessFile index =
+             new RandomAccessFile(PackedArchive.getIndexFile(directory, 1), "rw")) {
+      data.seek(data.length());
+      data.write(new byte[100]);
+      index.seek(index.length());
+      index.write(new byte[10]);
+    }
+
+    try (PackedArchiveWriter writer = new PackedArchiveWriter(directory.getPath())) {
+      writeSession(writer, 1, 20);
+    }
+
+    assertArrayEquals(new int[] {1}, PackedArchive.listSegments(directory));
+    try (PackedArchiveReader reader = new PackedArchiveReader(directory, 1)) {
+      assertEquals(2, reader.getSessionCount());
+      assertEquals(21, reader.readSequence(1).getTracks()[0].size());
+    }
+  }
+
+  private void writeSession(PackedArchiveWriter writer, int session, int noteCount)
+      throws Exception {
+    fillSession(session, noteCount);
+    writer.write(events);
+  }
+
+  private void fillSession(int session, int noteCount) {
+    events.clear();
+    events.setStartTimeMillis(START_TIME_MILLIS + session * 60000L);
+    for (int i = 0; i < noteCount; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60 + session, 100, 3, i * 10000L);
+    }
+  }
+}
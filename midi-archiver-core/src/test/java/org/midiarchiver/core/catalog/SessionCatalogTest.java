@@ -0,0 +1,166 @@
+package org.midiarchiver.core.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.sound.midi.ShortMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SessionSummary;
+
+/**
+ * Unit test for {@link SessionCatalog}.
+ */
+public class SessionCatalogTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File catalogFile;
+
+  @Before
+  public void setUp() {
+    catalogFile = new File(temporaryFolder.getRoot(), "sessions.catalog");
+  }
+
+  @Test
+  public void testAdd_storesSessionStatistics() throws Exception {
+    MidiEventBuffer events = new MidiEventBuffer();
+    events.setStartTimeMillis(START_TIME_MILLIS);
+    events.appendShortMessage(ShortMessage.NOTE_ON | 2, 64, 100, 3, 0);
+    events.appendShortMessage(ShortMessage.NOTE_ON | 2, 48, 100, 3, 1000000);
+    events.appendShortMessage(ShortMessage.NOTE_ON | 2, 48, 0, 3, 2000000);
+    events.appendShortMessage(ShortMessage.CONTROL_CHANGE | 9, 64, 127, 3, 3000000);
+    SessionSummary summary = new SessionSummary();
+    summary.set(events);
+
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      catalog.newListener("device").sessionWritten(summary, new File("session.mid"), 0, 100);
+      CatalogEntry entry = catalog.getEntry(0);
+      assertEquals("device", entry.getDeviceId());
+      assertEquals(START_TIME_MILLIS, entry.getStartTimeMillis());
+      assertEquals(3000, entry.getDurationMillis());
+      assertEquals(2, entry.getNoteCount());
+      assertEquals(1 << 2 | 1 << 9, entry.getChannelMask());
+      assertEquals(48, entry.getLowestNote());
+      assertEquals(64, entry.getHighestNote());
+      assertEquals("session.mid", entry.getLocation());
+      assertEquals(100, entry.getLength());
+      assertNull(catalog.getEntry(1));
+    }
+  }
+
+  @Test
+  public void testFind_filtersByTimeRangeAndDevice() throws Exception {
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      // A long session on device b that overlaps all of the sessions on device a.
+      addSession(catalog, "b", 0, 100000);
+      for (int i = 0; i < 10; i++) {
+        addSession(catalog, "a", i * 10000, 5000);
+      }
+
+      assertEquals(Arrays.asList(3, 4, 5), getStartOffsets(
+          catalog.find("a", START_TIME_MILLIS + 30000, START_TIME_MILLIS + 60000, 0, 100)));
+      // A session that ends inside the range is included.
+      assertEquals(Arrays.asList(2, 3), getStartOffsets(
+          catalog.find("a", START_TIME_MILLIS + 24000, START_TIME_MILLIS + 40000, 0, 100)));
+      assertEquals(4, catalog.count(null, START_TIME_MILLIS + 30000, START_TIME_MILLIS + 60000));
+      assertEquals(Arrays.asList(0, 3), getStartOffsets(
+          catalog.find(null, START_TIME_MILLIS + 30000, START_TIME_MILLIS + 60000, 0, 2)));
+      assertEquals(Arrays.asList(5), getStartOffsets(
+          catalog.find(null, START_TIME_MILLIS + 30000, START_TIME_MILLIS + 60000, 3, 2)));
+      assertEquals(Arrays.asList("b", "a"), catalog.getDeviceIds());
+    }
+  }
+
+  @Test
+  public void testFind_sessionsAddedOutOfOrder() throws Exception {
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      addSession(catalog, "a", 20000, 1000);
+      addSession(catalog, "a", 0, 1000);
+      addSession(catalog, "a", 10000, 1000);
+
+      assertEquals(Arrays.asList(0, 1, 2),
+          getStartOffsets(catalog.find("a", Long.MIN_VALUE, Long.MAX_VALUE, 0, 100)));
+      assertEquals(1, catalog.find("a", Long.MIN_VALUE, Long.MAX_VALUE, 0, 100).get(0).getId());
+    }
+  }
+
+  @Test
+  public void testOpen_loadsEntriesAndDiscardsIncompleteEntry() throws Exception {
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      addSession(catalog, "a", 0, 1000);
+      addSession(catalog, "b", 10000, 1000);
+    }
+    try (RandomAccessFile file = new RandomAccessFile(catalogFile, "rw")) {
+      file.seek(file.length());
+      file.writeInt(50);
+      file.write(new byte[10]);
+    }
+
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      assertEquals(2, catalog.size());
+      addSession(catalog, "a", 20000, 1000);
+    }
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      assertEquals(Arrays.asList(0, 2),
+          getStartOffsets(catalog.find("a", Long.MIN_VALUE, Long.MAX_VALUE, 0, 100)));
+      assertEquals("b", catalog.getEntry(1).getDeviceId());
+    }
+  }
+
+  @Test
+  public void testRelocateAndRemove_persistAcrossReopen() throws Exception {
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      for (int i = 0; i < 3; i++) {
+        addSession(catalog, "a", i * 10000, 1000);
+      }
+      assertEquals("a.midz", catalog.relocate(0, "a.midz", 0, 50).getLocation());
+      assertTrue(catalog.remove(1));
+      assertFalse(catalog.remove(1));
+      assertNull(catalog.relocate(1, "a.midz", 0, 50));
+    }
+
+    try (SessionCatalog catalog = new SessionCatalog(catalogFile)) {
+      assertEquals(2, catalog.size());
+      assertNull(catalog.getEntry(1));
+      List<CatalogEntry> entries = catalog.find("a", Long.MIN_VALUE, Long.MAX_VALUE, 0, 100);
+      assertEquals(Arrays.asList(0, 2), getStartOffsets(entries));
+      assertEquals("a.midz", entries.get(0).getLocation());
+      assertEquals(50, entries.get(0).getLength());
+      addSession(catalog, "a", 30000, 1000);
+      assertEquals(3, catalog.find("a", Long.MIN_VALUE, Long.MAX_VALUE, 0, 100).get(2).getId());
+    }
+  }
+
+  private static void addSession(SessionCatalog catalog, String deviceId, long startOffsetMillis,
+                                 long durationMillis) throws Exception {
+    SessionSummary summary = new SessionSummary();
+    summary.reset(START_TIME_MILLIS + startOffsetMillis, 0);
+    MidiEventBuffer events = new MidiEventBuffer();
+    events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, durationMillis * 1000);
+    summary.add(events, 0);
+    catalog.add(deviceId, summary, deviceId + ".mid", 0, 100);
+  }
+
+  /**
+   * Returns the start times of the entries in tens of seconds after the start time of the test.
+   */
+  private static List<Integer> getStartOffsets(List<CatalogEntry> entries) {
+    return entries.stream()
+        .map(entry -> (int) ((entry.getStartTimeMillis() - START_TIME_MILLIS) / 10000))
+        .collect(Collectors.toList());
+  }
+}
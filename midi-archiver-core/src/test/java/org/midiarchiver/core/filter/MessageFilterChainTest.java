@@ -0,0 +1,112 @@
+package org.midiarchiver.core.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link MessageFilterChain} and the filters it runs.
+ */
+public class MessageFilterChainTest {
+
+  private MessageFilterChain messageFilterChain;
+
+  @Before
+  public void setUp() {
+    messageFilterChain = new MessageFilterChain(Arrays.asList(new RealTimeMessageFilter(),
+        new ThinningFilter(10000), new ControllerCoalescingFilter()));
+  }
+
+  @Test
+  public void testAccept_dropsRealTimeMessages() throws InvalidMidiDataException {
+    assertFalse(messageFilterChain.accept(new ShortMessage(ShortMessage.TIMING_CLOCK), 0));
+    assertFalse(messageFilterChain.accept(new ShortMessage(ShortMessage.ACTIVE_SENSING), 0));
+    assertTrue(messageFilterChain.accept(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0));
+  }
+
+  @Test
+  public void testAccept_thinsAftertouchAndPitchBend() throws InvalidMidiDataException {
+    assertTrue(messageFilterChain.accept(channelPressure(0, 10), 0));
+    assertFalse(messageFilterChain.accept(channelPressure(0, 20), 5000));
+    // Other channels and keys are separate streams.
+    assertTrue(messageFilterChain.accept(channelPressure(1, 20), 5000));
+    assertTrue(messageFilterChain.accept(
+        new ShortMessage(ShortMessage.POLY_PRESSURE, 0, 60, 10), 5000));
+    assertTrue(messageFilterChain.accept(
+        new ShortMessage(ShortMessage.POLY_PRESSURE, 0, 61, 10), 5000));
+    assertTrue(messageFilterChain.accept(channelPressure(0, 30), 10000));
+    // The rest value is always kept.
+    assertTrue(messageFilterChain.accept(channelPressure(0, 0), 11000));
+
+    assertTrue(messageFilterChain.accept(pitchBend(0, 0x2100), 0));
+    assertFalse(messageFilterChain.accept(pitchBend(0, 0x2200), 1000));
+    assertTrue(messageFilterChain.accept(pitchBend(0, 0x2000), 2000));
+  }
+
+  @Test
+  public void testAccept_coalescesControllerValues() throws InvalidMidiDataException {
+    assertTrue(messageFilterChain.accept(controlChange(64, 127), 0));
+    assertFalse(messageFilterChain.accept(controlChange(64, 127), 1000));
+    assertTrue(messageFilterChain.accept(controlChange(64, 0), 2000));
+    assertTrue(messageFilterChain.accept(controlChange(1, 0), 2000));
+    // Channel mode messages are commands.
+    assertTrue(messageFilterChain.accept(controlChange(123, 0), 3000));
+    assertTrue(messageFilterChain.accept(controlChange(123, 0), 4000));
+
+    messageFilterChain.reset();
+    assertTrue(messageFilterChain.accept(controlChange(64, 0), 5000));
+  }
+
+  @Test
+  public void testAccept_keepsParameterNumberSequences() throws InvalidMidiDataException {
+    // The filters that are enabled by default.
+    messageFilterChain = new MessageFilterChain(
+        Arrays.asList(new RealTimeMessageFilter(), new ControllerCoalescingFilter()));
+    ShortMessage[] nrpnSequence = {
+        controlChange(99, 1), controlChange(98, 8), controlChange(6, 64), controlChange(38, 0),
+        // The same value for the next parameter.
+        controlChange(99, 1), controlChange(98, 9), controlChange(6, 64), controlChange(38, 0),
+        // Stepping the parameter twice.
+        controlChange(96, 0), controlChange(96, 0),
+        // Deselecting the parameter with the null RPN.
+        controlChange(101, 127), controlChange(100, 127),
+        controlChange(101, 127), controlChange(100, 127)};
+    for (ShortMessage message : nrpnSequence) {
+      assertTrue(messageFilterChain.accept(message, 0));
+    }
+    assertEquals(0L, (long) messageFilterChain.getDropCounts().get("ControllerCoalescingFilter"));
+  }
+
+  @Test
+  public void testGetDropCounts() throws InvalidMidiDataException {
+    messageFilterChain.accept(new ShortMessage(ShortMessage.TIMING_CLOCK), 0);
+    messageFilterChain.accept(new ShortMessage(ShortMessage.TIMING_CLOCK), 0);
+    messageFilterChain.accept(controlChange(7, 100), 0);
+    messageFilterChain.accept(controlChange(7, 100), 0);
+
+    assertEquals(ImmutableMap.of("RealTimeMessageFilter", 2L, "ThinningFilter", 0L,
+        "ControllerCoalescingFilter", 1L), messageFilterChain.getDropCounts());
+  }
+
+  private static ShortMessage channelPressure(final int channel, final int pressure)
+      throws InvalidMidiDataException {
+    return new ShortMessage(ShortMessage.CHANNEL_PRESSURE, channel, pressure, 0);
+  }
+
+  private static ShortMessage pitchBend(final int channel, final int value)
+      throws InvalidMidiDataException {
+    return new ShortMessage(ShortMessage.PITCH_BEND, channel, value & 0x7f, value >> 7);
+  }
+
+  private static ShortMessage controlChange(final int controller, final int value)
+      throws InvalidMidiDataException {
+    return new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, controller, value);
+  }
+}
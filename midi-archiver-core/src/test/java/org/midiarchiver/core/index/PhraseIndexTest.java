@@ -0,0 +1,211 @@
+package org.midiarchiver.core.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+import org.midiarchiver.core.catalog.CatalogListener;
+import org.midiarchiver.core.catalog.SessionCatalog;
+
+/**
+ * Unit test for {@link PhraseIndex}.
+ */
+public class PhraseIndexTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+  private static final int[] PHRASE = {60, 62, 64, 65, 67, 65};
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final MidiEventBuffer events = new MidiEventBuffer();
+  private final CatalogListener indexListener =
+      (entry, summary) -> this.phraseIndex.add(entry, summary);
+  private SessionCatalog catalog;
+  private File indexFile;
+  private PhraseIndex phraseIndex;
+  private int sessionCount;
+
+  @Before
+  public void setUp() throws Exception {
+    catalog = new SessionCatalog(temporaryFolder.newFile("sessions.catalog"));
+    indexFile = new File(temporaryFolder.getRoot(), "sessions.index");
+    phraseIndex = new PhraseIndex(indexFile, catalog);
+    catalog.addListener(indexListener);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    phraseIndex.close();
+    catalog.close();
+  }
+
+  @Test
+  public void testFind_transposedPhrase() throws Exception {
+    SequenceWriter writer = newWriter("a", true);
+    // The phrase after two other notes, a fifth higher, and with a chord on its third note.
+    startSession();
+    appendNotes(0, 48, 50);
+    appendNotes(500000, 67, 69);
+    appendNote(1000000, 64);
+    appendNote(1010000, 71);
+    appendNotes(1250000, 72, 74, 72);
+    writer.write(events);
+    // Not the phrase: the last interval differs.
+    startSession();
+    appendNotes(0, 60, 62, 64, 65, 67, 64);
+    writer.write(events);
+    // The phrase twice, with drums in between.
+    startSession();
+    appendNotes(0, PHRASE);
+    events.appendShortMessage(ShortMessage.NOTE_ON | 9, 36, 100, 3, 2950000);
+    appendNotes(5000000, PHRASE);
+    writer.write(events);
+
+    List<PhraseMatch> matches = phraseIndex.find(null, new int[] {50, 52, 54, 55, 57, 55}, 10);
+    assertEquals(3, matches.size());
+    assertEquals(0, matches.get(0).getSession().getId());
+    assertEquals(500, matches.get(0).getOffsetMillis());
+    assertEquals(2, matches.get(1).getSession().getId());
+    assertEquals(0, matches.get(1).getOffsetMillis());
+    assertEquals(5000, matches.get(2).getOffsetMillis());
+
+    assertEquals(1, phraseIndex.find(null, PHRASE, 1).size());
+    assertEquals(0, phraseIndex.find("b", PHRASE, 10).size());
+    assertEquals(0, phraseIndex.find(null, new int[] {60, 61, 62, 63, 64}, 10).size());
+    assertEquals(3, phraseIndex.getNextSessionId());
+  }
+
+  @Test
+  public void testBackfill_indexesArchivedSessions() throws Exception {
+    // Sessions written before the index existed, plain and compressed.
+    writeUnindexedSessions(newWriter("a", false));
+    writeUnindexedSessions(newWriter("b", true));
+    assertEquals(0, phraseIndex.find(null, PHRASE, 10).size());
+
+    assertEquals(4, phraseIndex.backfill());
+    assertEquals(0, phraseIndex.backfill());
+    List<PhraseMatch> matches = phraseIndex.find(null, PHRASE, 10);
+    assertEquals(2, matches.size());
+    assertEquals("a", matches.get(0).getSession().getDeviceId());
+    assertEquals(1000, matches.get(0).getOffsetMillis());
+    assertEquals("b", matches.get(1).getSession().getDeviceId());
+
+    // A session indexed as it is added after a gap is left to the backfill, with the sessions
+    // before it.
+    writeUnindexedSessions(newWriter("a", false));
+    writeSessions(newWriter("b", false));
+    assertEquals(2, phraseIndex.find(null, PHRASE, 10).size());
+    assertEquals(4, phraseIndex.backfill());
+    assertEquals(4, phraseIndex.find(null, PHRASE, 10).size());
+
+    // Removed sessions are not found.
+    catalog.remove(matches.get(0).getSession().getId());
+    assertEquals(3, phraseIndex.find(null, PHRASE, 10).size());
+  }
+
+  @Test
+  public void testStartBackfill_fillsGaps() throws Exception {
+    writeUnindexedSessions(newWriter("a", false));
+    phraseIndex.startBackfill();
+    awaitIndexed();
+    assertEquals(1, phraseIndex.find(null, PHRASE, 10).size());
+
+    writeUnindexedSessions(newWriter("a", false));
+    writeSessions(newWriter("b", false));
+    awaitIndexed();
+    assertEquals(3, phraseIndex.find(null, PHRASE, 10).size());
+
+    phraseIndex.close();
+    phraseIndex = new PhraseIndex(indexFile, catalog);
+    assertEquals(6, phraseIndex.getNextSessionId());
+  }
+
+  @Test
+  public void testClose_savesIndex() throws Exception {
+    writeSessions(newWriter("a", false));
+    phraseIndex.close();
+    long byteCount = phraseIndex.getByteCount();
+    assertTrue(byteCount > 0);
+
+    phraseIndex = new PhraseIndex(indexFile, catalog);
+    assertEquals(2, phraseIndex.getNextSessionId());
+    assertEquals(byteCount, phraseIndex.getByteCount());
+    assertEquals(1, phraseIndex.find(null, PHRASE, 10).size());
+    assertEquals(0, phraseIndex.backfill());
+  }
+
+  private void awaitIndexed() throws InterruptedException {
+    long deadlineMillis = System.currentTimeMillis() + 5000;
+    while (phraseIndex.getNextSessionId() < catalog.getNextId()) {
+      assertTrue(System.currentTimeMillis() < deadlineMillis);
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Writes a session without the phrase and a session with the phrase one second from its start.
+   */
+  private void writeSessions(final SequenceWriter writer) throws Exception {
+    startSession();
+    appendNotes(0, 60, 60, 60, 60, 60, 60);
+    writer.write(events);
+    startSession();
+    appendNotes(1000000, PHRASE);
+    writer.write(events);
+  }
+
+  /**
+   * Writes the sessions of {@link #writeSessions} without the index listening to the catalog.
+   */
+  private void writeUnindexedSessions(final SequenceWriter writer) throws Exception {
+    catalog.removeListener(indexListener);
+    try {
+      writeSessions(writer);
+    } finally {
+      catalog.addListener(indexListener);
+    }
+  }
+
+  private SequenceWriter newWriter(final String deviceId, final boolean compressed) {
+    return compressed
+        ? new CompressedSequenceWriter(getDirectoryPath(deviceId), catalog.newListener(deviceId))
+        : new FileSequenceWriter(getDirectoryPath(deviceId), catalog.newListener(deviceId));
+  }
+
+  private String getDirectoryPath(final String deviceId) {
+    return temporaryFolder.getRoot().getPath() + File.separator + deviceId;
+  }
+
+  /**
+   * Starts a session a minute after the previous one, so that every session has its own file.
+   */
+  private void startSession() {
+    events.clear();
+    events.setStartTimeMillis(START_TIME_MILLIS + sessionCount++ * 60000L);
+  }
+
+  /**
+   * Appends notes a quarter of a second apart.
+   */
+  private void appendNotes(final long startMicros, final int... keys) {
+    for (int i = 0; i < keys.length; i++) {
+      appendNote(startMicros + i * 250000L, keys[i]);
+    }
+  }
+
+  private void appendNote(final long micros, final int key) {
+    events.appendShortMessage(ShortMessage.NOTE_ON, key, 100, 3, micros);
+  }
+}
@@ -0,0 +1,60 @@
+package org.midiarchiver.core.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testGetValueAtPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 100000; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(100000, histogram.getCount());
+    assertEquals(100000, histogram.getMax());
+    assertEquals(50000.5, histogram.getMean(), 0.001);
+    assertWithinError(50000, histogram.getValueAtPercentile(50));
+    assertWithinError(99000, histogram.getValueAtPercentile(99));
+    assertWithinError(99900, histogram.getValueAtPercentile(99.9));
+    assertEquals(100000, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void testGetValueAtPercentile_empty() {
+    assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+  }
+
+  @Test
+  public void testRecord_negativeValueIsRecordedAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testBuckets() {
+    // Every value is counted in a bucket whose range contains it, and buckets are contiguous.
+    long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      int index = LatencyHistogram.getIndex(value);
+      assertTrue(value <= LatencyHistogram.getHighestValue(index));
+      assertTrue(index == 0 || value > LatencyHistogram.getHighestValue(index - 1));
+    }
+    assertEquals(Long.MAX_VALUE,
+        LatencyHistogram.getHighestValue(LatencyHistogram.getIndex(Long.MAX_VALUE)));
+  }
+
+  private static void assertWithinError(long expected, long actual) {
+    assertTrue("Expected " + expected + " but was " + actual,
+        Math.abs(actual - expected) <= expected / 16);
+  }
+}
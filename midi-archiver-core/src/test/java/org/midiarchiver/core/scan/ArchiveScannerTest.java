@@ -0,0 +1,98 @@
+package org.midiarchiver.core.scan;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+
+/**
+ * Unit test for {@link ArchiveScanner}.
+ */
+public class ArchiveScannerTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ForkJoinPool pool;
+  private String dataDirectoryPath;
+
+  @Before
+  public void setUp() throws Exception {
+    pool = new ForkJoinPool(4);
+    dataDirectoryPath = temporaryFolder.getRoot().getPath();
+    MidiEventBuffer events = new MidiEventBuffer();
+    // 40 sessions of 10 notes on each of 3 days, so that the files of a day are split.
+    FileSequenceWriter writer = new FileSequenceWriter(dataDirectoryPath + File.separator + "a");
+    for (int day = 0; day < 3; day++) {
+      for (int session = 0; session < 40; session++) {
+        writeSession(writer, events, START_TIME_MILLIS + day * DAY_MILLIS + session * 1000L, 10);
+      }
+    }
+    // A compressed session and a session long enough to be mapped.
+    writeSession(new CompressedSequenceWriter(dataDirectoryPath + File.separator + "b"), events,
+        START_TIME_MILLIS, 10);
+    writeSession(new FileSequenceWriter(dataDirectoryPath + File.separator + "b"), events,
+        START_TIME_MILLIS + DAY_MILLIS, 20000);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void testScan_allDevices() throws Exception {
+    ArchiveStatistics statistics =
+        new ArchiveScanner(dataDirectoryPath, pool).scan(ArchiveStatistics::new);
+
+    assertEquals(122, statistics.getFileCount());
+    assertEquals(120 * 10 + 10 + 20000, statistics.getNoteCount());
+    assertEquals(statistics.getNoteCount(), statistics.getEventCount());
+    assertEquals(statistics.getNoteCount(), statistics.getNoteCount(60));
+    assertEquals(Collections.emptyList(), statistics.getFailedFiles());
+  }
+
+  @Test
+  public void testScan_deviceWithInvalidFile() throws Exception {
+    File invalidFile = new File(dataDirectoryPath, "b/invalid.mid");
+    Files.write(invalidFile.toPath(), new byte[] {'M', 'T', 'h', 'd', 0, 0});
+
+    ArchiveStatistics statistics =
+        new ArchiveScanner(dataDirectoryPath, pool).scan("b", ArchiveStatistics::new);
+
+    assertEquals(3, statistics.getFileCount());
+    assertEquals(10 + 20000, statistics.getNoteCount());
+    assertEquals(Collections.singletonList(invalidFile.toPath()), statistics.getFailedFiles());
+  }
+
+  @Test
+  public void testScan_missingDevice() throws Exception {
+    assertEquals(0, new ArchiveScanner(dataDirectoryPath, pool)
+        .scan("c", ArchiveStatistics::new).getFileCount());
+  }
+
+  private static void writeSession(final FileSequenceWriter writer, final MidiEventBuffer events,
+                                   final long startTimeMillis, final int noteCount)
+      throws Exception {
+    events.clear();
+    events.setStartTimeMillis(startTimeMillis);
+    for (int i = 0; i < noteCount; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 1000L);
+    }
+    writer.write(events);
+  }
+}
@@ -0,0 +1,93 @@
+package org.midiarchiver.core.scan;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+import org.junit.Test;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+
+/**
+ * Unit test for {@link MidiFileDecoder}.
+ */
+public class MidiFileDecoderTest {
+
+  private final List<String> events = new ArrayList<>();
+  private final MidiEventHandler handler = new MidiEventHandler() {
+    @Override
+    public void channelMessage(int track, long tick, int status, int data1, int data2) {
+      events.add(track + ":" + tick + ":" + status + ":" + data1 + ":" + data2);
+    }
+
+    @Override
+    public void sysexMessage(int track, long tick, int status, ByteBuffer file, int offset,
+                             int length) {
+      events.add(track + ":" + tick + ":" + status + ":" + length + ":" + file.get(offset));
+    }
+  };
+
+  @Test
+  public void testDecode_encodedFile() throws Exception {
+    MidiEventBuffer buffer = new MidiEventBuffer();
+    buffer.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, 0);
+    buffer.appendShortMessage(ShortMessage.PROGRAM_CHANGE, 5, 0, 2, 500000);
+    buffer.appendLongMessage(new byte[] {(byte) 0xF0, 0x7D, 0x01, (byte) 0xF7}, 0, 4, 1000000);
+    buffer.appendShortMessage(ShortMessage.NOTE_OFF, 60, 0, 3, 1000000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MidiFileEncoder.write(buffer, out);
+
+    assertEquals(4, MidiFileDecoder.decode(ByteBuffer.wrap(out.toByteArray()), handler));
+    assertEquals(Arrays.asList("0:0:144:60:100", "0:480:192:5:0", "0:960:240:3:125",
+        "0:960:128:60:0"), events);
+  }
+
+  @Test
+  public void testDecode_runningStatusAndTracks() throws Exception {
+    Sequence sequence = new Sequence(Sequence.PPQ, 480);
+    for (int trackNumber = 0; trackNumber < 2; trackNumber++) {
+      Track track = sequence.createTrack();
+      for (int note = 0; note < 3; note++) {
+        track.add(new MidiEvent(
+            new ShortMessage(ShortMessage.NOTE_ON, trackNumber, 60 + note, 100), note * 10));
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MidiSystem.write(sequence, 1, out);
+
+    assertEquals(6, MidiFileDecoder.decode(ByteBuffer.wrap(out.toByteArray()), handler));
+    assertEquals("1:20:145:62:100", events.get(5));
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecode_unfinishedTrack() throws Exception {
+    MidiEventBuffer buffer = new MidiEventBuffer();
+    buffer.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MidiFileEncoder.write(buffer, out);
+    // The placeholder length of a segment that was never finished.
+    ByteBuffer file = ByteBuffer.wrap(out.toByteArray());
+    file.putInt(MidiFileEncoder.HEADER_CHUNK_LENGTH + 4, 0);
+    MidiFileDecoder.decode(file, handler);
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecode_truncated() throws Exception {
+    MidiEventBuffer buffer = new MidiEventBuffer();
+    buffer.appendLongMessage(new SysexMessage(new byte[] {(byte) 0xF0, 0x7D, 0x01, (byte) 0xF7},
+        4).getMessage(), 0, 4, 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MidiFileEncoder.write(buffer, out);
+    MidiFileDecoder.decode(ByteBuffer.wrap(out.toByteArray(), 0, out.size() - 6), handler);
+  }
+}
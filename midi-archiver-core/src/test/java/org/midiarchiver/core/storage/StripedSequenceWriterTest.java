@@ -0,0 +1,113 @@
+package org.midiarchiver.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import javax.sound.midi.ShortMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.scan.ArchiveScanner;
+import org.midiarchiver.core.scan.ArchiveStatistics;
+
+/**
+ * Unit test for {@link StripedSequenceWriter} and {@link StoragePool}.
+ */
+public class StripedSequenceWriterTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+  private static final String DEVICE_ID = "device";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private List<String> rootPaths;
+  private StoragePool storagePool;
+  private final List<File> writtenFiles = new ArrayList<>();
+  private StripedSequenceWriter writer;
+  private final MidiEventBuffer events = new MidiEventBuffer();
+
+  @Before
+  public void setUp() throws Exception {
+    rootPaths = Arrays.asList(temporaryFolder.newFolder().getPath(),
+        temporaryFolder.newFolder().getPath());
+    storagePool = new StoragePool(rootPaths, StoragePool.PlacementPolicy.LEAST_LOADED, 0,
+        StoragePool.DEFAULT_CHECK_INTERVAL_MILLIS, 60000, 60000);
+    writer = new StripedSequenceWriter(storagePool, DEVICE_ID,
+        (summary, file, offset, length) -> writtenFiles.add(file));
+  }
+
+  @Test
+  public void testWrite_stripesSessionsAcrossRoots() throws Exception {
+    for (int session = 0; session < 4; session++) {
+      writeSession(session);
+    }
+
+    assertEquals(4, writtenFiles.size());
+    assertEquals(2, countFiles(rootPaths.get(0)));
+    assertEquals(2, countFiles(rootPaths.get(1)));
+    for (StorageRoot root : storagePool.getRoots()) {
+      assertEquals(2 * writtenFiles.get(0).length(), root.getBytesWritten());
+    }
+    ArchiveStatistics statistics = new ArchiveScanner(storagePool.getRootPaths(),
+        ForkJoinPool.commonPool()).scan(DEVICE_ID, ArchiveStatistics::new);
+    assertEquals(4, statistics.getFileCount());
+  }
+
+  @Test
+  public void testWrite_failsOverToHealthyRoot() throws Exception {
+    // The directory of the device on the first root cannot be created.
+    Files.write(new File(rootPaths.get(0), DEVICE_ID).toPath(), new byte[0]);
+    for (int session = 0; session < 3; session++) {
+      writeSession(session);
+    }
+
+    assertEquals(3, writtenFiles.size());
+    assertEquals(3, countFiles(rootPaths.get(1)));
+    assertFalse(storagePool.getRoots().get(0).isHealthy());
+    assertTrue(storagePool.getRoots().get(1).isHealthy());
+  }
+
+  @Test
+  public void testWrite_allRootsFail() throws Exception {
+    for (String rootPath : rootPaths) {
+      Files.write(new File(rootPath, DEVICE_ID).toPath(), new byte[0]);
+    }
+    try {
+      writeSession(0);
+      fail();
+    } catch (IOException e) {
+      assertEquals(1, e.getSuppressed().length);
+    }
+    // The root whose quarantine ends first is still tried.
+    assertEquals(storagePool.getRoots().get(0), storagePool.selectRoot());
+  }
+
+  private void writeSession(final int session) throws IOException {
+    events.clear();
+    events.setStartTimeMillis(START_TIME_MILLIS + session * 1000L);
+    for (int i = 0; i < 10; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 1000L);
+    }
+    writer.write(events);
+  }
+
+  private static long countFiles(final String rootPath) throws IOException {
+    try (Stream<Path> paths = Files.walk(new File(rootPath).toPath())) {
+      return paths.filter(Files::isRegularFile).count();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package org.midiarchiver.core.test.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Reads the messages of a capture file written by {@link CaptureWriter}, one record at a time.
+ *
+ * <p>The file is memory mapped in windows that are moved forward as it is read, so captures of
+ * any length can be replayed without reading them into the heap. A partial record at the end of
+ * the file, left by a capture that was not closed, is ignored.
+ */
+public class CaptureReader implements Closeable {
+
+  private static final long DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final long size;
+  private final long windowSize;
+  private MappedByteBuffer window;
+  private long windowPosition;
+  private long position = CaptureWriter.FILE_HEADER_LENGTH;
+  private long timestamp;
+  private int length;
+  private byte[] messageBytes = new byte[256];
+
+  public CaptureReader(final Path path) throws IOException {
+    this(path, DEFAULT_WINDOW_SIZE);
+  }
+
+  CaptureReader(final Path path, final long windowSize) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.windowSize = windowSize;
+    try {
+      this.size = channel.size();
+      if (!map(0, CaptureWriter.FILE_HEADER_LENGTH) || window.getInt(0) != CaptureWriter.MAGIC) {
+        throw new IOException(path + " is not a capture file");
+      }
+      int version = window.getInt(4);
+      if (version != CaptureWriter.VERSION) {
+        throw new IOException("Unsupported capture version " + version + " in " + path);
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Moves to the next message.
+   *
+   * @return false if there are no more complete messages
+   */
+  public boolean next() throws IOException {
+    if (!map(position, CaptureWriter.RECORD_HEADER_LENGTH)) {
+      return false;
+    }
+    int offset = (int) (position - windowPosition);
+    int recordLength = window.getInt(offset);
+    if (recordLength <= 0
+        || recordLength > Integer.MAX_VALUE - CaptureWriter.RECORD_HEADER_LENGTH) {
+      throw new IOException("Invalid message length " + recordLength + " at " + position);
+    }
+    if (!map(position, CaptureWriter.RECORD_HEADER_LENGTH + (long) recordLength)) {
+      return false;
+    }
+    offset = (int) (position - windowPosition);
+    timestamp = window.getLong(offset + 4);
+    length = recordLength;
+    if (messageBytes.length < length) {
+      messageBytes = new byte[Math.max(length, messageBytes.length * 2)];
+    }
+    window.position(offset + CaptureWriter.RECORD_HEADER_LENGTH);
+    window.get(messageBytes, 0, length);
+    position += CaptureWriter.RECORD_HEADER_LENGTH + length;
+    return true;
+  }
+
+  /** Returns the timestamp of the current message in microseconds. */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** Returns the length of the current message in bytes. */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the bytes of the current message, which are overwritten when the reader moves to the
+   * next message. Only the first {@link #getLength()} bytes belong to the message.
+   */
+  public byte[] getMessageBytes() {
+    return messageBytes;
+  }
+
+  /**
+   * Creates a copy of the current message.
+   */
+  public MidiMessage getMessage() throws InvalidMidiDataException {
+    int status = messageBytes[0] & 0xFF;
+    if (status == SysexMessage.SYSTEM_EXCLUSIVE
+        || status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+      return new SysexMessage(Arrays.copyOf(messageBytes, length), length);
+    }
+    ShortMessage message = new ShortMessage();
+    message.setMessage(status, length > 1 ? messageBytes[1] & 0xFF : 0,
+        length > 2 ? messageBytes[2] & 0xFF : 0);
+    return message;
+  }
+
+  /**
+   * Sends the remaining messages to the receiver.
+   *
+   * @return the number of messages sent
+   */
+  public long replay(final Receiver receiver) throws IOException {
+    long count = 0;
+    try {
+      while (next()) {
+        receiver.send(getMessage(), timestamp);
+        count++;
+      }
+    } catch (InvalidMidiDataException e) {
+      throw new IOException("Invalid message at " + position, e);
+    }
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+
+  /**
+   * Maps a window of the file that contains the given range, unless the current window does.
+   *
+   * @return false if the range extends beyond the end of the file
+   */
+  private boolean map(final long offset, final long rangeLength) throws IOException {
+    if (offset + rangeLength > size) {
+      return false;
+    }
+    if (window == null || offset < windowPosition
+        || offset + rangeLength > windowPosition + window.limit()) {
+      windowPosition = offset;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+          Math.min(Math.max(windowSize, rangeLength), size - offset));
+    }
+    return true;
+  }
+}
@@ -0,0 +1,94 @@
+package org.midiarchiver.core.test.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link CaptureReader} and {@link CaptureWriter}.
+ */
+public class CaptureReaderTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testReplay_returnsWrittenMessagesAcrossWindows() throws Exception {
+    Path path = temporaryFolder.newFile("capture" + CaptureWriter.FILE_EXTENSION).toPath();
+    List<MidiMessage> written = new ArrayList<>();
+    written.add(new ShortMessage(ShortMessage.NOTE_ON, 1, 60, 100));
+    written.add(new SysexMessage(new byte[] {(byte) 0xF0, 0x7D, 1, 2, 3, (byte) 0xF7}, 6));
+    written.add(new ShortMessage(ShortMessage.TIMING_CLOCK));
+    written.add(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, 5, 0));
+    CaptureWriter captureWriter = new CaptureWriter(path);
+    for (int i = 0; i < 1000; i++) {
+      captureWriter.send(written.get(i % written.size()), i * 10);
+    }
+    captureWriter.close();
+    assertEquals(1000, captureWriter.getMessageCount());
+
+    List<MidiMessage> messages = new ArrayList<>();
+    List<Long> timestamps = new ArrayList<>();
+    // A small window is moved many times and does not always end at a record boundary.
+    try (CaptureReader captureReader = new CaptureReader(path, 100)) {
+      assertEquals(1000, captureReader.replay(new Receiver() {
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+          messages.add(message);
+          timestamps.add(timeStamp);
+        }
+
+        @Override
+        public void close() {
+        }
+      }));
+    }
+    for (int i = 0; i < 1000; i++) {
+      MidiMessage expected = written.get(i % written.size());
+      assertEquals(expected.getClass(), messages.get(i).getClass());
+      assertArrayEquals(expected.getMessage(), messages.get(i).getMessage());
+      assertEquals(i * 10, (long) timestamps.get(i));
+    }
+  }
+
+  @Test
+  public void testNext_ignoresPartialLastRecord() throws Exception {
+    Path path = temporaryFolder.newFile("capture" + CaptureWriter.FILE_EXTENSION).toPath();
+    CaptureWriter captureWriter = new CaptureWriter(path);
+    captureWriter.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 1000);
+    captureWriter.close();
+    try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.APPEND)) {
+      out.write(new byte[] {0, 0, 0, 3, 0, 0});
+    }
+
+    try (CaptureReader captureReader = new CaptureReader(path)) {
+      assertTrue(captureReader.next());
+      assertEquals(1000, captureReader.getTimestamp());
+      assertEquals(3, captureReader.getLength());
+      assertFalse(captureReader.next());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testOpen_rejectsOtherFiles() throws Exception {
+    Path path = temporaryFolder.newFile("recordedMessages.dat").toPath();
+    Files.write(path, new byte[] {0, 0, 0, 1, 0, 0, 0, 3});
+    new CaptureReader(path).close();
+  }
+}
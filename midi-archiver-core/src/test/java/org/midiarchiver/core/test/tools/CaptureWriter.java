@@ -0,0 +1,98 @@
+package org.midiarchiver.core.test.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * A {@link Receiver} that streams the messages it receives to a capture file, which a
+ * {@link CaptureReader} replays. Messages are written through a buffer as they arrive, so memory
+ * use does not grow with the length of the recording.
+ *
+ * <p>A capture file starts with the magic number {@code MCAP} and a format version, each as a big
+ * endian int. Each message follows as a record of its length in bytes as an int, its timestamp in
+ * microseconds as a long and the message bytes. A capture that was not closed ends with at most
+ * one partial record, which the reader ignores.
+ */
+public class CaptureWriter implements Receiver {
+
+  public static final String FILE_EXTENSION = ".mcap";
+
+  static final int MAGIC = 0x4D434150;
+  static final int VERSION = 1;
+  static final int FILE_HEADER_LENGTH = 8;
+  static final int RECORD_HEADER_LENGTH = 12;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final DataOutputStream out;
+  private long messageCount;
+  private IOException error;
+  private boolean closed;
+
+  public CaptureWriter(final Path path) throws IOException {
+    this.out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  /**
+   * Appends a message to the capture. An error is reported when the writer is flushed or closed,
+   * and messages are no longer written after it.
+   */
+  @Override
+  public synchronized void send(final MidiMessage message, final long timeStamp) {
+    if (closed || error != null) {
+      return;
+    }
+    try {
+      out.writeInt(message.getLength());
+      out.writeLong(timeStamp);
+      out.write(message.getMessage(), 0, message.getLength());
+      messageCount++;
+    } catch (IOException e) {
+      error = e;
+    }
+  }
+
+  public synchronized long getMessageCount() {
+    return messageCount;
+  }
+
+  /**
+   * Writes the buffered messages to the file.
+   */
+  public synchronized void flush() throws IOException {
+    throwIfFailed();
+    out.flush();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      try {
+        throwIfFailed();
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    if (error != null) {
+      throw new IOException("An error occurred while writing the capture", error);
+    }
+  }
+}
@@ -8,7 +8,8 @@ import javax.sound.midi.Transmitter;
 
 /**
  * A {@link Transmitter} that reads data from a data input stream and sends the messages from the
- * stream to the {@link Receiver}.
+ * stream to the {@link Receiver}. The stream is in the format of the recordedMessages.dat fixture;
+ * new recordings are made in the format of {@link CaptureWriter}.
  */
 public class DataInputTransmitter implements Transmitter {
 
@@ -38,10 +39,11 @@ public class DataInputTransmitter implements Transmitter {
     try {
       int messageCount = in.readInt();
       for (int cnt = 1; cnt <= messageCount; cnt++) {
-        final long messageStatus = in.readInt();
+        // The status, which is also the first byte of the message.
+        in.readInt();
         final int messageDataLen = in.readInt();
         final byte[] messageData = new byte[messageDataLen];
-        in.read(messageData);
+        in.readFully(messageData);
         final long timeStamp = in.readLong();
         receiver.send(new DataOutputMidiMessage(messageData), timeStamp);
       }
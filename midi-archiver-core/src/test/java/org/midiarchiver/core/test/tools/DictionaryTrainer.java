@@ -0,0 +1,186 @@
+package org.midiarchiver.core.test.tools;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Resources;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+import org.midiarchiver.core.archive.CompressedMidiFile;
+import org.midiarchiver.core.archive.CompressedMidiFileReader;
+
+/**
+ * Trains the preset dictionary of {@link CompressedMidiFile} on a sample of archived sessions.
+ *
+ * <p>The dictionary is made of the {@value #SEGMENT_LENGTH} byte sequences found in the most
+ * sessions, such as the header chunks and common runs of note and controller events. The most
+ * common sequences are placed at the end of the dictionary, where Deflate can refer to them with
+ * the shortest distances.
+ *
+ * <p>Without archive directories the dictionary is trained on sessions cut from the
+ * recordedMessages.dat fixture, which is how the shipped dictionary was made. A dictionary trained
+ * on real archives compresses them better; files written with one dictionary cannot be read with
+ * another.
+ */
+public class DictionaryTrainer {
+
+  public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+
+  private static final int SEGMENT_LENGTH = 8;
+  private static final int[] FIXTURE_SESSION_LENGTHS = {10, 20, 40, 80};
+
+  private static final class SegmentCount {
+    int sessionCount;
+    int lastSession = -1;
+  }
+
+  /**
+   * Returns a dictionary of at most the given size trained on the given midi files.
+   */
+  public static byte[] train(final List<byte[]> midiFiles, final int dictionarySize) {
+    Preconditions.checkArgument(dictionarySize > 0, "dictionarySize must be positive");
+    Map<Long, SegmentCount> counts = new HashMap<>();
+    for (int session = 0; session < midiFiles.size(); session++) {
+      byte[] midiFile = midiFiles.get(session);
+      for (int offset = 0; offset + SEGMENT_LENGTH <= midiFile.length; offset++) {
+        SegmentCount count = counts.computeIfAbsent(segment(midiFile, offset),
+            segment -> new SegmentCount());
+        if (count.lastSession != session) {
+          count.lastSession = session;
+          count.sessionCount++;
+        }
+      }
+    }
+    List<Map.Entry<Long, SegmentCount>> segments = counts.entrySet().stream()
+        .filter(entry -> entry.getValue().sessionCount > 1)
+        .sorted((a, b) -> Integer.compare(b.getValue().sessionCount, a.getValue().sessionCount))
+        .collect(Collectors.toList());
+
+    // Segments in decreasing order of frequency, skipping those the dictionary already contains.
+    List<byte[]> selected = new ArrayList<>();
+    Set<Long> contained = new HashSet<>();
+    int size = 0;
+    for (Map.Entry<Long, SegmentCount> entry : segments) {
+      if (size + SEGMENT_LENGTH > dictionarySize) {
+        break;
+      }
+      if (contained.add(entry.getKey())) {
+        byte[] bytes = toBytes(entry.getKey());
+        selected.add(bytes);
+        size += SEGMENT_LENGTH;
+      }
+    }
+    ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+    for (int index = selected.size() - 1; index >= 0; index--) {
+      dictionary.write(selected.get(index), 0, SEGMENT_LENGTH);
+    }
+    return dictionary.toByteArray();
+  }
+
+  /**
+   * Returns overlapping sessions of several lengths cut from the recordedMessages.dat fixture and
+   * encoded as midi files.
+   */
+  public static List<byte[]> readFixtureSessions() throws IOException {
+    List<byte[]> messages = new ArrayList<>();
+    List<Long> timestamps = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(
+        Resources.getResource("recordedMessages.dat").openStream())) {
+      int messageCount = in.readInt();
+      for (int index = 0; index < messageCount; index++) {
+        in.readInt();
+        byte[] message = new byte[in.readInt()];
+        in.readFully(message);
+        messages.add(message);
+        timestamps.add(in.readLong());
+      }
+    }
+    List<byte[]> sessions = new ArrayList<>();
+    MidiEventBuffer events = new MidiEventBuffer();
+    for (int sessionLength : FIXTURE_SESSION_LENGTHS) {
+      for (int start = 0; start + sessionLength <= messages.size();
+           start += Math.max(1, sessionLength / 4)) {
+        events.clear();
+        long startTimestamp = timestamps.get(start);
+        for (int index = start; index < start + sessionLength; index++) {
+          byte[] message = messages.get(index);
+          events.appendLongMessage(message, 0, message.length,
+              Math.max(0, timestamps.get(index) - startTimestamp));
+        }
+        sessions.add(encode(events));
+      }
+    }
+    return sessions;
+  }
+
+  /**
+   * Returns the midi files in the directory and its subdirectories, decompressing compressed ones.
+   */
+  public static List<byte[]> readArchive(final Path directory) throws IOException {
+    List<byte[]> midiFiles = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(".mid")) {
+          midiFiles.add(Files.readAllBytes(path));
+        } else if (CompressedMidiFile.isCompressed(name)) {
+          midiFiles.add(CompressedMidiFileReader.read(path.toFile()));
+        }
+      }
+    }
+    return midiFiles;
+  }
+
+  private static byte[] encode(final MidiEventBuffer events) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MidiFileEncoder.write(events, out);
+    return out.toByteArray();
+  }
+
+  private static long segment(final byte[] bytes, final int offset) {
+    long segment = 0;
+    for (int index = 0; index < SEGMENT_LENGTH; index++) {
+      segment = segment << 8 | (bytes[offset + index] & 0xFF);
+    }
+    return segment;
+  }
+
+  private static byte[] toBytes(final long segment) {
+    byte[] bytes = new byte[SEGMENT_LENGTH];
+    for (int index = 0; index < SEGMENT_LENGTH; index++) {
+      bytes[index] = (byte) (segment >>> (SEGMENT_LENGTH - 1 - index) * 8);
+    }
+    return bytes;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: " + DictionaryTrainer.class.getName()
+          + " [outputFilename] [archiveDirectory ...]");
+      return;
+    }
+    List<byte[]> midiFiles = new ArrayList<>();
+    if (args.length == 1) {
+      midiFiles.addAll(readFixtureSessions());
+    }
+    for (int index = 1; index < args.length; index++) {
+      midiFiles.addAll(readArchive(Paths.get(args[index])));
+    }
+    byte[] dictionary = train(midiFiles, DEFAULT_DICTIONARY_SIZE);
+    Files.write(Paths.get(args[0]), dictionary);
+    System.out.println("Wrote a dictionary of " + dictionary.length + " bytes trained on "
+        + midiFiles.size() + " sessions");
+  }
+}
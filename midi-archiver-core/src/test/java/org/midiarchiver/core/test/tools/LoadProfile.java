@@ -0,0 +1,88 @@
+package org.midiarchiver.core.test.tools;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The traffic that a {@link SyntheticTransmitter} generates, as target rates per second for each
+ * kind of message. A rate of 0 disables that kind of message. Playing alternates with pauses in
+ * which no messages are sent, so that recordings stop and sessions are written.
+ */
+public final class LoadProfile {
+
+  /** Roughly a pianist playing fast passages with an expression pedal, with short breaks. */
+  public static final LoadProfile DEFAULT =
+      new LoadProfile(20, 40, 0.1, 64, 200, 30 * 1000, 10 * 1000);
+
+  private final double notesPerSecond;
+  private final double controllerMessagesPerSecond;
+  private final double sysexMessagesPerSecond;
+  private final int sysexLength;
+  private final long noteLengthMillis;
+  private final long playMillis;
+  private final long pauseMillis;
+
+  /**
+   * @param notesPerSecond the rate of notes, each of which is a note on followed by a note off
+   * @param controllerMessagesPerSecond the rate of control changes, which sweep a controller up
+   *                                    and down
+   * @param sysexMessagesPerSecond the rate of system exclusive messages
+   * @param sysexLength the length of each system exclusive message in bytes, including the status
+   *                    and end of exclusive bytes
+   * @param noteLengthMillis the time between a note on and its note off
+   * @param playMillis how long messages are sent for before each pause
+   * @param pauseMillis how long each pause is, or 0 to send messages without pauses
+   */
+  public LoadProfile(final double notesPerSecond, final double controllerMessagesPerSecond,
+                     final double sysexMessagesPerSecond, final int sysexLength,
+                     final long noteLengthMillis, final long playMillis,
+                     final long pauseMillis) {
+    Preconditions.checkArgument(notesPerSecond >= 0 && controllerMessagesPerSecond >= 0
+        && sysexMessagesPerSecond >= 0, "Rates must not be negative");
+    Preconditions.checkArgument(sysexLength >= 3, "sysexLength must be at least 3");
+    Preconditions.checkArgument(noteLengthMillis >= 0, "noteLengthMillis must not be negative");
+    this.notesPerSecond = notesPerSecond;
+    this.controllerMessagesPerSecond = controllerMessagesPerSecond;
+    this.sysexMessagesPerSecond = sysexMessagesPerSecond;
+    this.sysexLength = sysexLength;
+    Preconditions.checkArgument(playMillis > 0, "playMillis must be positive");
+    Preconditions.checkArgument(pauseMillis >= 0, "pauseMillis must not be negative");
+    this.noteLengthMillis = noteLengthMillis;
+    this.playMillis = playMillis;
+    this.pauseMillis = pauseMillis;
+  }
+
+  public double getNotesPerSecond() {
+    return notesPerSecond;
+  }
+
+  public double getControllerMessagesPerSecond() {
+    return controllerMessagesPerSecond;
+  }
+
+  public double getSysexMessagesPerSecond() {
+    return sysexMessagesPerSecond;
+  }
+
+  public int getSysexLength() {
+    return sysexLength;
+  }
+
+  public long getNoteLengthMillis() {
+    return noteLengthMillis;
+  }
+
+  public long getPlayMillis() {
+    return playMillis;
+  }
+
+  public long getPauseMillis() {
+    return pauseMillis;
+  }
+
+  @Override
+  public String toString() {
+    return notesPerSecond + " notes/s, " + controllerMessagesPerSecond + " controllers/s, "
+        + sysexMessagesPerSecond + " sysex/s of " + sysexLength + " bytes, "
+        + playMillis + "ms of playing and " + pauseMillis + "ms pauses";
+  }
+}
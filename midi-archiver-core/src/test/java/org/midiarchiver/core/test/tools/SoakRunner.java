@@ -0,0 +1,207 @@
+package org.midiarchiver.core.test.tools;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sound.midi.Sequence;
+import org.midiarchiver.core.ArchivingReceiver;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiArchiverService;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.TimingWheel;
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.core.metrics.DeviceMetrics;
+import org.midiarchiver.core.metrics.LatencyHistogram;
+
+/**
+ * Runs a {@link MidiArchiverService} against a {@link VirtualMidiSystemService} for a long time and
+ * periodically reports the throughput, the latency of recording a message, the end to end latency
+ * from a message being sent to its session being written, and the heap used after garbage
+ * collection, whose growth over a long run indicates a leak.
+ *
+ * <p>The end to end latency is measured with the wall clock and has a resolution of a millisecond.
+ * It is reported for the sessions written in each interval, while the recording latency is
+ * reported since the start of the run.
+ */
+public class SoakRunner {
+
+  private static final String ALL_DEVICES = "all";
+
+  /**
+   * Counts the written events and records their end to end latency, and optionally writes the
+   * sessions to files.
+   */
+  private final class MeasuringSequenceWriter implements SequenceWriter {
+
+    private final SequenceWriter delegate;
+
+    MeasuringSequenceWriter(final SequenceWriter delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(final Sequence sequence) throws IOException {
+      if (delegate != null) {
+        delegate.write(sequence);
+      }
+    }
+
+    @Override
+    public void write(final MidiEventBuffer events) throws IOException {
+      if (delegate != null) {
+        delegate.write(events);
+      }
+      long nowMicros = System.currentTimeMillis() * 1000;
+      long startMicros = events.getStartTimeMillis() * 1000;
+      LatencyHistogram histogram = endToEndLatencyMicros.get();
+      for (int i = 0; i < events.size(); i++) {
+        histogram.record(nowMicros - startMicros - events.getTimestamp(i));
+      }
+      eventsWritten.addAndGet(events.size());
+    }
+  }
+
+  private final int deviceCount;
+  private final LoadProfile loadProfile;
+  private final long stopRecordingDelayMillis;
+  private final String outputDirectoryPath;
+  private final ArchiverMetrics archiverMetrics = new ArchiverMetrics();
+  private final AtomicLong eventsWritten = new AtomicLong();
+  private final AtomicReference<LatencyHistogram> endToEndLatencyMicros =
+      new AtomicReference<>(new LatencyHistogram());
+  private VirtualMidiSystemService midiSystemService;
+
+  /**
+   * @param outputDirectoryPath the directory that sessions are written to, or null if they should
+   *                            only be measured
+   */
+  public SoakRunner(final int deviceCount, final LoadProfile loadProfile,
+                    final long stopRecordingDelayMillis, final String outputDirectoryPath) {
+    Preconditions.checkArgument(deviceCount > 0, "deviceCount must be positive");
+    this.deviceCount = deviceCount;
+    this.loadProfile = Preconditions.checkNotNull(loadProfile);
+    this.stopRecordingDelayMillis = stopRecordingDelayMillis;
+    this.outputDirectoryPath = outputDirectoryPath;
+  }
+
+  /**
+   * Runs the devices for the given time and closes the service, which writes the sessions that are
+   * still being recorded.
+   *
+   * @param out the stream that a report is printed to after each interval and when the run ends
+   */
+  public void run(final long durationMillis, final long reportIntervalMillis,
+                  final PrintStream out) throws Exception {
+    midiSystemService = new VirtualMidiSystemService(deviceCount, loadProfile, 0);
+    DeviceMetrics deviceMetrics = archiverMetrics.getDeviceMetrics(ALL_DEVICES);
+    SequenceWriter sequenceWriter = new MeasuringSequenceWriter(
+        outputDirectoryPath != null ? new FileSequenceWriter(outputDirectoryPath) : null);
+    out.println("Soak test of " + deviceCount + " devices sending " + loadProfile);
+    long startNanos = System.nanoTime();
+    long initialHeapBytes = getHeapUsedAfterGc();
+    try (TimingWheel timingWheel = new TimingWheel();
+         MidiArchiverService midiArchiverService = new MidiArchiverService(midiSystemService,
+             deviceInfo -> ArchivingReceiver.newBuilder(deviceInfo, sequenceWriter,
+                 stopRecordingDelayMillis, timingWheel)
+                 .setDeviceMetrics(deviceMetrics)
+                 .build())) {
+      midiArchiverService.checkForNewDevices();
+      long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+      long lastMessageCount = 0;
+      long lastReportNanos = startNanos;
+      while (System.nanoTime() - endNanos < 0) {
+        Thread.sleep(Math.max(1, Math.min(reportIntervalMillis,
+            TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()))));
+        long now = System.nanoTime();
+        long messageCount = midiSystemService.getMessageCount();
+        double messagesPerSecond =
+            (messageCount - lastMessageCount) * 1e9 / Math.max(1, now - lastReportNanos);
+        report(out, now - startNanos, messageCount, messagesPerSecond,
+            endToEndLatencyMicros.getAndSet(new LatencyHistogram()), initialHeapBytes);
+        lastMessageCount = messageCount;
+        lastReportNanos = now;
+      }
+    }
+    out.println("Finished after " + midiSystemService.getMessageCount() + " messages, "
+        + eventsWritten.get() + " events written in " + deviceMetrics.getSessionCount()
+        + " sessions");
+    report(out, System.nanoTime() - startNanos, midiSystemService.getMessageCount(), 0,
+        endToEndLatencyMicros.get(), initialHeapBytes);
+  }
+
+  public long getMessagesSent() {
+    return midiSystemService != null ? midiSystemService.getMessageCount() : 0;
+  }
+
+  public long getEventsWritten() {
+    return eventsWritten.get();
+  }
+
+  public ArchiverMetrics getArchiverMetrics() {
+    return archiverMetrics;
+  }
+
+  private void report(final PrintStream out, final long elapsedNanos, final long messageCount,
+                      final double messagesPerSecond, final LatencyHistogram endToEndLatency,
+                      final long initialHeapBytes) {
+    LatencyHistogram sendLatency =
+        archiverMetrics.getDeviceMetrics(ALL_DEVICES).getSendLatencyNanos();
+    long heapBytes = getHeapUsedAfterGc();
+    out.println(String.format("%6ds %12d sent %10.0f msg/s %12d written"
+            + " | send us p50 %7.1f p99 %7.1f p99.9 %8.1f max %9.1f"
+            + " | end to end ms p50 %7.1f p99 %7.1f max %8.1f"
+            + " | heap after gc %6.1fMB (%+.1fMB)",
+        TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), messageCount, messagesPerSecond,
+        eventsWritten.get(),
+        sendLatency.getValueAtPercentile(50) / 1e3, sendLatency.getValueAtPercentile(99) / 1e3,
+        sendLatency.getValueAtPercentile(99.9) / 1e3, sendLatency.getMax() / 1e3,
+        endToEndLatency.getValueAtPercentile(50) / 1e3,
+        endToEndLatency.getValueAtPercentile(99) / 1e3, endToEndLatency.getMax() / 1e3,
+        heapBytes / 1e6, (heapBytes - initialHeapBytes) / 1e6));
+  }
+
+  /**
+   * Returns the heap used after the last garbage collection of each heap pool, which does not
+   * include garbage and does not require a collection to be forced.
+   */
+  private static long getHeapUsedAfterGc() {
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (pool.getType() == MemoryType.HEAP && usage != null) {
+        used += usage.getUsed();
+      }
+    }
+    return used;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Usage: " + SoakRunner.class.getName()
+          + " [deviceCount] [durationMinutes] [reportIntervalSeconds] [outputDirectory]"
+          + " [notesPerSecond controllerMessagesPerSecond sysexMessagesPerSecond]");
+      return;
+    }
+    int deviceCount = Integer.parseInt(args[0]);
+    long durationMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(args[1]));
+    long reportIntervalMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[2]));
+    String outputDirectoryPath = args.length > 3 && !args[3].isEmpty() ? args[3] : null;
+    LoadProfile loadProfile = LoadProfile.DEFAULT;
+    if (args.length > 6) {
+      loadProfile = new LoadProfile(Double.parseDouble(args[4]), Double.parseDouble(args[5]),
+          Double.parseDouble(args[6]), LoadProfile.DEFAULT.getSysexLength(),
+          LoadProfile.DEFAULT.getNoteLengthMillis(), LoadProfile.DEFAULT.getPlayMillis(),
+          LoadProfile.DEFAULT.getPauseMillis());
+    }
+    new SoakRunner(deviceCount, loadProfile, 2000, outputDirectoryPath)
+        .run(durationMillis, reportIntervalMillis, System.out);
+  }
+}
@@ -0,0 +1,29 @@
+package org.midiarchiver.core.test.tools;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SoakRunner}.
+ */
+public class SoakRunnerTest {
+
+  @Test(timeout = 30000)
+  public void testRun_recordsSessionsOfAllDevices() throws Exception {
+    LoadProfile loadProfile = new LoadProfile(200, 200, 10, 32, 10, 300, 300);
+    SoakRunner soakRunner = new SoakRunner(3, loadProfile, 100, null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    soakRunner.run(1500, 500, new PrintStream(out, true));
+
+    assertTrue(soakRunner.getMessagesSent() > 0);
+    assertTrue(soakRunner.getEventsWritten() > 0);
+    assertTrue(soakRunner.getEventsWritten() <= soakRunner.getMessagesSent());
+    // Each device pauses at least once, which ends its session.
+    assertTrue(soakRunner.getArchiverMetrics().getDeviceMetrics("all").getSessionCount() > 3);
+    assertTrue(out.toString().contains("msg/s"));
+  }
+}
@@ -0,0 +1,182 @@
+package org.midiarchiver.core.test.tools;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * A {@link Transmitter} that generates notes, control changes and system exclusive messages at the
+ * rates of a {@link LoadProfile}. Messages are sent on a thread of their own from when a receiver
+ * is set until the transmitter is closed, like a real device, and are timestamped in microseconds
+ * from {@link System#nanoTime}.
+ *
+ * <p>The intervals between messages are exponentially distributed around the target rates, so
+ * bursts and gaps occur as they do when a person plays. The generated values are derived from the
+ * seed, so a run can be repeated.
+ */
+public class SyntheticTransmitter implements Transmitter {
+
+  private static final int CONTROLLER = 11;
+  private static final int LOWEST_KEY = 36;
+  private static final int KEY_RANGE = 61;
+  // The manufacturer id reserved for non-commercial use.
+  private static final int SYSEX_MANUFACTURER_ID = 0x7D;
+  // The interval of messages whose rate is 0.
+  private static final long NEVER_NANOS = Long.MAX_VALUE / 4;
+
+  private final String name;
+  private final LoadProfile loadProfile;
+  private final Random random;
+  private final AtomicLong messageCount = new AtomicLong();
+  private Thread thread;
+  private volatile Receiver receiver;
+  private volatile boolean closed;
+
+  public SyntheticTransmitter(final String name, final LoadProfile loadProfile, final long seed) {
+    this.name = Preconditions.checkNotNull(name);
+    this.loadProfile = Preconditions.checkNotNull(loadProfile);
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Sets the receiver and starts sending messages to it if they are not being sent yet.
+   */
+  @Override
+  public synchronized void setReceiver(final Receiver receiver) {
+    this.receiver = receiver;
+    if (receiver != null && thread == null && !closed) {
+      thread = new Thread(this::run, "synthetic-" + name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  @Override
+  public Receiver getReceiver() {
+    return receiver;
+  }
+
+  /**
+   * Returns the number of messages that have been sent.
+   */
+  public long getMessageCount() {
+    return messageCount.get();
+  }
+
+  /**
+   * Stops sending messages, waiting for the message being sent to be received.
+   */
+  @Override
+  public void close() {
+    Thread sendingThread;
+    synchronized (this) {
+      closed = true;
+      sendingThread = thread;
+    }
+    if (sendingThread != null && sendingThread != Thread.currentThread()) {
+      try {
+        sendingThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void run() {
+    long now = System.nanoTime();
+    long nextNoteNanos = now + nextInterval(loadProfile.getNotesPerSecond());
+    long nextControllerNanos = now + nextInterval(loadProfile.getControllerMessagesPerSecond());
+    long nextSysexNanos = now + nextInterval(loadProfile.getSysexMessagesPerSecond());
+    long noteLengthNanos = TimeUnit.MILLISECONDS.toNanos(loadProfile.getNoteLengthMillis());
+    long playNanos = TimeUnit.MILLISECONDS.toNanos(loadProfile.getPlayMillis());
+    long pauseNanos = TimeUnit.MILLISECONDS.toNanos(loadProfile.getPauseMillis());
+    long pauseStartNanos = now + playNanos;
+    // The keys of the notes that are held, and when they are released.
+    Deque<long[]> heldNotes = new ArrayDeque<>();
+    int controllerValue = 0;
+    int controllerStep = 1;
+    try {
+      while (!closed) {
+        long nextNoteOffNanos = heldNotes.isEmpty() ? Long.MAX_VALUE : heldNotes.peek()[0];
+        long dueNanos = Math.min(Math.min(nextNoteNanos, nextNoteOffNanos),
+            Math.min(nextControllerNanos, nextSysexNanos));
+        now = System.nanoTime();
+        if (pauseNanos > 0 && dueNanos != nextNoteOffNanos && dueNanos - pauseStartNanos >= 0
+            && dueNanos - now < NEVER_NANOS / 2) {
+          // Only the held notes are released during a pause.
+          nextNoteNanos += pauseNanos;
+          nextControllerNanos += pauseNanos;
+          nextSysexNanos += pauseNanos;
+          pauseStartNanos += playNanos + pauseNanos;
+          continue;
+        }
+        if (dueNanos - now > 0) {
+          // Wake up at least every 100ms so that the transmitter can be closed.
+          LockSupport.parkNanos(Math.min(dueNanos - now, TimeUnit.MILLISECONDS.toNanos(100)));
+          continue;
+        }
+        if (dueNanos == nextNoteOffNanos) {
+          long[] heldNote = heldNotes.poll();
+          send(new ShortMessage(ShortMessage.NOTE_OFF, 0, (int) heldNote[1], 0));
+        } else if (dueNanos == nextNoteNanos) {
+          int key = LOWEST_KEY + random.nextInt(KEY_RANGE);
+          send(new ShortMessage(ShortMessage.NOTE_ON, 0, key, 1 + random.nextInt(127)));
+          heldNotes.add(new long[] {now + noteLengthNanos, key});
+          nextNoteNanos += nextInterval(loadProfile.getNotesPerSecond());
+        } else if (dueNanos == nextControllerNanos) {
+          send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, CONTROLLER, controllerValue));
+          if (controllerValue + controllerStep < 0 || controllerValue + controllerStep > 127) {
+            controllerStep = -controllerStep;
+          }
+          controllerValue += controllerStep;
+          nextControllerNanos += nextInterval(loadProfile.getControllerMessagesPerSecond());
+        } else {
+          send(createSysexMessage());
+          nextSysexNanos += nextInterval(loadProfile.getSysexMessagesPerSecond());
+        }
+      }
+    } catch (InvalidMidiDataException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void send(final MidiMessage message) {
+    Receiver currentReceiver = receiver;
+    if (currentReceiver != null) {
+      currentReceiver.send(message, System.nanoTime() / 1000);
+      messageCount.incrementAndGet();
+    }
+  }
+
+  private SysexMessage createSysexMessage() throws InvalidMidiDataException {
+    byte[] data = new byte[loadProfile.getSysexLength()];
+    data[0] = (byte) SysexMessage.SYSTEM_EXCLUSIVE;
+    data[1] = SYSEX_MANUFACTURER_ID;
+    for (int i = 2; i < data.length - 1; i++) {
+      data[i] = (byte) random.nextInt(128);
+    }
+    data[data.length - 1] = (byte) ShortMessage.END_OF_EXCLUSIVE;
+    return new SysexMessage(data, data.length);
+  }
+
+  /**
+   * Returns an exponentially distributed interval in nanoseconds with the given mean rate, or
+   * effectively never if the rate is 0.
+   */
+  private long nextInterval(final double ratePerSecond) {
+    if (ratePerSecond <= 0) {
+      return NEVER_NANOS;
+    }
+    return (long) (-Math.log(1 - random.nextDouble()) / ratePerSecond * 1e9);
+  }
+}
@@ -1,24 +1,30 @@
 package org.midiarchiver.core.test.tools;
 
-import javax.sound.midi.*;
-import java.io.DataOutputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Transmitter;
 
 /**
- * A utility to record a sample of midi data that can be used for testing.
+ * A utility to record a sample of midi data that can be used for testing. The sample is streamed
+ * to a capture file, so recordings of any length can be made.
  */
 public class TestSampleRecorder {
 
-  public static void main(String[] args) throws MidiUnavailableException, FileNotFoundException, InterruptedException {
+  public static void main(String[] args)
+      throws MidiUnavailableException, IOException, InterruptedException {
     if (args.length < 3) {
       System.out.println("Usage: " + TestSampleRecorder.class.getName() +
-          " [deviceVendor] [deviceName] [outputFilename]");
+          " [deviceVendor] [deviceName] [outputFilename] [durationSeconds]");
       return;
     }
     String deviceVendor = args[0];
     String deviceName = args[1];
     String outputFilename = args[2];
+    long durationSeconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
     for (MidiDevice.Info deviceInfo : MidiSystem.getMidiDeviceInfo()) {
       MidiDevice inputDevice = MidiSystem.getMidiDevice(deviceInfo);
       if (inputDevice.getMaxTransmitters() == 0) {
@@ -29,14 +35,19 @@ public class TestSampleRecorder {
           && deviceInfo.getVendor().equalsIgnoreCase(deviceVendor)) {
         inputDevice.open();
         Transmitter transmitter = inputDevice.getTransmitter();
-        DataOutputReceiver receiver =
-            new DataOutputReceiver(new DataOutputStream(new FileOutputStream(outputFilename)));
+        CaptureWriter receiver = new CaptureWriter(Paths.get(outputFilename));
         transmitter.setReceiver(receiver);
         System.out.println("Recording ... ");
-        Thread.sleep(10 * 1000);
+        long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() - endNanos < 0) {
+          Thread.sleep(Math.min(10 * 1000,
+              Math.max(1, TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()))));
+          // Flushed periodically, so that an interrupted recording keeps most of its messages.
+          receiver.flush();
+        }
         inputDevice.close();
         receiver.close();
-        System.out.println("Done recording");
+        System.out.println("Done recording " + receiver.getMessageCount() + " messages");
       }
     }
   }
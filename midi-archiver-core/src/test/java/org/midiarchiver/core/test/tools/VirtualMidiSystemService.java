@@ -0,0 +1,140 @@
+package org.midiarchiver.core.test.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+import org.midiarchiver.core.MidiSystemService;
+
+/**
+ * A {@link MidiSystemService} whose devices are virtual input devices with a
+ * {@link SyntheticTransmitter}, so that a {@link org.midiarchiver.core.MidiArchiverService} can be
+ * run without midi hardware.
+ */
+public class VirtualMidiSystemService extends MidiSystemService {
+
+  private static final class VirtualDeviceInfo extends MidiDevice.Info {
+    VirtualDeviceInfo(final String name) {
+      super(name, "virtual", "A synthetic input device", "1");
+    }
+  }
+
+  /**
+   * An input device with a single transmitter. Closing the device stops the transmitter.
+   */
+  private static final class VirtualMidiDevice implements MidiDevice {
+
+    private final Info deviceInfo;
+    private final SyntheticTransmitter transmitter;
+    private volatile boolean open;
+
+    VirtualMidiDevice(final Info deviceInfo, final SyntheticTransmitter transmitter) {
+      this.deviceInfo = deviceInfo;
+      this.transmitter = transmitter;
+    }
+
+    @Override
+    public Info getDeviceInfo() {
+      return deviceInfo;
+    }
+
+    @Override
+    public void open() {
+      open = true;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+      transmitter.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+      return -1;
+    }
+
+    @Override
+    public int getMaxReceivers() {
+      return 0;
+    }
+
+    @Override
+    public int getMaxTransmitters() {
+      return 1;
+    }
+
+    @Override
+    public Receiver getReceiver() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Receiver> getReceivers() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Transmitter getTransmitter() {
+      return transmitter;
+    }
+
+    @Override
+    public List<Transmitter> getTransmitters() {
+      return Collections.singletonList(transmitter);
+    }
+  }
+
+  private final List<VirtualMidiDevice> devices = new ArrayList<>();
+
+  /**
+   * @param deviceCount the number of devices
+   * @param loadProfile the traffic that each device generates
+   * @param seed the seed of the first device, each following device uses the next seed
+   */
+  public VirtualMidiSystemService(final int deviceCount, final LoadProfile loadProfile,
+                                  final long seed) {
+    for (int i = 0; i < deviceCount; i++) {
+      String name = "device" + i;
+      devices.add(new VirtualMidiDevice(new VirtualDeviceInfo(name),
+          new SyntheticTransmitter(name, loadProfile, seed + i)));
+    }
+  }
+
+  @Override
+  public MidiDevice.Info[] getMidiDeviceInfo() {
+    MidiDevice.Info[] deviceInfos = new MidiDevice.Info[devices.size()];
+    for (int i = 0; i < deviceInfos.length; i++) {
+      deviceInfos[i] = devices.get(i).getDeviceInfo();
+    }
+    return deviceInfos;
+  }
+
+  @Override
+  public MidiDevice getMidiDevice(final MidiDevice.Info deviceInfo) {
+    for (VirtualMidiDevice device : devices) {
+      if (device.getDeviceInfo() == deviceInfo) {
+        return device;
+      }
+    }
+    throw new IllegalArgumentException("Unknown device " + deviceInfo);
+  }
+
+  /**
+   * Returns the number of messages that all devices have sent.
+   */
+  public long getMessageCount() {
+    long messageCount = 0;
+    for (VirtualMidiDevice device : devices) {
+      messageCount += device.transmitter.getMessageCount();
+    }
+    return messageCount;
+  }
+}
@@ -0,0 +1,115 @@
+package org.midiarchiver.core.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.ShortMessage;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.midiarchiver.core.ArchivingReceiver;
+import org.midiarchiver.core.MidiSystemService;
+import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.TestMidiDeviceInfo;
+import org.midiarchiver.core.TimingWheel;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Unit test for {@link TraceRecorder}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TraceRecorderTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock
+  private SequenceWriter mockSequenceWriter;
+  @Mock
+  private TimingWheel mockTimingWheel;
+  @Mock
+  private TimingWheel.Timeout mockTimeout;
+
+  private final TraceRecorder traceRecorder = new TraceRecorder();
+
+  @After
+  public void tearDown() {
+    traceRecorder.close();
+  }
+
+  @Test
+  public void testDump_sessionEvents() throws Exception {
+    MidiDevice.Info deviceInfo = new TestMidiDeviceInfo("Piano", "Vendor", "", "1.0");
+    String deviceId = MidiSystemService.createDeviceId(deviceInfo);
+    ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+    when(mockTimingWheel.newTimeout(taskCaptor.capture())).thenReturn(mockTimeout);
+    when(mockTimingWheel.getIoExecutor()).thenReturn(MoreExecutors.directExecutor());
+    ArchivingReceiver archivingReceiver = new ArchivingReceiver(deviceInfo,
+        TracedSequenceWriter.wrap(mockSequenceWriter, deviceId), 1000, mockTimingWheel);
+
+    assertFalse(traceRecorder.dump(temporaryFolder.getRoot().toPath().resolve("none.jfr")));
+    assertTrue(traceRecorder.start(TraceRecorder.DEFAULT_MAX_AGE_MILLIS));
+    assertFalse(traceRecorder.start(TraceRecorder.DEFAULT_MAX_AGE_MILLIS));
+    assertTrue(traceRecorder.isRunning());
+    archivingReceiver.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 1000);
+    archivingReceiver.send(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 251000);
+    taskCaptor.getValue().run();
+
+    Path path = temporaryFolder.getRoot().toPath().resolve("recording.jfr");
+    assertTrue(traceRecorder.dump(path));
+    Map<String, RecordedEvent> events = new HashMap<>();
+    List<RecordedEvent> recordedEvents = RecordingFile.readAllEvents(path);
+    for (RecordedEvent event : recordedEvents) {
+      String name = event.getEventType().getName();
+      if (name.startsWith("org.midiarchiver.")) {
+        events.put(name.substring("org.midiarchiver.".length()), event);
+      }
+    }
+    assertEquals(deviceId, events.get("MessageReceived").getString("deviceId"));
+    assertEquals(0, events.get("RecordingStarted").getInt("preRollEventCount"));
+    assertEquals(1000, events.get("TimerExtended").getLong("delayMillis"));
+    assertTrue(events.get("SessionSwap").getBoolean("spareAvailable"));
+    RecordedEvent stopRecording = events.get("StopRecording");
+    assertEquals(deviceId, stopRecording.getString("deviceId"));
+    assertEquals(2, stopRecording.getInt("eventCount"));
+    assertEquals(250, stopRecording.getLong("sessionDurationMillis"));
+    assertEquals(2, events.get("SessionWrite").getInt("eventCount"));
+    for (RecordedEvent event : recordedEvents) {
+      String name = event.getEventType().getName();
+      assertFalse(name, name.equals("jdk.InitialEnvironmentVariable")
+          || name.equals("jdk.InitialSystemProperty"));
+    }
+
+    assertTrue(traceRecorder.stop());
+    assertFalse(traceRecorder.isRunning());
+    assertFalse(traceRecorder.stop());
+  }
+
+  @Test
+  public void testNewEvent_onlyWhileRecording() throws Exception {
+    assertTrue(TraceEvents.isAvailable());
+    assertNull(TraceEvents.newMessageReceivedEvent());
+    assertNull(TraceEvents.newSessionWriteEvent());
+    assertTrue(traceRecorder.start(TraceRecorder.DEFAULT_MAX_AGE_MILLIS));
+    assertNotNull(TraceEvents.newMessageReceivedEvent());
+    assertNotNull(TraceEvents.newSessionWriteEvent());
+    assertTrue(traceRecorder.stop());
+    assertNull(TraceEvents.newMessageReceivedEvent());
+  }
+}
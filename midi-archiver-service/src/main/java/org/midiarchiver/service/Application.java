@@ -1,7 +1,9 @@
 package org.midiarchiver.service;
 
 import org.midiarchiver.core.MidiArchiverService;
+import org.midiarchiver.service.spring.MidiArchiverMetricsConfig;
 import org.midiarchiver.service.spring.MidiArchiverServiceConfig;
+import org.midiarchiver.service.spring.MidiArchiverWebConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -12,7 +14,8 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 
 @SpringBootApplication
-@Import(MidiArchiverServiceConfig.class)
+@Import({MidiArchiverServiceConfig.class, MidiArchiverWebConfig.class,
+    MidiArchiverMetricsConfig.class})
 @EnableAutoConfiguration
 @EnableAsync
 @EnableScheduling
@@ -25,6 +28,10 @@ public class Application {
     SpringApplication.run(Application.class, args);
   }
 
+  /**
+   * Checks for new devices in case a change was not reported by the hotplug watcher, or the
+   * device directory cannot be watched on this system.
+   */
   @Scheduled(fixedDelay = 20 * 1000)
   public void checkForNewDevices() {
     midiArchiverService.checkForNewDevices();
@@ -0,0 +1,65 @@
+package org.midiarchiver.service.metrics;
+
+import com.google.common.base.Preconditions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.core.metrics.DeviceMetrics;
+import org.midiarchiver.core.metrics.LatencyHistogram;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+/**
+ * An actuator endpoint, at /archiver, that reports the metrics of the archiver and of each device
+ * with the percentiles of their latency histograms. The metrics contain no session data, so the
+ * endpoint is not sensitive.
+ */
+public class ArchiverMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+  private final ArchiverMetrics archiverMetrics;
+
+  public ArchiverMetricsEndpoint(final ArchiverMetrics archiverMetrics) {
+    super("archiver", false);
+    this.archiverMetrics = Preconditions.checkNotNull(archiverMetrics);
+  }
+
+  @Override
+  public Map<String, Object> invoke() {
+    Map<String, Object> devices = new TreeMap<>();
+    for (Map.Entry<String, DeviceMetrics> device
+        : archiverMetrics.getDeviceMetrics().entrySet()) {
+      devices.put(device.getKey(), toMap(device.getValue()));
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("deviceScanNanos", toMap(archiverMetrics.getDeviceScanNanos()));
+    result.put("devices", devices);
+    return result;
+  }
+
+  private static Map<String, Object> toMap(final DeviceMetrics deviceMetrics) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("messageCount", deviceMetrics.getMessageCount());
+    result.put("messagesPerSecond", deviceMetrics.getMessagesPerSecond());
+    result.put("droppedMessages", deviceMetrics.getDroppedMessages());
+    result.put("sendLatencyNanos", toMap(deviceMetrics.getSendLatencyNanos()));
+    result.put("lockWaitNanos", toMap(deviceMetrics.getLockWaitNanos()));
+    result.put("sessionCount", deviceMetrics.getSessionCount());
+    result.put("sessionDurationMillis", toMap(deviceMetrics.getSessionDurationMillis()));
+    result.put("writeLatencyNanos", toMap(deviceMetrics.getWriteLatencyNanos()));
+    result.put("appendLatencyNanos", toMap(deviceMetrics.getAppendLatencyNanos()));
+    result.put("bytesWritten", deviceMetrics.getBytesWritten());
+    return result;
+  }
+
+  static Map<String, Object> toMap(final LatencyHistogram histogram) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("count", histogram.getCount());
+    result.put("mean", histogram.getMean());
+    result.put("p50", histogram.getValueAtPercentile(50));
+    result.put("p90", histogram.getValueAtPercentile(90));
+    result.put("p99", histogram.getValueAtPercentile(99));
+    result.put("p999", histogram.getValueAtPercentile(99.9));
+    result.put("max", histogram.getMax());
+    return result;
+  }
+}
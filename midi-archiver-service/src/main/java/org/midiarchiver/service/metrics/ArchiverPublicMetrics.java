@@ -0,0 +1,50 @@
+package org.midiarchiver.service.metrics;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.core.metrics.DeviceMetrics;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Adds the main archiver metrics to the actuator metrics endpoint, from which they can be
+ * exported, as archiver.[device id].[metric].
+ */
+public class ArchiverPublicMetrics implements PublicMetrics {
+
+  private final ArchiverMetrics archiverMetrics;
+
+  public ArchiverPublicMetrics(final ArchiverMetrics archiverMetrics) {
+    this.archiverMetrics = Preconditions.checkNotNull(archiverMetrics);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>("archiver.deviceScan.p99Nanos",
+        archiverMetrics.getDeviceScanNanos().getValueAtPercentile(99)));
+    for (Map.Entry<String, DeviceMetrics> device
+        : archiverMetrics.getDeviceMetrics().entrySet()) {
+      String prefix = "archiver." + device.getKey() + ".";
+      DeviceMetrics deviceMetrics = device.getValue();
+      metrics.add(new Metric<>(prefix + "messages", deviceMetrics.getMessageCount()));
+      metrics.add(new Metric<>(prefix + "messagesPerSecond",
+          deviceMetrics.getMessagesPerSecond()));
+      metrics.add(new Metric<>(prefix + "send.p99Nanos",
+          deviceMetrics.getSendLatencyNanos().getValueAtPercentile(99)));
+      metrics.add(new Metric<>(prefix + "lockWait.p99Nanos",
+          deviceMetrics.getLockWaitNanos().getValueAtPercentile(99)));
+      metrics.add(new Metric<>(prefix + "sessions", deviceMetrics.getSessionCount()));
+      metrics.add(new Metric<>(prefix + "write.p99Nanos",
+          deviceMetrics.getWriteLatencyNanos().getValueAtPercentile(99)));
+      metrics.add(new Metric<>(prefix + "append.p99Nanos",
+          deviceMetrics.getAppendLatencyNanos().getValueAtPercentile(99)));
+      metrics.add(new Metric<>(prefix + "bytesWritten", deviceMetrics.getBytesWritten()));
+    }
+    return metrics;
+  }
+}
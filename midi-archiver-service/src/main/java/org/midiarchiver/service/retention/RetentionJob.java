@@ -0,0 +1,237 @@
+package org.midiarchiver.service.retention;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.midiarchiver.core.FileSync;
+import org.midiarchiver.core.archive.CompressedMidiFile;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+import org.midiarchiver.core.catalog.CatalogEntry;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the {@link RetentionPolicy} of each device to the sessions in the {@link SessionCatalog}
+ * in the background. Loose midi files older than the compression age are replaced with compressed
+ * files, and sessions older than the deletion age are deleted.
+ *
+ * <p>The job must not disturb recording, so it runs on a single thread of minimum priority, all
+ * the bytes it reads and writes share a rate limit, and it only touches sessions that are days old,
+ * whose files no writer has open. Only sessions stored in a file of their own are compressed or
+ * deleted; sessions in packed archives are left alone.
+ *
+ * <p>A file is replaced by writing the compressed file next to it, moving it into place and then
+ * moving the catalog entry, before the loose file is deleted, so a crash at any point leaves the
+ * catalog pointing at a complete file. The move of the file is forced to storage before the
+ * catalog entry is moved, and the catalog forces its records before a file is deleted, so this
+ * also holds after a power failure.
+ */
+public class RetentionJob implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(RetentionJob.class);
+
+  public static final long DEFAULT_MAX_BYTES_PER_SECOND = 1024 * 1024;
+  public static final long DEFAULT_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  // Permits are acquired in chunks so that closing the job does not wait for a large file.
+  private static final int THROTTLE_CHUNK_BYTES = 64 * 1024;
+
+  private final SessionCatalog sessionCatalog;
+  private final RetentionPolicy defaultPolicy;
+  private final Map<String, RetentionPolicy> devicePolicies;
+  private final RateLimiter rateLimiter;
+  // Used only to compress, so its output directory is not used.
+  private final CompressedSequenceWriter compressor =
+      new CompressedSequenceWriter("", null, Deflater.BEST_COMPRESSION, true);
+  private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+  private ScheduledExecutorService executor;
+  private volatile boolean closed;
+
+  private long compressedSessionCount;
+  private long deletedSessionCount;
+  private long reclaimedBytes;
+
+  /**
+   * @param devicePolicies the policies of devices that do not use the default policy
+   * @param maxBytesPerSecond the combined rate at which the job reads and writes files
+   */
+  public RetentionJob(final SessionCatalog sessionCatalog, final RetentionPolicy defaultPolicy,
+                      final Map<String, RetentionPolicy> devicePolicies,
+                      final long maxBytesPerSecond) {
+    Preconditions.checkArgument(maxBytesPerSecond > 0, "maxBytesPerSecond must be positive");
+    this.sessionCatalog = Preconditions.checkNotNull(sessionCatalog);
+    this.defaultPolicy = Preconditions.checkNotNull(defaultPolicy);
+    this.devicePolicies = new HashMap<>(devicePolicies);
+    this.rateLimiter = RateLimiter.create(maxBytesPerSecond);
+  }
+
+  /**
+   * Runs the job periodically, starting one interval from now.
+   */
+  public synchronized void start(final long intervalMillis) {
+    Preconditions.checkState(executor == null, "The job has already been started");
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("retention").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+    executor.scheduleWithFixedDelay(this::runSafely, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Applies the policies to all sessions once.
+   */
+  public synchronized void run() throws IOException {
+    long nowMillis = System.currentTimeMillis();
+    long startCompressed = compressedSessionCount;
+    long startDeleted = deletedSessionCount;
+    long startReclaimed = reclaimedBytes;
+    for (String deviceId : sessionCatalog.getDeviceIds()) {
+      RetentionPolicy policy = devicePolicies.getOrDefault(deviceId, defaultPolicy);
+      if (policy.getDeleteAfterDays() > 0) {
+        for (CatalogEntry entry : findSessionsBefore(deviceId,
+            nowMillis - policy.getDeleteAfterDays() * DAY_MILLIS)) {
+          if (closed) {
+            return;
+          }
+          delete(entry);
+        }
+      }
+      if (policy.getCompressAfterDays() > 0) {
+        for (CatalogEntry entry : findSessionsBefore(deviceId,
+            nowMillis - policy.getCompressAfterDays() * DAY_MILLIS)) {
+          if (closed) {
+            return;
+          }
+          if (!CompressedMidiFile.isCompressed(entry.getLocation())) {
+            compress(entry);
+          }
+        }
+      }
+    }
+    logger.info("Retention compressed " + (compressedSessionCount - startCompressed)
+        + " sessions and deleted " + (deletedSessionCount - startDeleted) + ", reclaiming "
+        + (reclaimedBytes - startReclaimed) + " bytes");
+  }
+
+  public synchronized long getCompressedSessionCount() {
+    return compressedSessionCount;
+  }
+
+  public synchronized long getDeletedSessionCount() {
+    return deletedSessionCount;
+  }
+
+  public synchronized long getReclaimedBytes() {
+    return reclaimedBytes;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    closed = true;
+    ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = this.executor;
+    }
+    if (executor != null) {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    synchronized (this) {
+      compressor.close();
+    }
+  }
+
+  private void runSafely() {
+    try {
+      run();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Retention failed", e);
+    }
+  }
+
+  /**
+   * Returns the sessions of the device in files of their own that ended before the given time.
+   */
+  private List<CatalogEntry> findSessionsBefore(final String deviceId, final long timeMillis) {
+    List<CatalogEntry> entries =
+        sessionCatalog.find(deviceId, Long.MIN_VALUE, timeMillis, 0, Integer.MAX_VALUE);
+    entries.removeIf(entry -> entry.getEndTimeMillis() >= timeMillis || entry.getOffset() != 0
+        || !(entry.getLocation().endsWith(".mid")
+        || CompressedMidiFile.isCompressed(entry.getLocation())));
+    return entries;
+  }
+
+  private void compress(final CatalogEntry entry) throws IOException {
+    File file = new File(entry.getLocation());
+    if (!file.isFile() || file.length() != entry.getLength()) {
+      logger.warn("Not compressing session " + entry.getId() + ", " + file
+          + " is missing or does not contain only the session");
+      return;
+    }
+    throttle(entry.getLength());
+    byte[] midiFile = Files.readAllBytes(file.toPath());
+    compressed.reset();
+    compressor.compress(midiFile, midiFile.length, compressed);
+    throttle(compressed.size());
+    String location = entry.getLocation().substring(0, entry.getLocation().length() - 4)
+        + CompressedMidiFile.FILE_EXTENSION;
+    Path target = new File(location).toPath();
+    Path temporary = new File(location + ".tmp").toPath();
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(compressed.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    FileSync.forceDirectory(target.getParent().toFile());
+    // The relocation is forced to storage before it returns, so the loose file can be deleted.
+    sessionCatalog.relocate(entry.getId(), location, 0, compressed.size());
+    Files.delete(file.toPath());
+    compressedSessionCount++;
+    reclaimedBytes += entry.getLength() - compressed.size();
+  }
+
+  private void delete(final CatalogEntry entry) throws IOException {
+    Path file = new File(entry.getLocation()).toPath();
+    // The removal is forced to storage before it returns, so the file can be deleted.
+    sessionCatalog.remove(entry.getId());
+    if (Files.deleteIfExists(file)) {
+      reclaimedBytes += entry.getLength();
+    }
+    deletedSessionCount++;
+    // The directory of the day is deleted with its last session.
+    try {
+      Files.deleteIfExists(file.getParent());
+    } catch (DirectoryNotEmptyException e) {
+      // Other sessions of the day remain.
+    }
+  }
+
+  private void throttle(final long bytes) {
+    for (long remaining = bytes; remaining > 0 && !closed; remaining -= THROTTLE_CHUNK_BYTES) {
+      rateLimiter.acquire((int) Math.min(remaining, THROTTLE_CHUNK_BYTES));
+    }
+  }
+}
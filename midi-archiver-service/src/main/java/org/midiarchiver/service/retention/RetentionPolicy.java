@@ -0,0 +1,46 @@
+package org.midiarchiver.service.retention;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * How long the sessions of a device are kept as loose midi files and how long they are kept at
+ * all. An age of 0 means never.
+ */
+public final class RetentionPolicy {
+
+  /**
+   * Keeps sessions as they were written, forever.
+   */
+  public static final RetentionPolicy KEEP = new RetentionPolicy(0, 0);
+
+  private final int compressAfterDays;
+  private final int deleteAfterDays;
+
+  /**
+   * @param compressAfterDays the age after which sessions are compressed, or 0 for never
+   * @param deleteAfterDays the age after which sessions are deleted, or 0 for never
+   */
+  public RetentionPolicy(final int compressAfterDays, final int deleteAfterDays) {
+    Preconditions.checkArgument(compressAfterDays >= 0, "compressAfterDays must not be negative");
+    Preconditions.checkArgument(deleteAfterDays >= 0, "deleteAfterDays must not be negative");
+    this.compressAfterDays = compressAfterDays;
+    this.deleteAfterDays = deleteAfterDays;
+  }
+
+  public int getCompressAfterDays() {
+    return compressAfterDays;
+  }
+
+  public int getDeleteAfterDays() {
+    return deleteAfterDays;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("compressAfterDays", compressAfterDays)
+        .add("deleteAfterDays", deleteAfterDays)
+        .toString();
+  }
+}
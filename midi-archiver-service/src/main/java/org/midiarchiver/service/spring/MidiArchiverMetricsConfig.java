@@ -0,0 +1,24 @@
+package org.midiarchiver.service.spring;
+
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.service.metrics.ArchiverMetricsEndpoint;
+import org.midiarchiver.service.metrics.ArchiverPublicMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Exposes the archiver metrics through the actuator endpoints.
+ */
+@Configuration
+public class MidiArchiverMetricsConfig {
+
+  @Bean
+  public ArchiverMetricsEndpoint archiverMetricsEndpoint(final ArchiverMetrics archiverMetrics) {
+    return new ArchiverMetricsEndpoint(archiverMetrics);
+  }
+
+  @Bean
+  public ArchiverPublicMetrics archiverPublicMetrics(final ArchiverMetrics archiverMetrics) {
+    return new ArchiverPublicMetrics(archiverMetrics);
+  }
+}
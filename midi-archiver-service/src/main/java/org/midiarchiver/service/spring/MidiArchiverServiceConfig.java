@@ -1,37 +1,365 @@
 package org.midiarchiver.service.spring;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.sound.midi.MidiDevice;
+import javax.sound.midi.Receiver;
 import org.midiarchiver.core.ArchivingReceiver;
+import org.midiarchiver.core.DeviceHotplugWatcher;
+import org.midiarchiver.core.DeviceProber;
 import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.LiveEventHub;
+import org.midiarchiver.core.LiveEventRing;
 import org.midiarchiver.core.MidiArchiverService;
 import org.midiarchiver.core.MidiSystemService;
+import org.midiarchiver.core.PreRollBuffer;
+import org.midiarchiver.core.ReceiverActor;
 import org.midiarchiver.core.SequenceWriter;
+import org.midiarchiver.core.SessionJournal;
+import org.midiarchiver.core.SessionListener;
+import org.midiarchiver.core.StreamingMidiFileWriter;
+import org.midiarchiver.core.TimingWheel;
+import org.midiarchiver.core.WriteBehindPipeline;
+import org.midiarchiver.core.WriteBehindPipeline.BackpressurePolicy;
+import org.midiarchiver.core.WriteBehindPipeline.FlushPolicy;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+import org.midiarchiver.core.archive.PackedArchiveWriter;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.midiarchiver.core.filter.ControllerCoalescingFilter;
+import org.midiarchiver.core.filter.MessageFilter;
+import org.midiarchiver.core.filter.MessageFilterChain;
+import org.midiarchiver.core.filter.RealTimeMessageFilter;
+import org.midiarchiver.core.filter.ThinningFilter;
+import org.midiarchiver.core.index.PhraseIndex;
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.core.metrics.DeviceMetrics;
+import org.midiarchiver.core.metrics.MeteredSequenceWriter;
+import org.midiarchiver.core.storage.StoragePool;
+import org.midiarchiver.core.storage.StoragePool.PlacementPolicy;
+import org.midiarchiver.core.storage.StripedSequenceWriter;
+import org.midiarchiver.core.trace.TraceRecorder;
+import org.midiarchiver.core.trace.TracedSequenceWriter;
+import org.midiarchiver.service.retention.RetentionJob;
+import org.midiarchiver.service.retention.RetentionPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 
 public class MidiArchiverServiceConfig {
 
+  private static final Logger logger = LoggerFactory.getLogger(MidiArchiverServiceConfig.class);
+
   private String dataDirectoryPath = "data";
+  // Sessions are spread across the data directory and these directories, on other disks.
+  private List<String> extraDataDirectoryPaths = new ArrayList<>();
+  private PlacementPolicy storagePlacementPolicy = PlacementPolicy.LEAST_LOADED;
+  private long storageMinFreeBytes = StoragePool.DEFAULT_MIN_FREE_BYTES;
+  private long storageCheckIntervalMillis = StoragePool.DEFAULT_CHECK_INTERVAL_MILLIS;
+  private long storageMinBackoffMillis = StoragePool.DEFAULT_MIN_BACKOFF_MILLIS;
+  private long storageMaxBackoffMillis = StoragePool.DEFAULT_MAX_BACKOFF_MILLIS;
   private int stopRecordingDelayMillis = 5 * 1000;
 
+  private int writeBehindQueueCapacity = WriteBehindPipeline.DEFAULT_QUEUE_CAPACITY;
+  private int writeBehindMaxBatchSize = WriteBehindPipeline.DEFAULT_MAX_BATCH_SIZE;
+  private FlushPolicy writeBehindFlushPolicy = FlushPolicy.INTERVAL;
+  private long writeBehindFlushIntervalMillis = WriteBehindPipeline.DEFAULT_FLUSH_INTERVAL_MILLIS;
+  private BackpressurePolicy writeBehindBackpressurePolicy = BackpressurePolicy.BLOCK;
+
+  private long timingWheelTickMillis = TimingWheel.DEFAULT_TICK_MILLIS;
+  private int timingWheelSize = TimingWheel.DEFAULT_WHEEL_SIZE;
+
+  // When enabled, sessions are encoded to disk while they are recorded instead of when they end.
+  private boolean streamingWriterEnabled = false;
+  private int maxSegmentEvents = 0;
+  private long maxSegmentDurationMillis = 60 * 60 * 1000;
+
+  // When enabled, sessions are appended to large segment files instead of a file per session.
+  private boolean packedArchiveEnabled = false;
+  private long maxPackedSegmentBytes = PackedArchiveWriter.DEFAULT_MAX_SEGMENT_BYTES;
+
+  // When enabled, the files of sessions are compressed with a preset dictionary.
+  private boolean compressionEnabled = false;
+
+  private String catalogFileName = "sessions.catalog";
+  // The melodies of sessions are indexed for phrase search as they are written. Sessions that are
+  // not indexed yet, such as those archived before the index existed, are indexed on startup.
+  private String phraseIndexFileName = "sessions.index";
+
+  // Retention rewrites and deletes archived files, so it is only run when it is enabled. Sessions
+  // are then compressed after 30 days and kept forever, unless a device has its own policy.
+  private boolean retentionEnabled = false;
+  private RetentionPolicy retentionPolicy = new RetentionPolicy(30, 0);
+  private Map<String, RetentionPolicy> deviceRetentionPolicies = new HashMap<>();
+  private long retentionMaxBytesPerSecond = RetentionJob.DEFAULT_MAX_BYTES_PER_SECOND;
+  private long retentionIntervalMillis = RetentionJob.DEFAULT_INTERVAL_MILLIS;
+
+  private long deviceProbeTimeoutMillis = DeviceProber.DEFAULT_PROBE_TIMEOUT_MILLIS;
+  private long deviceMinBackoffMillis = DeviceProber.DEFAULT_MIN_BACKOFF_MILLIS;
+  private long deviceMaxBackoffMillis = DeviceProber.DEFAULT_MAX_BACKOFF_MILLIS;
+
+  // Device changes are detected as they happen when the device directory can be watched.
+  private boolean hotplugWatcherEnabled = true;
+  private String hotplugDeviceDirectoryPath = DeviceHotplugWatcher.DEFAULT_DEVICE_DIRECTORY;
+  private long hotplugDebounceMillis = DeviceHotplugWatcher.DEFAULT_DEBOUNCE_MILLIS;
+
+  // Messages that are not worth archiving are dropped before they are recorded. Aftertouch and
+  // pitch bend are only thinned when an interval is set.
+  private boolean dropRealTimeMessages = true;
+  private long aftertouchThinningIntervalMillis = 0;
+  private boolean coalesceControllers = true;
+
+  // Messages from just before the first note of a session, such as a program change, are kept in a
+  // fixed size ring and recorded with it. A pre-roll of 0 disables the ring.
+  private long preRollMillis = 2 * 1000;
+  private int preRollCapacity = PreRollBuffer.DEFAULT_CAPACITY;
+
+  // The messages of each device are published to a ring that live monitors read from. A monitor
+  // that falls more than this many messages behind loses the oldest ones.
+  private int liveEventRingCapacity = LiveEventRing.DEFAULT_CAPACITY;
+
+  // When enabled, the drivers only queue messages, and each receiver is run by an actor on a pool of
+  // this many threads.
+  private int receiverActorThreads = 0;
+  private int receiverActorMailboxCapacity = ReceiverActor.DEFAULT_MAILBOX_CAPACITY;
+
+  private String journalDirectoryPath = "journal";
+  private int journalCapacity = SessionJournal.DEFAULT_CAPACITY;
+  private long journalForceIntervalMillis = SessionJournal.DEFAULT_FORCE_INTERVAL_MILLIS;
+
   @Bean
-  public MidiArchiverService midiArchiverService(final MidiSystemService midiSystemService) {
-    return new MidiArchiverService(midiSystemService, archivingReceiverFactory(midiSystemService));
+  public MidiArchiverService midiArchiverService(
+      final MidiSystemService midiSystemService,
+      final Function<MidiDevice.Info, Receiver> archivingReceiverFactory,
+      final Function<String, SequenceWriter> sequenceWriterFactory,
+      final WriteBehindPipeline writeBehindPipeline, final TimingWheel timingWheel,
+      final SessionCatalog sessionCatalog, final PhraseIndex phraseIndex,
+      final ArchiverMetrics archiverMetrics, final ExecutorService receiverActorExecutor,
+      final RetentionJob retentionJob, final TraceRecorder traceRecorder) {
+    MidiArchiverService midiArchiverService = new MidiArchiverService(
+        midiSystemService, archivingReceiverFactory, new DeviceProber(midiSystemService,
+            deviceProbeTimeoutMillis, deviceMinBackoffMillis, deviceMaxBackoffMillis),
+        archiverMetrics);
+    // Queued sessions are drained after the devices have been closed and before the catalog is.
+    midiArchiverService.registerCloseable(sessionCatalog);
+    midiArchiverService.registerCloseable(phraseIndex);
+    midiArchiverService.registerCloseable(writeBehindPipeline);
+    midiArchiverService.registerCloseable(timingWheel);
+    midiArchiverService.registerCloseable(receiverActorExecutor::shutdown);
+    midiArchiverService.registerCloseable(retentionJob);
+    midiArchiverService.registerCloseable(traceRecorder);
+    midiArchiverService.recoverJournals(new File(journalDirectoryPath), sequenceWriterFactory);
+    if (hotplugWatcherEnabled) {
+      DeviceHotplugWatcher hotplugWatcher = new DeviceHotplugWatcher(
+          Paths.get(hotplugDeviceDirectoryPath), hotplugDebounceMillis,
+          midiArchiverService::checkForNewDevices);
+      if (hotplugWatcher.start()) {
+        midiArchiverService.registerCloseable(hotplugWatcher);
+      }
+    }
+    return midiArchiverService;
   }
 
   @Bean
-  public Function<MidiDevice.Info, ArchivingReceiver> archivingReceiverFactory(
-      final MidiSystemService midiSystemService) {
+  public Function<MidiDevice.Info, Receiver> archivingReceiverFactory(
+      final MidiSystemService midiSystemService,
+      final Function<String, SequenceWriter> sequenceWriterFactory,
+      final TimingWheel timingWheel, final ArchiverMetrics archiverMetrics,
+      final ExecutorService receiverActorExecutor, final LiveEventHub liveEventHub) {
     return (MidiDevice.Info deviceInfo) -> {
-      SequenceWriter sequenceWriter = new FileSequenceWriter(dataDirectoryPath + File.separator +
-              midiSystemService.getDeviceId(deviceInfo));
-      return new ArchivingReceiver(deviceInfo, sequenceWriter, stopRecordingDelayMillis);
+      String deviceId = midiSystemService.getDeviceId(deviceInfo);
+      DeviceMetrics deviceMetrics = archiverMetrics.getDeviceMetrics(deviceId);
+      MessageFilterChain messageFilterChain = newMessageFilterChain();
+      deviceMetrics.setMessageFilterChain(messageFilterChain);
+      ArchivingReceiver archivingReceiver = ArchivingReceiver.newBuilder(deviceInfo,
+          sequenceWriterFactory.apply(deviceId), stopRecordingDelayMillis, timingWheel)
+          .setJournal(openJournal(deviceId, timingWheel))
+          .setDeviceMetrics(deviceMetrics)
+          .setMessageFilter(messageFilterChain)
+          .setPreRollBuffer(newPreRollBuffer())
+          .setLiveEventRing(liveEventHub.getOrCreate(deviceId))
+          .build();
+      return receiverActorThreads > 0 ? new ReceiverActor(archivingReceiver,
+          receiverActorExecutor, receiverActorMailboxCapacity) : archivingReceiver;
+    };
+  }
+
+  /**
+   * The pool that runs the receiver actors. Its threads are only started when actors are enabled.
+   */
+  @Bean
+  public ExecutorService receiverActorExecutor() {
+    return Executors.newFixedThreadPool(Math.max(1, receiverActorThreads),
+        new ThreadFactoryBuilder().setNameFormat("receiver-actor-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Creates the {@link SequenceWriter} for a device id. Sessions are written on the write behind
+   * pipeline, as separate files, which may be compressed, or to a packed archive, unless the
+   * streaming writer is enabled. Separate files are striped across the storage roots, while the
+   * files of the other writers stay on the root that is selected when the device is connected.
+   * Every writer adds the sessions it writes to the session catalog, and the
+   * latency of its writes and the bytes it writes to the metrics of the device. Its writes are
+   * traced when a flight recording is running.
+   */
+  @Bean
+  public Function<String, SequenceWriter> sequenceWriterFactory(
+      final WriteBehindPipeline writeBehindPipeline, final SessionCatalog sessionCatalog,
+      final ArchiverMetrics archiverMetrics, final StoragePool storagePool) {
+    return (String deviceId) -> {
+      DeviceMetrics deviceMetrics = archiverMetrics.getDeviceMetrics(deviceId);
+      SessionListener catalogListener = sessionCatalog.newListener(deviceId);
+      SessionListener sessionListener = (summary, file, offset, length) -> {
+        deviceMetrics.recordBytesWritten(length);
+        catalogListener.sessionWritten(summary, file, offset, length);
+      };
+      String rootPath = storagePool.selectRoot().getPath();
+      String outputDirectoryPath = rootPath + File.separator + deviceId;
+      if (streamingWriterEnabled) {
+        // The previous run may have left an unfinished segment of the device on another root.
+        for (String otherRootPath : storagePool.getRootPaths()) {
+          if (!otherRootPath.equals(rootPath)) {
+            StreamingMidiFileWriter.deleteUnfinishedSegments(new File(otherRootPath, deviceId));
+          }
+        }
+        return MeteredSequenceWriter.wrap(TracedSequenceWriter.wrap(new StreamingMidiFileWriter(
+            outputDirectoryPath, maxSegmentEvents, maxSegmentDurationMillis, sessionListener),
+            deviceId), deviceMetrics);
+      }
+      if (packedArchiveEnabled) {
+        return writeBehindPipeline.newWriter(MeteredSequenceWriter.wrap(TracedSequenceWriter.wrap(
+            new PackedArchiveWriter(outputDirectoryPath, maxPackedSegmentBytes, sessionListener),
+            deviceId), deviceMetrics));
+      }
+      StripedSequenceWriter stripedSequenceWriter = new StripedSequenceWriter(storagePool,
+          deviceId, sessionListener, compressionEnabled
+              ? CompressedSequenceWriter::new : FileSequenceWriter::new);
+      return writeBehindPipeline.newWriter(MeteredSequenceWriter.wrap(
+          TracedSequenceWriter.wrap(stripedSequenceWriter, deviceId), deviceMetrics));
     };
   }
 
+  /**
+   * The storage roots that sessions are written to. The catalog stays in the data directory.
+   */
+  @Bean
+  public StoragePool storagePool() {
+    List<String> rootPaths = new ArrayList<>();
+    rootPaths.add(dataDirectoryPath);
+    rootPaths.addAll(extraDataDirectoryPaths);
+    return new StoragePool(rootPaths, storagePlacementPolicy, storageMinFreeBytes,
+        storageCheckIntervalMillis, storageMinBackoffMillis, storageMaxBackoffMillis);
+  }
+
+  /**
+   * The retention job, which is started if retention is enabled.
+   */
+  @Bean
+  public RetentionJob retentionJob(final SessionCatalog sessionCatalog) {
+    RetentionJob retentionJob = new RetentionJob(sessionCatalog, retentionPolicy,
+        deviceRetentionPolicies, retentionMaxBytesPerSecond);
+    if (retentionEnabled) {
+      retentionJob.start(retentionIntervalMillis);
+    }
+    return retentionJob;
+  }
+
+  /**
+   * The phrase index, which indexes the sessions as they are added to the session catalog, and the
+   * sessions that are not indexed yet on a background thread.
+   */
+  @Bean
+  public PhraseIndex phraseIndex(final SessionCatalog sessionCatalog) {
+    PhraseIndex phraseIndex =
+        new PhraseIndex(new File(dataDirectoryPath, phraseIndexFileName), sessionCatalog);
+    sessionCatalog.addListener(phraseIndex::add);
+    phraseIndex.startBackfill();
+    return phraseIndex;
+  }
+
+  /**
+   * Runs the flight recordings that are started on demand.
+   */
+  @Bean
+  public TraceRecorder traceRecorder() {
+    return new TraceRecorder();
+  }
+
+  @Bean
+  public LiveEventHub liveEventHub() {
+    return new LiveEventHub(liveEventRingCapacity);
+  }
+
+  @Bean
+  public ArchiverMetrics archiverMetrics() {
+    return new ArchiverMetrics();
+  }
+
+  @Bean
+  public SessionCatalog sessionCatalog() throws IOException {
+    return new SessionCatalog(new File(dataDirectoryPath, catalogFileName));
+  }
+
+  @Bean
+  public WriteBehindPipeline writeBehindPipeline() {
+    return new WriteBehindPipeline(writeBehindQueueCapacity, writeBehindMaxBatchSize,
+        writeBehindFlushPolicy, writeBehindFlushIntervalMillis, writeBehindBackpressurePolicy);
+  }
+
+  /**
+   * The wheel that runs the stop recording timeouts of all devices on a single thread.
+   */
+  @Bean
+  public TimingWheel timingWheel() {
+    return new TimingWheel(timingWheelTickMillis, timingWheelSize);
+  }
+
   @Bean
   public MidiSystemService midiSystemService() {
     return new MidiSystemService();
   }
+
+  private PreRollBuffer newPreRollBuffer() {
+    return preRollMillis > 0
+        ? new PreRollBuffer(preRollCapacity, TimeUnit.MILLISECONDS.toMicros(preRollMillis)) : null;
+  }
+
+  /**
+   * Creates the filters of a receiver, or returns null if no filters are enabled.
+   */
+  private MessageFilterChain newMessageFilterChain() {
+    List<MessageFilter> filters = new ArrayList<>();
+    if (dropRealTimeMessages) {
+      filters.add(new RealTimeMessageFilter());
+    }
+    if (aftertouchThinningIntervalMillis > 0) {
+      filters.add(new ThinningFilter(
+          TimeUnit.MILLISECONDS.toMicros(aftertouchThinningIntervalMillis)));
+    }
+    if (coalesceControllers) {
+      filters.add(new ControllerCoalescingFilter());
+    }
+    return filters.isEmpty() ? null : new MessageFilterChain(filters);
+  }
+
+  private SessionJournal openJournal(final String deviceId, final TimingWheel timingWheel) {
+    File journalFile =
+        new File(journalDirectoryPath, deviceId + SessionJournal.FILE_EXTENSION);
+    try {
+      return new SessionJournal(journalFile, journalCapacity, timingWheel,
+          journalForceIntervalMillis);
+    } catch (IOException e) {
+      logger.warn("Unable to open journal " + journalFile + ", recording without a journal", e);
+      return null;
+    }
+  }
 }
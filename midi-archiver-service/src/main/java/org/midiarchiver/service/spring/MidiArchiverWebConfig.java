@@ -0,0 +1,44 @@
+package org.midiarchiver.service.spring;
+
+import org.midiarchiver.service.web.DownloadThrottle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Configures the executor that streams downloads. Downloads run on a small pool of low priority
+ * threads and share a bandwidth limit, so a large export does not compete with recording.
+ */
+@Configuration
+public class MidiArchiverWebConfig extends WebMvcConfigurerAdapter {
+
+  private int downloadThreads = 2;
+  private int downloadQueueCapacity = 16;
+  private long downloadTimeoutMillis = 60 * 60 * 1000;
+  private long maxDownloadBytesPerSecond = 4 * 1024 * 1024;
+
+  @Override
+  public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(downloadExecutor());
+    configurer.setDefaultTimeout(downloadTimeoutMillis);
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor downloadExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(downloadThreads);
+    executor.setMaxPoolSize(downloadThreads);
+    executor.setQueueCapacity(downloadQueueCapacity);
+    executor.setThreadPriority(Thread.MIN_PRIORITY);
+    executor.setThreadNamePrefix("download-");
+    executor.setDaemon(true);
+    return executor;
+  }
+
+  @Bean
+  public DownloadThrottle downloadThrottle() {
+    return new DownloadThrottle(maxDownloadBytesPerSecond);
+  }
+}
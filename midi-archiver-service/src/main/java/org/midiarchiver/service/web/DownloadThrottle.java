@@ -0,0 +1,51 @@
+package org.midiarchiver.service.web;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies regions of archived files to download responses. The bytes are transferred in fixed size
+ * chunks with {@link FileChannel#transferTo}, so a download never holds more than a chunk in the
+ * heap. All downloads share a single rate limit so that they cannot saturate the storage that
+ * sessions are being recorded to.
+ */
+public class DownloadThrottle {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final RateLimiter rateLimiter;
+
+  /**
+   * @param maxBytesPerSecond the combined rate of all downloads, or 0 for no limit
+   */
+  public DownloadThrottle(final long maxBytesPerSecond) {
+    Preconditions.checkArgument(maxBytesPerSecond >= 0, "maxBytesPerSecond must not be negative");
+    this.rateLimiter = maxBytesPerSecond > 0 ? RateLimiter.create(maxBytesPerSecond) : null;
+  }
+
+  /**
+   * Writes length bytes of the file, starting at offset, to the target channel.
+   */
+  public void transfer(final File file, final long offset, final long length,
+                       final WritableByteChannel target) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long end = offset + length;
+      if (channel.size() < end) {
+        throw new IOException(file + " is shorter than expected");
+      }
+      long position = offset;
+      while (position < end) {
+        int chunkLength = (int) Math.min(CHUNK_SIZE, end - position);
+        if (rateLimiter != null) {
+          rateLimiter.acquire(chunkLength);
+        }
+        position += channel.transferTo(position, chunkLength, target);
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.midiarchiver.service.web;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.midiarchiver.core.trace.TraceRecorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Starts, downloads and stops a flight recording of the archiver with the {@link TraceRecorder}.
+ * The downloaded file can be opened with JDK Mission Control.
+ *
+ * <p>The endpoints are not authenticated and a recording shows the devices and the activity of the
+ * process, so they are only mapped when {@code midi-archiver.flight-recording.enabled} is true.
+ */
+@RestController
+@ConditionalOnProperty(prefix = "midi-archiver.flight-recording", name = "enabled")
+@RequestMapping("/flight-recording")
+public class FlightRecordingController {
+
+  private final TraceRecorder traceRecorder;
+
+  @Autowired
+  public FlightRecordingController(final TraceRecorder traceRecorder) {
+    this.traceRecorder = Preconditions.checkNotNull(traceRecorder);
+  }
+
+  /**
+   * Starts a recording that keeps the events of the given number of seconds.
+   */
+  @PostMapping
+  public ResponseEntity<Void> startRecording(
+      @RequestParam(defaultValue = TraceRecorder.DEFAULT_MAX_AGE_MILLIS / 1000 + "")
+          long maxAgeSeconds) throws IOException {
+    if (maxAgeSeconds <= 0) {
+      return ResponseEntity.badRequest().build();
+    }
+    return traceRecorder.start(TimeUnit.SECONDS.toMillis(maxAgeSeconds))
+        ? ResponseEntity.ok().build() : ResponseEntity.status(HttpStatus.CONFLICT).build();
+  }
+
+  /**
+   * Downloads the events recorded so far. The recording keeps running.
+   */
+  @GetMapping
+  public ResponseEntity<StreamingResponseBody> dumpRecording() throws IOException {
+    Path path = Files.createTempFile("midi-archiver", ".jfr");
+    try {
+      if (!traceRecorder.dump(path)) {
+        Files.delete(path);
+        return ResponseEntity.notFound().build();
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.delete(path);
+      throw e;
+    }
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .contentLength(Files.size(path))
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"midi-archiver.jfr\"")
+        .body(out -> {
+          try {
+            Files.copy(path, out);
+          } finally {
+            Files.delete(path);
+          }
+        });
+  }
+
+  @DeleteMapping
+  public ResponseEntity<Void> stopRecording() {
+    return traceRecorder.stop()
+        ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+  }
+}
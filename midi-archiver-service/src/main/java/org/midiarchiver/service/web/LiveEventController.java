@@ -0,0 +1,168 @@
+package org.midiarchiver.service.web;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
+import org.midiarchiver.core.LiveEventHub;
+import org.midiarchiver.core.LiveEventRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Streams the messages received from a device as server-sent events while they are played. Each
+ * monitor subscribes to the {@link LiveEventRing} of the device and is polled on a single low
+ * priority thread, which sends the messages published since the last poll as one event. A monitor that
+ * falls behind, for example on a slow connection, loses the oldest messages instead of holding up
+ * recording, and the number it lost is sent with the next batch.
+ */
+@RestController
+@RequestMapping("/live")
+public class LiveEventController {
+
+  private static final Logger logger = LoggerFactory.getLogger(LiveEventController.class);
+
+  public static final long POLL_INTERVAL_MILLIS = 20;
+  public static final int MAX_BATCH_SIZE = 512;
+  public static final long STREAM_TIMEOUT_MILLIS = 60 * 60 * 1000;
+
+  /**
+   * The messages polled from a ring at once, and the number of messages lost before them. Each
+   * message is an array of its timestamp in microseconds, status and data bytes.
+   */
+  public static class LiveEventBatch {
+
+    private final long lost;
+    private final List<long[]> events;
+
+    public LiveEventBatch(final long lost, final List<long[]> events) {
+      this.lost = lost;
+      this.events = events;
+    }
+
+    public long getLost() {
+      return lost;
+    }
+
+    public List<long[]> getEvents() {
+      return events;
+    }
+  }
+
+  private final LiveEventHub liveEventHub;
+  // Not a bean, so that scheduled tasks of the service are not run on it.
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("live-monitor").setDaemon(true)
+          .setPriority(Thread.MIN_PRIORITY).build());
+
+  @Autowired
+  public LiveEventController(final LiveEventHub liveEventHub) {
+    this.liveEventHub = Preconditions.checkNotNull(liveEventHub);
+  }
+
+  @PreDestroy
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the number of monitors of each device and the number of messages they have lost.
+   */
+  @GetMapping
+  public Map<String, Map<String, Long>> getDevices() {
+    Map<String, Map<String, Long>> devices = new LinkedHashMap<>();
+    for (String deviceId : liveEventHub.getDeviceIds()) {
+      LiveEventRing ring = liveEventHub.get(deviceId);
+      Map<String, Long> counters = new LinkedHashMap<>();
+      counters.put("subscribers", (long) ring.getSubscriberCount());
+      counters.put("lost", ring.getLostCount());
+      devices.put(deviceId, counters);
+    }
+    return devices;
+  }
+
+  @GetMapping("/{deviceId:.+}")
+  public ResponseEntity<SseEmitter> monitor(@PathVariable String deviceId) {
+    LiveEventRing ring = liveEventHub.get(deviceId);
+    if (ring == null) {
+      return ResponseEntity.notFound().build();
+    }
+    SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+    new Monitor(deviceId, ring.subscribe(), emitter).start();
+    return ResponseEntity.ok(emitter);
+  }
+
+  private class Monitor implements Runnable {
+
+    private final String deviceId;
+    private final LiveEventRing.Subscriber subscriber;
+    private final SseEmitter emitter;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile ScheduledFuture<?> future;
+    private long reportedLostCount;
+
+    Monitor(final String deviceId, final LiveEventRing.Subscriber subscriber,
+            final SseEmitter emitter) {
+      this.deviceId = deviceId;
+      this.subscriber = subscriber;
+      this.emitter = emitter;
+    }
+
+    void start() {
+      emitter.onCompletion(this::close);
+      emitter.onTimeout(this::close);
+      future = executor.scheduleAtFixedRate(this, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+      if (closed.get()) {
+        // The monitor was closed before it was scheduled.
+        future.cancel(false);
+        return;
+      }
+      List<long[]> events = new ArrayList<>();
+      subscriber.poll((timestampMicros, status, data1, data2) ->
+          events.add(new long[] {timestampMicros, status, data1, data2}), MAX_BATCH_SIZE);
+      long lostCount = subscriber.getLostCount();
+      if (events.isEmpty() && lostCount == reportedLostCount) {
+        return;
+      }
+      try {
+        emitter.send(new LiveEventBatch(lostCount - reportedLostCount, events),
+            MediaType.APPLICATION_JSON);
+        reportedLostCount = lostCount;
+      } catch (IOException | IllegalStateException e) {
+        logger.debug("Live monitor of " + deviceId + " disconnected: " + e.getMessage());
+        close();
+        emitter.completeWithError(e);
+      }
+    }
+
+    private void close() {
+      if (closed.compareAndSet(false, true)) {
+        if (future != null) {
+          future.cancel(false);
+        }
+        subscriber.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package org.midiarchiver.service.web;
+
+import com.google.common.base.Preconditions;
+import java.util.List;
+import org.midiarchiver.core.index.PhraseIndex;
+import org.midiarchiver.core.index.PhraseMatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Finds the sessions in which a phrase was played, in any key, using the {@link PhraseIndex}. The
+ * phrase is given as the keys of its notes, for example {@code ?notes=60,62,64,65,67}.
+ */
+@RestController
+@RequestMapping("/search")
+public class PhraseSearchController {
+
+  public static final int DEFAULT_LIMIT = 100;
+  public static final int MAX_LIMIT = 1000;
+
+  private final PhraseIndex phraseIndex;
+
+  @Autowired
+  public PhraseSearchController(final PhraseIndex phraseIndex) {
+    this.phraseIndex = Preconditions.checkNotNull(phraseIndex);
+  }
+
+  /**
+   * Returns the occurrences of a phrase of at least {@link PhraseIndex#GRAM_LENGTH} + 1 notes,
+   * ordered by session id.
+   */
+  @GetMapping
+  public ResponseEntity<List<PhraseMatch>> findPhrase(
+      @RequestParam int[] notes,
+      @RequestParam(required = false) String deviceId,
+      @RequestParam(defaultValue = DEFAULT_LIMIT + "") int limit) {
+    if (notes.length <= PhraseIndex.GRAM_LENGTH) {
+      return ResponseEntity.badRequest().build();
+    }
+    limit = Math.max(0, Math.min(MAX_LIMIT, limit));
+    return ResponseEntity.ok(phraseIndex.find(deviceId, notes, limit));
+  }
+}
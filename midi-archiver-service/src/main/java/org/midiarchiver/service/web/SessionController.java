@@ -0,0 +1,158 @@
+package org.midiarchiver.service.web;
+
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.midiarchiver.core.archive.CompressedMidiFile;
+import org.midiarchiver.core.archive.CompressedMidiFileReader;
+import org.midiarchiver.core.catalog.CatalogEntry;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Lists the sessions in the {@link SessionCatalog} and downloads them. Downloads are streamed from
+ * the archived files on the asynchronous request executor, so they do not hold the files in memory
+ * or occupy a request thread. Compressed sessions are decompressed in memory, since sessions are
+ * small, and downloaded as standard midi files.
+ */
+@RestController
+@RequestMapping("/sessions")
+public class SessionController {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionController.class);
+
+  public static final int DEFAULT_LIMIT = 100;
+  public static final int MAX_LIMIT = 1000;
+
+  private static final MediaType MIDI_MEDIA_TYPE = MediaType.parseMediaType("audio/midi");
+  private static final MediaType ZIP_MEDIA_TYPE = MediaType.parseMediaType("application/zip");
+
+  private final SessionCatalog sessionCatalog;
+  private final DownloadThrottle downloadThrottle;
+
+  @Autowired
+  public SessionController(final SessionCatalog sessionCatalog,
+                           final DownloadThrottle downloadThrottle) {
+    this.sessionCatalog = Preconditions.checkNotNull(sessionCatalog);
+    this.downloadThrottle = Preconditions.checkNotNull(downloadThrottle);
+  }
+
+  /**
+   * Returns a page of the sessions that overlap the given time range, ordered by start time.
+   * Times are in milliseconds since the epoch.
+   */
+  @GetMapping
+  public SessionPage listSessions(
+      @RequestParam(required = false) String deviceId,
+      @RequestParam(defaultValue = Long.MIN_VALUE + "") long from,
+      @RequestParam(defaultValue = Long.MAX_VALUE + "") long to,
+      @RequestParam(defaultValue = "0") int offset,
+      @RequestParam(defaultValue = DEFAULT_LIMIT + "") int limit) {
+    offset = Math.max(0, offset);
+    limit = Math.max(0, Math.min(MAX_LIMIT, limit));
+    return new SessionPage(sessionCatalog.count(deviceId, from, to), offset, limit,
+        sessionCatalog.find(deviceId, from, to, offset, limit));
+  }
+
+  @GetMapping("/devices")
+  public List<String> getDeviceIds() {
+    return sessionCatalog.getDeviceIds();
+  }
+
+  @GetMapping("/{id}")
+  public ResponseEntity<CatalogEntry> getSession(@PathVariable int id) {
+    CatalogEntry entry = sessionCatalog.getEntry(id);
+    return entry != null ? ResponseEntity.ok(entry) : ResponseEntity.notFound().build();
+  }
+
+  /**
+   * Downloads the midi file of a session.
+   */
+  @GetMapping("/{id}/midi")
+  public ResponseEntity<StreamingResponseBody> downloadSession(@PathVariable int id) {
+    CatalogEntry entry = sessionCatalog.getEntry(id);
+    if (entry == null || !new File(entry.getLocation()).isFile()) {
+      return ResponseEntity.notFound().build();
+    }
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+        .contentType(MIDI_MEDIA_TYPE)
+        .header(HttpHeaders.CONTENT_DISPOSITION,
+            "attachment; filename=\"" + getFileName(entry) + "\"");
+    if (!CompressedMidiFile.isCompressed(entry.getLocation())) {
+      // The length of a compressed session is not that of the midi file.
+      response.contentLength(entry.getLength());
+    }
+    return response.body(out -> writeSession(entry, out));
+  }
+
+  /**
+   * Downloads the sessions that overlap the given time range as a zip file. The zip file is
+   * written while it is downloaded, so its size is not known in advance.
+   */
+  @GetMapping("/export")
+  public ResponseEntity<StreamingResponseBody> exportSessions(
+      @RequestParam(required = false) String deviceId,
+      @RequestParam(defaultValue = Long.MIN_VALUE + "") long from,
+      @RequestParam(defaultValue = Long.MAX_VALUE + "") long to) {
+    List<CatalogEntry> entries = sessionCatalog.find(deviceId, from, to, 0, Integer.MAX_VALUE);
+    return ResponseEntity.ok()
+        .contentType(ZIP_MEDIA_TYPE)
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"sessions.zip\"")
+        .body(out -> {
+          ZipOutputStream zip = new ZipOutputStream(out);
+          // Midi files are small and compress well, so favor speed on the capture machine.
+          zip.setLevel(Deflater.BEST_SPEED);
+          for (CatalogEntry entry : entries) {
+            addToZip(zip, entry);
+          }
+          zip.finish();
+        });
+  }
+
+  private void addToZip(final ZipOutputStream zip, final CatalogEntry entry) throws IOException {
+    File file = new File(entry.getLocation());
+    if (!file.isFile()) {
+      logger.warn("Skipping session " + entry.getId() + ", " + file + " does not exist");
+      return;
+    }
+    ZipEntry zipEntry = new ZipEntry(entry.getDeviceId() + "/" + getFileName(entry));
+    zipEntry.setTime(entry.getStartTimeMillis());
+    zip.putNextEntry(zipEntry);
+    writeSession(entry, zip);
+    zip.closeEntry();
+  }
+
+  private void writeSession(final CatalogEntry entry, final OutputStream out) throws IOException {
+    File file = new File(entry.getLocation());
+    if (CompressedMidiFile.isCompressed(entry.getLocation())) {
+      out.write(CompressedMidiFileReader.read(file));
+    } else {
+      downloadThrottle.transfer(file, entry.getOffset(), entry.getLength(),
+          Channels.newChannel(out));
+    }
+  }
+
+  private static String getFileName(final CatalogEntry entry) {
+    return new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(new Date(entry.getStartTimeMillis()))
+        + "-" + entry.getId() + ".mid";
+  }
+}
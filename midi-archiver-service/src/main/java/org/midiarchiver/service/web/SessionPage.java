@@ -0,0 +1,38 @@
+package org.midiarchiver.service.web;
+
+import java.util.List;
+import org.midiarchiver.core.catalog.CatalogEntry;
+
+/**
+ * A page of the sessions that match a query, along with the total number of matching sessions.
+ */
+public class SessionPage {
+
+  private final int total;
+  private final int offset;
+  private final int limit;
+  private final List<CatalogEntry> sessions;
+
+  public SessionPage(int total, int offset, int limit, List<CatalogEntry> sessions) {
+    this.total = total;
+    this.offset = offset;
+    this.limit = limit;
+    this.sessions = sessions;
+  }
+
+  public int getTotal() {
+    return total;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public List<CatalogEntry> getSessions() {
+    return sessions;
+  }
+}
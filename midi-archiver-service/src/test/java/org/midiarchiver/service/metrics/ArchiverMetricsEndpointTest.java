@@ -0,0 +1,63 @@
+package org.midiarchiver.service.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.midiarchiver.core.metrics.ArchiverMetrics;
+import org.midiarchiver.core.metrics.DeviceMetrics;
+import org.springframework.boot.actuate.endpoint.mvc.EndpointMvcAdapter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Unit test for {@link ArchiverMetricsEndpoint}.
+ */
+public class ArchiverMetricsEndpointTest {
+
+  private final ArchiverMetrics archiverMetrics = new ArchiverMetrics();
+  private ArchiverMetricsEndpoint endpoint;
+
+  @Before
+  public void setUp() {
+    endpoint = new ArchiverMetricsEndpoint(archiverMetrics);
+    DeviceMetrics deviceMetrics = archiverMetrics.getDeviceMetrics("device1");
+    deviceMetrics.recordSend(1000, 1100, 2000);
+    deviceMetrics.recordSend(5000, 5000, 5500);
+    deviceMetrics.recordSession(60000);
+    deviceMetrics.recordWrite(20000);
+    deviceMetrics.recordAppend(3000);
+    deviceMetrics.recordAppend(4000);
+    deviceMetrics.recordBytesWritten(1234);
+    archiverMetrics.recordDeviceScan(300);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testInvoke() {
+    Map<String, Object> result = endpoint.invoke();
+    Map<String, Object> device =
+        (Map<String, Object>) ((Map<String, Object>) result.get("devices")).get("device1");
+    assertEquals(2L, device.get("messageCount"));
+    assertEquals(1L, device.get("sessionCount"));
+    assertEquals(1234L, device.get("bytesWritten"));
+    assertEquals(1000L, ((Map<String, Object>) device.get("sendLatencyNanos")).get("max"));
+    assertEquals(100L, ((Map<String, Object>) device.get("lockWaitNanos")).get("max"));
+    assertEquals(1L, ((Map<String, Object>) result.get("deviceScanNanos")).get("count"));
+  }
+
+  @Test
+  public void testGet() throws Exception {
+    MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new EndpointMvcAdapter(endpoint)).build();
+    mockMvc.perform(get("/archiver"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.devices.device1.sessionCount").value(1))
+        .andExpect(jsonPath("$.devices.device1.sessionDurationMillis.p99").value(60000))
+        .andExpect(jsonPath("$.devices.device1.writeLatencyNanos.count").value(1))
+        .andExpect(jsonPath("$.devices.device1.appendLatencyNanos.count").value(2));
+  }
+}
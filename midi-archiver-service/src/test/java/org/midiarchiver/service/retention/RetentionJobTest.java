@@ -0,0 +1,100 @@
+package org.midiarchiver.service.retention;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+import org.midiarchiver.core.archive.CompressedMidiFileReader;
+import org.midiarchiver.core.catalog.CatalogEntry;
+import org.midiarchiver.core.catalog.SessionCatalog;
+
+/**
+ * Unit test for {@link RetentionJob}.
+ */
+public class RetentionJobTest {
+
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private SessionCatalog sessionCatalog;
+  private final MidiEventBuffer events = new MidiEventBuffer();
+
+  @Before
+  public void setUp() throws Exception {
+    sessionCatalog = new SessionCatalog(temporaryFolder.newFile("sessions.catalog"));
+    long nowMillis = System.currentTimeMillis();
+    for (String deviceId : new String[] {"a", "b"}) {
+      FileSequenceWriter writer = new FileSequenceWriter(
+          temporaryFolder.getRoot().getPath() + File.separator + deviceId,
+          sessionCatalog.newListener(deviceId));
+      // Sessions of 100, 10 and 0 days ago.
+      for (int age : new int[] {100, 10, 0}) {
+        writeSession(writer, nowMillis - age * DAY_MILLIS);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    sessionCatalog.close();
+  }
+
+  @Test
+  public void testRun_compressesAndDeletesOldSessions() throws Exception {
+    CatalogEntry recentSession = sessionCatalog.getEntry(1);
+    CatalogEntry deletedSession = sessionCatalog.getEntry(3);
+    try (RetentionJob retentionJob = new RetentionJob(sessionCatalog, new RetentionPolicy(5, 0),
+        Collections.singletonMap("b", new RetentionPolicy(0, 50)), 1024 * 1024)) {
+      retentionJob.run();
+
+      // Device a compresses the sessions of 100 and 10 days ago.
+      assertEquals(2, retentionJob.getCompressedSessionCount());
+      CatalogEntry compressed = sessionCatalog.getEntry(recentSession.getId());
+      assertTrue(compressed.getLocation().endsWith(".midz"));
+      assertEquals(new File(compressed.getLocation()).length(), compressed.getLength());
+      assertFalse(new File(recentSession.getLocation()).exists());
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      MidiFileEncoder.write(events, expected);
+      assertArrayEquals(expected.toByteArray(),
+          CompressedMidiFileReader.read(new File(compressed.getLocation())));
+      assertTrue(sessionCatalog.getEntry(2).getLocation().endsWith(".mid"));
+
+      // Device b deletes the session of 100 days ago, and its directory.
+      assertEquals(1, retentionJob.getDeletedSessionCount());
+      assertNull(sessionCatalog.getEntry(3));
+      assertFalse(new File(deletedSession.getLocation()).getParentFile().exists());
+      assertEquals(5, sessionCatalog.size());
+
+      // Nothing is left to do.
+      retentionJob.run();
+      assertEquals(2, retentionJob.getCompressedSessionCount());
+      assertEquals(1, retentionJob.getDeletedSessionCount());
+    }
+  }
+
+  private void writeSession(final FileSequenceWriter writer, final long startTimeMillis)
+      throws Exception {
+    events.clear();
+    events.setStartTimeMillis(startTimeMillis);
+    for (int i = 0; i < 10; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 100000L);
+    }
+    writer.write(events);
+  }
+}
@@ -0,0 +1,61 @@
+package org.midiarchiver.service.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.midiarchiver.core.trace.TraceRecorder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Unit test for {@link FlightRecordingController}.
+ */
+public class FlightRecordingControllerTest {
+
+  private final TraceRecorder traceRecorder = new TraceRecorder();
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() {
+    mockMvc = MockMvcBuilders.standaloneSetup(new FlightRecordingController(traceRecorder))
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    traceRecorder.close();
+  }
+
+  @Test
+  public void testRecording() throws Exception {
+    mockMvc.perform(get("/flight-recording")).andExpect(status().isNotFound());
+    mockMvc.perform(post("/flight-recording").param("maxAgeSeconds", "0"))
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(post("/flight-recording").param("maxAgeSeconds", "60"))
+        .andExpect(status().isOk());
+    mockMvc.perform(post("/flight-recording")).andExpect(status().isConflict());
+
+    MvcResult result = mockMvc.perform(get("/flight-recording"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    result.getAsyncResult();
+    assertEquals("application/octet-stream", result.getResponse().getContentType());
+    byte[] recording = result.getResponse().getContentAsByteArray();
+    assertTrue(recording.length > 4);
+    assertEquals("FLR", new String(recording, 0, 3, StandardCharsets.US_ASCII));
+    assertTrue(traceRecorder.isRunning());
+
+    mockMvc.perform(delete("/flight-recording")).andExpect(status().isOk());
+    mockMvc.perform(delete("/flight-recording")).andExpect(status().isNotFound());
+  }
+}
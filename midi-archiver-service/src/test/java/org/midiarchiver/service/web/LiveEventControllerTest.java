@@ -0,0 +1,72 @@
+package org.midiarchiver.service.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.midiarchiver.core.LiveEventHub;
+import org.midiarchiver.core.LiveEventRing;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Unit test for {@link LiveEventController}.
+ */
+public class LiveEventControllerTest {
+
+  private LiveEventHub liveEventHub;
+  private LiveEventController liveEventController;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() {
+    liveEventHub = new LiveEventHub(16);
+    liveEventController = new LiveEventController(liveEventHub);
+    mockMvc = MockMvcBuilders.standaloneSetup(liveEventController).build();
+  }
+
+  @After
+  public void tearDown() {
+    liveEventController.close();
+  }
+
+  @Test
+  public void testGetDevices() throws Exception {
+    liveEventHub.getOrCreate("a").subscribe();
+    liveEventHub.getOrCreate("b");
+    mockMvc.perform(get("/live"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.a.subscribers").value(1))
+        .andExpect(jsonPath("$.b.subscribers").value(0))
+        .andExpect(jsonPath("$.b.lost").value(0));
+  }
+
+  @Test
+  public void testMonitor_unknownDevice() throws Exception {
+    mockMvc.perform(get("/live/c")).andExpect(status().isNotFound());
+  }
+
+  @Test(timeout = 10000)
+  public void testMonitor_streamsPublishedMessages() throws Exception {
+    LiveEventRing ring = liveEventHub.getOrCreate("a");
+    MockHttpServletResponse response = mockMvc.perform(get("/live/a"))
+        .andExpect(request().asyncStarted())
+        .andReturn().getResponse();
+    assertEquals(1, ring.getSubscriberCount());
+
+    ring.publish(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 1000);
+    while (!response.getContentAsString().contains("events")) {
+      Thread.sleep(LiveEventController.POLL_INTERVAL_MILLIS);
+    }
+    assertTrue(response.getContentAsString(),
+        response.getContentAsString().contains("{\"lost\":0,\"events\":[[1000,144,60,100]]}"));
+  }
+}
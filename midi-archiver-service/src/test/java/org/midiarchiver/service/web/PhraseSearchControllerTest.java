@@ -0,0 +1,82 @@
+package org.midiarchiver.service.web;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.File;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.midiarchiver.core.index.PhraseIndex;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Unit test for {@link PhraseSearchController}.
+ */
+public class PhraseSearchControllerTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private SessionCatalog sessionCatalog;
+  private PhraseIndex phraseIndex;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() throws Exception {
+    sessionCatalog = new SessionCatalog(temporaryFolder.newFile("sessions.catalog"));
+    phraseIndex = new PhraseIndex(
+        new File(temporaryFolder.getRoot(), "sessions.index"), sessionCatalog);
+    sessionCatalog.addListener(phraseIndex::add);
+    mockMvc = MockMvcBuilders.standaloneSetup(new PhraseSearchController(phraseIndex)).build();
+
+    FileSequenceWriter writer = new FileSequenceWriter(
+        temporaryFolder.getRoot().getPath() + File.separator + "a", sessionCatalog.newListener("a"));
+    MidiEventBuffer events = new MidiEventBuffer();
+    for (int session = 0; session < 2; session++) {
+      events.clear();
+      events.setStartTimeMillis(START_TIME_MILLIS + session * 60000L);
+      // A scale starting on a different key in each session.
+      for (int i = 0; i < 8; i++) {
+        events.appendShortMessage(ShortMessage.NOTE_ON, 60 + session * 2 + i, 100, 3,
+            (session + i) * 100000L);
+      }
+      writer.write(events);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    phraseIndex.close();
+    sessionCatalog.close();
+  }
+
+  @Test
+  public void testFindPhrase() throws Exception {
+    mockMvc.perform(get("/search").param("notes", "40,41,42,43,44").param("limit", "3"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(3))
+        .andExpect(jsonPath("$[0].session.id").value(0))
+        .andExpect(jsonPath("$[0].offsetMillis").value(0))
+        .andExpect(jsonPath("$[1].offsetMillis").value(100));
+    mockMvc.perform(get("/search").param("notes", "60,62,64,65,67"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(0));
+  }
+
+  @Test
+  public void testFindPhrase_tooShort() throws Exception {
+    mockMvc.perform(get("/search").param("notes", "60,62,64"))
+        .andExpect(status().isBadRequest());
+  }
+}
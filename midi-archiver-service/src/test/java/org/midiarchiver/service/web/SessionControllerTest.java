@@ -0,0 +1,150 @@
+package org.midiarchiver.service.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.sound.midi.ShortMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.midiarchiver.core.FileSequenceWriter;
+import org.midiarchiver.core.MidiEventBuffer;
+import org.midiarchiver.core.MidiFileEncoder;
+import org.midiarchiver.core.archive.CompressedSequenceWriter;
+import org.midiarchiver.core.catalog.CatalogEntry;
+import org.midiarchiver.core.catalog.SessionCatalog;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Unit test for {@link SessionController}.
+ */
+public class SessionControllerTest {
+
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private SessionCatalog sessionCatalog;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() throws Exception {
+    sessionCatalog = new SessionCatalog(temporaryFolder.newFile("sessions.catalog"));
+    mockMvc = MockMvcBuilders.standaloneSetup(
+        new SessionController(sessionCatalog, new DownloadThrottle(0))).build();
+
+    MidiEventBuffer events = new MidiEventBuffer();
+    for (String deviceId : new String[] {"a", "b"}) {
+      FileSequenceWriter writer = new FileSequenceWriter(
+          temporaryFolder.getRoot().getPath() + File.separator + deviceId,
+          sessionCatalog.newListener(deviceId));
+      for (int session = 0; session < 3; session++) {
+        events.clear();
+        events.setStartTimeMillis(START_TIME_MILLIS + session * 60000L);
+        for (int i = 0; i < 10; i++) {
+          events.appendShortMessage(ShortMessage.NOTE_ON, 60 + session, 100, 3, i * 100000L);
+        }
+        writer.write(events);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    sessionCatalog.close();
+  }
+
+  @Test
+  public void testListSessions() throws Exception {
+    mockMvc.perform(get("/sessions").param("deviceId", "a")
+        .param("from", Long.toString(START_TIME_MILLIS + 30000)).param("limit", "1"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.total").value(2))
+        .andExpect(jsonPath("$.sessions.length()").value(1))
+        .andExpect(jsonPath("$.sessions[0].startTimeMillis").value(START_TIME_MILLIS + 60000))
+        .andExpect(jsonPath("$.sessions[0].noteCount").value(10));
+  }
+
+  @Test
+  public void testDownloadSession() throws Exception {
+    CatalogEntry entry = sessionCatalog.getEntry(4);
+    MvcResult result = mockMvc.perform(get("/sessions/4/midi"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    // Wait for the body to be streamed.
+    result.getAsyncResult();
+
+    byte[] expected = Files.readAllBytes(new File(entry.getLocation()).toPath());
+    assertEquals("audio/midi", result.getResponse().getContentType());
+    assertArrayEquals(expected, result.getResponse().getContentAsByteArray());
+  }
+
+  @Test
+  public void testDownloadSession_compressed() throws Exception {
+    MidiEventBuffer events = new MidiEventBuffer();
+    events.setStartTimeMillis(START_TIME_MILLIS);
+    for (int i = 0; i < 10; i++) {
+      events.appendShortMessage(ShortMessage.NOTE_ON, 60, 100, 3, i * 100000L);
+    }
+    new CompressedSequenceWriter(temporaryFolder.getRoot().getPath() + File.separator + "c",
+        sessionCatalog.newListener("c")).write(events);
+    MvcResult result = mockMvc.perform(get("/sessions/6/midi"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    result.getAsyncResult();
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    MidiFileEncoder.write(events, expected);
+    assertArrayEquals(expected.toByteArray(), result.getResponse().getContentAsByteArray());
+  }
+
+  @Test
+  public void testDownloadSession_notFound() throws Exception {
+    mockMvc.perform(get("/sessions/100/midi")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void testExportSessions() throws Exception {
+    MvcResult result = mockMvc.perform(get("/sessions/export")
+        .param("from", Long.toString(START_TIME_MILLIS + 60000)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    result.getAsyncResult();
+    byte[] zip = result.getResponse().getContentAsByteArray();
+
+    List<Integer> ids = new ArrayList<>();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      for (ZipEntry zipEntry = in.getNextEntry(); zipEntry != null; zipEntry = in.getNextEntry()) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int count = in.read(buffer); count > 0; count = in.read(buffer)) {
+          bytes.write(buffer, 0, count);
+        }
+        int id = Integer.parseInt(zipEntry.getName().replaceAll(".*-(\\d+)\\.mid", "$1"));
+        ids.add(id);
+        assertArrayEquals(Files.readAllBytes(
+            new File(sessionCatalog.getEntry(id).getLocation()).toPath()), bytes.toByteArray());
+      }
+    }
+    // Sessions 1 and 2 of both devices, ordered by start time.
+    assertEquals(Arrays.asList(1, 4, 2, 5), ids);
+  }
+}